@@ -0,0 +1,188 @@
+package jonathan.mason.birdcalllibrarian.Database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark of SpatialQuery, over a synthetic library of 100,000 birdcalls, half
+ * spread over the globe and half clustered around London, comparing the Geohash index with
+ * reading the location of every birdcall, which is all that was possible before it.
+ * <p>Timings are written to the log, tagged "SpatialQueryBenchmark".</p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class SpatialQueryBenchmark {
+    private static final String TAG = SpatialQueryBenchmark.class.getSimpleName();
+    private static final int BIRDCALL_COUNT = 100000;
+    private static final int REPEATS = 20;
+    private static final int LIMIT = 50;
+    private static final double METRES_PER_DEGREE = 111195;
+
+    private BirdcallDatabase mDatabase;
+
+    /**
+     * Create in-memory database of synthetic birdcalls.
+     */
+    @Before
+    public void createDatabase() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDatabase = Room.inMemoryDatabaseBuilder(context, BirdcallDatabase.class).build();
+
+        Random random = new Random(1);
+        mDatabase.runInTransaction(new Runnable() {
+            /**
+             * Task to be executed within transaction.
+             */
+            @Override
+            public void run() {
+                for (int i = 0; i < BIRDCALL_COUNT; i++) {
+                    double latitude;
+                    double longitude;
+                    if (i % 2 == 0) {
+                        latitude = random.nextDouble() * 180 - 90;
+                        longitude = random.nextDouble() * 360 - 180;
+                    }
+                    else {
+                        latitude = 51.5 + random.nextGaussian() * 0.3;
+                        longitude = -0.1 + random.nextGaussian() * 0.5;
+                    }
+                    mDatabase.DAO().insert(new Birdcall("Species " + (i % 200), "Birdcall " + i, new Date(i * 60000L), longitude, latitude, null));
+                }
+            }
+        });
+    }
+
+    /**
+     * Close database.
+     */
+    @After
+    public void closeDatabase() {
+        mDatabase.close();
+    }
+
+    /**
+     * Benchmark birdcalls within 2km of Hyde Park, checking they match a full scan.
+     */
+    @Test
+    public void withinRadius() {
+        double latitude = 51.5073;
+        double longitude = -0.1657;
+        double radius = 2000;
+
+        List<BirdcallSummary> birdcalls = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++)
+            birdcalls = mDatabase.DAO().findSummaries(SpatialQuery.withinRadius(latitude, longitude, radius, LIMIT));
+        long indexedNanos = (System.nanoTime() - start) / REPEATS;
+
+        List<Integer> expected = null;
+        start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++)
+            expected = this.scanWithinRadius(latitude, longitude, radius);
+        long scanNanos = (System.nanoTime() - start) / REPEATS;
+
+        Log.i(TAG, "withinRadius: index " + indexedNanos / 1000 + "us, full scan " + scanNanos / 1000 + "us.");
+        assertEquals(expected, getIds(birdcalls));
+    }
+
+    /**
+     * Benchmark birdcalls within boxes of increasing size around London.
+     */
+    @Test
+    public void inBox() {
+        for (double size : new double[] { 0.01, 0.1, 1, 10 }) {
+            List<BirdcallSummary> birdcalls = null;
+            long start = System.nanoTime();
+            for (int i = 0; i < REPEATS; i++)
+                birdcalls = mDatabase.DAO().findSummaries(SpatialQuery.inBox(51.5 - size / 2, -0.1 - size / 2, 51.5 + size / 2, -0.1 + size / 2, LIMIT));
+            long indexedNanos = (System.nanoTime() - start) / REPEATS;
+
+            Log.i(TAG, "inBox: " + size + " degrees, " + birdcalls.size() + " birdcalls, index " + indexedNanos / 1000 + "us.");
+            assertFalse(birdcalls.isEmpty());
+        }
+    }
+
+    /**
+     * Check boxes crossing the 180th meridian find birdcalls either side of it.
+     */
+    @Test
+    public void inBoxCrossingMeridian() {
+        mDatabase.DAO().insert(new Birdcall(null, "West", new Date(), 179.99, -17.0, null));
+        mDatabase.DAO().insert(new Birdcall(null, "East", new Date(), -179.99, -17.0, null));
+
+        List<String> titles = new ArrayList<>();
+        for (BirdcallSummary birdcall : mDatabase.DAO().findSummaries(SpatialQuery.inBox(-17.01, 179.9, -16.99, -179.9, LIMIT)))
+            titles.add(birdcall.getTitle());
+        assertTrue(titles.contains("West"));
+        assertTrue(titles.contains("East"));
+    }
+
+    /**
+     * Find birdcalls within radius by reading location of every birdcall and sorting by
+     * distance in Java, as SpatialQuery does in SQL.
+     * @param latitude Latitude of location in degrees.
+     * @param longitude Longitude of location in degrees.
+     * @param radius Radius in metres.
+     * @return IDs of nearest birdcalls, nearest first.
+     */
+    private List<Integer> scanWithinRadius(double latitude, double longitude, double radius) {
+        double cosine = Math.cos(Math.toRadians(latitude));
+        double radiusDegrees = radius / METRES_PER_DEGREE;
+        List<double[]> found = new ArrayList<>();
+        try (Cursor cursor = mDatabase.query("SELECT Id, Latitude, Longitude FROM Birdcalls", null)) {
+            while (cursor.moveToNext()) {
+                double y = cursor.getDouble(1) - latitude;
+                double x = (cursor.getDouble(2) - longitude) * cosine;
+                double distance = y * y + x * x;
+                if (distance <= radiusDegrees * radiusDegrees)
+                    found.add(new double[] { distance, cursor.getInt(0) });
+            }
+        }
+        found.sort(new Comparator<double[]>() {
+            /**
+             * Compare birdcalls by distance, then ID, as SpatialQuery does.
+             * @param a Distance and ID of first birdcall.
+             * @param b Distance and ID of second birdcall.
+             * @return Negative if first is nearer, positive if further, otherwise 0.
+             */
+            @Override
+            public int compare(double[] a, double[] b) {
+                return (a[0] != b[0]) ? Double.compare(a[0], b[0]) : Double.compare(a[1], b[1]);
+            }
+        });
+
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < Math.min(LIMIT, found.size()); i++)
+            ids.add((int)found.get(i)[1]);
+        return ids;
+    }
+
+    /**
+     * Get IDs of supplied birdcalls.
+     * @param birdcalls Summaries of birdcalls.
+     * @return IDs, in same order.
+     */
+    private static List<Integer> getIds(List<BirdcallSummary> birdcalls) {
+        List<Integer> ids = new ArrayList<>();
+        for (BirdcallSummary birdcall : birdcalls)
+            ids.add(birdcall.getId());
+        return ids;
+    }
+}
@@ -0,0 +1,129 @@
+package jonathan.mason.birdcalllibrarian.Database;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jonathan.mason.birdcalllibrarian.Analysis.WaveformPeaks;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark of reading the list of birdcalls whilst back-to-back saves are
+ * written, as when a long recording is saved in segments, comparing write-ahead logging, with
+ * which the database is built, with the rollback journal used before it.
+ * <p>Timings are written to the log, tagged "WalConcurrencyBenchmark".</p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class WalConcurrencyBenchmark {
+    private static final String TAG = WalConcurrencyBenchmark.class.getSimpleName();
+    private static final String DATABASE_NAME = "WalConcurrencyBenchmark";
+    private static final int BIRDCALL_COUNT = 10000;
+    private static final int SAVE_COUNT = 20;
+    private static final int BIRDCALLS_PER_SAVE = 500;
+    private static final int PAGE_SIZE = 40;
+
+    /**
+     * Benchmark reads with write-ahead logging, checking that none waits as long as the
+     * longest save.
+     */
+    @Test
+    public void writeAheadLogging() throws InterruptedException {
+        long[] timings = this.benchmark(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING);
+        long[] rollbackTimings = this.benchmark(RoomDatabase.JournalMode.TRUNCATE);
+
+        Log.i(TAG, "writeAheadLogging: longest read " + timings[0] / 1000 + "us against rollback journal " + rollbackTimings[0] / 1000 + "us, longest save " + timings[1] / 1000 + "us.");
+        assertTrue(timings[0] < timings[1]);
+    }
+
+    /**
+     * Save birdcalls back-to-back on one thread, whilst reading first page of list of
+     * birdcalls repeatedly on this one.
+     * @param journalMode Journal mode of database.
+     * @return Longest read and longest save, in nanoseconds.
+     */
+    private long[] benchmark(RoomDatabase.JournalMode journalMode) throws InterruptedException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        BirdcallDatabase database = BirdcallDatabase.configure(Room.databaseBuilder(context, BirdcallDatabase.class, DATABASE_NAME))
+                .setJournalMode(journalMode)
+                .build();
+        try {
+            database.runInTransaction(new Runnable() {
+                /**
+                 * Task to be executed within transaction.
+                 */
+                @Override
+                public void run() {
+                    for (int i = 0; i < BIRDCALL_COUNT; i++)
+                        database.DAO().insert(createBirdcall(i));
+                }
+            });
+
+            AtomicLong longestSave = new AtomicLong();
+            Thread writer = new Thread(new Runnable() {
+                /**
+                 * Task to be executed on writer thread.
+                 */
+                @Override
+                public void run() {
+                    for (int save = 0; save < SAVE_COUNT; save++) {
+                        int first = BIRDCALL_COUNT + save * BIRDCALLS_PER_SAVE;
+                        long start = System.nanoTime();
+                        database.runInTransaction(new Runnable() {
+                            /**
+                             * Task to be executed within transaction.
+                             */
+                            @Override
+                            public void run() {
+                                for (int i = first; i < first + BIRDCALLS_PER_SAVE; i++)
+                                    database.DAO().insert(createBirdcall(i));
+                            }
+                        });
+                        longestSave.set(Math.max(longestSave.get(), System.nanoTime() - start));
+                    }
+                }
+            });
+
+            // Read first page once, so connection is open before timings start.
+            database.DAO().loadSummaries(PAGE_SIZE);
+            writer.start();
+            long longestRead = 0;
+            int readCount = 0;
+            while (writer.isAlive()) {
+                long start = System.nanoTime();
+                assertEquals(PAGE_SIZE, database.DAO().loadSummaries(PAGE_SIZE).size());
+                longestRead = Math.max(longestRead, System.nanoTime() - start);
+                readCount++;
+            }
+            writer.join();
+
+            Log.i(TAG, "benchmark: " + journalMode + ", " + readCount + " reads, longest " + longestRead / 1000 + "us, longest save " + longestSave.get() / 1000 + "us.");
+            return new long[] { longestRead, longestSave.get() };
+        } finally {
+            database.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Create synthetic birdcall, with a summary of its waveform, as saved birdcalls have.
+     * @param index Index of birdcall.
+     * @return Birdcall.
+     */
+    private static Birdcall createBirdcall(int index) {
+        Birdcall birdcall = new Birdcall("Species " + (index % 200), "Birdcall " + index, new Date(index * 60000L), -0.1, 51.5, "Notes about birdcall " + index);
+        birdcall.setPeaks(new byte[2 * WaveformPeaks.PEAK_COUNT]);
+        return birdcall;
+    }
+}
@@ -0,0 +1,275 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+import jonathan.mason.birdcalllibrarian.Capture.PcmCaptureEngine;
+
+/**
+ * Streaming detector of acoustic activity, such as birdsong, tapping the live frames of a
+ * PcmCaptureEngine.
+ * <p>Each frame is windowed and transformed, then judged on three measures: energy within
+ * the band of birdsong, relative to a noise floor tracked whilst quiet; the proportion of
+ * all energy falling within that band, to ignore wind, traffic and handling noise; and
+ * spectral flux within that band, since calls start abruptly, whereas steady noise does
+ * not. Activity starts after a few consecutive frames pass, and ends once none has passed
+ * for the hang time.</p>
+ * <p>Floors are seeded from the average of a warm-up of frames, ignoring frames of digital
+ * silence, which AudioRecord commonly delivers when starting, and which would otherwise leave
+ * every later frame judged loud.</p>
+ * <p>Every buffer is allocated up front and each frame costs a fixed amount of work, so the
+ * detector can run on the capture thread without allocating or holding it up.</p>
+ */
+public class ActivityDetector implements PcmCaptureEngine.FrameListener {
+    /**
+     * Default band of birdsong, in hertz.
+     */
+    public static final float DEFAULT_LOW_HZ = 1000;
+    public static final float DEFAULT_HIGH_HZ = 10000;
+
+    /**
+     * Number of samples in each frame analysed, approximately 23 milliseconds at default
+     * sample rate.
+     */
+    public static final int DEFAULT_FRAME_SIZE = 1024;
+
+    /**
+     * Decibels by which energy within band must exceed noise floor.
+     */
+    private static final float ENERGY_THRESHOLD_DB = 12;
+
+    /**
+     * Minimum proportion of energy of frame falling within band.
+     */
+    private static final float BAND_RATIO_THRESHOLD = 0.5f;
+
+    /**
+     * Factor by which spectral flux must exceed its typical value whilst quiet.
+     */
+    private static final float FLUX_THRESHOLD_FACTOR = 2.5f;
+
+    /**
+     * Number of consecutive frames which must pass before activity starts.
+     */
+    private static final int ONSET_FRAMES = 3;
+
+    /**
+     * Number of frames, other than digital silence, from which floors are seeded before any
+     * activity is detected, approximately half a second at default sample rate.
+     */
+    private static final int WARMUP_FRAMES = 20;
+
+    /**
+     * Rates at which noise floor and typical spectral flux follow quiet frames; noise floor
+     * falls quickly, but rises slowly, so it is not dragged up by long calls. Whilst loud,
+     * noise floor creeps up slower still, so that sustained steady sound cannot hold activity
+     * forever.
+     */
+    private static final float FLOOR_FALL_RATE = 0.1f;
+    private static final float FLOOR_RISE_RATE = 0.005f;
+    private static final float FLOOR_LOUD_RISE_RATE = 0.0002f;
+    private static final float FLUX_RATE = 0.05f;
+
+    /**
+     * Smallest energy considered, to avoid division by zero in silence.
+     */
+    private static final float MIN_ENERGY = 1e-12f;
+
+    /**
+     * Listener notified when activity starts and ends.
+     */
+    public interface Listener {
+        /**
+         * Handle start of activity.
+         * <p>Called on capture thread, so must return quickly.</p>
+         */
+        void onActivityStarted();
+
+        /**
+         * Handle end of activity, once hang time has passed without any.
+         * <p>Called on capture thread, so must return quickly.</p>
+         */
+        void onActivityEnded();
+    }
+
+    private final Listener mListener;
+    private final Fft mFft;
+    private final float[] mWindow;
+    private final float[] mFrame;
+    private final float[] mPower;
+    private final float[] mMagnitude;
+    private final int mLowBin;
+    private final int mHighBin;
+    private final long mHangFrames;
+
+    private int mFill;
+    private int mWarmupFrames;
+    private float mWarmupEnergy;
+    private float mWarmupFlux;
+    private float mNoiseFloor;
+    private float mFluxFloor;
+    private int mOnsetCount;
+    private long mQuietFrames;
+    private boolean mActive;
+
+    /**
+     * Constructor.
+     * @param sampleRate Sample rate of frames in hertz.
+     * @param frameSize Number of samples in each frame analysed; a power of 2.
+     * @param lowHz Lowest frequency of band, in hertz.
+     * @param highHz Highest frequency of band, in hertz, limited to half sample rate.
+     * @param hangMillis Time in milliseconds without activity after which activity ends.
+     * @param listener Listener notified when activity starts and ends.
+     */
+    public ActivityDetector(int sampleRate, int frameSize, float lowHz, float highHz, long hangMillis, Listener listener) {
+        mListener = listener;
+        mFft = new Fft(frameSize);
+        mWindow = Window.hann(frameSize);
+        mFrame = new float[frameSize];
+        mPower = new float[mFft.getBinCount()];
+        mMagnitude = new float[mFft.getBinCount()];
+        mLowBin = Math.max(1, Math.round(lowHz * frameSize / sampleRate));
+        mHighBin = Math.min(mFft.getBinCount() - 1, Math.round(highHz * frameSize / sampleRate));
+        mHangFrames = Math.max(1, hangMillis * sampleRate / 1000 / frameSize);
+        this.reset();
+    }
+
+    /**
+     * Forget noise floor and any activity, e.g. when starting to listen somewhere else.
+     */
+    public void reset() {
+        mFill = 0;
+        mWarmupFrames = 0;
+        mWarmupEnergy = 0;
+        mWarmupFlux = 0;
+        mNoiseFloor = MIN_ENERGY;
+        mFluxFloor = MIN_ENERGY;
+        mOnsetCount = 0;
+        mQuietFrames = 0;
+        mActive = false;
+        for (int i = 0; i < mMagnitude.length; i++)
+            mMagnitude[i] = 0;
+    }
+
+    /**
+     * Determine whether activity is ongoing.
+     * @return True if activity has started and not yet ended, otherwise false.
+     */
+    public boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * Handle block of captured samples, gathering them into frames and analysing each frame
+     * as it fills.
+     * @param samples Buffer holding samples.
+     * @param offset Point in buffer of first sample.
+     * @param count Number of samples.
+     */
+    @Override
+    public void onFrames(short[] samples, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            mFrame[mFill] = mWindow[mFill] * samples[i] / 32768f;
+            if (++mFill == mFrame.length) {
+                this.analyseFrame();
+                mFill = 0;
+            }
+        }
+    }
+
+    /**
+     * Analyse frame just filled, notifying listener if activity starts or ends.
+     */
+    private void analyseFrame() {
+        mFft.powerSpectrum(mFrame, mPower);
+
+        // Digital silence says nothing about noise, so leaves floors and magnitudes alone, but
+        // still counts towards end of activity.
+        if (this.isSilent()) {
+            if (mWarmupFrames >= WARMUP_FRAMES)
+                this.update(false);
+            return;
+        }
+
+        // Energy of whole frame, energy within band, and increase in magnitude within band.
+        float totalEnergy = MIN_ENERGY;
+        float bandEnergy = MIN_ENERGY;
+        float flux = 0;
+        for (int k = 1; k < mPower.length; k++) {
+            totalEnergy += mPower[k];
+            float magnitude = (float)Math.sqrt(mPower[k]);
+            if ((k >= mLowBin) && (k <= mHighBin)) {
+                bandEnergy += mPower[k];
+                float increase = magnitude - mMagnitude[k];
+                if (increase > 0)
+                    flux += increase;
+            }
+            mMagnitude[k] = magnitude;
+        }
+
+        // Warm-up frames simply seed floors; flux of first is measured against nothing, so is
+        // left out.
+        if (mWarmupFrames < WARMUP_FRAMES) {
+            if (mWarmupFrames++ > 0) {
+                mWarmupEnergy += bandEnergy;
+                mWarmupFlux += flux;
+            }
+            if (mWarmupFrames == WARMUP_FRAMES) {
+                mNoiseFloor = Math.max(mWarmupEnergy / (WARMUP_FRAMES - 1), MIN_ENERGY);
+                mFluxFloor = Math.max(mWarmupFlux / (WARMUP_FRAMES - 1), MIN_ENERGY);
+            }
+            return;
+        }
+
+        boolean loud = 10 * Math.log10(bandEnergy / mNoiseFloor) >= ENERGY_THRESHOLD_DB;
+        boolean inBand = bandEnergy >= BAND_RATIO_THRESHOLD * totalEnergy;
+        boolean onset = flux >= FLUX_THRESHOLD_FACTOR * mFluxFloor;
+
+        // Once begun with an onset, loud in-band frames sustain activity without fresh onsets.
+        boolean detected = loud && inBand && (onset || (mOnsetCount > 0) || mActive);
+
+        // Follow noise mainly whilst quiet, always letting noise floor fall, but creeping up
+        // whilst loud.
+        if (bandEnergy < mNoiseFloor)
+            mNoiseFloor += FLOOR_FALL_RATE * (bandEnergy - mNoiseFloor);
+        else if (!loud)
+            mNoiseFloor += FLOOR_RISE_RATE * (bandEnergy - mNoiseFloor);
+        else
+            mNoiseFloor += FLOOR_LOUD_RISE_RATE * (bandEnergy - mNoiseFloor);
+        if (!loud)
+            mFluxFloor = Math.max(mFluxFloor + FLUX_RATE * (flux - mFluxFloor), MIN_ENERGY);
+
+        this.update(detected);
+    }
+
+    /**
+     * Determine whether frame just transformed is digital silence.
+     * @return True if frame holds no energy at all, otherwise false.
+     */
+    private boolean isSilent() {
+        for (int k = 0; k < mPower.length; k++) {
+            if (mPower[k] > 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Start activity after enough consecutive frames pass, or end it once none has for the
+     * hang time, notifying listener.
+     * @param detected True if frame just analysed passed, otherwise false.
+     */
+    private void update(boolean detected) {
+        if (detected) {
+            mQuietFrames = 0;
+            if (!mActive && (++mOnsetCount >= ONSET_FRAMES)) {
+                mActive = true;
+                mListener.onActivityStarted();
+            }
+        }
+        else {
+            mOnsetCount = 0;
+            if (mActive && (++mQuietFrames >= mHangFrames)) {
+                mActive = false;
+                mListener.onActivityEnded();
+            }
+        }
+    }
+}
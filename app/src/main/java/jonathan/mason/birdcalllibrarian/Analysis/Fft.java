@@ -0,0 +1,136 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+/**
+ * Radix-2 fast Fourier transform of real input, computing power spectra without allocating.
+ * <p>The real input of size N is packed into a complex sequence of size N/2, transformed in
+ * place, then separated into the N/2 + 1 bins of the real spectrum. Tables of twiddle factors
+ * and bit-reversed indices are computed once, so an instance can be reused for every frame,
+ * but not from more than one thread at a time.</p>
+ * <p>See "Numerical Recipes in C", 2nd edition, section 12.3, "FFT of Real Functions".</p>
+ */
+public class Fft {
+    private final int mSize;
+    private final int mHalfSize;
+    private final int[] mBitReversed;
+    private final float[] mCos;
+    private final float[] mSin;
+    private final float[] mRealCos;
+    private final float[] mRealSin;
+    private final float[] mRe;
+    private final float[] mIm;
+
+    /**
+     * Constructor.
+     * @param size Size of input; a power of 2, of at least 4.
+     * @exception IllegalArgumentException Thrown if size is not a power of 2, of at least 4.
+     */
+    public Fft(int size) {
+        if ((size < 4) || (Integer.bitCount(size) != 1))
+            throw new IllegalArgumentException("FFT size " + size + " is not a power of 2, of at least 4.");
+
+        mSize = size;
+        mHalfSize = size / 2;
+
+        // Bit-reversed indices of complex sequence.
+        int bits = Integer.numberOfTrailingZeros(mHalfSize);
+        mBitReversed = new int[mHalfSize];
+        for (int i = 0; i < mHalfSize; i++)
+            mBitReversed[i] = (bits == 0) ? 0 : (Integer.reverse(i) >>> (32 - bits));
+
+        // Twiddle factors of complex transform.
+        mCos = new float[mHalfSize / 2];
+        mSin = new float[mHalfSize / 2];
+        for (int i = 0; i < mHalfSize / 2; i++) {
+            mCos[i] = (float)Math.cos(2 * Math.PI * i / mHalfSize);
+            mSin[i] = (float)Math.sin(2 * Math.PI * i / mHalfSize);
+        }
+
+        // Twiddle factors separating real spectrum.
+        mRealCos = new float[mHalfSize + 1];
+        mRealSin = new float[mHalfSize + 1];
+        for (int k = 0; k <= mHalfSize; k++) {
+            mRealCos[k] = (float)Math.cos(2 * Math.PI * k / mSize);
+            mRealSin[k] = (float)Math.sin(2 * Math.PI * k / mSize);
+        }
+
+        mRe = new float[mHalfSize];
+        mIm = new float[mHalfSize];
+    }
+
+    /**
+     * Get size of input.
+     * @return Number of samples.
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Get number of bins of spectrum, from 0Hz to half sample rate inclusive.
+     * @return Number of bins; size / 2 + 1.
+     */
+    public int getBinCount() {
+        return mHalfSize + 1;
+    }
+
+    /**
+     * Compute power spectrum of supplied input, which should already be windowed.
+     * @param input Input of "size" samples; not modified.
+     * @param power Array of at least "size / 2 + 1" elements, into which to write power of each bin.
+     */
+    public void powerSpectrum(float[] input, float[] power) {
+        // Pack even samples as real parts, odd samples as imaginary parts, in bit-reversed order.
+        for (int i = 0; i < mHalfSize; i++) {
+            int j = mBitReversed[i];
+            mRe[j] = input[2 * i];
+            mIm[j] = input[2 * i + 1];
+        }
+
+        this.transform();
+
+        // Separate spectra of even and odd samples, and combine them into spectrum of input.
+        for (int k = 0; k <= mHalfSize; k++) {
+            int a = (k == mHalfSize) ? 0 : k;
+            int b = (k == 0) ? 0 : mHalfSize - k;
+            float zr = mRe[a];
+            float zi = mIm[a];
+            float cr = mRe[b];
+            float ci = -mIm[b];
+
+            float evenRe = (zr + cr) / 2;
+            float evenIm = (zi + ci) / 2;
+            float oddRe = (zi - ci) / 2;
+            float oddIm = -(zr - cr) / 2;
+
+            float wr = mRealCos[k];
+            float wi = -mRealSin[k];
+            float re = evenRe + wr * oddRe - wi * oddIm;
+            float im = evenIm + wr * oddIm + wi * oddRe;
+            power[k] = re * re + im * im;
+        }
+    }
+
+    /**
+     * Transform complex sequence, already in bit-reversed order, in place.
+     */
+    private void transform() {
+        for (int length = 2; length <= mHalfSize; length <<= 1) {
+            int half = length / 2;
+            int step = mHalfSize / length;
+            for (int start = 0; start < mHalfSize; start += length) {
+                for (int i = 0; i < half; i++) {
+                    float wr = mCos[i * step];
+                    float wi = -mSin[i * step];
+                    int even = start + i;
+                    int odd = even + half;
+                    float tr = wr * mRe[odd] - wi * mIm[odd];
+                    float ti = wr * mIm[odd] + wi * mRe[odd];
+                    mRe[odd] = mRe[even] - tr;
+                    mIm[odd] = mIm[even] - ti;
+                    mRe[even] += tr;
+                    mIm[even] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PcmSource reading 16-bit little-endian mono PCM samples straight from one or more files,
+ * played one after another, e.g. the segments of a recording made by PcmCaptureEngine.
+ * <p>Bytes are read into a buffer which is kept between reads, so reading the same amount
+ * each time does not allocate.</p>
+ */
+public class FilePcmSource implements PcmSource {
+    /**
+     * Size of header written by WavEncoder.
+     */
+    private static final int WAV_HEADER_SIZE = 44;
+
+    private final int mSampleRate;
+    private final List<RandomAccessFile> mFiles = new ArrayList<>();
+    private final List<Long> mDataOffsets = new ArrayList<>();
+    private final List<Long> mSampleCounts = new ArrayList<>();
+    private long mSampleCount;
+    private byte[] mBytes = new byte[0];
+
+    /**
+     * Determine whether file is a WAV file laid out as WavEncoder writes them, i.e. 16-bit
+     * mono PCM, with samples straight after a header of WAV_HEADER_SIZE, so that it can be
+     * opened by openWav().
+     * @param file File to check.
+     * @return True if file can be opened by openWav(), otherwise false.
+     * @throws IOException Thrown if file could not be read.
+     */
+    public static boolean isWav(File file) throws IOException {
+        byte[] header = new byte[WAV_HEADER_SIZE];
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            if (randomAccessFile.length() < WAV_HEADER_SIZE)
+                return false;
+            randomAccessFile.readFully(header);
+        }
+
+        return "RIFF".equals(new String(header, 0, 4, "US-ASCII")) && "WAVE".equals(new String(header, 8, 4, "US-ASCII"))
+                && "fmt ".equals(new String(header, 12, 4, "US-ASCII")) && (readInt(header, 16) == 16)
+                && (readShort(header, 20) == 1) && (readShort(header, 22) == 1) && (readShort(header, 34) == 16)
+                && "data".equals(new String(header, 36, 4, "US-ASCII"));
+    }
+
+    /**
+     * Open WAV files written by WavEncoder, taking sample rate and size of samples from their
+     * headers.
+     * @param files WAV files, in order of playing.
+     * @return PcmSource of files.
+     * @throws IOException Thrown if a file could not be opened or its header read.
+     */
+    public static FilePcmSource openWav(List<File> files) throws IOException {
+        FilePcmSource source = null;
+        try {
+            for (File file : files) {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                byte[] header = new byte[WAV_HEADER_SIZE];
+                try {
+                    randomAccessFile.readFully(header);
+                } catch (IOException e) {
+                    randomAccessFile.close();
+                    throw e;
+                }
+
+                if (source == null)
+                    source = new FilePcmSource(readInt(header, 24));
+
+                // Size of samples is only written once segment is complete.
+                long dataSize = readInt(header, 40) & 0xFFFFFFFFL;
+                if (dataSize == 0)
+                    dataSize = randomAccessFile.length() - WAV_HEADER_SIZE;
+                source.add(randomAccessFile, WAV_HEADER_SIZE, dataSize / 2);
+            }
+        } catch (IOException e) {
+            if (source != null)
+                source.close();
+            throw e;
+        }
+
+        if (source == null)
+            throw new IOException("No WAV files to open.");
+        return source;
+    }
+
+    /**
+     * Open file of raw samples, without header, e.g. as written by PcmDecoder.
+     * @param file File of samples.
+     * @param sampleRate Sample rate in hertz.
+     * @return PcmSource of file.
+     * @throws IOException Thrown if file could not be opened.
+     */
+    public static FilePcmSource openRaw(File file, int sampleRate) throws IOException {
+        FilePcmSource source = new FilePcmSource(sampleRate);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        source.add(randomAccessFile, 0, randomAccessFile.length() / 2);
+        return source;
+    }
+
+    /**
+     * Constructor.
+     * @param sampleRate Sample rate in hertz.
+     */
+    private FilePcmSource(int sampleRate) {
+        mSampleRate = sampleRate;
+    }
+
+    /**
+     * Add file to be played after those already added.
+     * @param file Opened file.
+     * @param dataOffset Point in file of first sample.
+     * @param sampleCount Number of samples in file.
+     */
+    private void add(RandomAccessFile file, long dataOffset, long sampleCount) {
+        mFiles.add(file);
+        mDataOffsets.add(dataOffset);
+        mSampleCounts.add(sampleCount);
+        mSampleCount += sampleCount;
+    }
+
+    /**
+     * Get sample rate.
+     * @return Sample rate in hertz.
+     */
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * Get number of samples in all files.
+     * @return Number of samples.
+     */
+    @Override
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * Read samples from specified position, across files if necessary.
+     * @param position Index of first sample to read.
+     * @param buffer Buffer into which to read samples.
+     * @param offset Point in buffer at which to store first sample.
+     * @param count Number of samples to read.
+     * @return Number of samples read, which is less than "count" only at end of files.
+     * @throws IOException Thrown if samples could not be read.
+     */
+    @Override
+    public int read(long position, short[] buffer, int offset, int count) throws IOException {
+        if (mBytes.length < count * 2)
+            mBytes = new byte[count * 2];
+
+        int read = 0;
+        long fileStart = 0;
+        for (int i = 0; (i < mFiles.size()) && (read < count); i++) {
+            long fileSamples = mSampleCounts.get(i);
+            long start = position + read - fileStart;
+            if (start < fileSamples) {
+                int length = (int)Math.min(count - read, fileSamples - start);
+                RandomAccessFile file = mFiles.get(i);
+                file.seek(mDataOffsets.get(i) + start * 2);
+                file.readFully(mBytes, 0, length * 2);
+                for (int j = 0; j < length; j++)
+                    buffer[offset + read + j] = (short)((mBytes[j * 2] & 0xFF) | (mBytes[j * 2 + 1] << 8));
+                read += length;
+            }
+            fileStart += fileSamples;
+        }
+        return read;
+    }
+
+    /**
+     * Close files.
+     * @throws IOException Thrown if a file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (RandomAccessFile file : mFiles) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        mFiles.clear();
+        if (exception != null)
+            throw exception;
+    }
+
+    /**
+     * Read little-endian 16-bit integer from header.
+     * @param header Header.
+     * @param offset Point in header of integer.
+     * @return Integer.
+     */
+    private static int readShort(byte[] header, int offset) {
+        return (header[offset] & 0xFF) | ((header[offset + 1] & 0xFF) << 8);
+    }
+
+    /**
+     * Read little-endian 32-bit integer from header.
+     * @param header Header.
+     * @param offset Point in header of integer.
+     * @return Integer.
+     */
+    private static int readInt(byte[] header, int offset) {
+        return (header[offset] & 0xFF) | ((header[offset + 1] & 0xFF) << 8) | ((header[offset + 2] & 0xFF) << 16) | ((header[offset + 3] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,164 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Decoder of compressed recordings, e.g. those made by MediaRecorder, into a file of raw 16-bit
+ * little-endian mono PCM samples, which can then be read at random by FilePcmSource.
+ * <p>From "MediaCodec", Android Developers:
+ * https://developer.android.com/reference/android/media/MediaCodec.</p>
+ */
+public class PcmDecoder {
+    /**
+     * Time to wait for buffers of codec, in microseconds.
+     */
+    private static final long TIMEOUT_US = 10000;
+
+    /**
+     * Private constructor, since only static methods.
+     */
+    private PcmDecoder() {
+    }
+
+    /**
+     * Get sample rate of recording, without decoding it.
+     * @param recording File of recording.
+     * @return Sample rate in hertz.
+     * @throws IOException Thrown if recording could not be read, or has no audio track.
+     */
+    public static int getSampleRate(File recording) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(recording.getPath());
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if ((mime != null) && mime.startsWith("audio/"))
+                    return format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            }
+            throw new IOException("No audio track in " + recording.getName() + ".");
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /**
+     * Decode recordings, one after another, into single file, keeping only first channel.
+     * @param recordings Files of recordings, in order of playing.
+     * @param output File into which to write samples.
+     * @return Sample rate in hertz.
+     * @throws IOException Thrown if a recording could not be decoded, or samples written.
+     */
+    public static int decode(List<File> recordings, File output) throws IOException {
+        int sampleRate = 0;
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(output))) {
+            for (File recording : recordings)
+                sampleRate = decode(recording, stream);
+        }
+        return sampleRate;
+    }
+
+    /**
+     * Decode recording into stream.
+     * @param recording File of recording.
+     * @param stream Stream into which to write samples.
+     * @return Sample rate in hertz.
+     * @throws IOException Thrown if recording could not be decoded, or samples written.
+     */
+    private static int decode(File recording, OutputStream stream) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(recording.getPath());
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat trackFormat = extractor.getTrackFormat(i);
+                String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+                if ((mime != null) && mime.startsWith("audio/")) {
+                    extractor.selectTrack(i);
+                    format = trackFormat;
+                    break;
+                }
+            }
+            if (format == null)
+                throw new IOException("No audio track in " + recording.getName() + ".");
+
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            byte[] bytes = new byte[0];
+            boolean inputDone = false;
+            boolean outputDone = false;
+            while (!outputDone) {
+                // Feed codec with compressed samples.
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        int size = extractor.readSampleData(codec.getInputBuffer(inputIndex), 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        }
+                        else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                // Write out decoded samples of first channel.
+                int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outputIndex >= 0) {
+                    ByteBuffer buffer = codec.getOutputBuffer(outputIndex);
+                    if ((buffer != null) && (info.size > 0)) {
+                        buffer.order(ByteOrder.LITTLE_ENDIAN);
+                        int frames = info.size / 2 / channelCount;
+                        if (bytes.length < frames * 2)
+                            bytes = new byte[frames * 2];
+                        for (int i = 0; i < frames; i++) {
+                            short sample = buffer.getShort(info.offset + i * 2 * channelCount);
+                            bytes[i * 2] = (byte)sample;
+                            bytes[i * 2 + 1] = (byte)(sample >> 8);
+                        }
+                        stream.write(bytes, 0, frames * 2);
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+                    outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                }
+                else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                }
+            }
+            return sampleRate;
+        } catch (IllegalStateException e) {
+            throw new IOException("Unable to decode " + recording.getName() + ".", e);
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    // Codec never started, or already failed.
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Random-access source of 16-bit mono PCM samples of a recording, from which spectra are
+ * computed.
+ */
+public interface PcmSource extends Closeable {
+    /**
+     * Get sample rate.
+     * @return Sample rate in hertz.
+     */
+    int getSampleRate();
+
+    /**
+     * Get number of samples in recording.
+     * @return Number of samples.
+     */
+    long getSampleCount();
+
+    /**
+     * Read samples from specified position.
+     * @param position Index of first sample to read.
+     * @param buffer Buffer into which to read samples.
+     * @param offset Point in buffer at which to store first sample.
+     * @param count Number of samples to read.
+     * @return Number of samples read, which is less than "count" only at end of recording.
+     * @throws IOException Thrown if samples could not be read.
+     */
+    int read(long position, short[] buffer, int offset, int count) throws IOException;
+}
@@ -0,0 +1,239 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of spectrogram tiles, keyed by birdcall ID and tile index, held in memory and on
+ * disk, each bounded in size, evicting least recently used tiles first; a singleton for the
+ * app, though other instances may be created, e.g. for testing.
+ * <p>Tiles evicted from memory are still on disk, so scrolling back over a long recording
+ * reads tiles rather than recomputing them, and tiles on disk survive the app being closed.</p>
+ */
+public class SpectrogramCache {
+    /**
+     * Default limits of memory and disk used by cache.
+     */
+    public static final long DEFAULT_MEMORY_BYTES = 4 * 1024 * 1024;
+    public static final long DEFAULT_DISK_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Name of folder of cache directory of app holding tiles.
+     */
+    private static final String DIRECTORY_NAME = "spectrograms";
+
+    private static final Object LOCK = new Object();
+    private static SpectrogramCache sInstance;
+
+    /**
+     * Implement singleton, creating single instance of cache, if not created, or simply
+     * retrieving previously created instance.
+     * @param context Context with which to find cache directory of app.
+     * @return Spectrogram cache.
+     */
+    public static SpectrogramCache getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (LOCK) {
+                if (sInstance == null)
+                    sInstance = new SpectrogramCache(new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME), DEFAULT_MEMORY_BYTES, DEFAULT_DISK_BYTES);
+            }
+        }
+        return sInstance;
+    }
+
+    private final File mDirectory;
+    private final long mMemoryLimit;
+    private final long mDiskLimit;
+    private final LinkedHashMap<String, SpectrogramTile> mMemory = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMemoryBytes;
+    private long mDiskBytes = -1;
+
+    /**
+     * Constructor.
+     * @param directory Directory in which to keep tiles on disk, created if necessary.
+     * @param memoryLimit Maximum number of bytes of tiles to keep in memory.
+     * @param diskLimit Maximum number of bytes of tiles to keep on disk.
+     */
+    public SpectrogramCache(File directory, long memoryLimit, long diskLimit) {
+        mDirectory = directory;
+        mMemoryLimit = memoryLimit;
+        mDiskLimit = diskLimit;
+    }
+
+    /**
+     * Get tile from memory, otherwise from disk, keeping it in memory.
+     * @param birdcallId ID of birdcall.
+     * @param tileIndex Index of tile.
+     * @return Tile, or null if not cached.
+     */
+    public synchronized SpectrogramTile get(int birdcallId, int tileIndex) {
+        String key = getKey(birdcallId, tileIndex);
+        SpectrogramTile tile = mMemory.get(key);
+        if (tile != null)
+            return tile;
+
+        File file = new File(mDirectory, key);
+        if (!file.exists())
+            return null;
+
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            tile = SpectrogramTile.readFrom(stream);
+        } catch (IOException e) {
+            // Unreadable tile is simply recomputed.
+            this.deleteFile(file);
+            return null;
+        }
+
+        // Mark as recently used on disk too.
+        file.setLastModified(System.currentTimeMillis());
+        this.putInMemory(key, tile);
+        return tile;
+    }
+
+    /**
+     * Put tile in memory and on disk, evicting least recently used tiles to stay within limits.
+     * @param birdcallId ID of birdcall.
+     * @param tile Tile.
+     */
+    public synchronized void put(int birdcallId, SpectrogramTile tile) {
+        String key = getKey(birdcallId, tile.getTileIndex());
+        this.putInMemory(key, tile);
+
+        // Disk is only a second level of cache, so tile is still kept in memory if it cannot be
+        // written.
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+            return;
+        this.measureDisk();
+        File file = new File(mDirectory, key);
+        this.deleteFile(file);
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            tile.writeTo(stream);
+        } catch (IOException e) {
+            this.deleteFile(file);
+            return;
+        }
+        mDiskBytes += file.length();
+        this.trimDisk();
+    }
+
+    /**
+     * Remove all tiles of birdcall, e.g. once it has been deleted.
+     * @param birdcallId ID of birdcall.
+     */
+    public synchronized void remove(int birdcallId) {
+        String prefix = birdcallId + "_";
+        Iterator<Map.Entry<String, SpectrogramTile>> iterator = mMemory.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, SpectrogramTile> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                mMemoryBytes -= entry.getValue().getByteCount();
+                iterator.remove();
+            }
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            this.measureDisk();
+            for (File file : files) {
+                if (file.getName().startsWith(prefix))
+                    this.deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * Put tile in memory, evicting least recently used tiles to stay within limit.
+     * @param key Key of tile.
+     * @param tile Tile.
+     */
+    private void putInMemory(String key, SpectrogramTile tile) {
+        SpectrogramTile previous = mMemory.put(key, tile);
+        if (previous != null)
+            mMemoryBytes -= previous.getByteCount();
+        mMemoryBytes += tile.getByteCount();
+
+        Iterator<SpectrogramTile> iterator = mMemory.values().iterator();
+        while ((mMemoryBytes > mMemoryLimit) && iterator.hasNext()) {
+            SpectrogramTile eldest = iterator.next();
+            if (eldest == tile)
+                break;
+            mMemoryBytes -= eldest.getByteCount();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Measure size of tiles on disk, once, after which size is kept up to date as tiles are
+     * written and deleted.
+     */
+    private void measureDisk() {
+        if (mDiskBytes >= 0)
+            return;
+
+        mDiskBytes = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                mDiskBytes += file.length();
+        }
+    }
+
+    /**
+     * Delete least recently used tiles on disk until within limit.
+     */
+    private void trimDisk() {
+        if (mDiskBytes <= mDiskLimit)
+            return;
+
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            /**
+             * Order files from least to most recently used.
+             * @param a First file.
+             * @param b Second file.
+             * @return Negative, zero or positive as "a" was used before, with, or after "b".
+             */
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; (i < files.length - 1) && (mDiskBytes > mDiskLimit); i++)
+            this.deleteFile(files[i]);
+    }
+
+    /**
+     * Delete file of tile, if it exists, keeping track of size of tiles on disk.
+     * @param file File of tile.
+     */
+    private void deleteFile(File file) {
+        long length = file.length();
+        if (file.delete() && (mDiskBytes >= 0))
+            mDiskBytes -= length;
+    }
+
+    /**
+     * Get key of tile, which is also name of its file.
+     * @param birdcallId ID of birdcall.
+     * @param tileIndex Index of tile.
+     * @return Key.
+     */
+    private static String getKey(int birdcallId, int tileIndex) {
+        return birdcallId + "_" + tileIndex;
+    }
+}
@@ -0,0 +1,161 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+import java.io.IOException;
+
+/**
+ * Engine computing the spectrogram of a recording in fixed-size tiles, so that only the tiles
+ * in view need be computed, each exactly once, however long the recording.
+ * <p>Column c of the spectrogram is the spectrum of the "fftSize" samples from sample
+ * c * hopSize, so successive columns overlap. The samples of a whole tile are read in one go
+ * into a buffer kept by the engine, and each column is windowed and transformed with buffers
+ * also kept by the engine, so only the levels of each tile are allocated.</p>
+ * <p>Tiles are computed one at a time, so one engine may be shared by several threads.</p>
+ */
+public class SpectrogramEngine {
+    /**
+     * Default number of samples transformed for each column.
+     */
+    public static final int DEFAULT_FFT_SIZE = 512;
+
+    /**
+     * Default number of samples between successive columns.
+     */
+    public static final int DEFAULT_HOP_SIZE = 256;
+
+    /**
+     * Default number of columns in each tile.
+     */
+    public static final int DEFAULT_COLUMNS_PER_TILE = 256;
+
+    /**
+     * Range of levels shown, in decibels relative to a full-scale sine wave, which is
+     * quantised to a byte.
+     */
+    private static final float MIN_DB = -100;
+    private static final float MAX_DB = 0;
+
+    private final int mFftSize;
+    private final int mHopSize;
+    private final int mColumnsPerTile;
+    private final Fft mFft;
+    private final float[] mWindow;
+    private final float[] mFrame;
+    private final float[] mPower;
+    private final short[] mSamples;
+    private final float mFullScalePower;
+
+    /**
+     * Constructor, with default sizes.
+     */
+    public SpectrogramEngine() {
+        this(DEFAULT_FFT_SIZE, DEFAULT_HOP_SIZE, DEFAULT_COLUMNS_PER_TILE);
+    }
+
+    /**
+     * Constructor.
+     * @param fftSize Number of samples transformed for each column; a power of 2.
+     * @param hopSize Number of samples between successive columns.
+     * @param columnsPerTile Number of columns in each tile.
+     */
+    public SpectrogramEngine(int fftSize, int hopSize, int columnsPerTile) {
+        mFftSize = fftSize;
+        mHopSize = hopSize;
+        mColumnsPerTile = columnsPerTile;
+        mFft = new Fft(fftSize);
+        mWindow = Window.hann(fftSize);
+        mFrame = new float[fftSize];
+        mPower = new float[mFft.getBinCount()];
+        mSamples = new short[(columnsPerTile - 1) * hopSize + fftSize];
+
+        // Power of peak bin of full-scale sine wave, windowed by Hann window.
+        mFullScalePower = (float)fftSize * fftSize / 16;
+    }
+
+    /**
+     * Get number of bins in each column, from 0Hz up to, but not including, half sample rate.
+     * @return Number of bins.
+     */
+    public int getBinCount() {
+        return mFftSize / 2;
+    }
+
+    /**
+     * Get number of columns in each tile.
+     * @return Number of columns.
+     */
+    public int getColumnsPerTile() {
+        return mColumnsPerTile;
+    }
+
+    /**
+     * Get number of columns of spectrogram of recording of specified length.
+     * @param sampleCount Number of samples in recording.
+     * @return Number of columns.
+     */
+    public long getColumnCount(long sampleCount) {
+        return (sampleCount + mHopSize - 1) / mHopSize;
+    }
+
+    /**
+     * Get number of tiles of spectrogram of recording of specified length.
+     * @param sampleCount Number of samples in recording.
+     * @return Number of tiles.
+     */
+    public int getTileCount(long sampleCount) {
+        return (int)((this.getColumnCount(sampleCount) + mColumnsPerTile - 1) / mColumnsPerTile);
+    }
+
+    /**
+     * Compute tile of spectrogram of recording.
+     * @param source Source of samples of recording.
+     * @param tileIndex Index of tile.
+     * @return Tile.
+     * @throws IOException Thrown if samples could not be read.
+     * @exception IllegalArgumentException Thrown if tile is beyond end of recording.
+     */
+    public SpectrogramTile computeTile(PcmSource source, int tileIndex) throws IOException {
+        return this.computeTile(source, tileIndex, source.getSampleCount());
+    }
+
+    /**
+     * Compute tile of spectrogram of recording, whose length was determined before its samples
+     * were available, e.g. from its duration; any samples missing are taken as silence, so
+     * that tiles always agree with that length.
+     * @param source Source of samples of recording.
+     * @param tileIndex Index of tile.
+     * @param sampleCount Number of samples in recording.
+     * @return Tile.
+     * @throws IOException Thrown if samples could not be read.
+     * @exception IllegalArgumentException Thrown if tile is beyond end of recording.
+     */
+    public synchronized SpectrogramTile computeTile(PcmSource source, int tileIndex, long sampleCount) throws IOException {
+        long totalColumns = this.getColumnCount(sampleCount);
+        long firstColumn = (long)tileIndex * mColumnsPerTile;
+        if ((tileIndex < 0) || (firstColumn >= totalColumns))
+            throw new IllegalArgumentException("Tile " + tileIndex + " is beyond end of recording.");
+        int columnCount = (int)Math.min(mColumnsPerTile, totalColumns - firstColumn);
+
+        // Read samples of whole tile, padding with silence beyond end of recording.
+        int read = source.read(firstColumn * mHopSize, mSamples, 0, mSamples.length);
+        for (int i = Math.max(read, 0); i < mSamples.length; i++)
+            mSamples[i] = 0;
+
+        int binCount = this.getBinCount();
+        byte[] levels = new byte[columnCount * binCount];
+        for (int column = 0; column < columnCount; column++) {
+            int start = column * mHopSize;
+            for (int i = 0; i < mFftSize; i++)
+                mFrame[i] = mWindow[i] * mSamples[start + i] / 32768f;
+
+            mFft.powerSpectrum(mFrame, mPower);
+
+            for (int bin = 0; bin < binCount; bin++) {
+                float db = 10 * (float)Math.log10(mPower[bin] / mFullScalePower + 1e-12f);
+                float level = (db - MIN_DB) / (MAX_DB - MIN_DB) * 255;
+                levels[column * binCount + bin] = (byte)Math.max(0, Math.min(255, Math.round(level)));
+            }
+        }
+
+        return new SpectrogramTile(tileIndex, columnCount, binCount, levels);
+    }
+}
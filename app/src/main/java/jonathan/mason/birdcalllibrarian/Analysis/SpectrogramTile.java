@@ -0,0 +1,107 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Fixed-size tile of spectrogram of a recording, covering a fixed number of columns (spectra
+ * at successive points in time), with the level of each bin quantised to a byte.
+ */
+public class SpectrogramTile {
+    /**
+     * Identifies serialised tile, and version of its format.
+     */
+    private static final int MAGIC = 0x53505431; // "SPT1".
+
+    private final int mTileIndex;
+    private final int mColumnCount;
+    private final int mBinCount;
+    private final byte[] mLevels;
+
+    /**
+     * Constructor.
+     * @param tileIndex Index of tile within spectrogram.
+     * @param columnCount Number of columns, which is fewer than usual only for last tile.
+     * @param binCount Number of bins in each column.
+     * @param levels Level of each bin, column by column, from 0 (quietest) to 255 (loudest).
+     */
+    public SpectrogramTile(int tileIndex, int columnCount, int binCount, byte[] levels) {
+        mTileIndex = tileIndex;
+        mColumnCount = columnCount;
+        mBinCount = binCount;
+        mLevels = levels;
+    }
+
+    /**
+     * Get index of tile within spectrogram.
+     * @return Index of tile.
+     */
+    public int getTileIndex() {
+        return mTileIndex;
+    }
+
+    /**
+     * Get number of columns.
+     * @return Number of columns.
+     */
+    public int getColumnCount() {
+        return mColumnCount;
+    }
+
+    /**
+     * Get number of bins in each column.
+     * @return Number of bins.
+     */
+    public int getBinCount() {
+        return mBinCount;
+    }
+
+    /**
+     * Get level of specified bin.
+     * @param column Index of column.
+     * @param bin Index of bin, from 0Hz upwards.
+     * @return Level, from 0 (quietest) to 255 (loudest).
+     */
+    public int getLevel(int column, int bin) {
+        return mLevels[column * mBinCount + bin] & 0xFF;
+    }
+
+    /**
+     * Get memory taken by levels, for bounding caches.
+     * @return Number of bytes.
+     */
+    public int getByteCount() {
+        return mLevels.length;
+    }
+
+    /**
+     * Write tile to stream.
+     * @param stream Stream to which to write.
+     * @throws IOException Thrown if tile could not be written.
+     */
+    public void writeTo(DataOutputStream stream) throws IOException {
+        stream.writeInt(MAGIC);
+        stream.writeInt(mTileIndex);
+        stream.writeInt(mColumnCount);
+        stream.writeInt(mBinCount);
+        stream.write(mLevels, 0, mColumnCount * mBinCount);
+    }
+
+    /**
+     * Read tile from stream, as written by writeTo.
+     * @param stream Stream from which to read.
+     * @return Tile.
+     * @throws IOException Thrown if tile could not be read, or is not a tile.
+     */
+    public static SpectrogramTile readFrom(DataInputStream stream) throws IOException {
+        if (stream.readInt() != MAGIC)
+            throw new IOException("Not a spectrogram tile.");
+        int tileIndex = stream.readInt();
+        int columnCount = stream.readInt();
+        int binCount = stream.readInt();
+        byte[] levels = new byte[columnCount * binCount];
+        stream.readFully(levels);
+        return new SpectrogramTile(tileIndex, columnCount, binCount, levels);
+    }
+}
@@ -0,0 +1,122 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+import java.io.IOException;
+
+/**
+ * Compact summary of the waveform of a recording, for drawing a thumbnail of it without
+ * touching the recording itself.
+ * <p>The recording is divided into PEAK_COUNT equal spans, and the lowest and highest sample
+ * of each span are kept, reduced to a byte each, so the summary is a few hundred bytes however
+ * long the recording.</p>
+ */
+public class WaveformPeaks {
+    /**
+     * Number of spans into which recording is divided.
+     */
+    public static final int PEAK_COUNT = 160;
+
+    /**
+     * Number of samples read at a time.
+     */
+    private static final int BUFFER_SIZE_SAMPLES = 4096;
+
+    /**
+     * Private constructor, since only static methods.
+     */
+    private WaveformPeaks() {
+    }
+
+    /**
+     * Compute summary of recording, reading through it once.
+     * @param source Source of samples of recording.
+     * @return Lowest and highest sample of each span, in turn, as signed bytes; all zero if
+     * recording has no samples.
+     * @throws IOException Thrown if samples could not be read.
+     */
+    public static byte[] compute(PcmSource source) throws IOException {
+        byte[] peaks = new byte[PEAK_COUNT * 2];
+        long sampleCount = source.getSampleCount();
+        if (sampleCount <= 0)
+            return peaks;
+
+        short[] buffer = new short[BUFFER_SIZE_SAMPLES];
+        int span = 0;
+        long spanEnd = getSpanEnd(0, sampleCount);
+        int min = 0;
+        int max = 0;
+        long position = 0;
+        while (position < sampleCount) {
+            int read = source.read(position, buffer, 0, (int)Math.min(buffer.length, sampleCount - position));
+            if (read <= 0)
+                break;
+
+            for (int i = 0; i < read; i++, position++) {
+                // Move on to next span, keeping peaks of the one just finished.
+                while (position >= spanEnd) {
+                    setPeak(peaks, span, min, max);
+                    span++;
+                    spanEnd = getSpanEnd(span, sampleCount);
+                    min = 0;
+                    max = 0;
+                }
+                min = Math.min(min, buffer[i]);
+                max = Math.max(max, buffer[i]);
+            }
+        }
+        setPeak(peaks, span, min, max);
+        return peaks;
+    }
+
+    /**
+     * Get number of spans in supplied summary.
+     * @param peaks Summary of recording.
+     * @return Number of spans.
+     */
+    public static int getCount(byte[] peaks) {
+        return peaks.length / 2;
+    }
+
+    /**
+     * Get lowest sample of span of summary.
+     * @param peaks Summary of recording.
+     * @param span Index of span.
+     * @return Lowest sample, from -128 to 127.
+     */
+    public static int getMin(byte[] peaks, int span) {
+        return peaks[span * 2];
+    }
+
+    /**
+     * Get highest sample of span of summary.
+     * @param peaks Summary of recording.
+     * @param span Index of span.
+     * @return Highest sample, from -128 to 127.
+     */
+    public static int getMax(byte[] peaks, int span) {
+        return peaks[span * 2 + 1];
+    }
+
+    /**
+     * Get position just after end of span.
+     * @param span Index of span.
+     * @param sampleCount Number of samples in recording.
+     * @return Position of first sample of next span.
+     */
+    private static long getSpanEnd(int span, long sampleCount) {
+        return (span + 1) * sampleCount / PEAK_COUNT;
+    }
+
+    /**
+     * Keep lowest and highest sample of span, if within summary.
+     * @param peaks Summary of recording.
+     * @param span Index of span.
+     * @param min Lowest 16-bit sample.
+     * @param max Highest 16-bit sample.
+     */
+    private static void setPeak(byte[] peaks, int span, int min, int max) {
+        if (span >= PEAK_COUNT)
+            return;
+        peaks[span * 2] = (byte)(min >> 8);
+        peaks[span * 2 + 1] = (byte)(max >> 8);
+    }
+}
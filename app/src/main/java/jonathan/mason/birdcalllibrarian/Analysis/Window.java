@@ -0,0 +1,27 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+/**
+ * Window functions, applied to frames of samples before transforming them, to reduce leakage
+ * between bins of spectrum.
+ * <p>Windows are computed once, then reused for every frame.</p>
+ */
+public class Window {
+    /**
+     * Private constructor, since only static methods.
+     */
+    private Window() {
+    }
+
+    /**
+     * Create Hann window.
+     * <p>See "Hann function", Wikipedia: https://en.wikipedia.org/wiki/Hann_function.</p>
+     * @param size Number of samples in frame.
+     * @return Coefficient by which to multiply each sample of frame.
+     */
+    public static float[] hann(int size) {
+        float[] window = new float[size];
+        for (int i = 0; i < size; i++)
+            window[i] = (float)(0.5 - 0.5 * Math.cos(2 * Math.PI * i / size));
+        return window;
+    }
+}
@@ -0,0 +1,182 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleObserver;
+import androidx.lifecycle.OnLifecycleEvent;
+import androidx.lifecycle.ProcessLifecycleOwner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jonathan.mason.birdcalllibrarian.Database.BirdcallPatch;
+
+/**
+ * Write-behind queue of edits to birdcalls; a singleton.
+ * <p>Edits are coalesced per birdcall, then saved together in a single transaction, once
+ * editing pauses, the app goes into the background, or a save is explicitly requested.
+ * Being held by the application, rather than an activity, pending edits survive
+ * configuration changes.</p>
+ * <p>Must be used on main user interface thread.</p>
+ */
+public class BirdcallEditQueue implements LifecycleObserver {
+    /**
+     * Time, after the most recent edit, to wait for further edits before saving.
+     */
+    private static final long DEBOUNCE_MILLISECONDS = 2000;
+
+    private static final Object LOCK = new Object();
+    private static BirdcallEditQueue sInstance;
+
+    /**
+     * Implement singleton, creating single instance of queue, if not created, or simply
+     * retrieving previously created instance.
+     * @param application The application.
+     * @return Birdcall edit queue.
+     */
+    public static BirdcallEditQueue getInstance(Application application) {
+        if (sInstance == null) {
+            synchronized (LOCK) {
+                if (sInstance == null)
+                    sInstance = new BirdcallEditQueue(application);
+            }
+        }
+        return sInstance;
+    }
+
+    private final Application mApplication;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<Integer, BirdcallPatch> mPending = new LinkedHashMap<>();
+    private long mOldestEditTime;
+
+    private int mEditCount;
+    private int mFlushCount;
+    private long mLastFlushLatency;
+    private long mLastFlushDuration;
+
+    /**
+     * Task to save pending edits, once editing pauses.
+     */
+    private final Runnable mDebouncedFlush = new Runnable() {
+        /**
+         * Task to be executed on main user interface thread.
+         */
+        @Override
+        public void run() {
+            flush(false);
+        }
+    };
+
+    /**
+     * Constructor.
+     * @param application The application.
+     */
+    private BirdcallEditQueue(Application application) {
+        mApplication = application;
+
+        // Save pending edits when app goes into the background.
+        ProcessLifecycleOwner.get().getLifecycle().addObserver(this);
+    }
+
+    /**
+     * Add supplied edits to queue, merging them with any pending edits of the same birdcall,
+     * and restart timer to save them once editing pauses.
+     * @param edits Edits to birdcall.
+     */
+    public void enqueue(BirdcallPatch edits) {
+        if (mPending.isEmpty())
+            mOldestEditTime = SystemClock.elapsedRealtime();
+
+        BirdcallPatch pending = mPending.get(edits.getId());
+        if (pending == null)
+            mPending.put(edits.getId(), edits);
+        else
+            pending.merge(edits);
+        mEditCount++;
+
+        mHandler.removeCallbacks(mDebouncedFlush);
+        mHandler.postDelayed(mDebouncedFlush, DEBOUNCE_MILLISECONDS);
+    }
+
+    /**
+     * Save all pending edits in a single transaction, in WRITE lane of TaskScheduler.
+     * @param notifyUser Whether to let user know birdcalls have been saved.
+     */
+    public void flush(boolean notifyUser) {
+        mHandler.removeCallbacks(mDebouncedFlush);
+        if (mPending.isEmpty())
+            return;
+
+        List<BirdcallPatch> patches = new ArrayList<>(mPending.values());
+        mPending.clear();
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.USER, new UpdateBirdcallTask(mApplication, patches, mOldestEditTime, notifyUser));
+    }
+
+    /**
+     * Handle app going into the background, to save pending edits.
+     */
+    @OnLifecycleEvent(Lifecycle.Event.ON_STOP)
+    void onAppBackgrounded() {
+        this.flush(false);
+    }
+
+    /**
+     * Record metrics of completed save of edits.
+     * @param birdcallCount Number of birdcalls saved.
+     * @param oldestEditTime Time of oldest edit saved, as given by SystemClock.elapsedRealtime().
+     * @param duration Duration of transaction in milliseconds.
+     */
+    void onFlushed(int birdcallCount, long oldestEditTime, long duration) {
+        mFlushCount++;
+        mLastFlushLatency = SystemClock.elapsedRealtime() - oldestEditTime;
+        mLastFlushDuration = duration;
+        Log.d(BirdcallEditQueue.class.getSimpleName(), "onFlushed: " + birdcallCount + " birdcall(s) saved in " + duration + "ms, " + mLastFlushLatency + "ms after oldest edit.");
+    }
+
+    /**
+     * Get number of birdcalls with edits waiting to be saved.
+     * @return Depth of queue.
+     */
+    public int getQueueDepth() {
+        return mPending.size();
+    }
+
+    /**
+     * Get total number of edits queued, including those coalesced with others.
+     * @return Number of edits.
+     */
+    public int getEditCount() {
+        return mEditCount;
+    }
+
+    /**
+     * Get total number of transactions in which edits have been saved.
+     * @return Number of transactions.
+     */
+    public int getFlushCount() {
+        return mFlushCount;
+    }
+
+    /**
+     * Get time between oldest edit of most recent save and its completion.
+     * @return Latency in milliseconds.
+     */
+    public long getLastFlushLatency() {
+        return mLastFlushLatency;
+    }
+
+    /**
+     * Get duration of transaction of most recent save.
+     * @return Duration in milliseconds.
+     */
+    public long getLastFlushDuration() {
+        return mLastFlushDuration;
+    }
+}
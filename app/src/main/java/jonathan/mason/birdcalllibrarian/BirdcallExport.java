@@ -0,0 +1,615 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.app.Application;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.text.TextUtils;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+import android.widget.Toast;
+
+import androidx.preference.PreferenceManager;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallDatabase;
+import jonathan.mason.birdcalllibrarian.Database.RecordingSegment;
+import jonathan.mason.birdcalllibrarian.Database.RecordingStore;
+
+/**
+ * Export of birdcalls, optionally only those within a date range, or of a species, into ZIP
+ * archives holding each recording, along with a CSV manifest of their details; a singleton.
+ * <p>Birdcalls are read a page at a time, in order of ID, as BACKGROUND tasks in the READ lane
+ * of TaskScheduler, and their recordings streamed into the archive through a fixed-size
+ * buffer, so that the library is never held in memory as a whole. Rows of the manifest are
+ * written into a temporary file as birdcalls are exported, then copied into the archive once
+ * it is otherwise complete.</p>
+ * <p>Export is either into a single document, or, for very large libraries, resumable: into a
+ * directory, as a series of archives of about PART_SIZE_BYTES each, every one complete with its
+ * own manifest. Progress is saved after each archive, so an export interrupted by the app being
+ * closed resumes next time MainActivity is created, rewriting only the archive it was
+ * part way through.</p>
+ * <p>Must be used on main user interface thread.</p>
+ */
+public class BirdcallExport {
+    /**
+     * Number of birdcalls read from database at a time.
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Size of buffer through which recordings are streamed into archive.
+     */
+    private static final int BUFFER_SIZE_BYTES = 64 * 1024;
+
+    /**
+     * Size of recordings after which a resumable export moves on to a new archive.
+     */
+    private static final long PART_SIZE_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * Names of manifest and of archives of a resumable export.
+     */
+    private static final String MANIFEST_NAME = "manifest.csv";
+    private static final String PART_NAME_FORMAT = "birdcalls-%03d.zip";
+
+    /**
+     * Columns of manifest.
+     */
+    private static final String MANIFEST_HEADER = "id,species,title,notes,date_and_time,longitude,latitude,duration_ms,codec,files";
+
+    /**
+     * Keys of preferences holding progress of resumable export.
+     */
+    private static final String EXPORT_DIRECTORY_URI = "EXPORT_DIRECTORY_URI";
+    private static final String EXPORT_FROM = "EXPORT_FROM";
+    private static final String EXPORT_TO = "EXPORT_TO";
+    private static final String EXPORT_SPECIES = "EXPORT_SPECIES";
+    private static final String EXPORT_NEXT_PART = "EXPORT_NEXT_PART";
+    private static final String EXPORT_AFTER_ID = "EXPORT_AFTER_ID";
+
+    private final static Object LOCK = new Object();
+    private static BirdcallExport mInstance = null;
+
+    private final Application mApplication;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE_BYTES];
+    private boolean mExporting;
+    private Filter mFilter;
+    private Uri mDirectoryUri;
+    private int mPart;
+    private int mAfterId;
+    private ZipOutputStream mZip;
+    private File mManifestFile;
+    private BufferedWriter mManifest;
+    private long mPartSize;
+    private int mExportedCount;
+
+    /**
+     * Implement singleton, creating single instance of export, if not created, or simply
+     * retrieving previously created instance.
+     * @param application The application.
+     * @return Export.
+     */
+    public static BirdcallExport getInstance(Application application) {
+        if (mInstance == null) {
+            synchronized (LOCK) {
+                if (mInstance == null)
+                    mInstance = new BirdcallExport(application);
+            }
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Constructor.
+     * @param application The application.
+     */
+    private BirdcallExport(Application application) {
+        mApplication = application;
+    }
+
+    /**
+     * Export birdcalls into single archive.
+     * @param documentUri URI of document into which to write archive, from
+     *                    Intent.ACTION_CREATE_DOCUMENT.
+     * @param filter Birdcalls to export.
+     */
+    public void exportToDocument(Uri documentUri, Filter filter) {
+        if (!this.beginExport(filter, null, 1, 0))
+            return;
+
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.READ, TaskScheduler.Priority.BACKGROUND, new ExportTask<Void>() {
+            /**
+             * Open archive.
+             * <p>Run on thread of READ lane.</p>
+             * @return Nothing.
+             * @throws IOException Thrown if archive could not be opened.
+             */
+            @Override
+            protected Void run() throws IOException {
+                openArchive(documentUri);
+                return null;
+            }
+
+            /**
+             * Start exporting birdcalls.
+             * @param result Nothing.
+             */
+            @Override
+            protected void onComplete(Void result) {
+                exportNextPage();
+            }
+        });
+    }
+
+    /**
+     * Export birdcalls into series of archives within directory, resuming if interrupted.
+     * @param directoryUri URI of directory tree, from Intent.ACTION_OPEN_DOCUMENT_TREE.
+     * @param filter Birdcalls to export.
+     */
+    public void exportToDirectory(Uri directoryUri, Filter filter) {
+        try {
+            mApplication.getContentResolver().takePersistableUriPermission(directoryUri, Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+        } catch (SecurityException e) {
+            // Export can still go ahead, but not be resumed.
+            Log.e(BirdcallExport.class.getSimpleName(), "exportToDirectory: unable to keep permission for \"" + directoryUri + "\".", e);
+        }
+
+        if (!this.beginExport(filter, directoryUri, 1, 0))
+            return;
+
+        this.saveProgress();
+        this.startPart();
+    }
+
+    /**
+     * Resume resumable export interrupted when app was last closed, if any.
+     */
+    public void resume() {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mApplication);
+        String directoryUri = preferences.getString(EXPORT_DIRECTORY_URI, null);
+        if (mExporting || (directoryUri == null))
+            return;
+
+        long from = preferences.getLong(EXPORT_FROM, -1);
+        long to = preferences.getLong(EXPORT_TO, -1);
+        Filter filter = new Filter((from >= 0) ? new Date(from) : null, (to >= 0) ? new Date(to) : null, preferences.getString(EXPORT_SPECIES, null));
+        this.beginExport(filter, Uri.parse(directoryUri), preferences.getInt(EXPORT_NEXT_PART, 1), preferences.getInt(EXPORT_AFTER_ID, 0));
+        this.startPart();
+    }
+
+    /**
+     * Begin export, unless one is already in progress.
+     * @param filter Birdcalls to export.
+     * @param directoryUri URI of directory of resumable export, or null if into single
+     *                     document.
+     * @param part Number of first archive, from 1.
+     * @param afterId ID of birdcall after which to start.
+     * @return True if export may begin, otherwise false.
+     */
+    private boolean beginExport(Filter filter, Uri directoryUri, int part, int afterId) {
+        if (mExporting) {
+            Toast.makeText(mApplication, mApplication.getString(R.string.export_in_progress), Toast.LENGTH_LONG).show();
+            return false;
+        }
+
+        mExporting = true;
+        mFilter = filter;
+        mDirectoryUri = directoryUri;
+        mPart = part;
+        mAfterId = afterId;
+        mExportedCount = 0;
+        Toast.makeText(mApplication, mApplication.getString(R.string.export_started), Toast.LENGTH_LONG).show();
+        return true;
+    }
+
+    /**
+     * Create next archive of resumable export, replacing any left part way through when
+     * export was interrupted, on thread of READ lane, then start exporting birdcalls into it.
+     */
+    private void startPart() {
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.READ, TaskScheduler.Priority.BACKGROUND, new ExportTask<Void>() {
+            /**
+             * Create and open archive.
+             * <p>Run on thread of READ lane.</p>
+             * @return Nothing.
+             * @throws IOException Thrown if archive could not be created.
+             */
+            @Override
+            protected Void run() throws IOException {
+                ContentResolver contentResolver = mApplication.getContentResolver();
+                Uri parentUri = DocumentsContract.buildDocumentUriUsingTree(mDirectoryUri, DocumentsContract.getTreeDocumentId(mDirectoryUri));
+                String name = String.format(Locale.US, PART_NAME_FORMAT, mPart);
+                Uri existingUri = findChild(name);
+                if (existingUri != null)
+                    DocumentsContract.deleteDocument(contentResolver, existingUri);
+
+                Uri documentUri = DocumentsContract.createDocument(contentResolver, parentUri, "application/zip", name);
+                if (documentUri == null)
+                    throw new IOException("Unable to create \"" + name + "\".");
+                openArchive(documentUri);
+                return null;
+            }
+
+            /**
+             * Start exporting birdcalls.
+             * @param result Nothing.
+             */
+            @Override
+            protected void onComplete(Void result) {
+                exportNextPage();
+            }
+        });
+    }
+
+    /**
+     * Find document within directory of resumable export.
+     * <p>Run on thread of READ lane.</p>
+     * @param name Name of document.
+     * @return URI of document, or null if there is none.
+     */
+    private Uri findChild(String name) {
+        Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(mDirectoryUri, DocumentsContract.getTreeDocumentId(mDirectoryUri));
+        String[] projection = { DocumentsContract.Document.COLUMN_DOCUMENT_ID, DocumentsContract.Document.COLUMN_DISPLAY_NAME };
+        try (Cursor cursor = mApplication.getContentResolver().query(childrenUri, projection, null, null, null)) {
+            while ((cursor != null) && cursor.moveToNext()) {
+                if (name.equals(cursor.getString(1)))
+                    return DocumentsContract.buildDocumentUriUsingTree(mDirectoryUri, cursor.getString(0));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Open archive, and temporary file for its manifest.
+     * <p>Run on thread of READ lane.</p>
+     * @param documentUri URI of document into which to write archive.
+     * @throws IOException Thrown if archive could not be opened.
+     */
+    private void openArchive(Uri documentUri) throws IOException {
+        OutputStream stream = mApplication.getContentResolver().openOutputStream(documentUri, "w");
+        if (stream == null)
+            throw new IOException("Unable to open \"" + documentUri + "\".");
+        mZip = new ZipOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE_BYTES));
+
+        // Recordings are mostly compressed already, so little is gained by trying hard.
+        mZip.setLevel(Deflater.BEST_SPEED);
+        mPartSize = 0;
+
+        mManifestFile = File.createTempFile("manifest", ".csv", mApplication.getCacheDir());
+        mManifest = new BufferedWriter(new FileWriter(mManifestFile));
+        mManifest.write(MANIFEST_HEADER);
+        mManifest.newLine();
+    }
+
+    /**
+     * Export next page of birdcalls on thread of READ lane, then carry on with next page,
+     * move on to next archive, or finish.
+     */
+    private void exportNextPage() {
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.READ, TaskScheduler.Priority.BACKGROUND, new ExportTask<Integer>() {
+            /**
+             * Export next page of birdcalls.
+             * <p>Run on thread of READ lane.</p>
+             * @return Number of birdcalls on page.
+             * @throws IOException Thrown if a birdcall could not be written.
+             */
+            @Override
+            protected Integer run() throws IOException {
+                BirdcallDatabase database = BirdcallDatabase.getInstance(mApplication);
+                List<Birdcall> birdcalls = database.DAO().findBirdcallsToExport(mFilter.getFrom(), mFilter.getTo(), mFilter.getSpecies(), mAfterId, PAGE_SIZE);
+                for (Birdcall birdcall : birdcalls) {
+                    writeBirdcall(birdcall, database.DAO().findSegments(birdcall.getId()));
+                    mAfterId = birdcall.getId();
+                }
+                return birdcalls.size();
+            }
+
+            /**
+             * Carry on with next page, move on to next archive of resumable export once this
+             * one is full, or finish once there are no more birdcalls.
+             * @param count Number of birdcalls on page.
+             */
+            @Override
+            protected void onComplete(Integer count) {
+                if (count < PAGE_SIZE)
+                    finishPart(true);
+                else if ((mDirectoryUri != null) && (mPartSize >= PART_SIZE_BYTES))
+                    finishPart(false);
+                else
+                    exportNextPage();
+            }
+        });
+    }
+
+    /**
+     * Write recording of birdcall, including any further segments, into archive, and its
+     * details into manifest.
+     * <p>Run on thread of READ lane.</p>
+     * @param birdcall Birdcall to write.
+     * @param segments Further segments of birdcall.
+     * @throws IOException Thrown if birdcall could not be written.
+     */
+    private void writeBirdcall(Birdcall birdcall, List<RecordingSegment> segments) throws IOException {
+        RecordingStore recordingStore = RecordingStore.getInstance(mApplication);
+        List<String> hashes = new ArrayList<>();
+        if (birdcall.getRecordingHash() != null)
+            hashes.add(birdcall.getRecordingHash());
+        for (RecordingSegment segment : segments)
+            hashes.add(segment.getRecordingHash());
+
+        String extension = getFileExtension(birdcall.getRecordingCodec());
+        List<String> entryNames = new ArrayList<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            File file = recordingStore.getFile(hashes.get(i));
+            if (!file.exists()) {
+                Log.e(BirdcallExport.class.getSimpleName(), "writeBirdcall: recording \"" + hashes.get(i) + "\" of birdcall " + birdcall.getId() + " missing.");
+                continue;
+            }
+
+            String entryName = "recordings/" + birdcall.getId() + ((i > 0) ? "-" + i : "") + extension;
+            ZipEntry entry = new ZipEntry(entryName);
+            if (birdcall.getDateAndTime() != null)
+                entry.setTime(birdcall.getDateAndTime().getTime());
+            mZip.putNextEntry(entry);
+            try (InputStream stream = new FileInputStream(file)) {
+                int read;
+                while ((read = stream.read(mBuffer)) != -1)
+                    mZip.write(mBuffer, 0, read);
+            }
+            mZip.closeEntry();
+            mPartSize += file.length();
+            entryNames.add(entryName);
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        mManifest.write(birdcall.getId() + ","
+                + escapeCsv(birdcall.getSpecies()) + ","
+                + escapeCsv(birdcall.getTitle()) + ","
+                + escapeCsv(birdcall.getNotes()) + ","
+                + ((birdcall.getDateAndTime() != null) ? dateFormat.format(birdcall.getDateAndTime()) : "") + ","
+                + birdcall.getLongitude() + ","
+                + birdcall.getLatitude() + ","
+                + birdcall.getDuration() + ","
+                + escapeCsv(birdcall.getRecordingCodec()) + ","
+                + escapeCsv(TextUtils.join(";", entryNames)));
+        mManifest.newLine();
+        mExportedCount++;
+    }
+
+    /**
+     * Complete archive with its manifest on thread of READ lane, saving progress of resumable
+     * export, then move on to next archive, or finish.
+     * @param last True if no birdcalls remain to be exported, otherwise false.
+     */
+    private void finishPart(boolean last) {
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.READ, TaskScheduler.Priority.BACKGROUND, new ExportTask<Void>() {
+            /**
+             * Copy manifest into archive, and close it.
+             * <p>Run on thread of READ lane.</p>
+             * @return Nothing.
+             * @throws IOException Thrown if archive could not be completed.
+             */
+            @Override
+            protected Void run() throws IOException {
+                mManifest.close();
+                mManifest = null;
+                mZip.putNextEntry(new ZipEntry(MANIFEST_NAME));
+                try (InputStream stream = new FileInputStream(mManifestFile)) {
+                    int read;
+                    while ((read = stream.read(mBuffer)) != -1)
+                        mZip.write(mBuffer, 0, read);
+                }
+                mZip.closeEntry();
+                mZip.close();
+                mZip = null;
+                mManifestFile.delete();
+                mManifestFile = null;
+
+                if (mDirectoryUri != null) {
+                    mPart++;
+                    if (last)
+                        clearProgress();
+                    else
+                        saveProgress();
+                }
+                return null;
+            }
+
+            /**
+             * Move on to next archive, or report export complete.
+             * @param result Nothing.
+             */
+            @Override
+            protected void onComplete(Void result) {
+                if (!last) {
+                    startPart();
+                    return;
+                }
+
+                mExporting = false;
+                Log.i(BirdcallExport.class.getSimpleName(), "onComplete: exported " + mExportedCount + " birdcall(s).");
+                Toast.makeText(mApplication, mApplication.getResources().getQuantityString(R.plurals.export_completed, mExportedCount, mExportedCount), Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * Save progress of resumable export, so that it carries on from next archive if
+     * interrupted.
+     */
+    private void saveProgress() {
+        PreferenceManager.getDefaultSharedPreferences(mApplication).edit()
+                .putString(EXPORT_DIRECTORY_URI, mDirectoryUri.toString())
+                .putLong(EXPORT_FROM, (mFilter.getFrom() != null) ? mFilter.getFrom().getTime() : -1)
+                .putLong(EXPORT_TO, (mFilter.getTo() != null) ? mFilter.getTo().getTime() : -1)
+                .putString(EXPORT_SPECIES, mFilter.getSpecies())
+                .putInt(EXPORT_NEXT_PART, mPart)
+                .putInt(EXPORT_AFTER_ID, mAfterId)
+                .commit();
+    }
+
+    /**
+     * Forget progress of resumable export, once complete.
+     */
+    private void clearProgress() {
+        PreferenceManager.getDefaultSharedPreferences(mApplication).edit()
+                .remove(EXPORT_DIRECTORY_URI)
+                .remove(EXPORT_FROM)
+                .remove(EXPORT_TO)
+                .remove(EXPORT_SPECIES)
+                .remove(EXPORT_NEXT_PART)
+                .remove(EXPORT_AFTER_ID)
+                .commit();
+    }
+
+    /**
+     * Close archive and manifest, if open, without completing them, after export failed.
+     */
+    private void abandonPart() {
+        try {
+            if (mManifest != null)
+                mManifest.close();
+            if (mZip != null)
+                mZip.close();
+        } catch (IOException e) {
+            Log.e(BirdcallExport.class.getSimpleName(), "abandonPart: unable to close archive.", e);
+        }
+        mManifest = null;
+        mZip = null;
+        if (mManifestFile != null)
+            mManifestFile.delete();
+        mManifestFile = null;
+    }
+
+    /**
+     * Get extension of recordings with supplied codec.
+     * @param codec Codec of recordings.
+     * @return Extension, including dot.
+     */
+    private static String getFileExtension(String codec) {
+        if (Birdcall.CODEC_AMR_NB_3GP.equals(codec))
+            return ".3gp";
+        else if (Birdcall.CODEC_PCM_WAV.equals(codec))
+            return ".wav";
+        else if (Birdcall.CODEC_AAC_M4A.equals(codec))
+            return ".m4a";
+
+        // Imported recordings hold their MIME type as codec.
+        String extension = (codec != null) ? MimeTypeMap.getSingleton().getExtensionFromMimeType(codec) : null;
+        return (extension != null) ? "." + extension : ".audio";
+    }
+
+    /**
+     * Escape value for CSV, quoting it if it holds a comma, quote or line break.
+     * @param value Value, which may be null.
+     * @return Escaped value, empty if null.
+     */
+    private static String escapeCsv(String value) {
+        if (value == null)
+            return "";
+        if ((value.indexOf(',') < 0) && (value.indexOf('"') < 0) && (value.indexOf('\n') < 0) && (value.indexOf('\r') < 0))
+            return value;
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Task of export, abandoning export if it fails.
+     * @param <Result> Type of result.
+     */
+    private abstract class ExportTask<Result> extends TaskScheduler.Task<Result> {
+        /**
+         * Log failure, then abandon export; a resumable export carries on next time from the
+         * archive it was part way through.
+         * @param e Exception thrown by task.
+         */
+        @Override
+        protected void onFailed(Exception e) {
+            super.onFailed(e);
+            TaskScheduler.getInstance().submit(TaskScheduler.Lane.READ, TaskScheduler.Priority.BACKGROUND, new TaskScheduler.Task<Void>() {
+                /**
+                 * Close archive, on thread on which it was written.
+                 * <p>Run on thread of READ lane.</p>
+                 * @return Nothing.
+                 */
+                @Override
+                protected Void run() {
+                    abandonPart();
+                    return null;
+                }
+            });
+
+            mExporting = false;
+            Toast.makeText(mApplication, mApplication.getString((mDirectoryUri != null) ? R.string.export_interrupted : R.string.export_failed), Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Birdcalls to be exported: those within a date range, and of a species, either of which
+     * may be left open.
+     */
+    public static class Filter {
+        private final Date mFrom;
+        private final Date mTo;
+        private final String mSpecies;
+
+        /**
+         * Constructor.
+         * @param from Earliest date and time of birdcalls, or null for no limit.
+         * @param to Date and time before which birdcalls were recorded, or null for no limit.
+         * @param species Species of birdcalls, ignoring case, or null for all species.
+         */
+        public Filter(Date from, Date to, String species) {
+            mFrom = from;
+            mTo = to;
+            mSpecies = species;
+        }
+
+        /**
+         * Get earliest date and time of birdcalls.
+         * @return Date and time, or null for no limit.
+         */
+        public Date getFrom() {
+            return mFrom;
+        }
+
+        /**
+         * Get date and time before which birdcalls were recorded.
+         * @return Date and time, or null for no limit.
+         */
+        public Date getTo() {
+            return mTo;
+        }
+
+        /**
+         * Get species of birdcalls.
+         * @return Species, or null for all species.
+         */
+        public String getSpecies() {
+            return mSpecies;
+        }
+    }
+}
@@ -0,0 +1,773 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.app.Application;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.database.Cursor;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.preference.PreferenceManager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jonathan.mason.birdcalllibrarian.Analysis.FilePcmSource;
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallDatabase;
+import jonathan.mason.birdcalllibrarian.Database.RecordingStore;
+
+/**
+ * Bulk import of audio files as birdcalls, from a directory tree, or a set of documents,
+ * picked by the user; a singleton.
+ * <p>Files to import are first listed into a queue file, then imported a batch at a time:
+ * files of each batch are copied into RecordingStore and probed in parallel, split between as
+ * many BACKGROUND tasks in the CODEC lane of TaskScheduler as may run at the same time,
+ * reading duration and any embedded date and time, and location, and summarising their
+ * waveforms; then birdcalls of the whole batch are inserted in a single transaction in the
+ * WRITE lane. Files which are not audio, or cannot
+ * be read, are skipped.</p>
+ * <p>Position in queue is saved after each batch, so an import interrupted by the app being
+ * closed resumes where it stopped next time MainActivity is created. Permission to read a
+ * picked directory tree is kept until import finishes, so it can be resumed; permission to
+ * read picked documents is not kept, so after a restart those still to be imported are
+ * counted as failed. A batch interrupted before
+ * being saved is imported again, but recordings already referred to by a birdcall are skipped,
+ * so it is not imported twice.</p>
+ * <p>Must be used on main user interface thread.</p>
+ */
+public class BirdcallImport {
+    /**
+     * Number of files imported in each transaction.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Name of file, within app-private storage, holding queue of files to import.
+     */
+    private static final String QUEUE_FILE_NAME = "import_queue.txt";
+
+    /**
+     * Key of preference holding position in queue of next file to import.
+     */
+    private static final String IMPORT_NEXT_INDEX = "IMPORT_NEXT_INDEX";
+
+    /**
+     * Key of preference holding URI of directory tree being imported, whose permission is kept.
+     */
+    private static final String IMPORT_TREE_URI = "IMPORT_TREE_URI";
+
+    /**
+     * Formats of dates embedded in audio files, as returned by MediaMetadataRetriever, in UTC.
+     */
+    private static final String[] DATE_FORMATS = { "yyyyMMdd'T'HHmmss.SSS'Z'", "yyyyMMdd'T'HHmmss'Z'", "yyyyMMdd'T'HHmmss" };
+
+    /**
+     * Latitude and longitude at start of ISO 6709 location, e.g. "+51.5074-000.1278/".
+     */
+    private static final Pattern LOCATION_PATTERN = Pattern.compile("^([+-]\\d+(?:\\.\\d+)?)([+-]\\d+(?:\\.\\d+)?)");
+
+    private final static Object LOCK = new Object();
+    private static BirdcallImport mInstance = null;
+
+    private final Application mApplication;
+    private boolean mImporting;
+    private List<ImportSource> mSources;
+    private long mStartTime;
+    private int mProcessedCount;
+    private int mImportedCount;
+    private int mSkippedCount;
+    private int mFailedCount;
+    private long mByteCount;
+
+    // State of batch being probed.
+    private List<List<ProbedRecording>> mBatchRecordings;
+    private int mBatchRemainingCount;
+    private boolean mBatchFailed;
+
+    /**
+     * Implement singleton, creating single instance of import, if not created, or simply
+     * retrieving previously created instance.
+     * @param application The application.
+     * @return Import.
+     */
+    public static BirdcallImport getInstance(Application application) {
+        if (mInstance == null) {
+            synchronized (LOCK) {
+                if (mInstance == null)
+                    mInstance = new BirdcallImport(application);
+            }
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Constructor.
+     * @param application The application.
+     */
+    private BirdcallImport(Application application) {
+        mApplication = application;
+    }
+
+    /**
+     * Import all audio files within directory tree picked by user, including subdirectories.
+     * @param treeUri URI of directory tree, from Intent.ACTION_OPEN_DOCUMENT_TREE.
+     */
+    public void importDirectory(Uri treeUri) {
+        if (!this.beginImport(treeUri))
+            return;
+
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.CODEC, TaskScheduler.Priority.USER, new QueueTask() {
+            /**
+             * Walk directory tree, listing audio files within it.
+             * <p>Run on thread of CODEC lane.</p>
+             * @return Files to import.
+             * @throws IOException Thrown if queue could not be saved.
+             */
+            @Override
+            protected List<ImportSource> run() throws IOException {
+                List<ImportSource> sources = new ArrayList<>();
+                walk(treeUri, DocumentsContract.getTreeDocumentId(treeUri), sources);
+                return saveQueue(sources);
+            }
+        });
+    }
+
+    /**
+     * Import audio files picked by user.
+     * @param uris URIs of files, from Intent.ACTION_OPEN_DOCUMENT.
+     */
+    public void importDocuments(List<Uri> uris) {
+        if (uris.isEmpty() || !this.beginImport(null))
+            return;
+
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.CODEC, TaskScheduler.Priority.USER, new QueueTask() {
+            /**
+             * Read name, size and date of each file.
+             * <p>Run on thread of CODEC lane.</p>
+             * @return Files to import.
+             * @throws IOException Thrown if queue could not be saved.
+             */
+            @Override
+            protected List<ImportSource> run() throws IOException {
+                List<ImportSource> sources = new ArrayList<>();
+                for (Uri uri : uris) {
+                    try (Cursor cursor = mApplication.getContentResolver().query(uri, null, null, null, null)) {
+                        if ((cursor != null) && cursor.moveToFirst())
+                            sources.add(readSource(uri, cursor));
+                    } catch (RuntimeException e) {
+                        Log.e(BirdcallImport.class.getSimpleName(), "run: unable to read details of \"" + uri + "\".", e);
+                    }
+                }
+                return saveQueue(sources);
+            }
+        });
+    }
+
+    /**
+     * Resume import interrupted when app was last closed, if any.
+     */
+    public void resume() {
+        File queueFile = new File(mApplication.getFilesDir(), QUEUE_FILE_NAME);
+        if (mImporting || !queueFile.exists())
+            return;
+
+        mImporting = true;
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.CODEC, TaskScheduler.Priority.BACKGROUND, new QueueTask() {
+            /**
+             * Load queue of files to import.
+             * <p>Run on thread of CODEC lane.</p>
+             * @return Files to import.
+             * @throws IOException Thrown if queue could not be loaded.
+             */
+            @Override
+            protected List<ImportSource> run() throws IOException {
+                return loadQueue();
+            }
+        });
+    }
+
+    /**
+     * Begin new import, unless one is already in progress, keeping permission to read any
+     * picked directory tree, so that import can be resumed if interrupted, in place of that of
+     * any earlier import which was never finished.
+     * @param treeUri URI of directory tree picked by user, or null for picked documents.
+     * @return True if import may begin, otherwise false.
+     */
+    private boolean beginImport(Uri treeUri) {
+        if (mImporting) {
+            Toast.makeText(mApplication, mApplication.getString(R.string.import_in_progress), Toast.LENGTH_LONG).show();
+            return false;
+        }
+
+        this.releaseTreePermission();
+        if (treeUri != null) {
+            try {
+                mApplication.getContentResolver().takePersistableUriPermission(treeUri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                PreferenceManager.getDefaultSharedPreferences(mApplication).edit().putString(IMPORT_TREE_URI, treeUri.toString()).apply();
+            } catch (SecurityException e) {
+                // Import can still go ahead, but not be resumed.
+                Log.e(BirdcallImport.class.getSimpleName(), "beginImport: unable to keep permission for \"" + treeUri + "\".", e);
+            }
+        }
+
+        mImporting = true;
+        Toast.makeText(mApplication, mApplication.getString(R.string.import_started), Toast.LENGTH_LONG).show();
+        return true;
+    }
+
+    /**
+     * List audio files within directory, and its subdirectories.
+     * <p>Run on thread of CODEC lane.</p>
+     * @param treeUri URI of directory tree.
+     * @param documentId ID of directory within tree.
+     * @param sources List to which files are added.
+     */
+    private void walk(Uri treeUri, String documentId, List<ImportSource> sources) {
+        Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, documentId);
+        List<String> directoryIds = new ArrayList<>();
+        try (Cursor cursor = mApplication.getContentResolver().query(childrenUri, null, null, null, null)) {
+            if (cursor == null)
+                return;
+
+            int idColumn = cursor.getColumnIndexOrThrow(DocumentsContract.Document.COLUMN_DOCUMENT_ID);
+            int mimeTypeColumn = cursor.getColumnIndexOrThrow(DocumentsContract.Document.COLUMN_MIME_TYPE);
+            while (cursor.moveToNext()) {
+                String mimeType = cursor.getString(mimeTypeColumn);
+                if (DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType))
+                    directoryIds.add(cursor.getString(idColumn));
+                else if ((mimeType != null) && mimeType.startsWith("audio/"))
+                    sources.add(readSource(DocumentsContract.buildDocumentUriUsingTree(treeUri, cursor.getString(idColumn)), cursor));
+            }
+        } catch (RuntimeException e) {
+            Log.e(BirdcallImport.class.getSimpleName(), "walk: unable to list \"" + documentId + "\".", e);
+        }
+
+        // Cursor is closed before going deeper, so only one is open at a time.
+        for (String directoryId : directoryIds)
+            walk(treeUri, directoryId, sources);
+    }
+
+    /**
+     * Read details of file to import from current row of cursor.
+     * @param uri URI of file.
+     * @param cursor Cursor of documents, or openable, columns.
+     * @return File to import.
+     */
+    private static ImportSource readSource(Uri uri, Cursor cursor) {
+        int nameColumn = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+        int sizeColumn = cursor.getColumnIndex(OpenableColumns.SIZE);
+        int lastModifiedColumn = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+        String name = ((nameColumn >= 0) && !cursor.isNull(nameColumn)) ? cursor.getString(nameColumn) : uri.getLastPathSegment();
+        long size = ((sizeColumn >= 0) && !cursor.isNull(sizeColumn)) ? cursor.getLong(sizeColumn) : -1;
+        long lastModified = ((lastModifiedColumn >= 0) && !cursor.isNull(lastModifiedColumn)) ? cursor.getLong(lastModifiedColumn) : 0;
+        return new ImportSource(uri, name, size, lastModified);
+    }
+
+    /**
+     * Save queue of files to import, starting from first.
+     * @param sources Files to import.
+     * @return Files to import.
+     * @throws IOException Thrown if queue could not be saved.
+     */
+    private List<ImportSource> saveQueue(List<ImportSource> sources) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(mApplication.getFilesDir(), QUEUE_FILE_NAME)))) {
+            for (ImportSource source : sources) {
+                writer.write(source.mUri + "\t" + source.mName.replaceAll("[\t\n\r]", " ") + "\t" + source.mSize + "\t" + source.mLastModified);
+                writer.newLine();
+            }
+        }
+        PreferenceManager.getDefaultSharedPreferences(mApplication).edit().putInt(IMPORT_NEXT_INDEX, 0).commit();
+        return sources;
+    }
+
+    /**
+     * Load queue of files to import.
+     * @return Files to import, including those already imported.
+     * @throws IOException Thrown if queue could not be loaded.
+     */
+    private List<ImportSource> loadQueue() throws IOException {
+        List<ImportSource> sources = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(mApplication.getFilesDir(), QUEUE_FILE_NAME)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 4)
+                    sources.add(new ImportSource(Uri.parse(fields[0]), fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Start importing files of queue, from file after last batch saved.
+     * @param sources Files to import.
+     */
+    private void start(List<ImportSource> sources) {
+        mSources = sources;
+        mStartTime = SystemClock.elapsedRealtime();
+        mProcessedCount = 0;
+        mImportedCount = 0;
+        mSkippedCount = 0;
+        mFailedCount = 0;
+        mByteCount = 0;
+        this.importNextBatch(PreferenceManager.getDefaultSharedPreferences(mApplication).getInt(IMPORT_NEXT_INDEX, 0));
+    }
+
+    /**
+     * Copy and probe files of next batch, split between tasks of CODEC lane, then insert their
+     * birdcalls once all are done, or finish import if there are none left.
+     * @param startIndex Position in queue of first file of batch.
+     */
+    private void importNextBatch(int startIndex) {
+        if (startIndex >= mSources.size()) {
+            this.finish();
+            return;
+        }
+
+        int endIndex = Math.min(startIndex + BATCH_SIZE, mSources.size());
+        List<ImportSource> sources = new ArrayList<>(mSources.subList(startIndex, endIndex));
+
+        // No more tasks than may run at the same time, so that they fit in queue, even though
+        // submitted from main user interface thread.
+        int taskCount = Math.min(TaskScheduler.getBackgroundParallelism(TaskScheduler.Lane.CODEC), sources.size());
+        mBatchRecordings = new ArrayList<>(Collections.nCopies(taskCount, (List<ProbedRecording>)null));
+        mBatchRemainingCount = taskCount;
+        mBatchFailed = false;
+        for (int i = 0; i < taskCount; i++) {
+            int taskIndex = i;
+            List<ImportSource> taskSources = sources.subList(i * sources.size() / taskCount, (i + 1) * sources.size() / taskCount);
+            TaskScheduler.getInstance().submit(TaskScheduler.Lane.CODEC, TaskScheduler.Priority.BACKGROUND, new TaskScheduler.Task<List<ProbedRecording>>() {
+                /**
+                 * Copy files into store, without committing them, and probe them, skipping any
+                 * which fail.
+                 * <p>Run on thread of CODEC lane.</p>
+                 * @return Probed recordings.
+                 */
+                @Override
+                protected List<ProbedRecording> run() {
+                    List<ProbedRecording> probedRecordings = new ArrayList<>();
+                    for (ImportSource source : taskSources) {
+                        try {
+                            probedRecordings.add(probe(source));
+                        } catch (IOException e) {
+                            Log.e(BirdcallImport.class.getSimpleName(), "run: unable to import \"" + source.mUri + "\".", e);
+                        }
+                    }
+                    return probedRecordings;
+                }
+
+                /**
+                 * Keep probed recordings until all tasks of batch are done.
+                 * @param probedRecordings Probed recordings.
+                 */
+                @Override
+                protected void onComplete(List<ProbedRecording> probedRecordings) {
+                    mBatchRecordings.set(taskIndex, probedRecordings);
+                    onBatchTaskDone(sources.size(), endIndex);
+                }
+
+                /**
+                 * Log failure, including rejection whilst CODEC lane is full, so that batch is
+                 * abandoned once all its tasks are done.
+                 * @param e Exception thrown by task.
+                 */
+                @Override
+                protected void onFailed(Exception e) {
+                    super.onFailed(e);
+                    mBatchFailed = true;
+                    onBatchTaskDone(sources.size(), endIndex);
+                }
+            });
+        }
+    }
+
+    /**
+     * Handle task of batch being done, and once all are, count files of batch, then insert
+     * birdcalls of probed recordings, in order of queue, or, if any task failed, discard them
+     * and stop import, to be resumed from start of batch next time.
+     * @param batchSize Number of files of batch.
+     * @param endIndex Position in queue of file after batch.
+     */
+    private void onBatchTaskDone(int batchSize, int endIndex) {
+        if (--mBatchRemainingCount > 0)
+            return;
+
+        List<ProbedRecording> probedRecordings = new ArrayList<>();
+        for (List<ProbedRecording> taskRecordings : mBatchRecordings) {
+            if (taskRecordings != null)
+                probedRecordings.addAll(taskRecordings);
+        }
+        mBatchRecordings = null;
+
+        if (mBatchFailed) {
+            for (ProbedRecording probedRecording : probedRecordings)
+                probedRecording.mRecording.discard();
+            mImporting = false;
+            Toast.makeText(mApplication, mApplication.getString(R.string.import_failed), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        mProcessedCount += batchSize;
+        mFailedCount += batchSize - probedRecordings.size();
+        for (ProbedRecording probedRecording : probedRecordings)
+            mByteCount += probedRecording.mBirdcall.getRecordingSize();
+        this.insertBatch(probedRecordings, endIndex);
+    }
+
+    /**
+     * Insert birdcalls of batch in a single transaction, on thread of WRITE lane, committing
+     * their recordings to store, then save position in queue and start next batch.
+     * @param probedRecordings Probed recordings of batch.
+     * @param endIndex Position in queue of file after batch.
+     */
+    private void insertBatch(List<ProbedRecording> probedRecordings, int endIndex) {
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.BACKGROUND, new TaskScheduler.Task<Integer>() {
+            /**
+             * Insert birdcalls of batch, skipping any whose recording is already referred to.
+             * <p>Run on thread of WRITE lane.</p>
+             * @return Number of birdcalls inserted.
+             * @throws Exception Thrown if birdcalls could not be inserted.
+             */
+            @Override
+            protected Integer run() throws Exception {
+                BirdcallDatabase database = BirdcallDatabase.getInstance(mApplication);
+                RecordingStore recordingStore = RecordingStore.getInstance(mApplication);
+                int[] insertedCount = { 0 };
+                try {
+                    database.runInTransaction(new Callable<Void>() {
+                        /**
+                         * Task to be executed within transaction.
+                         * @return Nothing.
+                         * @throws IOException Thrown if a recording could not be committed to
+                         * store.
+                         */
+                        @Override
+                        public Void call() throws IOException {
+                            for (ProbedRecording probedRecording : probedRecordings) {
+                                // Already imported, whether by batch interrupted before being
+                                // saved, or as a copy of another file.
+                                if (database.DAO().countRecordingReferences(probedRecording.mRecording.getHash()) > 0)
+                                    continue;
+
+                                probedRecording.mRecording.commit();
+                                database.DAO().insert(probedRecording.mBirdcall);
+                                insertedCount[0]++;
+                            }
+                            return null;
+                        }
+                    });
+                } catch (Exception e) {
+                    // Nothing inserted, so don't keep recordings committed.
+                    for (ProbedRecording probedRecording : probedRecordings)
+                        recordingStore.release(database, probedRecording.mRecording.getHash());
+                    throw e;
+                } finally {
+                    for (ProbedRecording probedRecording : probedRecordings)
+                        probedRecording.mRecording.discard();
+                }
+
+                PreferenceManager.getDefaultSharedPreferences(mApplication).edit().putInt(IMPORT_NEXT_INDEX, endIndex).commit();
+                return insertedCount[0];
+            }
+
+            /**
+             * Report progress, then start next batch.
+             * @param insertedCount Number of birdcalls inserted.
+             */
+            @Override
+            protected void onComplete(Integer insertedCount) {
+                mImportedCount += insertedCount;
+                mSkippedCount += probedRecordings.size() - insertedCount;
+                Log.i(BirdcallImport.class.getSimpleName(), "onComplete: imported up to file " + endIndex + " of " + mSources.size() + "; " + formatThroughput() + ".");
+                importNextBatch(endIndex);
+            }
+
+            /**
+             * Log failure, then stop import, to be resumed from start of batch next time.
+             * @param e Exception thrown by task.
+             */
+            @Override
+            protected void onFailed(Exception e) {
+                super.onFailed(e);
+                mImporting = false;
+                Toast.makeText(mApplication, mApplication.getString(R.string.import_failed), Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * Finish import, forgetting queue, and report what was imported and how quickly.
+     */
+    private void finish() {
+        new File(mApplication.getFilesDir(), QUEUE_FILE_NAME).delete();
+        PreferenceManager.getDefaultSharedPreferences(mApplication).edit().remove(IMPORT_NEXT_INDEX).apply();
+        this.releaseTreePermission();
+        mImporting = false;
+        Log.i(BirdcallImport.class.getSimpleName(), "finish: imported " + mImportedCount + ", skipped " + mSkippedCount + ", failed " + mFailedCount + "; " + formatThroughput() + ".");
+        Toast.makeText(mApplication, mApplication.getString(R.string.import_completed, mImportedCount, mSkippedCount, mFailedCount, this.getFilesPerSecond(), this.getMegabytesPerSecond()), Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Release permission kept to read directory tree being imported, if any.
+     */
+    private void releaseTreePermission() {
+        String treeUri = PreferenceManager.getDefaultSharedPreferences(mApplication).getString(IMPORT_TREE_URI, null);
+        if (treeUri == null)
+            return;
+
+        try {
+            mApplication.getContentResolver().releasePersistableUriPermission(Uri.parse(treeUri), Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            // Already revoked, e.g. by user.
+            Log.e(BirdcallImport.class.getSimpleName(), "releaseTreePermission: permission for \"" + treeUri + "\" not held.", e);
+        }
+        PreferenceManager.getDefaultSharedPreferences(mApplication).edit().remove(IMPORT_TREE_URI).apply();
+    }
+
+    /**
+     * Get number of files imported per second, since import started or resumed.
+     * @return Files per second.
+     */
+    private double getFilesPerSecond() {
+        return mProcessedCount * 1000.0 / Math.max(1, SystemClock.elapsedRealtime() - mStartTime);
+    }
+
+    /**
+     * Get megabytes of files imported per second, since import started or resumed.
+     * @return Megabytes per second.
+     */
+    private double getMegabytesPerSecond() {
+        return mByteCount / 1000.0 / Math.max(1, SystemClock.elapsedRealtime() - mStartTime);
+    }
+
+    /**
+     * Format throughput of import, for logging.
+     * @return Throughput, e.g. "12.5 files/s, 3.20 MB/s".
+     */
+    private String formatThroughput() {
+        return String.format(Locale.US, "%.1f files/s, %.2f MB/s", this.getFilesPerSecond(), this.getMegabytesPerSecond());
+    }
+
+    /**
+     * Copy file into store, without committing it, and probe it for duration, date and time,
+     * and location, creating birdcall to be inserted, with summary of its waveform.
+     * <p>Run on thread of CODEC lane.</p>
+     * @param source File to import.
+     * @return Probed recording.
+     * @throws IOException Thrown if file could not be copied, or is not audio.
+     */
+    private ProbedRecording probe(ImportSource source) throws IOException {
+        ContentResolver contentResolver = mApplication.getContentResolver();
+        RecordingStore.StagedRecording stagedRecording;
+        try (InputStream stream = contentResolver.openInputStream(source.mUri)) {
+            if (stream == null)
+                throw new IOException("Unable to open file.");
+            stagedRecording = RecordingStore.getInstance(mApplication).stage(stream, source.mSize);
+        } catch (SecurityException e) {
+            // Permission to read picked document is lost once app is restarted.
+            throw new IOException("No longer permitted to read file.", e);
+        }
+
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            File file = stagedRecording.getFile();
+            retriever.setDataSource(file.getPath());
+            if (!"yes".equals(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_HAS_AUDIO)))
+                throw new IOException("File has no audio.");
+            String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            if ((duration == null) || (Long.parseLong(duration) <= 0))
+                throw new IOException("File has no duration.");
+
+            // Date embedded in file, otherwise when file was last changed.
+            Date dateAndTime = parseDate(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DATE));
+            if (dateAndTime == null)
+                dateAndTime = (source.mLastModified > 0) ? new Date(source.mLastModified) : new Date();
+
+            // Location embedded in file, otherwise none, as for recording without location.
+            double[] location = parseLocation(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_LOCATION));
+            double latitude = (location != null) ? location[0] : 0;
+            double longitude = (location != null) ? location[1] : 0;
+
+            String codec = getCodec(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_MIMETYPE), file);
+            Birdcall birdcall = new Birdcall(null, getTitle(source.mName), dateAndTime, longitude, latitude, null);
+            birdcall.setRecording(stagedRecording.getHash(), file.length(), codec, Long.parseLong(duration));
+
+            // Summarise waveform whilst recording is still to hand, as when saving a recording.
+            try {
+                birdcall.setPeaks(PeaksBackfill.computePeaks(mApplication, Collections.singletonList(file), codec));
+            } catch (IOException | RuntimeException e) {
+                // Listed without waveform until PeaksBackfill next runs.
+                Log.e(BirdcallImport.class.getSimpleName(), "probe: problem summarising waveform of \"" + source.mUri + "\".", e);
+            }
+            return new ProbedRecording(birdcall, stagedRecording);
+        } catch (IOException | RuntimeException e) {
+            stagedRecording.discard();
+            throw (e instanceof IOException) ? (IOException)e : new IOException("Unable to probe file.", e);
+        } finally {
+            retriever.release();
+        }
+    }
+
+    /**
+     * Get title of birdcall from name of file, without its extension.
+     * @param name Name of file.
+     * @return Title.
+     */
+    private static String getTitle(String name) {
+        int dot = name.lastIndexOf('.');
+        return (dot > 0) ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Get codec of birdcall from MIME type of file: codecs of recordings made by app where
+     * file matches, otherwise MIME type itself, to be decoded by PcmDecoder.
+     * @param mimeType MIME type of file, from MediaMetadataRetriever.
+     * @param file File.
+     * @return Codec.
+     * @throws IOException Thrown if file could not be read.
+     */
+    private static String getCodec(String mimeType, File file) throws IOException {
+        if (FilePcmSource.isWav(file))
+            return Birdcall.CODEC_PCM_WAV;
+        else if ("audio/3gpp".equals(mimeType) || "audio/amr".equals(mimeType))
+            return Birdcall.CODEC_AMR_NB_3GP;
+        else if ("audio/mp4".equals(mimeType))
+            return Birdcall.CODEC_AAC_M4A;
+        else
+            return (mimeType != null) ? mimeType : "audio/*";
+    }
+
+    /**
+     * Parse date embedded in file.
+     * @param date Date from MediaMetadataRetriever, e.g. "20200523T064500.000Z".
+     * @return Date, or null if missing, not understood, or before 1970, as written by some
+     * devices for no date.
+     */
+    private static Date parseDate(String date) {
+        if (date == null)
+            return null;
+
+        for (String format : DATE_FORMATS) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat(format, Locale.US);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            try {
+                Date parsedDate = dateFormat.parse(date);
+                return (parsedDate.getTime() > 0) ? parsedDate : null;
+            } catch (ParseException e) {
+                // Try next format.
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse location embedded in file.
+     * @param location ISO 6709 location from MediaMetadataRetriever, e.g. "+51.5074-000.1278/".
+     * @return Latitude and longitude, or null if missing or not understood.
+     */
+    private static double[] parseLocation(String location) {
+        if (location == null)
+            return null;
+
+        Matcher matcher = LOCATION_PATTERN.matcher(location);
+        if (!matcher.find())
+            return null;
+
+        double latitude = Double.parseDouble(matcher.group(1));
+        double longitude = Double.parseDouble(matcher.group(2));
+        if ((Math.abs(latitude) > 90) || (Math.abs(longitude) > 180))
+            return null;
+        return new double[] { latitude, longitude };
+    }
+
+    /**
+     * Task listing files to import, then starting import, or ending it if listing fails.
+     */
+    private abstract class QueueTask extends TaskScheduler.Task<List<ImportSource>> {
+        /**
+         * Start importing files.
+         * @param sources Files to import.
+         */
+        @Override
+        protected void onComplete(List<ImportSource> sources) {
+            start(sources);
+        }
+
+        /**
+         * Log failure, then end import.
+         * @param e Exception thrown by task.
+         */
+        @Override
+        protected void onFailed(Exception e) {
+            super.onFailed(e);
+            mImporting = false;
+            Toast.makeText(mApplication, mApplication.getString(R.string.import_failed), Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * File to import.
+     */
+    private static class ImportSource {
+        private final Uri mUri;
+        private final String mName;
+        private final long mSize;
+        private final long mLastModified;
+
+        /**
+         * Constructor.
+         * @param uri URI of file.
+         * @param name Name of file.
+         * @param size Size of file in bytes, or -1 if not known.
+         * @param lastModified Time file was last changed, in milliseconds since epoch, or 0 if
+         *                     not known.
+         */
+        ImportSource(Uri uri, String name, long size, long lastModified) {
+            mUri = uri;
+            mName = name;
+            mSize = size;
+            mLastModified = lastModified;
+        }
+    }
+
+    /**
+     * File copied into store, but not yet committed, along with birdcall to be inserted.
+     */
+    private static class ProbedRecording {
+        private final Birdcall mBirdcall;
+        private final RecordingStore.StagedRecording mRecording;
+
+        /**
+         * Constructor.
+         * @param birdcall Birdcall to be inserted.
+         * @param recording Recording, staged into store.
+         */
+        ProbedRecording(Birdcall birdcall, RecordingStore.StagedRecording recording) {
+            mBirdcall = birdcall;
+            mRecording = recording;
+        }
+    }
+}
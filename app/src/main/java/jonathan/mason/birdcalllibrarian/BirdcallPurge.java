@@ -0,0 +1,128 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.app.Application;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jonathan.mason.birdcalllibrarian.Analysis.SpectrogramCache;
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallDatabase;
+import jonathan.mason.birdcalllibrarian.Database.RecordingSegment;
+import jonathan.mason.birdcalllibrarian.Database.RecordingStore;
+
+/**
+ * Background job removing birdcalls marked as deleted, once their deletion can no longer be
+ * undone, along with their recordings and spectrograms; a singleton.
+ * <p>Birdcalls are removed in batches, by a BACKGROUND task in the WRITE lane of
+ * TaskScheduler, each batch in a single transaction, so that clearing hundreds of birdcalls
+ * takes a handful of transactions, rather than one each. Recordings are only deleted once
+ * their batch is committed, and only if no remaining birdcall refers to them.</p>
+ */
+public class BirdcallPurge {
+    /**
+     * Number of birdcalls removed in each transaction.
+     */
+    private static final int BATCH_SIZE = 200;
+
+    private final static Object LOCK = new Object();
+    private static BirdcallPurge mInstance = null;
+
+    private final Application mApplication;
+
+    /**
+     * Implement singleton, creating single instance of purge job, if not created, or simply
+     * retrieving previously created instance.
+     * @param application The application.
+     * @return Purge job.
+     */
+    public static BirdcallPurge getInstance(Application application) {
+        if (mInstance == null) {
+            synchronized (LOCK) {
+                if (mInstance == null)
+                    mInstance = new BirdcallPurge(application);
+            }
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Constructor.
+     * @param application The application.
+     */
+    private BirdcallPurge(Application application) {
+        mApplication = application;
+    }
+
+    /**
+     * Remove birdcalls deleted no later than specified date and time.
+     * <p>Birdcalls deleted since are left alone, as their deletion may still be undone.</p>
+     * @param deletedBefore Date and time of latest deletion to remove.
+     */
+    public void purge(Date deletedBefore) {
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.BACKGROUND, new TaskScheduler.Task<Void>() {
+            /**
+             * Remove deleted birdcalls a batch at a time, until a batch comes back short.
+             * <p>Run on thread of WRITE lane, within this task, rather than submitting a task
+             * per batch, which could wait forever for room in queue of lane from its only
+             * thread.</p>
+             * @return Nothing.
+             */
+            @Override
+            protected Void run() {
+                int count;
+                do {
+                    count = purgeBatch(deletedBefore);
+                } while (count == BATCH_SIZE);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Remove batch of deleted birdcalls and their segments in a single transaction, then
+     * delete recordings no longer referred to, and spectrograms.
+     * <p>Run on thread of WRITE lane.</p>
+     * @param deletedBefore Date and time of latest deletion to remove.
+     * @return Number of birdcalls removed.
+     */
+    private int purgeBatch(Date deletedBefore) {
+        BirdcallDatabase database = BirdcallDatabase.getInstance(mApplication);
+        List<Birdcall> birdcalls = database.DAO().findDeletedBirdcalls(deletedBefore, BATCH_SIZE);
+        if (birdcalls.isEmpty())
+            return 0;
+
+        List<Integer> ids = new ArrayList<>();
+        Set<String> hashes = new HashSet<>();
+        for (Birdcall birdcall : birdcalls) {
+            ids.add(birdcall.getId());
+            hashes.add(birdcall.getRecordingHash());
+        }
+        database.runInTransaction(new Runnable() {
+            /**
+             * Task to be executed within transaction.
+             */
+            @Override
+            public void run() {
+                for (RecordingSegment segment : database.DAO().findSegments(ids))
+                    hashes.add(segment.getRecordingHash());
+                database.DAO().deleteSegments(ids);
+                database.DAO().delete(ids);
+            }
+        });
+
+        // Recordings may be shared, so each is checked for remaining references.
+        RecordingStore recordingStore = RecordingStore.getInstance(mApplication);
+        for (String hash : hashes)
+            recordingStore.release(database, hash);
+        SpectrogramCache spectrogramCache = SpectrogramCache.getInstance(mApplication);
+        for (int id : ids)
+            spectrogramCache.remove(id);
+
+        return birdcalls.size();
+    }
+}
@@ -2,10 +2,12 @@ package jonathan.mason.birdcalllibrarian;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
-import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallSummary;
 
 import android.animation.Animator;
 import android.graphics.Color;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewAnimationUtils;
@@ -13,15 +15,21 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.paging.PagedListAdapter;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
- * RecyclerView adapter for providing birdcalls.
+ * RecyclerView adapter for providing paged birdcalls.
  */
-public class BirdcallsAdapter extends RecyclerView.Adapter<BirdcallsAdapter.BirdcallViewHolder> {
+public class BirdcallsAdapter extends PagedListAdapter<BirdcallSummary, BirdcallsAdapter.BirdcallViewHolder> {
 
     /**
      * Listener for notification of birdcall selection.
@@ -29,23 +37,96 @@ public class BirdcallsAdapter extends RecyclerView.Adapter<BirdcallsAdapter.Bird
     public interface BirdcallSelectionListener {
         /**
          * Handle selection of birdcall.
-         * @param selectedBirdcall Selected birdcall.
+         * @param selectedBirdcall Summary of selected birdcall.
          */
-        void onBirdcallSelected(Birdcall selectedBirdcall);
+        void onBirdcallSelected(BirdcallSummary selectedBirdcall);
+
+        /**
+         * Handle checking or unchecking of birdcall, for acting on several birdcalls at once.
+         * @param checkedCount Number of birdcalls now checked; 0 once none are.
+         */
+        void onCheckedBirdcallsChanged(int checkedCount);
+    }
+
+    /**
+     * Flags of payload indicating which details of a birdcall have changed.
+     */
+    private static final int CHANGED_TITLE = 1;
+    private static final int CHANGED_DATE_AND_DURATION = 2;
+    private static final int CHANGED_PEAKS = 4;
+    private static final int CHANGED_CHECKED = 8;
+
+    /**
+     * Determines how pages of birdcalls differ, so that only changed items are updated.
+     * <p>Differences are worked out on a background thread by PagedListAdapter.</p>
+     */
+    private static final DiffUtil.ItemCallback<BirdcallSummary> DIFF_CALLBACK = new DiffUtil.ItemCallback<BirdcallSummary>() {
+        /**
+         * Determine whether supplied summaries are of the same birdcall.
+         * @param oldItem Summary from old page.
+         * @param newItem Summary from new page.
+         * @return True if same birdcall, otherwise false.
+         */
+        @Override
+        public boolean areItemsTheSame(@NonNull BirdcallSummary oldItem, @NonNull BirdcallSummary newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        /**
+         * Determine whether supplied summaries of the same birdcall display the same.
+         * @param oldItem Summary from old page.
+         * @param newItem Summary from new page.
+         * @return True if displayed the same, otherwise false.
+         */
+        @Override
+        public boolean areContentsTheSame(@NonNull BirdcallSummary oldItem, @NonNull BirdcallSummary newItem) {
+            return getChanges(oldItem, newItem) == 0;
+        }
+
+        /**
+         * Get which details of supplied summaries of the same birdcall have changed, so that
+         * only they are re-bound, rather than the whole item.
+         * @param oldItem Summary from old page.
+         * @param newItem Summary from new page.
+         * @return Flags indicating changed details.
+         */
+        @Override
+        public Object getChangePayload(@NonNull BirdcallSummary oldItem, @NonNull BirdcallSummary newItem) {
+            return getChanges(oldItem, newItem);
+        }
+    };
+
+    /**
+     * Get which displayed details of supplied summaries of the same birdcall differ.
+     * @param oldItem Summary from old page.
+     * @param newItem Summary from new page.
+     * @return Flags indicating changed details, or 0 if none.
+     */
+    private static int getChanges(BirdcallSummary oldItem, BirdcallSummary newItem) {
+        int changes = 0;
+        if (!TextUtils.equals(oldItem.getTitle(), newItem.getTitle()))
+            changes |= CHANGED_TITLE;
+        if (!oldItem.getDateAndTime().equals(newItem.getDateAndTime()) || (oldItem.getDuration() != newItem.getDuration()))
+            changes |= CHANGED_DATE_AND_DURATION;
+        if (!Arrays.equals(oldItem.getPeaks(), newItem.getPeaks()))
+            changes |= CHANGED_PEAKS;
+        return changes;
     }
 
-    private List<Birdcall> mBirdcalls;
     private BirdcallSelectionListener mBirdcallSelectionListener;
+    private final Set<Integer> mCheckedIds = new LinkedHashSet<>();
 
     /**
      * Constructor.
-     * @param birdcalls Birdcalls to be supplied to RecyclerView.
      * @param birdcallSelectionListener Listener for notification of birdcall selection.
      */
-    public BirdcallsAdapter(List<Birdcall> birdcalls, BirdcallSelectionListener birdcallSelectionListener)
+    public BirdcallsAdapter(BirdcallSelectionListener birdcallSelectionListener)
     {
-        mBirdcalls = birdcalls;
+        super(DIFF_CALLBACK);
         mBirdcallSelectionListener = birdcallSelectionListener;
+
+        // Allow RecyclerView to keep track of items by birdcall ID when they move.
+        setHasStableIds(true);
     }
 
     /**
@@ -71,30 +152,100 @@ public class BirdcallsAdapter extends RecyclerView.Adapter<BirdcallsAdapter.Bird
      */
     @Override
     public void onBindViewHolder(@NonNull BirdcallViewHolder holder, int position) {
-        holder.Bind(position);
+        holder.Bind(position, CHANGED_TITLE | CHANGED_DATE_AND_DURATION | CHANGED_PEAKS | CHANGED_CHECKED);
     }
 
     /**
-     * Get total number of birdcalls.
-     * @return Total number of birdcalls.
+     * Bind supplied view holder to birdcall at specified position in birdcalls list, only
+     * updating details flagged as changed by payloads, if any.
+     * @param holder View holder to bind.
+     * @param position Position of birdcall.
+     * @param payloads Flags indicating changed details, or empty to bind all details.
      */
     @Override
-    public int getItemCount() {
-        return mBirdcalls.size();
+    public void onBindViewHolder(@NonNull BirdcallViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            this.onBindViewHolder(holder, position);
+            return;
+        }
+
+        int changes = 0;
+        for (Object payload : payloads)
+            changes |= (Integer)payload;
+        holder.Bind(position, changes);
     }
 
     /**
-     * Get all birdcalls of adapter.
-     * @return All birdcalls of adapter.
+     * Get stable ID of birdcall at specified position.
+     * @param position Position of birdcall.
+     * @return ID of birdcall.
      */
-    public List<Birdcall> getBirdcalls() { return mBirdcalls; }
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
+
+    /**
+     * Get summary of birdcall at specified position.
+     * @param position Position of birdcall.
+     * @return Summary of birdcall.
+     */
+    public BirdcallSummary getBirdcall(int position) { return getItem(position); }
+
+    /**
+     * Determine whether any birdcalls are checked, in which case clicking birdcalls checks or
+     * unchecks them, rather than selecting them.
+     * @return True if any birdcalls are checked, otherwise false.
+     */
+    public boolean isChecking() { return !mCheckedIds.isEmpty(); }
+
+    /**
+     * Get IDs of checked birdcalls.
+     * @return IDs of checked birdcalls, in order checked.
+     */
+    public List<Integer> getCheckedIds() { return new ArrayList<>(mCheckedIds); }
+
+    /**
+     * Check birdcalls with specified IDs, e.g. when restoring state of activity, unchecking
+     * any others.
+     * @param ids IDs of birdcalls to check.
+     */
+    public void setCheckedIds(List<Integer> ids) {
+        mCheckedIds.clear();
+        mCheckedIds.addAll(ids);
+        this.notifyItemRangeChanged(0, this.getItemCount(), CHANGED_CHECKED);
+        mBirdcallSelectionListener.onCheckedBirdcallsChanged(mCheckedIds.size());
+    }
+
+    /**
+     * Uncheck all birdcalls.
+     */
+    public void clearChecked() {
+        if (mCheckedIds.isEmpty())
+            return;
+
+        this.setCheckedIds(new ArrayList<>());
+    }
+
+    /**
+     * Check birdcall at specified position if unchecked, otherwise uncheck it.
+     * @param position Position of birdcall.
+     */
+    private void toggleChecked(int position) {
+        int id = getItem(position).getId();
+        if (!mCheckedIds.remove(id))
+            mCheckedIds.add(id);
+        this.notifyItemChanged(position, CHANGED_CHECKED);
+        mBirdcallSelectionListener.onCheckedBirdcallsChanged(mCheckedIds.size());
+    }
 
     /**
      * A ViewHolder subclass suitable for displaying a birdcall item.
      */
-    public class BirdcallViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+    public class BirdcallViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener, View.OnLongClickListener {
         @BindView(R.id.birdcall_title) TextView mTitle;
         @BindView(R.id.birdcall_date_and_time) TextView mDataAndTime;
+        @BindView(R.id.birdcall_waveform) WaveformView mWaveform;
 
         /**
          * Constructor.
@@ -106,26 +257,51 @@ public class BirdcallsAdapter extends RecyclerView.Adapter<BirdcallsAdapter.Bird
             // Retrieve view(s).
             ButterKnife.bind(this, itemView);
 
-            // Setup click listener.
+            // Setup click listeners.
             itemView.setOnClickListener(this);
+            itemView.setOnLongClickListener(this);
         }
 
         /**
          * Bind view holder to birdcall at specified position in birdcalls list.
          * @param position Position of birdcall.
+         * @param changes Flags indicating which details to bind.
          */
-        public void Bind(int position){
-            Birdcall birdcall = mBirdcalls.get(position);
-            mTitle.setText(birdcall.getTitle());
-            mDataAndTime.setText(DateFormat.getInstance().format(birdcall.getDateAndTime()));
+        public void Bind(int position, int changes){
+            BirdcallSummary birdcall = getItem(position);
+            if ((changes & CHANGED_TITLE) != 0)
+                mTitle.setText(birdcall.getTitle());
+            if ((changes & CHANGED_DATE_AND_DURATION) != 0) {
+                mDataAndTime.setText(itemView.getContext().getString(R.string.birdcall_date_and_duration,
+                        DateFormat.getInstance().format(birdcall.getDateAndTime()),
+                        DateUtils.formatElapsedTime(birdcall.getDuration() / 1000)));
+            }
+
+            // Drawn from summary loaded with birdcall, never from its recording.
+            if ((changes & CHANGED_PEAKS) != 0)
+                mWaveform.setPeaks(birdcall.getPeaks());
+
+            if ((changes & CHANGED_CHECKED) != 0) {
+                boolean checked = mCheckedIds.contains(birdcall.getId());
+                itemView.setActivated(checked);
+                itemView.setBackgroundColor(checked ? itemView.getResources().getColor(R.color.checked_background, null) : Color.TRANSPARENT);
+            }
         }
 
         /**
          * Handle selection of view holder to perform selection animation and notify
-         * BirdcallSelectionListener of adapter.
+         * BirdcallSelectionListener of adapter, or, if any birdcalls are checked, to check or
+         * uncheck birdcall.
          */
         @Override
         public void onClick(View view) {
+            if (isChecking()) {
+                int position = getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION)
+                    toggleChecked(position);
+                return;
+            }
+
             // Respond to click by blanking list item and re-revealing it.
             // From "Creating Paper Transformations" of Lesson 2: Surfaces, Material
             // Design for Android Developers by James.
@@ -145,8 +321,10 @@ public class BirdcallsAdapter extends RecyclerView.Adapter<BirdcallsAdapter.Bird
                  */
                 @Override
                 public void onAnimationEnd(Animator animation) {
+                    // Birdcall may have been removed whilst animating.
                     int position = getAdapterPosition();
-                    mBirdcallSelectionListener.onBirdcallSelected(mBirdcalls.get(position));
+                    if (position != RecyclerView.NO_POSITION)
+                        mBirdcallSelectionListener.onBirdcallSelected(getItem(position));
                     view.setBackgroundColor(Color.TRANSPARENT); // Reset background colour.
                 }
 
@@ -165,5 +343,19 @@ public class BirdcallsAdapter extends RecyclerView.Adapter<BirdcallsAdapter.Bird
             view.setBackgroundColor(view.getResources().getColor(R.color.colorAccent, null)); // New background colour to be revealed.
             anim.start();
         }
+
+        /**
+         * Handle long click of view holder to check or uncheck birdcall, starting checking of
+         * several birdcalls if none were checked.
+         * @param view Clicked view.
+         * @return True as long click was handled.
+         */
+        @Override
+        public boolean onLongClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION)
+                toggleChecked(position);
+            return true;
+        }
     }
 }
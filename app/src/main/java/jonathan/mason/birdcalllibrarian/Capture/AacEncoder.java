@@ -0,0 +1,212 @@
+package jonathan.mason.birdcalllibrarian.Capture;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+
+/**
+ * Encoder compressing 16-bit PCM samples into AAC-LC, within an MPEG-4 file.
+ * <p>From "MediaCodec" and "MediaMuxer", Android Developers:
+ * https://developer.android.com/reference/android/media/MediaCodec.</p>
+ */
+public class AacEncoder implements Encoder {
+    /**
+     * Time to wait for buffers of codec, in microseconds.
+     */
+    private static final long TIMEOUT_US = 10000;
+
+    /**
+     * Size of input buffers of codec, in bytes.
+     */
+    private static final int MAX_INPUT_SIZE_BYTES = 16 * 1024;
+
+    private final int mBitRate;
+    private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+    private MediaCodec mCodec;
+    private MediaMuxer mMuxer;
+    private int mTrack;
+    private int mSampleRate;
+    private int mChannelCount;
+    private long mSampleCount;
+
+    /**
+     * Constructor.
+     * @param bitRate Bit rate of encoded audio, in bits per second.
+     */
+    public AacEncoder(int bitRate) {
+        mBitRate = bitRate;
+    }
+
+    /**
+     * Get codec of encoded files.
+     * @return Birdcall.CODEC_AAC_M4A.
+     */
+    @Override
+    public String getCodec() {
+        return Birdcall.CODEC_AAC_M4A;
+    }
+
+    /**
+     * Get extension of encoded files.
+     * @return ".m4a".
+     */
+    @Override
+    public String getFileExtension() {
+        return ".m4a";
+    }
+
+    /**
+     * Start encoding into supplied file, starting codec.
+     * @param file File into which to encode.
+     * @param sampleRate Sample rate in hertz.
+     * @param channelCount Number of channels.
+     * @throws IOException Thrown if file could not be opened, or codec started.
+     */
+    @Override
+    public void start(File file, int sampleRate, int channelCount) throws IOException {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mSampleCount = 0;
+        mTrack = -1;
+
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, sampleRate, channelCount);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, MAX_INPUT_SIZE_BYTES);
+        try {
+            mMuxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            mCodec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+            mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mCodec.start();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            this.release();
+            throw new IOException("Unable to start AAC encoder.", e);
+        } catch (IOException e) {
+            this.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Feed supplied samples to codec, writing out any encoded by then.
+     * @param samples Buffer holding samples.
+     * @param offset Point in buffer of first sample.
+     * @param count Number of samples.
+     * @throws IOException Thrown if samples could not be encoded.
+     */
+    @Override
+    public void encode(short[] samples, int offset, int count) throws IOException {
+        try {
+            while (count > 0) {
+                int inputIndex = mCodec.dequeueInputBuffer(TIMEOUT_US);
+                if (inputIndex >= 0) {
+                    ByteBuffer buffer = mCodec.getInputBuffer(inputIndex);
+                    buffer.clear();
+                    buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+                    // Whole frames only, of every channel.
+                    int written = Math.min(count, buffer.remaining() / 2 / mChannelCount * mChannelCount);
+                    for (int i = 0; i < written; i++)
+                        buffer.putShort(samples[offset + i]);
+                    mCodec.queueInputBuffer(inputIndex, 0, written * 2, this.getPresentationTimeUs(), 0);
+                    mSampleCount += written;
+                    offset += written;
+                    count -= written;
+                }
+                this.drain(false);
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException("Unable to encode samples.", e);
+        }
+    }
+
+    /**
+     * Signal end of samples to codec, write out remaining encoded samples, and close file.
+     * @throws IOException Thrown if file could not be completed.
+     */
+    @Override
+    public void finish() throws IOException {
+        try {
+            int inputIndex;
+            while ((inputIndex = mCodec.dequeueInputBuffer(TIMEOUT_US)) < 0)
+                this.drain(false);
+            mCodec.queueInputBuffer(inputIndex, 0, 0, this.getPresentationTimeUs(), MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            this.drain(true);
+
+            if (mTrack < 0)
+                throw new IOException("AAC encoder produced no output.");
+            mMuxer.stop();
+        } catch (IllegalStateException e) {
+            throw new IOException("Unable to complete AAC file.", e);
+        } finally {
+            this.release();
+        }
+    }
+
+    /**
+     * Write encoded samples into file, starting muxer once codec reports format of output.
+     * @param endOfStream True to wait until codec signals end of stream, false to write only
+     *                    samples already encoded.
+     */
+    private void drain(boolean endOfStream) {
+        while (true) {
+            int outputIndex = mCodec.dequeueOutputBuffer(mInfo, endOfStream ? TIMEOUT_US : 0);
+            if (outputIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream)
+                    return;
+            }
+            else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                mTrack = mMuxer.addTrack(mCodec.getOutputFormat());
+                mMuxer.start();
+            }
+            else if (outputIndex >= 0) {
+                // Configuration is held by format given to muxer, not written as a sample.
+                ByteBuffer buffer = mCodec.getOutputBuffer(outputIndex);
+                if ((buffer != null) && (mInfo.size > 0) && (mTrack >= 0) && ((mInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0))
+                    mMuxer.writeSampleData(mTrack, buffer, mInfo);
+                mCodec.releaseOutputBuffer(outputIndex, false);
+                if ((mInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Get presentation time of next samples fed to codec.
+     * @return Presentation time in microseconds.
+     */
+    private long getPresentationTimeUs() {
+        return mSampleCount / mChannelCount * 1000000L / mSampleRate;
+    }
+
+    /**
+     * Release codec and muxer.
+     */
+    private void release() {
+        if (mCodec != null) {
+            try {
+                mCodec.stop();
+            } catch (IllegalStateException e) {
+                // Codec never started, or already failed.
+            }
+            mCodec.release();
+            mCodec = null;
+        }
+        if (mMuxer != null) {
+            try {
+                mMuxer.release();
+            } catch (IllegalStateException e) {
+                // Muxer never started.
+            }
+            mMuxer = null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package jonathan.mason.birdcalllibrarian.Capture;
+
+import android.os.Debug;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Encoder passing samples on to another, whilst measuring the processor time it spends on
+ * encoder thread, and the number of samples it encodes.
+ * <p>Processor time of a software codec running within encoder thread is included in full;
+ * that of a codec running in another process, or on a thread of its own, is not.</p>
+ */
+public class CpuTimedEncoder implements Encoder {
+    private final Encoder mEncoder;
+    private long mCpuTimeNanos;
+    private long mSampleCount;
+
+    /**
+     * Constructor.
+     * @param encoder Encoder to measure.
+     */
+    public CpuTimedEncoder(Encoder encoder) {
+        mEncoder = encoder;
+    }
+
+    /**
+     * Get processor time spent by encoder so far.
+     * @return Processor time in nanoseconds.
+     */
+    public long getCpuTimeNanos() {
+        return mCpuTimeNanos;
+    }
+
+    /**
+     * Get number of samples encoded so far.
+     * @return Number of samples.
+     */
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * Get codec of encoded files.
+     * @return Codec of measured encoder.
+     */
+    @Override
+    public String getCodec() {
+        return mEncoder.getCodec();
+    }
+
+    /**
+     * Get extension of encoded files.
+     * @return Extension of measured encoder.
+     */
+    @Override
+    public String getFileExtension() {
+        return mEncoder.getFileExtension();
+    }
+
+    /**
+     * Start encoding into supplied file.
+     * @param file File into which to encode.
+     * @param sampleRate Sample rate in hertz.
+     * @param channelCount Number of channels.
+     * @throws IOException Thrown if file could not be opened.
+     */
+    @Override
+    public void start(File file, int sampleRate, int channelCount) throws IOException {
+        long start = Debug.threadCpuTimeNanos();
+        try {
+            mEncoder.start(file, sampleRate, channelCount);
+        } finally {
+            mCpuTimeNanos += Debug.threadCpuTimeNanos() - start;
+        }
+    }
+
+    /**
+     * Encode supplied samples.
+     * @param samples Buffer holding samples.
+     * @param offset Point in buffer of first sample.
+     * @param count Number of samples.
+     * @throws IOException Thrown if samples could not be written.
+     */
+    @Override
+    public void encode(short[] samples, int offset, int count) throws IOException {
+        long start = Debug.threadCpuTimeNanos();
+        try {
+            mEncoder.encode(samples, offset, count);
+            mSampleCount += count;
+        } finally {
+            mCpuTimeNanos += Debug.threadCpuTimeNanos() - start;
+        }
+    }
+
+    /**
+     * Finish encoding into file, and close it.
+     * @throws IOException Thrown if file could not be completed.
+     */
+    @Override
+    public void finish() throws IOException {
+        long start = Debug.threadCpuTimeNanos();
+        try {
+            mEncoder.finish();
+        } finally {
+            mCpuTimeNanos += Debug.threadCpuTimeNanos() - start;
+        }
+    }
+}
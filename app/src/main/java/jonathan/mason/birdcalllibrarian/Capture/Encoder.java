@@ -0,0 +1,46 @@
+package jonathan.mason.birdcalllibrarian.Capture;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Stage of PcmCaptureEngine encoding captured 16-bit PCM samples into a file.
+ * <p>Called only on encoder thread of PcmCaptureEngine, one file at a time.</p>
+ */
+public interface Encoder {
+    /**
+     * Get codec of encoded files, as held by birdcall.
+     * @return Codec, e.g. Birdcall.CODEC_PCM_WAV.
+     */
+    String getCodec();
+
+    /**
+     * Get extension of encoded files.
+     * @return Extension, including dot.
+     */
+    String getFileExtension();
+
+    /**
+     * Start encoding into supplied file.
+     * @param file File into which to encode.
+     * @param sampleRate Sample rate in hertz.
+     * @param channelCount Number of channels.
+     * @throws IOException Thrown if file could not be opened.
+     */
+    void start(File file, int sampleRate, int channelCount) throws IOException;
+
+    /**
+     * Encode supplied samples; they must not be retained.
+     * @param samples Buffer holding samples.
+     * @param offset Point in buffer of first sample.
+     * @param count Number of samples.
+     * @throws IOException Thrown if samples could not be written.
+     */
+    void encode(short[] samples, int offset, int count) throws IOException;
+
+    /**
+     * Finish encoding into file, and close it.
+     * @throws IOException Thrown if file could not be completed.
+     */
+    void finish() throws IOException;
+}
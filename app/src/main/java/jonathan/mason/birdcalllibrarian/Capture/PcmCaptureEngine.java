@@ -0,0 +1,413 @@
+package jonathan.mason.birdcalllibrarian.Capture;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Capture engine recording raw 16-bit mono PCM frames with AudioRecord, as an alternative to
+ * MediaRecorder, giving full-bandwidth audio and access to samples whilst recording.
+ * <p>A dedicated capture thread, at audio priority, reads samples straight into the blocks of
+ * a preallocated PcmRingBuffer, and hands each block to any FrameListeners, without copying.
+ * A separate encoder thread drains the ring into a pluggable Encoder, rolling over to a new
+ * file, without a gap, each time a segment is full.</p>
+ * <p>Capturing can start before encoding, to listen. Until encoding starts, the ring keeps
+ * only the most recent audio, up to a fixed pre-roll, which is then the first to be encoded,
+ * so that a recording includes the seconds before it was started. Memory used is fixed by
+ * the pre-roll and sample rate.</p>
+ * <p>Encoding can also stop whilst capturing carries on, returning to listening, so that one
+ * engine can capture for hours and encode only around what is worth keeping.</p>
+ */
+public class PcmCaptureEngine {
+    /**
+     * Sample rate, in hertz, which every device is required to support.
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 44100;
+
+    /**
+     * Number of samples in each block, approximately 23 milliseconds at default sample rate.
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * Duration of audio the ring holds, should encoder fall behind.
+     */
+    private static final int RING_MILLISECONDS = 2000;
+
+    /**
+     * Listener tapping captured frames, e.g. for levels, spectra or detection.
+     */
+    public interface FrameListener {
+        /**
+         * Handle block of captured samples.
+         * <p>Called on capture thread with block within ring, which must not be modified or
+         * retained, so listener must return quickly.</p>
+         * @param samples Buffer holding samples.
+         * @param offset Point in buffer of first sample.
+         * @param count Number of samples.
+         */
+        void onFrames(short[] samples, int offset, int count);
+    }
+
+    /**
+     * Destination of files encoded by engine.
+     */
+    public interface Output {
+        /**
+         * Create file for next segment.
+         * <p>Called on encoder thread.</p>
+         * @param extension Extension of file, including dot.
+         * @return File to hold segment.
+         * @throws IOException Thrown if file could not be created.
+         */
+        File createSegmentFile(String extension) throws IOException;
+
+        /**
+         * Handle completion of segment.
+         * <p>Called on encoder thread.</p>
+         * @param file File holding completed segment.
+         */
+        void onSegmentCompleted(File file);
+    }
+
+    private final Context mContext;
+    private final int mSampleRate;
+    private final Encoder mEncoder;
+    private final PcmRingBuffer mRing;
+    private final int mPreRollBlocks;
+    private final Object mEncodingLock = new Object();
+    private volatile FrameListener[] mFrameListeners = new FrameListener[0];
+
+    private AudioRecord mAudioRecord;
+    private Thread mCaptureThread;
+    private Thread mEncoderThread;
+    private volatile boolean mCapturing;
+    private boolean mEncoding;
+    private volatile long mEncodeUntil;
+    private volatile Runnable mOnEncodingStopped;
+    private volatile boolean mFailed;
+    private volatile long mOverrunCount;
+
+    /**
+     * Constructor.
+     * @param context Context with which to query audio capabilities of device.
+     * @param sampleRate Sample rate in hertz.
+     * @param preRollSeconds Duration of audio, before encoding starts, to be encoded first.
+     * @param encoder Encoder of captured samples.
+     */
+    public PcmCaptureEngine(Context context, int sampleRate, int preRollSeconds, Encoder encoder) {
+        mContext = context.getApplicationContext();
+        mSampleRate = sampleRate;
+        mEncoder = encoder;
+        mPreRollBlocks = (int)Math.ceil((double)sampleRate * preRollSeconds / BLOCK_SIZE);
+        int blockCount = mPreRollBlocks + (int)Math.ceil((double)sampleRate * RING_MILLISECONDS / 1000 / BLOCK_SIZE);
+        mRing = new PcmRingBuffer(blockCount, BLOCK_SIZE);
+    }
+
+    /**
+     * Get sample rate.
+     * @return Sample rate in hertz.
+     */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * Get encoder of captured samples.
+     * @return Encoder.
+     */
+    public Encoder getEncoder() {
+        return mEncoder;
+    }
+
+    /**
+     * Add listener tapping captured frames.
+     * @param listener Listener to add.
+     */
+    public synchronized void addFrameListener(FrameListener listener) {
+        FrameListener[] listeners = new FrameListener[mFrameListeners.length + 1];
+        System.arraycopy(mFrameListeners, 0, listeners, 0, mFrameListeners.length);
+        listeners[mFrameListeners.length] = listener;
+        mFrameListeners = listeners;
+    }
+
+    /**
+     * Remove listener tapping captured frames.
+     * @param listener Listener to remove.
+     */
+    public synchronized void removeFrameListener(FrameListener listener) {
+        for (int i = 0; i < mFrameListeners.length; i++) {
+            if (mFrameListeners[i] == listener) {
+                FrameListener[] listeners = new FrameListener[mFrameListeners.length - 1];
+                System.arraycopy(mFrameListeners, 0, listeners, 0, i);
+                System.arraycopy(mFrameListeners, i + 1, listeners, i, listeners.length - i);
+                mFrameListeners = listeners;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start capturing, keeping pre-roll until encoding starts.
+     * @throws IOException Thrown if AudioRecord could not be initialised or started.
+     */
+    public void startCapture() throws IOException {
+        int minBufferSize = AudioRecord.getMinBufferSize(mSampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0)
+            throw new IOException("Sample rate of " + mSampleRate + "Hz not supported.");
+
+        mAudioRecord = new AudioRecord(this.getAudioSource(), mSampleRate, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, Math.max(minBufferSize, BLOCK_SIZE * 2 * 4));
+        if (mAudioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            mAudioRecord.release();
+            mAudioRecord = null;
+            throw new IOException("Unable to initialise AudioRecord.");
+        }
+
+        try {
+            mAudioRecord.startRecording();
+        } catch (IllegalStateException e) {
+            mAudioRecord.release();
+            mAudioRecord = null;
+            throw new IOException("Unable to start AudioRecord.", e);
+        }
+
+        mCapturing = true;
+        mCaptureThread = new Thread(new Runnable() {
+            /**
+             * Task to be executed on capture thread.
+             */
+            @Override
+            public void run() {
+                capture();
+            }
+        }, "PcmCapture");
+        mCaptureThread.start();
+    }
+
+    /**
+     * Get duration of pre-roll currently held, which is encoded first once encoding starts.
+     * @return Duration in milliseconds.
+     */
+    public long getPreRollMillis() {
+        return (long)Math.min(mRing.getPending(), mPreRollBlocks) * BLOCK_SIZE * 1000 / mSampleRate;
+    }
+
+    /**
+     * Start encoding, beginning with pre-roll.
+     * <p>Must not be called until any previous encoding has stopped.</p>
+     * @param output Destination of encoded files.
+     * @param segmentFrames Number of frames in each segment, after which encoding rolls over
+     * to a new file.
+     */
+    public void startEncoding(Output output, long segmentFrames) {
+        // Whilst encoder thread is running, capture thread no longer discards oldest audio.
+        synchronized (mEncodingLock) {
+            mEncoding = true;
+        }
+        mEncodeUntil = Long.MAX_VALUE;
+
+        mEncoderThread = new Thread(new Runnable() {
+            /**
+             * Task to be executed on encoder thread.
+             */
+            @Override
+            public void run() {
+                encode(output, segmentFrames);
+            }
+        }, "PcmEncoder");
+        mEncoderThread.start();
+    }
+
+    /**
+     * Stop encoding, without waiting for last segment to be encoded, but carry on capturing,
+     * keeping pre-roll again until encoding next starts.
+     * @param onStopped Called on encoder thread once last segment has been completed, and
+     * encoding may start again.
+     */
+    public void stopEncoding(Runnable onStopped) {
+        if (mEncoderThread == null)
+            return;
+
+        // Encoder thread finishes once it reaches audio captured up to now.
+        mOnEncodingStopped = onStopped;
+        mEncodeUntil = mRing.getWrittenCount();
+    }
+
+    /**
+     * Stop capturing, waiting for last segment to be encoded, if encoding.
+     */
+    public void stop() {
+        if (mAudioRecord == null)
+            return;
+
+        mCapturing = false;
+        try {
+            mCaptureThread.join();
+            if (mEncoderThread != null) {
+                mEncoderThread.join();
+                mEncoderThread = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mAudioRecord.release();
+        mAudioRecord = null;
+    }
+
+    /**
+     * Determine whether capturing or encoding failed, in which case recording stopped early.
+     * @return True if failed, otherwise false.
+     */
+    public boolean hasFailed() {
+        return mFailed;
+    }
+
+    /**
+     * Get number of blocks of samples lost because encoder fell too far behind.
+     * @return Number of blocks.
+     */
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    /**
+     * Get source of audio, preferring microphone without any processing (e.g. automatic gain
+     * control or noise suppression) where device supports it.
+     * @return Audio source.
+     */
+    private int getAudioSource() {
+        AudioManager audioManager = (AudioManager)mContext.getSystemService(Context.AUDIO_SERVICE);
+        if ((audioManager != null) && "true".equals(audioManager.getProperty(AudioManager.PROPERTY_SUPPORT_AUDIO_SOURCE_UNPROCESSED)))
+            return MediaRecorder.AudioSource.UNPROCESSED;
+        return MediaRecorder.AudioSource.MIC;
+    }
+
+    /**
+     * Read samples into ring until stopped, passing each block to frame listeners.
+     * <p>Run on capture thread, so must not allocate or block on anything but AudioRecord.</p>
+     */
+    private void capture() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+        // Block into which to read, should ring be full, so that AudioRecord is still drained.
+        short[] overrunBlock = new short[mRing.getBlockSize()];
+        try {
+            while (mCapturing) {
+                short[] block = mRing.claim();
+                boolean overrun = (block == null);
+                if (overrun)
+                    block = overrunBlock;
+
+                int read = mAudioRecord.read(block, 0, block.length);
+                if (read < 0) {
+                    Log.e(PcmCaptureEngine.class.getSimpleName(), "capture: AudioRecord error " + read + ".");
+                    mFailed = true;
+                    break;
+                }
+
+                FrameListener[] listeners = mFrameListeners;
+                for (int i = 0; i < listeners.length; i++)
+                    listeners[i].onFrames(block, 0, read);
+
+                if (overrun) {
+                    mOverrunCount++;
+                }
+                else {
+                    mRing.publish(read);
+
+                    // Whilst listening, keep only pre-roll.
+                    synchronized (mEncodingLock) {
+                        if (!mEncoding) {
+                            while (mRing.getPending() > mPreRollBlocks)
+                                mRing.discardOldest();
+                        }
+                    }
+                }
+            }
+        } finally {
+            mAudioRecord.stop();
+            mRing.close();
+        }
+    }
+
+    /**
+     * Encode blocks from ring until it is closed, or encoding is stopped, rolling over to a new
+     * file each time a segment is full.
+     * <p>Run on encoder thread.</p>
+     * @param output Destination of encoded files.
+     * @param segmentFrames Number of frames in each segment.
+     */
+    private void encode(Output output, long segmentFrames) {
+        File file = null;
+        long frames = 0;
+        boolean encoding = true;
+        try {
+            File firstFile = output.createSegmentFile(mEncoder.getFileExtension());
+            mEncoder.start(firstFile, mSampleRate, 1);
+            file = firstFile;
+
+            int index;
+            while ((mRing.getReadCount() < mEncodeUntil) && ((index = mRing.take()) >= 0)) {
+                try {
+                    if (!encoding)
+                        continue;
+
+                    if (frames >= segmentFrames) {
+                        mEncoder.finish();
+                        output.onSegmentCompleted(file);
+                        file = null;
+                        File nextFile = output.createSegmentFile(mEncoder.getFileExtension());
+                        mEncoder.start(nextFile, mSampleRate, 1);
+                        file = nextFile;
+                        frames = 0;
+                    }
+
+                    mEncoder.encode(mRing.getBlock(index), 0, mRing.getLength(index));
+                    frames += mRing.getLength(index);
+                } catch (IOException e) {
+                    // Stop encoding, but keep draining ring until capture stops.
+                    Log.e(PcmCaptureEngine.class.getSimpleName(), "encode: error encoding.", e);
+                    mFailed = true;
+                    mCapturing = false;
+                    encoding = false;
+                } finally {
+                    mRing.release();
+                }
+            }
+        } catch (IOException e) {
+            Log.e(PcmCaptureEngine.class.getSimpleName(), "encode: error starting segment.", e);
+            mFailed = true;
+            mCapturing = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Complete last segment, with whatever has been encoded.
+            if (file != null) {
+                try {
+                    mEncoder.finish();
+                    output.onSegmentCompleted(file);
+                } catch (IOException e) {
+                    Log.e(PcmCaptureEngine.class.getSimpleName(), "encode: error completing segment.", e);
+                    mFailed = true;
+                }
+            }
+
+            // Capture thread may go back to keeping only pre-roll.
+            synchronized (mEncodingLock) {
+                mEncoding = false;
+            }
+
+            Runnable onStopped = mOnEncodingStopped;
+            mOnEncodingStopped = null;
+            if (onStopped != null)
+                onStopped.run();
+        }
+    }
+}
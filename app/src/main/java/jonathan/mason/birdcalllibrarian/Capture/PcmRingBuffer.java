@@ -0,0 +1,138 @@
+package jonathan.mason.birdcalllibrarian.Capture;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fixed ring of blocks of 16-bit PCM samples, passed from a single producer (capture thread)
+ * to a single consumer (encoder thread).
+ * <p>All blocks are allocated up front, and samples are read straight into them, so passing
+ * audio through the ring neither allocates nor copies. If the consumer falls so far behind
+ * that the ring is full, the producer is given no block, rather than being made to wait.</p>
+ * <p>Before any consumer is running, the producer may discard the oldest blocks itself, so
+ * that the ring holds a rolling window of the most recent audio.</p>
+ */
+public class PcmRingBuffer {
+    private final short[][] mBlocks;
+    private final int[] mLengths;
+    private final Semaphore mAvailable = new Semaphore(0);
+    private volatile long mWritten;
+    private volatile long mRead;
+    private volatile boolean mClosed;
+
+    /**
+     * Constructor.
+     * @param blockCount Number of blocks in ring.
+     * @param blockSize Number of samples in each block.
+     */
+    public PcmRingBuffer(int blockCount, int blockSize) {
+        mBlocks = new short[blockCount][blockSize];
+        mLengths = new int[blockCount];
+    }
+
+    /**
+     * Get number of samples in each block.
+     * @return Number of samples.
+     */
+    public int getBlockSize() {
+        return mBlocks[0].length;
+    }
+
+    /**
+     * Get next block to be written by producer, without publishing it.
+     * @return Block to write, or null if ring is full.
+     */
+    public short[] claim() {
+        if (mClosed || (mWritten - mRead >= mBlocks.length))
+            return null;
+        return mBlocks[(int)(mWritten % mBlocks.length)];
+    }
+
+    /**
+     * Publish block last claimed by producer to consumer.
+     * @param length Number of samples written to block.
+     */
+    public void publish(int length) {
+        mLengths[(int)(mWritten % mBlocks.length)] = length;
+        mWritten++;
+        mAvailable.release();
+    }
+
+    /**
+     * Get number of blocks published but not yet consumed.
+     * @return Number of blocks.
+     */
+    public int getPending() {
+        return (int)(mWritten - mRead);
+    }
+
+    /**
+     * Get total number of blocks published since ring was created.
+     * @return Number of blocks.
+     */
+    public long getWrittenCount() {
+        return mWritten;
+    }
+
+    /**
+     * Get total number of blocks consumed, or discarded, since ring was created.
+     * @return Number of blocks.
+     */
+    public long getReadCount() {
+        return mRead;
+    }
+
+    /**
+     * Discard oldest block published, as if consumed.
+     * <p>Must only be called by producer whilst no consumer is running.</p>
+     */
+    public void discardOldest() {
+        if (mAvailable.tryAcquire())
+            mRead++;
+    }
+
+    /**
+     * Close ring, once producer has published its last block; consumer still receives any
+     * blocks already published.
+     */
+    public void close() {
+        mClosed = true;
+        mAvailable.release();
+    }
+
+    /**
+     * Wait for next block published to consumer.
+     * @return Index of block, or -1 if ring has been closed and every block consumed.
+     * @throws InterruptedException Thrown if interrupted whilst waiting.
+     */
+    public int take() throws InterruptedException {
+        mAvailable.acquire();
+        if (mRead == mWritten)
+            return -1;
+        return (int)(mRead % mBlocks.length);
+    }
+
+    /**
+     * Get block at specified index.
+     * @param index Index of block, as given by take().
+     * @return Block of samples.
+     */
+    public short[] getBlock(int index) {
+        return mBlocks[index];
+    }
+
+    /**
+     * Get number of samples written to block at specified index.
+     * @param index Index of block, as given by take().
+     * @return Number of samples.
+     */
+    public int getLength(int index) {
+        return mLengths[index];
+    }
+
+    /**
+     * Return block last taken by consumer to ring, to be written again.
+     */
+    public void release() {
+        mRead++;
+    }
+}
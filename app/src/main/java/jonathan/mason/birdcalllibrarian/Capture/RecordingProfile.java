@@ -0,0 +1,185 @@
+package jonathan.mason.birdcalllibrarian.Capture;
+
+import android.content.Context;
+import android.media.MediaRecorder;
+
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+
+/**
+ * Quality of recordings, trading size of files, and battery spent encoding them, against
+ * fidelity: sample rate, number of channels, codec and bit rate.
+ * <p>Profiles encoded as AMR narrowband are recorded by MediaRecorder, whose hardware encoder
+ * is cheapest on battery; others are captured by PcmCaptureEngine, and encoded by the Encoder
+ * of the profile. PcmCaptureEngine captures mono only, so every profile has one channel.</p>
+ */
+public enum RecordingProfile {
+    /**
+     * Smallest recordings, narrowband speech quality, for long sessions in the field.
+     */
+    FIELD_COMPACT("field_compact", 8000, 1, Birdcall.CODEC_AMR_NB_3GP, 12200),
+
+    /**
+     * Full bandwidth recordings, compressed to AAC-LC.
+     */
+    STANDARD("standard", 44100, 1, Birdcall.CODEC_AAC_M4A, 64000),
+
+    /**
+     * Full bandwidth recordings, uncompressed, for analysis or archiving.
+     */
+    ARCHIVAL("archival", 44100, 1, Birdcall.CODEC_PCM_WAV, 44100 * 16);
+
+    private final String mKey;
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final String mCodec;
+    private final int mBitRate;
+
+    /**
+     * Constructor.
+     * @param key Key of profile, as held in settings and by birdcalls.
+     * @param sampleRate Sample rate in hertz.
+     * @param channelCount Number of channels.
+     * @param codec Codec of recordings, e.g. Birdcall.CODEC_PCM_WAV.
+     * @param bitRate Bit rate of encoded audio, in bits per second.
+     */
+    RecordingProfile(String key, int sampleRate, int channelCount, String codec, int bitRate) {
+        mKey = key;
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mCodec = codec;
+        mBitRate = bitRate;
+    }
+
+    /**
+     * Find profile with supplied key.
+     * @param key Key of profile.
+     * @return Profile, or null if there is none with key.
+     */
+    public static RecordingProfile fromKey(String key) {
+        for (RecordingProfile profile : RecordingProfile.values()) {
+            if (profile.mKey.equals(key))
+                return profile;
+        }
+        return null;
+    }
+
+    /**
+     * Get key of profile, as held in settings and by birdcalls.
+     * @return Key of profile, e.g. "standard".
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * Get sample rate.
+     * @return Sample rate in hertz.
+     */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * Get number of channels.
+     * @return Number of channels.
+     */
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * Get codec of recordings.
+     * @return Codec, e.g. Birdcall.CODEC_PCM_WAV.
+     */
+    public String getCodec() {
+        return mCodec;
+    }
+
+    /**
+     * Get bit rate of encoded audio.
+     * @return Bit rate in bits per second.
+     */
+    public int getBitRate() {
+        return mBitRate;
+    }
+
+    /**
+     * Determine whether profile is recorded by MediaRecorder, rather than PcmCaptureEngine.
+     * @return True if recorded by MediaRecorder, otherwise false.
+     */
+    public boolean isRecordedByMediaRecorder() {
+        return Birdcall.CODEC_AMR_NB_3GP.equals(mCodec);
+    }
+
+    /**
+     * Determine whether recordings of profile are encoded within app, on encoder thread of
+     * PcmCaptureEngine, so that processor time spent encoding can be measured there; AAC is
+     * encoded by MediaCodec, and AMR by MediaRecorder, both within the media codec service.
+     * @return True if encoded within app, otherwise false.
+     */
+    public boolean isEncodedInApp() {
+        return Birdcall.CODEC_PCM_WAV.equals(mCodec);
+    }
+
+    /**
+     * Get profile with which to capture with PcmCaptureEngine, when it is needed for listening
+     * or automatic recording: this profile, unless recorded by MediaRecorder, in which case
+     * STANDARD, the most compact captured by PcmCaptureEngine.
+     * @return Profile captured by PcmCaptureEngine.
+     */
+    public RecordingProfile getCaptureProfile() {
+        return this.isRecordedByMediaRecorder() ? STANDARD : this;
+    }
+
+    /**
+     * Get profile with which to record with MediaRecorder, when PcmCaptureEngine is
+     * unavailable: this profile, if recorded by MediaRecorder, otherwise FIELD_COMPACT.
+     * @return Profile recorded by MediaRecorder.
+     */
+    public RecordingProfile getMediaRecorderProfile() {
+        return this.isRecordedByMediaRecorder() ? this : FIELD_COMPACT;
+    }
+
+    /**
+     * Create encoder of samples captured by PcmCaptureEngine.
+     * @return New encoder.
+     * @throws IllegalStateException Thrown if profile is recorded by MediaRecorder.
+     */
+    public Encoder createEncoder() {
+        if (Birdcall.CODEC_AAC_M4A.equals(mCodec))
+            return new AacEncoder(mBitRate);
+        else if (Birdcall.CODEC_PCM_WAV.equals(mCodec))
+            return new WavEncoder();
+        else
+            throw new IllegalStateException("Profile " + mKey + " is recorded by MediaRecorder.");
+    }
+
+    /**
+     * Create PcmCaptureEngine capturing at sample rate of profile, and encoding with its
+     * encoder.
+     * @param context Context with which to capture.
+     * @param preRollSeconds Duration of audio, before encoding starts, to be encoded first.
+     * @return New capture engine, not yet started.
+     * @throws IllegalStateException Thrown if profile is recorded by MediaRecorder.
+     */
+    public PcmCaptureEngine createCaptureEngine(Context context, int preRollSeconds) {
+        return new PcmCaptureEngine(context, mSampleRate, preRollSeconds, this.createEncoder());
+    }
+
+    /**
+     * Configure output format, encoder, sample rate, channels and bit rate of MediaRecorder,
+     * whose audio source has been set.
+     * @param mediaRecorder MediaRecorder to configure.
+     * @throws IllegalStateException Thrown if profile is not recorded by MediaRecorder.
+     */
+    public void configure(MediaRecorder mediaRecorder) {
+        if (!this.isRecordedByMediaRecorder())
+            throw new IllegalStateException("Profile " + mKey + " is not recorded by MediaRecorder.");
+
+        mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.THREE_GPP);
+        mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AMR_NB);
+        mediaRecorder.setAudioSamplingRate(mSampleRate);
+        mediaRecorder.setAudioChannels(mChannelCount);
+        mediaRecorder.setAudioEncodingBitRate(mBitRate);
+    }
+}
@@ -0,0 +1,118 @@
+package jonathan.mason.birdcalllibrarian.Capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import jonathan.mason.birdcalllibrarian.Analysis.FilePcmSource;
+import jonathan.mason.birdcalllibrarian.Analysis.PcmDecoder;
+import jonathan.mason.birdcalllibrarian.Analysis.PcmSource;
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+
+/**
+ * Transcoder of recordings, including any further segments, into a single file of another
+ * codec, checking the result decodes to as many samples as the original.
+ */
+public class RecordingTranscoder {
+    /**
+     * Number of samples read from recording at a time.
+     */
+    private static final int BUFFER_SIZE_SAMPLES = 8192;
+
+    /**
+     * Greatest difference in duration allowed between original and transcoded recordings, in
+     * milliseconds, allowing for priming and padding added by encoders.
+     */
+    private static final long MAX_DURATION_DIFFERENCE_MILLIS = 100;
+
+    /**
+     * Private constructor, since only static methods.
+     */
+    private RecordingTranscoder() {
+    }
+
+    /**
+     * Transcode recording into supplied file, then verify it.
+     * <p>Must be called on separate thread.</p>
+     * @param files Files of recording, in order of playing.
+     * @param codec Codec of recording, e.g. Birdcall.CODEC_PCM_WAV.
+     * @param encoder Encoder with which to transcode recording.
+     * @param output File into which to write transcoded recording.
+     * @param cacheDirectory Directory in which to decode recordings, if compressed.
+     * @return Duration of transcoded recording in milliseconds.
+     * @throws IOException Thrown if recording could not be read or transcoded, or transcoded
+     * recording does not match it.
+     */
+    public static long transcode(List<File> files, String codec, Encoder encoder, File output, File cacheDirectory) throws IOException {
+        long sampleCount;
+        int sampleRate;
+        File decodedFile = null;
+        try {
+            PcmSource source;
+            if (Birdcall.CODEC_PCM_WAV.equals(codec))
+                source = FilePcmSource.openWav(files);
+            else {
+                decodedFile = File.createTempFile("transcode", ".pcm", cacheDirectory);
+                source = FilePcmSource.openRaw(decodedFile, PcmDecoder.decode(files, decodedFile));
+            }
+
+            try (PcmSource openSource = source) {
+                sampleCount = openSource.getSampleCount();
+                sampleRate = openSource.getSampleRate();
+                encode(openSource, encoder, output);
+            }
+        } finally {
+            if (decodedFile != null)
+                decodedFile.delete();
+        }
+
+        verify(output, sampleCount, sampleRate, cacheDirectory);
+        return sampleCount * 1000 / sampleRate;
+    }
+
+    /**
+     * Encode all samples of source into file.
+     * @param source Source of samples.
+     * @param encoder Encoder.
+     * @param output File into which to encode.
+     * @throws IOException Thrown if samples could not be read or encoded.
+     */
+    private static void encode(PcmSource source, Encoder encoder, File output) throws IOException {
+        encoder.start(output, source.getSampleRate(), 1);
+        short[] buffer = new short[BUFFER_SIZE_SAMPLES];
+        long position = 0;
+        while (position < source.getSampleCount()) {
+            int read = source.read(position, buffer, 0, (int)Math.min(buffer.length, source.getSampleCount() - position));
+            if (read <= 0)
+                throw new IOException("Recording ended after " + position + " of " + source.getSampleCount() + " samples.");
+            encoder.encode(buffer, 0, read);
+            position += read;
+        }
+        encoder.finish();
+    }
+
+    /**
+     * Verify transcoded recording by decoding it, checking it lasts as long as the original.
+     * @param output File of transcoded recording.
+     * @param sampleCount Number of samples of original recording.
+     * @param sampleRate Sample rate of original recording in hertz.
+     * @param cacheDirectory Directory in which to decode transcoded recording.
+     * @throws IOException Thrown if transcoded recording could not be decoded, or does not
+     * last as long.
+     */
+    private static void verify(File output, long sampleCount, int sampleRate, File cacheDirectory) throws IOException {
+        File decodedFile = File.createTempFile("verify", ".pcm", cacheDirectory);
+        try {
+            int decodedSampleRate = PcmDecoder.decode(Collections.singletonList(output), decodedFile);
+            if (decodedSampleRate != sampleRate)
+                throw new IOException("Transcoded recording has sample rate " + decodedSampleRate + "Hz, not " + sampleRate + "Hz.");
+
+            long difference = Math.abs(decodedFile.length() / 2 - sampleCount) * 1000 / sampleRate;
+            if (difference > MAX_DURATION_DIFFERENCE_MILLIS)
+                throw new IOException("Transcoded recording differs in duration by " + difference + "ms.");
+        } finally {
+            decodedFile.delete();
+        }
+    }
+}
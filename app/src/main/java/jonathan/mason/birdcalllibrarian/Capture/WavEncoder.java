@@ -0,0 +1,112 @@
+package jonathan.mason.birdcalllibrarian.Capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+
+/**
+ * Encoder writing 16-bit PCM samples, as they are, into a WAV file.
+ * <p>Header is written with sizes of zero, then completed once all samples are written.
+ * See "WAVE PCM soundfile format": http://soundfile.sapp.org/doc/WaveFormat/.</p>
+ */
+public class WavEncoder implements Encoder {
+    /**
+     * Size of WAV header in bytes.
+     */
+    private static final int HEADER_SIZE_BYTES = 44;
+
+    private FileChannel mChannel;
+    private ByteBuffer mBuffer = ByteBuffer.allocate(0);
+    private long mDataSize;
+
+    /**
+     * Get codec of encoded files.
+     * @return Birdcall.CODEC_PCM_WAV.
+     */
+    @Override
+    public String getCodec() {
+        return Birdcall.CODEC_PCM_WAV;
+    }
+
+    /**
+     * Get extension of encoded files.
+     * @return ".wav".
+     */
+    @Override
+    public String getFileExtension() {
+        return ".wav";
+    }
+
+    /**
+     * Start encoding into supplied file, writing header.
+     * @param file File into which to encode.
+     * @param sampleRate Sample rate in hertz.
+     * @param channelCount Number of channels.
+     * @throws IOException Thrown if file could not be opened.
+     */
+    @Override
+    public void start(File file, int sampleRate, int channelCount) throws IOException {
+        mChannel = new RandomAccessFile(file, "rw").getChannel();
+        mChannel.truncate(0);
+        mDataSize = 0;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] { 'R', 'I', 'F', 'F' }).putInt(0).put(new byte[] { 'W', 'A', 'V', 'E' });
+        header.put(new byte[] { 'f', 'm', 't', ' ' }).putInt(16)
+                .putShort((short)1) // PCM.
+                .putShort((short)channelCount)
+                .putInt(sampleRate)
+                .putInt(sampleRate * channelCount * 2) // Byte rate.
+                .putShort((short)(channelCount * 2)) // Block align.
+                .putShort((short)16); // Bits per sample.
+        header.put(new byte[] { 'd', 'a', 't', 'a' }).putInt(0);
+        header.flip();
+        while (header.hasRemaining())
+            mChannel.write(header);
+    }
+
+    /**
+     * Write supplied samples to file, little-endian.
+     * @param samples Buffer holding samples.
+     * @param offset Point in buffer of first sample.
+     * @param count Number of samples.
+     * @throws IOException Thrown if samples could not be written.
+     */
+    @Override
+    public void encode(short[] samples, int offset, int count) throws IOException {
+        // Buffer only grows for the first block, as every block is the same size.
+        if (mBuffer.capacity() < count * 2)
+            mBuffer = ByteBuffer.allocate(count * 2).order(ByteOrder.LITTLE_ENDIAN);
+
+        mBuffer.clear();
+        mBuffer.asShortBuffer().put(samples, offset, count);
+        mBuffer.limit(count * 2);
+        while (mBuffer.hasRemaining())
+            mChannel.write(mBuffer);
+        mDataSize += count * 2;
+    }
+
+    /**
+     * Complete sizes within header, and close file.
+     * @throws IOException Thrown if header could not be written.
+     */
+    @Override
+    public void finish() throws IOException {
+        try {
+            ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            size.putInt(0, (int)(mDataSize + HEADER_SIZE_BYTES - 8));
+            mChannel.write(size, 4);
+            size.putInt(0, (int)mDataSize);
+            size.rewind();
+            mChannel.write(size, 40);
+        } finally {
+            mChannel.close();
+            mChannel = null;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import android.content.Context;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 import java.util.Calendar;
@@ -14,8 +15,11 @@ import jonathan.mason.birdcalllibrarian.R;
 
 /**
  * Class represents a birdcall.
+ * <p>Indexed by DateAndTime and Id, the order in which birdcalls are listed, by Geohash
+ * of location, for finding birdcalls nearby, and by RecordingHash, for counting references to
+ * recordings shared within RecordingStore.</p>
  */
-@Entity(tableName = "Birdcalls")
+@Entity(tableName = "Birdcalls", indices = {@Index(value = {"DateAndTime", "Id"}), @Index(value = {"Geohash"}), @Index(value = {"RecordingHash"})})
 public class Birdcall {
     /**
      * Key for storing state in bundles.
@@ -27,6 +31,22 @@ public class Birdcall {
      */
     public static final String TEMP_FILE_PREFIX = "birdcall";
 
+    /**
+     * Codec of recordings made by MediaRecorder: AMR narrowband in a 3GP container.
+     */
+    public static final String CODEC_AMR_NB_3GP = "AMR_NB/3GP";
+
+    /**
+     * Codec of recordings made by PcmCaptureEngine with WavEncoder: 16-bit PCM in a WAV container.
+     */
+    public static final String CODEC_PCM_WAV = "PCM_16/WAV";
+
+    /**
+     * Codec of recordings made by PcmCaptureEngine with AacEncoder, or transcoded by
+     * TranscodingJobService: AAC-LC in an MPEG-4 container.
+     */
+    public static final String CODEC_AAC_M4A = "AAC/M4A";
+
     /**
      * Get default birdcall title based upon whether it is morning, afternoon,
      * evening or night.
@@ -61,10 +81,9 @@ public class Birdcall {
      * @param longitude Longitude of birdcall.
      * @param latitude Latitude of birdcall.
      * @param notes Notes about bird.
-     * @param recording Recorded birdcall.
      */
     @Ignore
-    public Birdcall(String species, String title, Date dateAndTime, double longitude, double latitude, String notes, byte[] recording)
+    public Birdcall(String species, String title, Date dateAndTime, double longitude, double latitude, String notes)
     {
         mSpecies = species;
         mTitle = title;
@@ -72,7 +91,7 @@ public class Birdcall {
         mLongitude = longitude;
         mLatitude = latitude;
         mNotes = notes;
-        mRecording = recording;
+        mGeohash = Geohash.encode(latitude, longitude);
     }
 
     /**
@@ -85,9 +104,16 @@ public class Birdcall {
      * @param longitude Longitude of birdcall.
      * @param latitude Latitude of birdcall.
      * @param notes Notes about bird.
-     * @param recording Recorded birdcall.
+     * @param recordingHash Hash of recorded birdcall within RecordingStore.
+     * @param recordingSize Size of recorded birdcall in bytes.
+     * @param recordingCodec Codec of recorded birdcall.
+     * @param duration Duration of recorded birdcall in milliseconds.
+     * @param peaks Summary of waveform of recorded birdcall, from WaveformPeaks.
+     * @param geohash Geohash of location of birdcall.
+     * @param deletedAt Date and time birdcall was deleted, or null if not deleted.
+     * @param recordingProfile Key of RecordingProfile with which birdcall was recorded.
      */
-    public Birdcall(int id, String species, String title, Date dateAndTime, double longitude, double latitude, String notes, byte[] recording)
+    public Birdcall(int id, String species, String title, Date dateAndTime, double longitude, double latitude, String notes, String recordingHash, long recordingSize, String recordingCodec, long duration, byte[] peaks, String geohash, Date deletedAt, String recordingProfile)
     {
         mId = id;
         mSpecies = species;
@@ -96,7 +122,14 @@ public class Birdcall {
         mLongitude = longitude;
         mLatitude = latitude;
         mNotes = notes;
-        mRecording = recording;
+        mRecordingHash = recordingHash;
+        mRecordingSize = recordingSize;
+        mRecordingCodec = recordingCodec;
+        mDuration = duration;
+        mPeaks = peaks;
+        mGeohash = geohash;
+        mDeletedAt = deletedAt;
+        mRecordingProfile = recordingProfile;
     }
 
     @PrimaryKey(autoGenerate = true)
@@ -178,6 +211,17 @@ public class Birdcall {
         return mLatitude;
     }
 
+    @ColumnInfo(name = "Geohash")
+    private String mGeohash;
+    /**
+     * Get geohash of location of birdcall, by which it is indexed.
+     * @return Geohash, of Geohash.PRECISION characters.
+     */
+    public String getGeohash()
+    {
+        return mGeohash;
+    }
+
     @ColumnInfo(name = "Notes")
     private String mNotes;
     /**
@@ -195,24 +239,109 @@ public class Birdcall {
      */
     public void setNotes(String notes) { mNotes = notes; }
 
-    @ColumnInfo(name = "Recording", typeAffinity = ColumnInfo.BLOB)
-    private byte[] mRecording;
+    @ColumnInfo(name = "RecordingHash")
+    private String mRecordingHash;
+    /**
+     * Get hash of recorded birdcall, by which it is held in RecordingStore.
+     * @return Hash of recorded birdcall.
+     */
+    public String getRecordingHash()
+    {
+        return mRecordingHash;
+    }
+
+    @ColumnInfo(name = "RecordingSize")
+    private long mRecordingSize;
+    /**
+     * Get size of recorded birdcall.
+     * @return Size of recorded birdcall in bytes.
+     */
+    public long getRecordingSize()
+    {
+        return mRecordingSize;
+    }
+
+    @ColumnInfo(name = "RecordingCodec")
+    private String mRecordingCodec;
+    /**
+     * Get codec of recorded birdcall.
+     * @return Codec of recorded birdcall.
+     */
+    public String getRecordingCodec()
+    {
+        return mRecordingCodec;
+    }
+
+    @ColumnInfo(name = "Duration", defaultValue = "0")
+    private long mDuration;
     /**
-     * Get recorded birdcall.
-     * <p>Mapping byte[] to SQLite BLOB from answer to "Room library won't accept byte array" by Pinakin:
-     * https://stackoverflow.com/questions/45184504/room-library-wont-accept-byte-array.</p>
-     * @return Recorded birdcall.
+     * Get duration of recorded birdcall.
+     * @return Duration of recorded birdcall in milliseconds.
      */
-    public byte[] getRecording()
+    public long getDuration()
     {
-        return mRecording;
+        return mDuration;
     }
 
+    @ColumnInfo(name = "RecordingProfile")
+    private String mRecordingProfile;
+    /**
+     * Get recording profile with which birdcall was recorded; it is kept if recording is
+     * later transcoded.
+     * @return Key of RecordingProfile, or null if recorded before profiles.
+     */
+    public String getRecordingProfile()
+    {
+        return mRecordingProfile;
+    }
+
+    /**
+     * Set recording profile with which birdcall was recorded.
+     * @param recordingProfile Key of RecordingProfile.
+     */
+    public void setRecordingProfile(String recordingProfile) { mRecordingProfile = recordingProfile; }
+
     /**
      * Set recorded birdcall.
-     * @param recording Recorded birdcall.
+     * @param hash Hash of recorded birdcall within RecordingStore.
+     * @param size Size of recorded birdcall in bytes.
+     * @param codec Codec of recorded birdcall.
+     * @param duration Duration of recorded birdcall in milliseconds.
      */
-    public void setRecording(byte[] recording) {
-        mRecording = recording;
+    public void setRecording(String hash, long size, String codec, long duration) {
+        mRecordingHash = hash;
+        mRecordingSize = size;
+        mRecordingCodec = codec;
+        mDuration = duration;
+    }
+
+    @ColumnInfo(name = "Peaks")
+    private byte[] mPeaks;
+    /**
+     * Get summary of waveform of recorded birdcall, for listing it without reading recording.
+     * @return Summary from WaveformPeaks, empty if recording could not be read, or null if not
+     * yet computed.
+     */
+    public byte[] getPeaks()
+    {
+        return mPeaks;
+    }
+
+    /**
+     * Set summary of waveform of recorded birdcall.
+     * @param peaks Summary from WaveformPeaks.
+     */
+    public void setPeaks(byte[] peaks) { mPeaks = peaks; }
+
+    @ColumnInfo(name = "DeletedAt")
+    private Date mDeletedAt;
+    /**
+     * Get date and time birdcall was deleted, leaving it as a tombstone, hidden from lists of
+     * birdcalls, until purged by BirdcallPurge.
+     * @return Date and time birdcall was deleted, or null if not deleted.
+     */
+    public Date getDeletedAt()
+    {
+        return mDeletedAt;
     }
 }
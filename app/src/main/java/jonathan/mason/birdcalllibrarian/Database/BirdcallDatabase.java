@@ -1,27 +1,69 @@
 package jonathan.mason.birdcalllibrarian.Database;
 
 import android.app.Application;
+import android.database.Cursor;
+import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Database;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.RawQuery;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
 import androidx.room.Update;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteQuery;
 
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executors;
 
 /**
  * Birdcall database; a singleton.
+ * <p>Database uses write-ahead logging, so that reads, e.g. of the list of birdcalls, carry on
+ * from their own connections whilst a birdcall is being saved, rather than waiting for it.</p>
  */
-@Database(entities = {Birdcall.class}, version = 1, exportSchema = false)
+@Database(entities = {Birdcall.class, BirdcallFts.class, RecordingSegment.class}, version = 11, exportSchema = false)
 @TypeConverters(Converters.class)
 public abstract class BirdcallDatabase extends RoomDatabase {
 
+    /**
+     * Number of threads running queries for LiveData, each of which Android gives its own
+     * reader connection in write-ahead logging mode; kept small, as READ lane of TaskScheduler
+     * has its own threads, and connections too.
+     */
+    private static final int QUERY_THREAD_COUNT = 2;
+
+    /**
+     * Number of pages of write-ahead log after which it is checkpointed into database when
+     * committing; about 1MB, smaller than Android's default, so that reads seldom have far to
+     * look through log, and checkpoints are short.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 256;
+
+    /**
+     * Size in bytes to which write-ahead log is truncated after checkpoint, rather than being
+     * left at its largest.
+     */
+    private static final int JOURNAL_SIZE_LIMIT_BYTES = 1024 * 1024;
+
+    /**
+     * Value of "auto_vacuum" pragma when free pages are kept in database until reclaimed by
+     * "incremental_vacuum" pragma.
+     */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Maximum number of IDs bound to a single statement, within SQLite's limit of 999
+     * arguments.
+     */
+    private static final int MAX_IDS_PER_STATEMENT = 500;
+
     private final static Object LOCK = new Object();
     private static BirdcallDatabase mInstance = null;
 
@@ -34,49 +76,481 @@ public abstract class BirdcallDatabase extends RoomDatabase {
     public static BirdcallDatabase getInstance(Application application) {
         if (mInstance == null) {
             synchronized (LOCK) {
-                mInstance = Room.databaseBuilder(application, BirdcallDatabase.class, BirdcallDatabase.class.getSimpleName()).build();
+                if (mInstance == null)
+                    mInstance = configure(Room.databaseBuilder(application, BirdcallDatabase.class, BirdcallDatabase.class.getSimpleName()))
+                            .addMigrations(Migrations.getAll(RecordingStore.getInstance(application)))
+                            .build();
             }
         }
 
         return mInstance;
     }
 
+    /**
+     * Configure builder of database with write-ahead logging, a small pool of query threads,
+     * and checkpoint policy.
+     * <p>Public so that tests build their databases the same way.</p>
+     * @param builder Builder of database.
+     * @return Same builder.
+     */
+    public static RoomDatabase.Builder<BirdcallDatabase> configure(RoomDatabase.Builder<BirdcallDatabase> builder) {
+        return builder.setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
+                .setQueryExecutor(Executors.newFixedThreadPool(QUERY_THREAD_COUNT))
+                .addCallback(new Callback() {
+                    /**
+                     * Handle opening of database, to set checkpoint policy of its connection for
+                     * writing, the connection which commits, and so checkpoints.
+                     * @param db Opened database.
+                     */
+                    @Override
+                    public void onOpen(@NonNull SupportSQLiteDatabase db) {
+                        super.onOpen(db);
+
+                        // Pragmas return a row, so must be queried, rather than executed.
+                        db.query("PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES).close();
+                        db.query("PRAGMA journal_size_limit = " + JOURNAL_SIZE_LIMIT_BYTES).close();
+                    }
+                });
+    }
+
+    /**
+     * Perform maintenance whilst device is idle: checkpoint whole write-ahead log into database
+     * and truncate it, then let SQLite refresh statistics used to plan queries, where needed.
+     * <p>Must be called on separate thread.</p>
+     */
+    public void performMaintenance() {
+        SupportSQLiteDatabase db = this.getOpenHelper().getWritableDatabase();
+        try (Cursor cursor = db.query("PRAGMA wal_checkpoint(TRUNCATE)")) {
+            // Columns are whether checkpoint was blocked, pages of log, and pages checkpointed.
+            if (cursor.moveToFirst())
+                Log.d(BirdcallDatabase.class.getSimpleName(), "performMaintenance: checkpoint " + (cursor.getInt(0) == 0 ? "completed" : "blocked") + ", " + cursor.getInt(2) + " of " + cursor.getInt(1) + " page(s).");
+        }
+        db.query("PRAGMA optimize").close();
+    }
+
+    /**
+     * Switch database to incremental auto-vacuum, if not already, so that pages freed by
+     * deleting birdcalls can be given back to the file system, by reclaimFreePages(), rather
+     * than the database file never shrinking.
+     * <p>Switching rewrites the whole database with VACUUM, which cannot run within a
+     * transaction, as migrations do, so is done once, whilst device is idle, by
+     * DatabaseMaintenanceJobService.</p>
+     * <p>Must be called on separate thread.</p>
+     * @return True if database was switched, false if already switched.
+     */
+    public boolean enableIncrementalVacuum() {
+        SupportSQLiteDatabase db = this.getOpenHelper().getWritableDatabase();
+        if (queryLong(db, "PRAGMA auto_vacuum") == AUTO_VACUUM_INCREMENTAL)
+            return false;
+
+        // Setting only takes effect when database is rebuilt.
+        db.query("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL).close();
+        db.execSQL("VACUUM");
+        return true;
+    }
+
+    /**
+     * Give back up to specified number of free pages to the file system, truncating database
+     * file, once switched to incremental auto-vacuum.
+     * <p>The write-ahead log only shrinks once checkpointed, by performMaintenance().</p>
+     * <p>Must be called on separate thread.</p>
+     * @param maxPages Maximum number of pages to give back.
+     * @return Number of pages given back.
+     */
+    public long reclaimFreePages(int maxPages) {
+        SupportSQLiteDatabase db = this.getOpenHelper().getWritableDatabase();
+        long freePages = queryLong(db, "PRAGMA freelist_count");
+
+        // Pragma returns no rows, but steps once for each page.
+        try (Cursor cursor = db.query("PRAGMA incremental_vacuum(" + maxPages + ")")) {
+            while (cursor.moveToNext()) {
+                // Nothing to read.
+            }
+        }
+        return freePages - queryLong(db, "PRAGMA freelist_count");
+    }
+
+    /**
+     * Get number of free pages in database, not holding any data.
+     * <p>Must be called on separate thread.</p>
+     * @return Number of free pages.
+     */
+    public long getFreePageCount() {
+        return queryLong(this.getOpenHelper().getWritableDatabase(), "PRAGMA freelist_count");
+    }
+
+    /**
+     * Get number of pages in database, including free pages.
+     * <p>Must be called on separate thread.</p>
+     * @return Number of pages.
+     */
+    public long getPageCount() {
+        return queryLong(this.getOpenHelper().getWritableDatabase(), "PRAGMA page_count");
+    }
+
+    /**
+     * Get size of each page of database.
+     * <p>Must be called on separate thread.</p>
+     * @return Size of page in bytes.
+     */
+    public long getPageSize() {
+        return queryLong(this.getOpenHelper().getWritableDatabase(), "PRAGMA page_size");
+    }
+
+    /**
+     * Run query returning a single number, e.g. value of pragma.
+     * @param db Database to query.
+     * @param sql Query.
+     * @return Number, or 0 if query returned no rows.
+     */
+    private static long queryLong(SupportSQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * Delete birdcalls with specified IDs, by marking them as deleted, in a single transaction,
+     * so that they are no longer listed, but can be restored straight away.
+     * <p>Birdcalls, and their recordings, are removed later by BirdcallPurge.</p>
+     * <p>Must be called on separate thread.</p>
+     * @param ids IDs of birdcalls.
+     * @param deletedAt Date and time of deletion.
+     */
+    public void markDeleted(List<Integer> ids, Date deletedAt) {
+        this.runInTransaction(new Runnable() {
+            /**
+             * Task to be executed within transaction.
+             */
+            @Override
+            public void run() {
+                for (int i = 0; i < ids.size(); i += MAX_IDS_PER_STATEMENT)
+                    DAO().updateDeletedAt(ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_STATEMENT)), deletedAt);
+            }
+        });
+    }
+
+    /**
+     * Restore birdcalls with specified IDs, marked as deleted by markDeleted(), in a single
+     * transaction.
+     * <p>Must be called on separate thread.</p>
+     * @param ids IDs of birdcalls.
+     */
+    public void restore(List<Integer> ids) {
+        this.markDeleted(ids, null);
+    }
+
     /**
      * Birdcall database DAO interface.
+     * <p>Birdcalls marked as deleted are left out of summaries, but not of other queries.</p>
      */
     @Dao
     public interface BirdcallDatabaseDAO {
 
         /**
-         * Get all birdcalls.
-         * @return List of birdcalls.
+         * Get summaries of newest birdcalls, without their recordings.
+         * <p>Must be called on separate thread.</p>
+         * @param limit Maximum number of birdcalls to get.
+         * @return List of birdcall summaries, newest first.
+         */
+        @Query("SELECT Id, Title, Species, DateAndTime, Duration, Peaks FROM Birdcalls WHERE DeletedAt IS NULL ORDER BY DateAndTime DESC, Id DESC LIMIT :limit")
+        List<BirdcallSummary> loadSummaries(int limit);
+
+        /**
+         * Get summaries of birdcalls older than specified birdcall, using index over
+         * DateAndTime and Id.
+         * <p>Must be called on separate thread.</p>
+         * @param dateAndTime Date and time of birdcall.
+         * @param id ID of birdcall.
+         * @param limit Maximum number of birdcalls to get.
+         * @return List of birdcall summaries, newest first.
+         */
+        @Query("SELECT Id, Title, Species, DateAndTime, Duration, Peaks FROM Birdcalls WHERE DeletedAt IS NULL AND DateAndTime <= :dateAndTime AND (DateAndTime < :dateAndTime OR Id < :id) ORDER BY DateAndTime DESC, Id DESC LIMIT :limit")
+        List<BirdcallSummary> loadSummariesAfter(Date dateAndTime, int id, int limit);
+
+        /**
+         * Get summaries of birdcalls newer than specified birdcall, using index over
+         * DateAndTime and Id.
+         * <p>Must be called on separate thread.</p>
+         * @param dateAndTime Date and time of birdcall.
+         * @param id ID of birdcall.
+         * @param limit Maximum number of birdcalls to get.
+         * @return List of birdcall summaries, oldest first.
+         */
+        @Query("SELECT Id, Title, Species, DateAndTime, Duration, Peaks FROM Birdcalls WHERE DeletedAt IS NULL AND DateAndTime >= :dateAndTime AND (DateAndTime > :dateAndTime OR Id > :id) ORDER BY DateAndTime ASC, Id ASC LIMIT :limit")
+        List<BirdcallSummary> loadSummariesBefore(Date dateAndTime, int id, int limit);
+
+        /**
+         * Get summaries of newest birdcalls matching full-text search, without their recordings.
+         * <p>Must be called on separate thread.</p>
+         * @param query Full-text query, e.g. from BirdcallSummaryDataSource.toMatchQuery().
+         * @param limit Maximum number of birdcalls to get.
+         * @return List of birdcall summaries, newest first.
+         */
+        @Query("SELECT Id, Title, Species, DateAndTime, Duration, Peaks FROM Birdcalls WHERE DeletedAt IS NULL AND Id IN (SELECT rowid FROM BirdcallsFts WHERE BirdcallsFts MATCH :query) ORDER BY DateAndTime DESC, Id DESC LIMIT :limit")
+        List<BirdcallSummary> searchSummaries(String query, int limit);
+
+        /**
+         * Get summaries of birdcalls matching full-text search, older than specified birdcall.
+         * <p>Must be called on separate thread.</p>
+         * @param query Full-text query.
+         * @param dateAndTime Date and time of birdcall.
+         * @param id ID of birdcall.
+         * @param limit Maximum number of birdcalls to get.
+         * @return List of birdcall summaries, newest first.
+         */
+        @Query("SELECT Id, Title, Species, DateAndTime, Duration, Peaks FROM Birdcalls WHERE DeletedAt IS NULL AND Id IN (SELECT rowid FROM BirdcallsFts WHERE BirdcallsFts MATCH :query) AND DateAndTime <= :dateAndTime AND (DateAndTime < :dateAndTime OR Id < :id) ORDER BY DateAndTime DESC, Id DESC LIMIT :limit")
+        List<BirdcallSummary> searchSummariesAfter(String query, Date dateAndTime, int id, int limit);
+
+        /**
+         * Get summaries of birdcalls matching full-text search, newer than specified birdcall.
+         * <p>Must be called on separate thread.</p>
+         * @param query Full-text query.
+         * @param dateAndTime Date and time of birdcall.
+         * @param id ID of birdcall.
+         * @param limit Maximum number of birdcalls to get.
+         * @return List of birdcall summaries, oldest first.
          */
-        @Query("SELECT * FROM Birdcalls ORDER BY DateAndTime DESC")
-        LiveData<List<Birdcall>> load();
+        @Query("SELECT Id, Title, Species, DateAndTime, Duration, Peaks FROM Birdcalls WHERE DeletedAt IS NULL AND Id IN (SELECT rowid FROM BirdcallsFts WHERE BirdcallsFts MATCH :query) AND DateAndTime >= :dateAndTime AND (DateAndTime > :dateAndTime OR Id > :id) ORDER BY DateAndTime ASC, Id ASC LIMIT :limit")
+        List<BirdcallSummary> searchSummariesBefore(String query, Date dateAndTime, int id, int limit);
+
+        /**
+         * Get summaries of birdcalls found by spatial query.
+         * <p>Must be called on separate thread.</p>
+         * @param query Query from SpatialQuery.inBox() or SpatialQuery.withinRadius().
+         * @return List of birdcall summaries, nearest first.
+         */
+        @RawQuery
+        List<BirdcallSummary> findSummaries(SupportSQLiteQuery query);
+
+        /**
+         * Get summary of most recent birdcall.
+         * <p>Must be called on separate thread.</p>
+         * @return Summary of most recent birdcall, or null if there are none.
+         */
+        @Query("SELECT Id, Title, Species, DateAndTime, Duration, Peaks FROM Birdcalls WHERE DeletedAt IS NULL ORDER BY DateAndTime DESC LIMIT 1")
+        BirdcallSummary loadLatestSummary();
 
         @Query("SELECT * FROM Birdcalls WHERE Id = :id")
         LiveData<Birdcall> loadBirdcall(int id);
 
+        /**
+         * Get birdcall with specified ID.
+         * <p>Must be called on separate thread.</p>
+         * @param id ID of birdcall.
+         * @return Birdcall, or null if not found.
+         */
+        @Query("SELECT * FROM Birdcalls WHERE Id = :id")
+        Birdcall findBirdcall(int id);
+
         /**
          * Insert birdcall into database.
          * @param birdcall Birdcall to insert.
+         * @return ID of inserted birdcall.
          */
         @Insert
-        void insert(Birdcall birdcall);
+        long insert(Birdcall birdcall);
+
+        /**
+         * Insert further segment of birdcall into database.
+         * @param segment Segment to insert.
+         */
+        @Insert
+        void insert(RecordingSegment segment);
 
         /**
          * Update birdcall in database.
+         * <p>To update only edited details, use BirdcallPatch instead.</p>
          * @param birdcall Birdcall to update.
          */
         @Update
         void update(Birdcall birdcall);
 
+        /**
+         * Update species of birdcall with specified ID, and nothing else.
+         * @param id ID of birdcall.
+         * @param species Species of bird.
+         */
+        @Query("UPDATE Birdcalls SET Species = :species WHERE Id = :id")
+        void updateSpecies(int id, String species);
+
+        /**
+         * Update title of birdcall with specified ID, and nothing else.
+         * @param id ID of birdcall.
+         * @param title Title of birdcall.
+         */
+        @Query("UPDATE Birdcalls SET Title = :title WHERE Id = :id")
+        void updateTitle(int id, String title);
+
+        /**
+         * Update notes of birdcall with specified ID, and nothing else.
+         * @param id ID of birdcall.
+         * @param notes Notes about bird.
+         */
+        @Query("UPDATE Birdcalls SET Notes = :notes WHERE Id = :id")
+        void updateNotes(int id, String notes);
+
         /**
          * Delete birdcall from database.
          * @param birdcall Birdcall to delete.
          */
         @Delete
         void delete(Birdcall birdcall);
+
+        /**
+         * Delete birdcall with specified ID from database.
+         * @param id ID of birdcall to delete.
+         */
+        @Query("DELETE FROM Birdcalls WHERE Id = :id")
+        void delete(int id);
+
+        /**
+         * Delete birdcalls with specified IDs from database.
+         * @param ids IDs of birdcalls to delete.
+         */
+        @Query("DELETE FROM Birdcalls WHERE Id IN (:ids)")
+        void delete(List<Integer> ids);
+
+        /**
+         * Set date and time birdcalls with specified IDs were deleted, and nothing else.
+         * @param ids IDs of birdcalls.
+         * @param deletedAt Date and time of deletion, or null to restore birdcalls.
+         */
+        @Query("UPDATE Birdcalls SET DeletedAt = :deletedAt WHERE Id IN (:ids)")
+        void updateDeletedAt(List<Integer> ids, Date deletedAt);
+
+        /**
+         * Get birdcalls deleted no later than specified date and time, in order of ID.
+         * <p>Must be called on separate thread.</p>
+         * @param deletedBefore Date and time of latest deletion to get.
+         * @param limit Maximum number of birdcalls to get.
+         * @return List of birdcalls.
+         */
+        @Query("SELECT * FROM Birdcalls WHERE DeletedAt <= :deletedBefore ORDER BY Id LIMIT :limit")
+        List<Birdcall> findDeletedBirdcalls(Date deletedBefore, int limit);
+
+        /**
+         * Get hash of recording of birdcall with specified ID.
+         * @param id ID of birdcall.
+         * @return Hash of recording within RecordingStore.
+         */
+        @Query("SELECT RecordingHash FROM Birdcalls WHERE Id = :id")
+        String loadRecordingHash(int id);
+
+        /**
+         * Get page of birdcalls to export, within date range and of species, if specified, in
+         * order of ID.
+         * <p>Must be called on separate thread.</p>
+         * @param from Earliest date and time of birdcalls, or null for no limit.
+         * @param to Date and time before which birdcalls were recorded, or null for no limit.
+         * @param species Species of birdcalls, ignoring case, or null for all species.
+         * @param afterId ID after which to start.
+         * @param limit Maximum number of birdcalls to get.
+         * @return List of birdcalls.
+         */
+        @Query("SELECT * FROM Birdcalls WHERE DeletedAt IS NULL AND (:from IS NULL OR DateAndTime >= :from) AND (:to IS NULL OR DateAndTime < :to) AND (:species IS NULL OR Species = :species COLLATE NOCASE) AND Id > :afterId ORDER BY Id LIMIT :limit")
+        List<Birdcall> findBirdcallsToExport(Date from, Date to, String species, int afterId, int limit);
+
+        /**
+         * Get further segments of birdcall with specified ID.
+         * @param birdcallId ID of birdcall.
+         * @return List of segments, in order recorded.
+         */
+        @Query("SELECT * FROM RecordingSegments WHERE BirdcallId = :birdcallId ORDER BY SegmentIndex")
+        LiveData<List<RecordingSegment>> loadSegments(int birdcallId);
+
+        /**
+         * Get further segments of birdcall with specified ID.
+         * <p>Must be called on separate thread.</p>
+         * @param birdcallId ID of birdcall.
+         * @return List of segments, in order recorded; empty if birdcall was not recorded in
+         * segments.
+         */
+        @Query("SELECT * FROM RecordingSegments WHERE BirdcallId = :birdcallId ORDER BY SegmentIndex")
+        List<RecordingSegment> findSegments(int birdcallId);
+
+        /**
+         * Delete further segments of birdcall with specified ID from database.
+         * @param birdcallId ID of birdcall.
+         */
+        @Query("DELETE FROM RecordingSegments WHERE BirdcallId = :birdcallId")
+        void deleteSegments(int birdcallId);
+
+        /**
+         * Get further segments of birdcalls with specified IDs.
+         * <p>Must be called on separate thread.</p>
+         * @param birdcallIds IDs of birdcalls.
+         * @return List of segments.
+         */
+        @Query("SELECT * FROM RecordingSegments WHERE BirdcallId IN (:birdcallIds)")
+        List<RecordingSegment> findSegments(List<Integer> birdcallIds);
+
+        /**
+         * Delete further segments of birdcalls with specified IDs from database.
+         * @param birdcallIds IDs of birdcalls.
+         */
+        @Query("DELETE FROM RecordingSegments WHERE BirdcallId IN (:birdcallIds)")
+        void deleteSegments(List<Integer> birdcallIds);
+
+        /**
+         * Get birdcalls whose waveform has not yet been summarised, in order of ID.
+         * <p>Must be called on separate thread.</p>
+         * @param afterId ID after which to start.
+         * @param limit Maximum number of birdcalls to get.
+         * @return List of birdcalls.
+         */
+        @Query("SELECT * FROM Birdcalls WHERE Peaks IS NULL AND DeletedAt IS NULL AND Id > :afterId ORDER BY Id LIMIT :limit")
+        List<Birdcall> findBirdcallsWithoutPeaks(int afterId, int limit);
+
+        /**
+         * Update summary of waveform of birdcall with specified ID, and nothing else.
+         * @param id ID of birdcall.
+         * @param peaks Summary of waveform, from WaveformPeaks.
+         */
+        @Query("UPDATE Birdcalls SET Peaks = :peaks WHERE Id = :id")
+        void updatePeaks(int id, byte[] peaks);
+
+        /**
+         * Get birdcalls recorded with specified codec, other than with specified recording
+         * profile, in order of ID.
+         * <p>Must be called on separate thread.</p>
+         * @param codec Codec of recordings, e.g. Birdcall.CODEC_PCM_WAV.
+         * @param excludedProfile Key of RecordingProfile of birdcalls to leave out.
+         * @param afterId ID after which to start.
+         * @param limit Maximum number of birdcalls to get.
+         * @return List of birdcalls.
+         */
+        @Query("SELECT * FROM Birdcalls WHERE RecordingCodec = :codec AND (RecordingProfile IS NULL OR RecordingProfile != :excludedProfile) AND DeletedAt IS NULL AND Id > :afterId ORDER BY Id LIMIT :limit")
+        List<Birdcall> findBirdcallsWithCodec(String codec, String excludedProfile, int afterId, int limit);
+
+        /**
+         * Update recording of birdcall with specified ID, and nothing else.
+         * @param id ID of birdcall.
+         * @param recordingHash Hash of recording within RecordingStore.
+         * @param recordingSize Size of recording in bytes.
+         * @param recordingCodec Codec of recording.
+         * @param duration Duration of recording in milliseconds.
+         */
+        @Query("UPDATE Birdcalls SET RecordingHash = :recordingHash, RecordingSize = :recordingSize, RecordingCodec = :recordingCodec, Duration = :duration WHERE Id = :id")
+        void updateRecording(int id, String recordingHash, long recordingSize, String recordingCodec, long duration);
+
+        /**
+         * Get hashes of recordings referred to by birdcalls, or segments of birdcalls, in order.
+         * <p>Must be called on separate thread.</p>
+         * @param afterHash Hash after which to start, or "" to start from first.
+         * @param limit Maximum number of hashes to get.
+         * @return List of hashes, each once.
+         */
+        @Query("SELECT RecordingHash FROM Birdcalls WHERE RecordingHash > :afterHash UNION SELECT RecordingHash FROM RecordingSegments WHERE RecordingHash > :afterHash ORDER BY RecordingHash LIMIT :limit")
+        List<String> findRecordingHashes(String afterHash, int limit);
+
+        /**
+         * Count birdcalls, and segments of birdcalls, referring to recording with specified hash.
+         * @param recordingHash Hash of recording within RecordingStore.
+         * @return Number of references to recording.
+         */
+        @Query("SELECT (SELECT COUNT(*) FROM Birdcalls WHERE RecordingHash = :recordingHash) + (SELECT COUNT(*) FROM RecordingSegments WHERE RecordingHash = :recordingHash)")
+        int countRecordingReferences(String recordingHash);
     }
 
     /**
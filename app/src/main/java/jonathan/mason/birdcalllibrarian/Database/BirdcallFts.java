@@ -0,0 +1,66 @@
+package jonathan.mason.birdcalllibrarian.Database;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+
+/**
+ * Full-text index over the species, title and notes of birdcalls, for searching them.
+ * <p>Index is an external content table of "Birdcalls", so the text is not stored twice, and
+ * Room keeps it in sync with triggers on insert, update and delete. Its rowid is the Id of
+ * the birdcall. Prefixes of 2 and 3 characters are also indexed, so that searching as the
+ * user types stays quick.</p>
+ * <p>From "Support full-text search", Android Developers:
+ * https://developer.android.com/training/data-storage/room/defining-data#fts.</p>
+ */
+@Fts4(contentEntity = Birdcall.class, prefix = {2, 3})
+@Entity(tableName = "BirdcallsFts")
+public class BirdcallFts {
+
+    /**
+     * Constructor.
+     * <p>For use by Room.</p>
+     * @param species Species of bird.
+     * @param title Title of birdcall.
+     * @param notes Notes about bird.
+     */
+    public BirdcallFts(String species, String title, String notes)
+    {
+        mSpecies = species;
+        mTitle = title;
+        mNotes = notes;
+    }
+
+    @ColumnInfo(name = "Species")
+    private String mSpecies;
+    /**
+     * Get species of bird.
+     * @return Species of bird.
+     */
+    public String getSpecies()
+    {
+        return mSpecies;
+    }
+
+    @ColumnInfo(name = "Title")
+    private String mTitle;
+    /**
+     * Get title of birdcall.
+     * @return Title of birdcall.
+     */
+    public String getTitle()
+    {
+        return mTitle;
+    }
+
+    @ColumnInfo(name = "Notes")
+    private String mNotes;
+    /**
+     * Get notes about bird.
+     * @return Notes about bird.
+     */
+    public String getNotes()
+    {
+        return mNotes;
+    }
+}
@@ -0,0 +1,110 @@
+package jonathan.mason.birdcalllibrarian.Database;
+
+/**
+ * Class represents edits to the editable details of a birdcall, recording which details
+ * have changed, so that only they are updated in database.
+ */
+public class BirdcallPatch {
+    private final int mId;
+
+    private String mSpecies;
+    private boolean mSpeciesChanged;
+
+    private String mTitle;
+    private boolean mTitleChanged;
+
+    private String mNotes;
+    private boolean mNotesChanged;
+
+    /**
+     * Constructor.
+     * @param id ID of birdcall being edited.
+     */
+    public BirdcallPatch(int id) {
+        mId = id;
+    }
+
+    /**
+     * Get ID of birdcall being edited.
+     * @return ID of birdcall.
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * Set species of bird.
+     * @param species Species of bird.
+     */
+    public synchronized void setSpecies(String species) {
+        mSpecies = species;
+        mSpeciesChanged = true;
+    }
+
+    /**
+     * Set title of birdcall.
+     * @param title Title of birdcall.
+     */
+    public synchronized void setTitle(String title) {
+        mTitle = title;
+        mTitleChanged = true;
+    }
+
+    /**
+     * Set notes about bird.
+     * @param notes Notes about bird.
+     */
+    public synchronized void setNotes(String notes) {
+        mNotes = notes;
+        mNotesChanged = true;
+    }
+
+    /**
+     * Determine whether any details have changed.
+     * @return True if any details have changed, otherwise false.
+     */
+    public synchronized boolean isChanged() {
+        return mSpeciesChanged || mTitleChanged || mNotesChanged;
+    }
+
+    /**
+     * Merge changed details of supplied, more recent, patch of the same birdcall into
+     * this one, so that several edits can be saved as one.
+     * @param newer More recent patch.
+     */
+    public synchronized void merge(BirdcallPatch newer) {
+        synchronized (newer) {
+            if (newer.mSpeciesChanged)
+                this.setSpecies(newer.mSpecies);
+            if (newer.mTitleChanged)
+                this.setTitle(newer.mTitle);
+            if (newer.mNotesChanged)
+                this.setNotes(newer.mNotes);
+        }
+    }
+
+    /**
+     * Update changed details, and only them, of birdcall in database, in a single transaction.
+     * <p>Must be called on separate thread.</p>
+     * @param database Birdcall database.
+     */
+    public synchronized void applyTo(BirdcallDatabase database) {
+        if (!this.isChanged())
+            return;
+
+        database.runInTransaction(new Runnable() {
+            /**
+             * Task to be executed within transaction.
+             */
+            @Override
+            public void run() {
+                if (mSpeciesChanged)
+                    database.DAO().updateSpecies(mId, mSpecies);
+                if (mTitleChanged)
+                    database.DAO().updateTitle(mId, mTitle);
+                if (mNotesChanged)
+                    database.DAO().updateNotes(mId, mNotes);
+            }
+        });
+    }
+}
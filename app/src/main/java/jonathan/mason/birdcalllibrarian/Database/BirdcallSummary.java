@@ -0,0 +1,100 @@
+package jonathan.mason.birdcalllibrarian.Database;
+
+import androidx.room.ColumnInfo;
+
+import java.util.Date;
+
+/**
+ * Class represents summary of a birdcall, with just enough detail to be listed.
+ * <p>Loaded by Room from a subset of the columns of "Birdcalls", so that listing
+ * birdcalls never involves their recordings.</p>
+ */
+public class BirdcallSummary {
+
+    /**
+     * Constructor.
+     * <p>For use by Room.</p>
+     * @param id ID of birdcall.
+     * @param title Title of birdcall.
+     * @param species Species of bird.
+     * @param dateAndTime Date and time of birdcall.
+     * @param duration Duration of recorded birdcall in milliseconds.
+     * @param peaks Summary of waveform of recorded birdcall, from WaveformPeaks.
+     */
+    public BirdcallSummary(int id, String title, String species, Date dateAndTime, long duration, byte[] peaks)
+    {
+        mId = id;
+        mTitle = title;
+        mSpecies = species;
+        mDateAndTime = dateAndTime;
+        mDuration = duration;
+        mPeaks = peaks;
+    }
+
+    @ColumnInfo(name = "Id")
+    private int mId;
+    /**
+     * Get ID of birdcall.
+     * @return ID of birdcall.
+     */
+    public int getId()
+    {
+        return mId;
+    }
+
+    @ColumnInfo(name = "Title")
+    private String mTitle;
+    /**
+     * Get title of birdcall.
+     * @return Title of birdcall.
+     */
+    public String getTitle()
+    {
+        return mTitle;
+    }
+
+    @ColumnInfo(name = "Species")
+    private String mSpecies;
+    /**
+     * Get species of bird.
+     * @return Species of bird.
+     */
+    public String getSpecies()
+    {
+        return mSpecies;
+    }
+
+    @ColumnInfo(name = "DateAndTime")
+    private Date mDateAndTime;
+    /**
+     * Get date and time of birdcall.
+     * @return Date and time of birdcall.
+     */
+    public Date getDateAndTime()
+    {
+        return mDateAndTime;
+    }
+
+    @ColumnInfo(name = "Duration")
+    private long mDuration;
+    /**
+     * Get duration of recorded birdcall.
+     * @return Duration of recorded birdcall in milliseconds.
+     */
+    public long getDuration()
+    {
+        return mDuration;
+    }
+
+    @ColumnInfo(name = "Peaks")
+    private byte[] mPeaks;
+    /**
+     * Get summary of waveform of recorded birdcall.
+     * @return Summary from WaveformPeaks, empty if recording could not be read, or null if not
+     * yet computed.
+     */
+    public byte[] getPeaks()
+    {
+        return mPeaks;
+    }
+}
@@ -0,0 +1,170 @@
+package jonathan.mason.birdcalllibrarian.Database;
+
+import androidx.annotation.NonNull;
+import androidx.paging.DataSource;
+import androidx.paging.ItemKeyedDataSource;
+import androidx.room.InvalidationTracker;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Paged data source of birdcall summaries, newest first, optionally only those matching a
+ * full-text search.
+ * <p>Uses keyset pagination: each page is found by seeking the (DateAndTime, Id) index to
+ * the last birdcall of the previous page, rather than skipping an offset, so the cost of
+ * loading a page does not grow with how far through the list it is.</p>
+ * <p>Based on "Paging library overview", Android Developers:
+ * https://developer.android.com/topic/libraries/architecture/paging.</p>
+ */
+public class BirdcallSummaryDataSource extends ItemKeyedDataSource<BirdcallSummary, BirdcallSummary> {
+
+    /**
+     * Factory to create BirdcallSummaryDataSource, each time previous one is invalidated.
+     */
+    public static class Factory extends DataSource.Factory<BirdcallSummary, BirdcallSummary> {
+        private final BirdcallDatabase mDatabase;
+        private final String mQuery;
+
+        /**
+         * Constructor.
+         * @param database Birdcall database.
+         * @param query Full-text query from toMatchQuery(), or null for all birdcalls.
+         */
+        public Factory(BirdcallDatabase database, String query) {
+            mDatabase = database;
+            mQuery = query;
+        }
+
+        /**
+         * Create BirdcallSummaryDataSource.
+         * @return New instance of BirdcallSummaryDataSource.
+         */
+        @NonNull
+        @Override
+        public DataSource<BirdcallSummary, BirdcallSummary> create() {
+            return new BirdcallSummaryDataSource(mDatabase, mQuery);
+        }
+    }
+
+    /**
+     * Convert text typed by user into full-text query, matching birdcalls containing words
+     * starting with each word typed, in any of species, title and notes.
+     * <p>Only letters and digits are kept, so nothing typed can be taken as query syntax.</p>
+     * @param text Text typed by user.
+     * @return Full-text query, or null if there are no words to search for.
+     */
+    public static String toMatchQuery(String text) {
+        if (text == null)
+            return null;
+
+        StringBuilder query = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{Nd}]+")) {
+            if (word.isEmpty())
+                continue;
+            if (query.length() > 0)
+                query.append(' ');
+            query.append(word).append('*');
+        }
+        return (query.length() > 0) ? query.toString() : null;
+    }
+
+    private final BirdcallDatabase mDatabase;
+    private final String mQuery;
+    private final InvalidationTracker.Observer mObserver;
+
+    /**
+     * Constructor.
+     * <p>Data source invalidates itself whenever birdcalls table changes, so that a new
+     * one is created to reload the list.</p>
+     * @param database Birdcall database.
+     * @param query Full-text query, or null for all birdcalls.
+     */
+    private BirdcallSummaryDataSource(BirdcallDatabase database, String query) {
+        mDatabase = database;
+        mQuery = query;
+        mObserver = new InvalidationTracker.Observer("Birdcalls") {
+            /**
+             * Handle change of birdcalls table.
+             * @param tables Changed tables; not used.
+             */
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidate();
+            }
+        };
+        mDatabase.getInvalidationTracker().addObserver(mObserver);
+
+        this.addInvalidatedCallback(new InvalidatedCallback() {
+            /**
+             * Handle invalidation of data source to stop observing birdcalls table.
+             */
+            @Override
+            public void onInvalidated() {
+                mDatabase.getInvalidationTracker().removeObserver(mObserver);
+            }
+        });
+    }
+
+    /**
+     * Load first page of birdcalls.
+     * <p>If reloading after invalidation, page starts from birdcall previously at the
+     * scroll position, so the list stays where it was.</p>
+     * @param params Key of birdcall to start from, if any, and number of birdcalls to load.
+     * @param callback Callback to receive loaded birdcalls.
+     */
+    @Override
+    public void loadInitial(@NonNull LoadInitialParams<BirdcallSummary> params, @NonNull LoadInitialCallback<BirdcallSummary> callback) {
+        BirdcallSummary key = params.requestedInitialKey;
+        List<BirdcallSummary> birdcalls;
+        if (key == null) {
+            birdcalls = (mQuery == null) ? mDatabase.DAO().loadSummaries(params.requestedLoadSize)
+                    : mDatabase.DAO().searchSummaries(mQuery, params.requestedLoadSize);
+        }
+        else { // Include birdcall of key itself.
+            birdcalls = (mQuery == null) ? mDatabase.DAO().loadSummariesAfter(key.getDateAndTime(), key.getId() + 1, params.requestedLoadSize)
+                    : mDatabase.DAO().searchSummariesAfter(mQuery, key.getDateAndTime(), key.getId() + 1, params.requestedLoadSize);
+        }
+
+        callback.onResult(birdcalls);
+    }
+
+    /**
+     * Load page of older birdcalls, following supplied key.
+     * @param params Key of last loaded birdcall and number of birdcalls to load.
+     * @param callback Callback to receive loaded birdcalls.
+     */
+    @Override
+    public void loadAfter(@NonNull LoadParams<BirdcallSummary> params, @NonNull LoadCallback<BirdcallSummary> callback) {
+        if (mQuery == null)
+            callback.onResult(mDatabase.DAO().loadSummariesAfter(params.key.getDateAndTime(), params.key.getId(), params.requestedLoadSize));
+        else
+            callback.onResult(mDatabase.DAO().searchSummariesAfter(mQuery, params.key.getDateAndTime(), params.key.getId(), params.requestedLoadSize));
+    }
+
+    /**
+     * Load page of newer birdcalls, preceding supplied key.
+     * @param params Key of first loaded birdcall and number of birdcalls to load.
+     * @param callback Callback to receive loaded birdcalls.
+     */
+    @Override
+    public void loadBefore(@NonNull LoadParams<BirdcallSummary> params, @NonNull LoadCallback<BirdcallSummary> callback) {
+        // Query returns birdcalls nearest key first, so reverse them into list order.
+        List<BirdcallSummary> birdcalls = (mQuery == null) ? mDatabase.DAO().loadSummariesBefore(params.key.getDateAndTime(), params.key.getId(), params.requestedLoadSize)
+                : mDatabase.DAO().searchSummariesBefore(mQuery, params.key.getDateAndTime(), params.key.getId(), params.requestedLoadSize);
+        Collections.reverse(birdcalls);
+        callback.onResult(birdcalls);
+    }
+
+    /**
+     * Get key of supplied birdcall; the birdcall itself, as it holds both DateAndTime and Id.
+     * @param item Birdcall.
+     * @return Key of birdcall.
+     */
+    @NonNull
+    @Override
+    public BirdcallSummary getKey(@NonNull BirdcallSummary item) {
+        return item;
+    }
+}
@@ -5,8 +5,11 @@ import android.app.Application;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 
+import java.util.List;
+
 /**
- * ViewModel to load and keep specified birdcall in memory through life cycle.
+ * ViewModel to load and keep specified birdcall, and any further segments of its recording,
+ * in memory through life cycle.
  */
 public class DetailsActivityViewModel extends AndroidViewModel {
 
@@ -19,6 +22,7 @@ public class DetailsActivityViewModel extends AndroidViewModel {
         super(application);
 
         mBirdcall = BirdcallDatabase.getInstance(application).DAO().loadBirdcall(birdcallId);
+        mSegments = BirdcallDatabase.getInstance(application).DAO().loadSegments(birdcallId);
     }
 
     private LiveData<Birdcall> mBirdcall;
@@ -29,4 +33,13 @@ public class DetailsActivityViewModel extends AndroidViewModel {
     public LiveData<Birdcall> getBirdcall() {
         return mBirdcall;
     }
+
+    private LiveData<List<RecordingSegment>> mSegments;
+    /**
+     * Get further segments of recording of birdcall.
+     * @return List of segments, in order recorded.
+     */
+    public LiveData<List<RecordingSegment>> getSegments() {
+        return mSegments;
+    }
 }
@@ -0,0 +1,156 @@
+package jonathan.mason.birdcalllibrarian.Database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Geohashes of locations, by which birdcalls are indexed, so that those within an area can be
+ * found without reading every birdcall.
+ * <p>Locations within the same cell share the geohash of that cell as a prefix, so all
+ * birdcalls within a cell form a single range of the index.</p>
+ * <p>From "Geohash", Wikipedia: https://en.wikipedia.org/wiki/Geohash.</p>
+ */
+public class Geohash {
+    /**
+     * Number of characters of geohash stored with each birdcall; cells of about 5 metres.
+     */
+    public static final int PRECISION = 9;
+
+    /**
+     * Characters of geohash, each holding 5 bits, in ascending order.
+     */
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    /**
+     * Character following last of BASE32, for the upper bound of a range of geohashes.
+     */
+    private static final char AFTER_LAST = '{';
+
+    /**
+     * Private constructor, since only static methods.
+     */
+    private Geohash() {
+    }
+
+    /**
+     * Get geohash of location.
+     * @param latitude Latitude in degrees.
+     * @param longitude Longitude in degrees.
+     * @param precision Number of characters.
+     * @return Geohash.
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLatitude = -90;
+        double maxLatitude = 90;
+        double minLongitude = -180;
+        double maxLongitude = 180;
+        StringBuilder geohash = new StringBuilder(precision);
+        boolean isLongitude = true;
+        int bits = 0;
+        int bitCount = 0;
+        while (geohash.length() < precision) {
+            // Halve range of longitude, then latitude, in turn, keeping half holding location.
+            if (isLongitude) {
+                double middle = (minLongitude + maxLongitude) / 2;
+                bits <<= 1;
+                if (longitude >= middle) {
+                    bits |= 1;
+                    minLongitude = middle;
+                }
+                else
+                    maxLongitude = middle;
+            }
+            else {
+                double middle = (minLatitude + maxLatitude) / 2;
+                bits <<= 1;
+                if (latitude >= middle) {
+                    bits |= 1;
+                    minLatitude = middle;
+                }
+                else
+                    maxLatitude = middle;
+            }
+            isLongitude = !isLongitude;
+
+            if (++bitCount == 5) {
+                geohash.append(BASE32.charAt(bits));
+                bits = 0;
+                bitCount = 0;
+            }
+        }
+        return geohash.toString();
+    }
+
+    /**
+     * Get geohash of location, to the precision stored with each birdcall.
+     * @param latitude Latitude in degrees.
+     * @param longitude Longitude in degrees.
+     * @return Geohash.
+     */
+    public static String encode(double latitude, double longitude) {
+        return encode(latitude, longitude, PRECISION);
+    }
+
+    /**
+     * Get fewest cells of the smallest size which together cover bounding box; at most 4, as
+     * cells are at least as large as the box.
+     * @param south Southern latitude of box in degrees.
+     * @param west Western longitude of box in degrees, no greater than eastern.
+     * @param north Northern latitude of box in degrees.
+     * @param east Eastern longitude of box in degrees.
+     * @return Geohashes of cells, or empty if box is larger than the largest cells, in which
+     * case the index is no help.
+     */
+    public static List<String> cover(double south, double west, double north, double east) {
+        List<String> cells = new ArrayList<>();
+
+        // Find most characters for which cells are still at least as large as box.
+        int precision = 0;
+        while ((precision < PRECISION) && (getCellHeight(precision + 1) >= north - south) && (getCellWidth(precision + 1) >= east - west))
+            precision++;
+        if (precision == 0)
+            return cells;
+
+        double height = getCellHeight(precision);
+        double width = getCellWidth(precision);
+        int lastRow = (int)Math.round(180 / height) - 1;
+        int lastColumn = (int)Math.round(360 / width) - 1;
+        int firstRow = Math.max(0, (int)Math.floor((south + 90) / height));
+        int finalRow = Math.min(lastRow, (int)Math.floor((north + 90) / height));
+        int firstColumn = Math.max(0, (int)Math.floor((west + 180) / width));
+        int finalColumn = Math.min(lastColumn, (int)Math.floor((east + 180) / width));
+        for (int row = firstRow; row <= finalRow; row++) {
+            for (int column = firstColumn; column <= finalColumn; column++)
+                cells.add(encode(-90 + (row + 0.5) * height, -180 + (column + 0.5) * width, precision));
+        }
+        return cells;
+    }
+
+    /**
+     * Get upper bound, exclusive, of range of geohashes starting with that of supplied cell,
+     * its lower bound being the geohash of the cell itself.
+     * @param cell Geohash of cell.
+     * @return Upper bound of range.
+     */
+    public static String getRangeEnd(String cell) {
+        return cell + AFTER_LAST;
+    }
+
+    /**
+     * Get height of cells of geohashes of supplied number of characters.
+     * @param precision Number of characters.
+     * @return Height in degrees of latitude.
+     */
+    private static double getCellHeight(int precision) {
+        return 180 / Math.pow(2, (5 * precision) / 2);
+    }
+
+    /**
+     * Get width of cells of geohashes of supplied number of characters.
+     * @param precision Number of characters.
+     * @return Width in degrees of longitude.
+     */
+    private static double getCellWidth(int precision) {
+        return 360 / Math.pow(2, (5 * precision + 1) / 2);
+    }
+}
@@ -1,17 +1,37 @@
 package jonathan.mason.birdcalllibrarian.Database;
 
 import android.app.Application;
+import android.text.TextUtils;
+
+import androidx.arch.core.util.Function;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
-
-import java.util.List;
-
-import jonathan.mason.birdcalllibrarian.DetailsActivity;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
+import androidx.paging.LivePagedListBuilder;
+import androidx.paging.PagedList;
 
 /**
- * ViewModel to load and keep birdcalls in memory through life cycle.
+ * ViewModel to page summaries of birdcalls into memory and keep them through life cycle.
+ * <p>Each change of search replaces the paged list with one of only the matching birdcalls,
+ * so results stream into the list as the user types.</p>
  */
 public class MainActivityViewModel extends AndroidViewModel {
+    /**
+     * Number of birdcalls per page.
+     */
+    private static final int PAGE_SIZE = 40;
+
+    /**
+     * Number of birdcalls beyond those displayed to load in advance of scrolling.
+     */
+    private static final int PREFETCH_DISTANCE = 2 * PAGE_SIZE;
+
+    /**
+     * Maximum number of birdcalls to keep in memory, beyond which pages furthest
+     * from those displayed are dropped.
+     */
+    private static final int MAX_SIZE = PAGE_SIZE + 2 * PREFETCH_DISTANCE + PAGE_SIZE;
 
     /**
      * Constructor.
@@ -20,15 +40,46 @@ public class MainActivityViewModel extends AndroidViewModel {
     public MainActivityViewModel(Application application) {
         super(application);
 
-        mBirdcalls = BirdcallDatabase.getInstance(getApplication()).DAO().load();
+        final PagedList.Config config = new PagedList.Config.Builder()
+                .setPageSize(PAGE_SIZE)
+                .setInitialLoadSizeHint(2 * PAGE_SIZE)
+                .setPrefetchDistance(PREFETCH_DISTANCE)
+                .setMaxSize(MAX_SIZE)
+                .setEnablePlaceholders(false)
+                .build();
+        mBirdcalls = Transformations.switchMap(mQuery, new Function<String, LiveData<PagedList<BirdcallSummary>>>() {
+            /**
+             * Page birdcalls matching supplied query.
+             * @param query Full-text query, or null for all birdcalls.
+             * @return Summaries of birdcalls, paged.
+             */
+            @Override
+            public LiveData<PagedList<BirdcallSummary>> apply(String query) {
+                return new LivePagedListBuilder<>(new BirdcallSummaryDataSource.Factory(BirdcallDatabase.getInstance(getApplication()), query), config).build();
+            }
+        });
+    }
+
+    private final MutableLiveData<String> mQuery = new MutableLiveData<>(null);
+    /**
+     * Set text to search for, limiting birdcalls to those with species, title or notes
+     * containing words starting with those of the text.
+     * @param text Text typed by user, or null or empty for all birdcalls.
+     */
+    public void setSearchText(String text) {
+        String query = BirdcallSummaryDataSource.toMatchQuery(text);
+
+        // Only reload if words searched for have changed.
+        if (!TextUtils.equals(query, mQuery.getValue()))
+            mQuery.setValue(query);
     }
 
-    private LiveData<List<Birdcall>> mBirdcalls;
+    private LiveData<PagedList<BirdcallSummary>> mBirdcalls;
     /**
-     * Get birdcalls.
-     * @return Birdcalls.
+     * Get summaries of birdcalls, paged.
+     * @return Summaries of birdcalls.
      */
-    public LiveData<List<Birdcall>> getBirdcalls() {
+    public LiveData<PagedList<BirdcallSummary>> getBirdcalls() {
         return mBirdcalls;
     }
 }
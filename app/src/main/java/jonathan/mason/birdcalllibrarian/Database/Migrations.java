@@ -0,0 +1,335 @@
+package jonathan.mason.birdcalllibrarian.Database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.annotation.NonNull;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.io.IOException;
+
+/**
+ * Migrations between versions of birdcall database.
+ * <p>From "Migrating Room databases", Android Developers:</p>
+ * <p>https://developer.android.com/training/data-storage/room/migrating-db-versions</p>
+ */
+public class Migrations {
+    /**
+     * Number of recordings to copy out of database at a time, when moving them into
+     * RecordingStore.
+     * <p>Recordings were limited to 1MB each, so a batch comfortably fits within
+     * memory.</p>
+     */
+    private static final int RECORDING_BATCH_SIZE = 8;
+
+    /**
+     * Get all migrations, to be added to database builder.
+     * @param recordingStore Store into which recordings are to be moved.
+     * @return All migrations.
+     */
+    public static Migration[] getAll(RecordingStore recordingStore) {
+        return new Migration[] {
+                new MoveRecordingsToStoreMigration(recordingStore),
+                new AddDurationMigration(recordingStore),
+                new AddDateAndTimeIndexMigration(),
+                new AddRecordingSegmentsMigration(),
+                new AddPeaksMigration(),
+                new AddFullTextIndexMigration(),
+                new AddGeohashMigration(),
+                new AddDeletedAtMigration(),
+                new AddRecordingProfileMigration(),
+                new AddRecordingHashIndexMigration()
+        };
+    }
+
+    /**
+     * Migration from version 1 to 2, moving recordings out of the "Recording" BLOB column into
+     * RecordingStore, leaving only a reference to each.
+     */
+    private static class MoveRecordingsToStoreMigration extends Migration {
+        private final RecordingStore mRecordingStore;
+
+        /**
+         * Constructor.
+         * @param recordingStore Store into which recordings are to be moved.
+         */
+        MoveRecordingsToStoreMigration(RecordingStore recordingStore) {
+            super(1, 2);
+            mRecordingStore = recordingStore;
+        }
+
+        /**
+         * Perform migration.
+         * <p>SQLite cannot drop a column, so birdcalls are copied, without their recordings,
+         * into a replacement table. Recordings are then copied out of original table in
+         * batches, before it is dropped.</p>
+         * @param database Database being migrated.
+         */
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE `Birdcalls_New` (`Id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `Title` TEXT, `Species` TEXT, `DateAndTime` INTEGER, `Longitude` REAL NOT NULL, `Latitude` REAL NOT NULL, `Notes` TEXT, `RecordingHash` TEXT, `RecordingSize` INTEGER NOT NULL, `RecordingCodec` TEXT)");
+            database.execSQL("INSERT INTO `Birdcalls_New` (`Id`, `Title`, `Species`, `DateAndTime`, `Longitude`, `Latitude`, `Notes`, `RecordingSize`) SELECT `Id`, `Title`, `Species`, `DateAndTime`, `Longitude`, `Latitude`, `Notes`, 0 FROM `Birdcalls`");
+
+            int lastId = -1;
+            boolean more = true;
+            while (more) {
+                more = false;
+                try (Cursor cursor = database.query("SELECT `Id`, `Recording` FROM `Birdcalls` WHERE `Id` > ? ORDER BY `Id` LIMIT " + RECORDING_BATCH_SIZE, new Object[] { lastId })) {
+                    while (cursor.moveToNext()) {
+                        more = true;
+                        lastId = cursor.getInt(0);
+                        byte[] recording = cursor.isNull(1) ? null : cursor.getBlob(1);
+                        if (recording == null)
+                            continue;
+
+                        RecordingStore.StoredRecording storedRecording = mRecordingStore.store(recording);
+                        ContentValues values = new ContentValues();
+                        values.put("RecordingHash", storedRecording.getHash());
+                        values.put("RecordingSize", storedRecording.getSize());
+                        values.put("RecordingCodec", Birdcall.CODEC_AMR_NB_3GP);
+                        database.update("Birdcalls_New", SQLiteDatabase.CONFLICT_NONE, values, "Id = ?", new Object[] { lastId });
+                    }
+                } catch (IOException e) {
+                    // Abandon migration, leaving original table intact (any recordings already
+                    // stored will simply be shared when migration is re-attempted).
+                    throw new RuntimeException("Unable to move recording of birdcall " + lastId + " into store.", e);
+                }
+            }
+
+            database.execSQL("DROP TABLE `Birdcalls`");
+            database.execSQL("ALTER TABLE `Birdcalls_New` RENAME TO `Birdcalls`");
+        }
+    }
+
+    /**
+     * Migration from version 2 to 3, adding "Duration" column, so birdcalls can be listed
+     * without reading their recordings.
+     */
+    private static class AddDurationMigration extends Migration {
+        private final RecordingStore mRecordingStore;
+
+        /**
+         * Constructor.
+         * @param recordingStore Store holding recordings, from which durations are read.
+         */
+        AddDurationMigration(RecordingStore recordingStore) {
+            super(2, 3);
+            mRecordingStore = recordingStore;
+        }
+
+        /**
+         * Perform migration.
+         * @param database Database being migrated.
+         */
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `Birdcalls` ADD COLUMN `Duration` INTEGER NOT NULL DEFAULT 0");
+
+            try (Cursor cursor = database.query("SELECT `Id`, `RecordingHash` FROM `Birdcalls` WHERE `RecordingHash` IS NOT NULL")) {
+                while (cursor.moveToNext()) {
+                    ContentValues values = new ContentValues();
+                    values.put("Duration", RecordingStore.getDuration(mRecordingStore.getFile(cursor.getString(1))));
+                    database.update("Birdcalls", SQLiteDatabase.CONFLICT_NONE, values, "Id = ?", new Object[] { cursor.getInt(0) });
+                }
+            }
+        }
+    }
+
+    /**
+     * Migration from version 3 to 4, indexing "DateAndTime" and "Id" columns, for paging
+     * through birdcalls in the order they are listed.
+     */
+    private static class AddDateAndTimeIndexMigration extends Migration {
+        /**
+         * Constructor.
+         */
+        AddDateAndTimeIndexMigration() {
+            super(3, 4);
+        }
+
+        /**
+         * Perform migration.
+         * @param database Database being migrated.
+         */
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Birdcalls_DateAndTime_Id` ON `Birdcalls` (`DateAndTime`, `Id`)");
+        }
+    }
+
+    /**
+     * Migration from version 4 to 5, adding "RecordingSegments" table, for birdcalls recorded
+     * in segments.
+     */
+    private static class AddRecordingSegmentsMigration extends Migration {
+        /**
+         * Constructor.
+         */
+        AddRecordingSegmentsMigration() {
+            super(4, 5);
+        }
+
+        /**
+         * Perform migration.
+         * @param database Database being migrated.
+         */
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `RecordingSegments` (`BirdcallId` INTEGER NOT NULL, `SegmentIndex` INTEGER NOT NULL, `RecordingHash` TEXT, `RecordingSize` INTEGER NOT NULL, `Duration` INTEGER NOT NULL, PRIMARY KEY(`BirdcallId`, `SegmentIndex`))");
+        }
+    }
+
+    /**
+     * Migration from version 5 to 6, adding "Peaks" column, so birdcalls can be listed with a
+     * thumbnail of their waveform, without reading their recordings.
+     * <p>Existing birdcalls are left without peaks, to be filled in by PeaksBackfill, since
+     * compressed recordings take too long to decode during migration.</p>
+     */
+    private static class AddPeaksMigration extends Migration {
+        /**
+         * Constructor.
+         */
+        AddPeaksMigration() {
+            super(5, 6);
+        }
+
+        /**
+         * Perform migration.
+         * @param database Database being migrated.
+         */
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `Birdcalls` ADD COLUMN `Peaks` BLOB");
+        }
+    }
+
+    /**
+     * Migration from version 6 to 7, adding "BirdcallsFts" full-text index over "Species",
+     * "Title" and "Notes" of "Birdcalls", along with the triggers Room would have created to
+     * keep it in sync, and building it from existing birdcalls.
+     */
+    private static class AddFullTextIndexMigration extends Migration {
+        /**
+         * Constructor.
+         */
+        AddFullTextIndexMigration() {
+            super(6, 7);
+        }
+
+        /**
+         * Perform migration.
+         * @param database Database being migrated.
+         */
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `BirdcallsFts` USING FTS4(`Species` TEXT, `Title` TEXT, `Notes` TEXT, content=`Birdcalls`, prefix=`2,3`)");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_BirdcallsFts_BEFORE_UPDATE BEFORE UPDATE ON `Birdcalls` BEGIN DELETE FROM `BirdcallsFts` WHERE `docid`=OLD.`rowid`; END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_BirdcallsFts_BEFORE_DELETE BEFORE DELETE ON `Birdcalls` BEGIN DELETE FROM `BirdcallsFts` WHERE `docid`=OLD.`rowid`; END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_BirdcallsFts_AFTER_UPDATE AFTER UPDATE ON `Birdcalls` BEGIN INSERT INTO `BirdcallsFts`(`docid`, `Species`, `Title`, `Notes`) VALUES (NEW.`rowid`, NEW.`Species`, NEW.`Title`, NEW.`Notes`); END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_BirdcallsFts_AFTER_INSERT AFTER INSERT ON `Birdcalls` BEGIN INSERT INTO `BirdcallsFts`(`docid`, `Species`, `Title`, `Notes`) VALUES (NEW.`rowid`, NEW.`Species`, NEW.`Title`, NEW.`Notes`); END");
+            database.execSQL("INSERT INTO `BirdcallsFts`(`BirdcallsFts`) VALUES ('rebuild')");
+        }
+    }
+
+    /**
+     * Migration from version 7 to 8, adding "Geohash" column, indexed, and filling it in from
+     * "Latitude" and "Longitude" of each birdcall, for finding birdcalls nearby.
+     */
+    private static class AddGeohashMigration extends Migration {
+        /**
+         * Constructor.
+         */
+        AddGeohashMigration() {
+            super(7, 8);
+        }
+
+        /**
+         * Perform migration.
+         * <p>Geohashes are filled in before index is created, so it is built once.</p>
+         * @param database Database being migrated.
+         */
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `Birdcalls` ADD COLUMN `Geohash` TEXT");
+
+            try (Cursor cursor = database.query("SELECT `Id`, `Latitude`, `Longitude` FROM `Birdcalls`")) {
+                while (cursor.moveToNext()) {
+                    ContentValues values = new ContentValues();
+                    values.put("Geohash", Geohash.encode(cursor.getDouble(1), cursor.getDouble(2)));
+                    database.update("Birdcalls", SQLiteDatabase.CONFLICT_NONE, values, "Id = ?", new Object[] { cursor.getInt(0) });
+                }
+            }
+
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Birdcalls_Geohash` ON `Birdcalls` (`Geohash`)");
+        }
+    }
+
+    /**
+     * Migration from version 8 to 9, adding "DeletedAt" column, so that birdcalls can be
+     * deleted, and deletion undone, by setting it, before being purged in batches.
+     */
+    private static class AddDeletedAtMigration extends Migration {
+        /**
+         * Constructor.
+         */
+        AddDeletedAtMigration() {
+            super(8, 9);
+        }
+
+        /**
+         * Perform migration.
+         * @param database Database being migrated.
+         */
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `Birdcalls` ADD COLUMN `DeletedAt` INTEGER");
+        }
+    }
+
+    /**
+     * Migration from version 9 to 10, adding "RecordingProfile" column, recording quality with
+     * which each birdcall is recorded from now on; earlier birdcalls are left without one.
+     */
+    private static class AddRecordingProfileMigration extends Migration {
+        /**
+         * Constructor.
+         */
+        AddRecordingProfileMigration() {
+            super(9, 10);
+        }
+
+        /**
+         * Perform migration.
+         * @param database Database being migrated.
+         */
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `Birdcalls` ADD COLUMN `RecordingProfile` TEXT");
+        }
+    }
+
+    /**
+     * Migration from version 10 to 11, indexing "RecordingHash" of birdcalls and their
+     * segments, so that references to a shared recording are counted without scanning them.
+     */
+    private static class AddRecordingHashIndexMigration extends Migration {
+        /**
+         * Constructor.
+         */
+        AddRecordingHashIndexMigration() {
+            super(10, 11);
+        }
+
+        /**
+         * Perform migration.
+         * @param database Database being migrated.
+         */
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Birdcalls_RecordingHash` ON `Birdcalls` (`RecordingHash`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_RecordingSegments_RecordingHash` ON `RecordingSegments` (`RecordingHash`)");
+        }
+    }
+}
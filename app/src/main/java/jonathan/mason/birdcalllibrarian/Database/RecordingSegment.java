@@ -0,0 +1,88 @@
+package jonathan.mason.birdcalllibrarian.Database;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+
+/**
+ * Class represents a further segment of a birdcall recorded in segments.
+ * <p>Long recordings are split into segments as they are made. The first segment is
+ * referred to by the birdcall itself; each further one by a RecordingSegment.</p>
+ * <p>Indexed by RecordingHash, for counting references to recordings shared within
+ * RecordingStore.</p>
+ */
+@Entity(tableName = "RecordingSegments", primaryKeys = {"BirdcallId", "SegmentIndex"}, indices = {@Index(value = {"RecordingHash"})})
+public class RecordingSegment {
+
+    /**
+     * Constructor.
+     * @param birdcallId ID of birdcall to which segment belongs.
+     * @param segmentIndex Position of segment within recording, from 1 for second segment.
+     * @param recordingHash Hash of segment within RecordingStore.
+     * @param recordingSize Size of segment in bytes.
+     * @param duration Duration of segment in milliseconds.
+     */
+    public RecordingSegment(int birdcallId, int segmentIndex, String recordingHash, long recordingSize, long duration)
+    {
+        mBirdcallId = birdcallId;
+        mSegmentIndex = segmentIndex;
+        mRecordingHash = recordingHash;
+        mRecordingSize = recordingSize;
+        mDuration = duration;
+    }
+
+    @ColumnInfo(name = "BirdcallId")
+    private int mBirdcallId;
+    /**
+     * Get ID of birdcall to which segment belongs.
+     * @return ID of birdcall.
+     */
+    public int getBirdcallId()
+    {
+        return mBirdcallId;
+    }
+
+    @ColumnInfo(name = "SegmentIndex")
+    private int mSegmentIndex;
+    /**
+     * Get position of segment within recording.
+     * @return Position of segment, from 1 for second segment.
+     */
+    public int getSegmentIndex()
+    {
+        return mSegmentIndex;
+    }
+
+    @ColumnInfo(name = "RecordingHash")
+    private String mRecordingHash;
+    /**
+     * Get hash of segment, by which it is held in RecordingStore.
+     * @return Hash of segment.
+     */
+    public String getRecordingHash()
+    {
+        return mRecordingHash;
+    }
+
+    @ColumnInfo(name = "RecordingSize")
+    private long mRecordingSize;
+    /**
+     * Get size of segment.
+     * @return Size of segment in bytes.
+     */
+    public long getRecordingSize()
+    {
+        return mRecordingSize;
+    }
+
+    @ColumnInfo(name = "Duration")
+    private long mDuration;
+    /**
+     * Get duration of segment.
+     * @return Duration of segment in milliseconds.
+     */
+    public long getDuration()
+    {
+        return mDuration;
+    }
+}
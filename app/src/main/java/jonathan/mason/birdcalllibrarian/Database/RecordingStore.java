@@ -0,0 +1,365 @@
+package jonathan.mason.birdcalllibrarian.Database;
+
+import android.content.Context;
+import android.media.MediaMetadataRetriever;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Store of recorded birdcalls, kept as files in app-private storage rather than
+ * in the birdcall database; a singleton.
+ * <p>Recordings are content-addressed: each file is named after the SHA-256 hash of its
+ * contents, which is all a birdcall needs to keep to refer to its recording.</p>
+ */
+public class RecordingStore {
+    /**
+     * Name of directory, within app-private storage, holding recordings.
+     */
+    private static final String DIRECTORY_NAME = "recordings";
+
+    /**
+     * Size of buffer used to stream recordings into store.
+     */
+    private static final int BUFFER_SIZE_BYTES = 64 * 1024;
+
+    /**
+     * Prefix and suffix of temporary files, holding recordings staged into store.
+     */
+    private static final String TEMPORARY_FILE_PREFIX = "ingest";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    /**
+     * Length of hashes, in hexadecimal characters, by which recordings are named.
+     */
+    private static final int HASH_LENGTH = 64;
+
+    private final static Object LOCK = new Object();
+    private static RecordingStore mInstance = null;
+
+    /**
+     * Implement singleton, creating single instance of recording store, if not created,
+     * or simply retrieving previously created instance.
+     * @param context Context with which to locate app-private storage, if necessary.
+     * @return Recording store.
+     */
+    public static RecordingStore getInstance(Context context) {
+        if (mInstance == null) {
+            synchronized (LOCK) {
+                if (mInstance == null)
+                    mInstance = new RecordingStore(new File(context.getApplicationContext().getFilesDir(), DIRECTORY_NAME));
+            }
+        }
+
+        return mInstance;
+    }
+
+    private final File mDirectory;
+
+    /**
+     * Constructor.
+     * @param directory Directory holding recordings.
+     */
+    private RecordingStore(File directory) {
+        mDirectory = directory;
+        mDirectory.mkdirs();
+    }
+
+    /**
+     * Get file holding recording with specified hash.
+     * @param hash Hash of recording.
+     * @return File holding recording.
+     */
+    public File getFile(String hash) {
+        return new File(mDirectory, hash);
+    }
+
+    /**
+     * Copy recording from supplied stream into store, hashing it on the way.
+     * <p>Recording is streamed through a fixed-size buffer, so is never held in memory
+     * as a whole. If an identical recording is already stored, it is shared.</p>
+     * @param stream Stream from which to read recording; not closed.
+     * @return Reference to stored recording.
+     * @throws IOException Thrown if recording could not be read or stored.
+     */
+    public StoredRecording store(InputStream stream) throws IOException {
+        StagedRecording stagedRecording = this.stage(stream, -1);
+        try {
+            return stagedRecording.commit();
+        } finally {
+            stagedRecording.discard();
+        }
+    }
+
+    /**
+     * Copy recording from supplied stream into a temporary file within store, hashing it on
+     * the way, ready to be committed to store.
+     * <p>Recording is streamed through a fixed-size buffer, so is never held in memory as a
+     * whole, and is synced to storage before returning, so that once committed, it survives
+     * a crash.</p>
+     * @param stream Stream from which to read recording; not closed.
+     * @param expectedSize Expected size of recording in bytes, or -1 if not known.
+     * @return Staged recording, which must be discarded once committed or abandoned.
+     * @throws IOException Thrown if recording could not be read or stored, or was not of
+     * expected size.
+     */
+    public StagedRecording stage(InputStream stream, long expectedSize) throws IOException {
+        MessageDigest digest = newDigest();
+        File temporaryFile = File.createTempFile(TEMPORARY_FILE_PREFIX, TEMPORARY_FILE_SUFFIX, mDirectory);
+        long size = 0;
+        try (FileOutputStream output = new FileOutputStream(temporaryFile)) {
+            // Read until end of stream, as any single read may return fewer bytes than asked for.
+            byte[] buffer = new byte[BUFFER_SIZE_BYTES];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                output.write(buffer, 0, read);
+                size += read;
+            }
+            output.getFD().sync();
+        } catch (IOException e) {
+            temporaryFile.delete();
+            throw e;
+        }
+
+        if ((expectedSize >= 0) && (size != expectedSize)) {
+            temporaryFile.delete();
+            throw new IOException("Recording truncated: " + size + " of " + expectedSize + " bytes read.");
+        }
+
+        return new StagedRecording(temporaryFile, toHex(digest.digest()), size);
+    }
+
+    /**
+     * Compute hash of contents of file, streaming it through a fixed-size buffer, so that a
+     * recording held in store can be checked against its name.
+     * @param file File to hash.
+     * @return Hash of contents of file.
+     * @throws IOException Thrown if file could not be read.
+     */
+    public static String computeHash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream stream = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE_BYTES];
+            int read;
+            while ((read = stream.read(buffer)) != -1)
+                digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Get hashes of all recordings held in store, whether referred to or not.
+     * @return List of hashes.
+     */
+    public List<String> listHashes() {
+        List<String> hashes = new ArrayList<>();
+        String[] names = mDirectory.list();
+        if (names == null)
+            return hashes;
+
+        for (String name : names) {
+            if ((name.length() == HASH_LENGTH) && !name.startsWith(TEMPORARY_FILE_PREFIX))
+                hashes.add(name);
+        }
+        return hashes;
+    }
+
+    /**
+     * Delete temporary files, left by recordings staged into store but never committed or
+     * discarded, e.g. if app was stopped part way through saving.
+     * @param modifiedBefore Time, in milliseconds since epoch, before which temporary files
+     *                       were last written for them to be deleted; later ones may still be
+     *                       in use.
+     * @return Number of bytes freed.
+     */
+    public long deleteStaleTemporaryFiles(long modifiedBefore) {
+        long freedSize = 0;
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+            return freedSize;
+
+        for (File file : files) {
+            if (file.getName().startsWith(TEMPORARY_FILE_PREFIX) && file.getName().endsWith(TEMPORARY_FILE_SUFFIX) && (file.lastModified() < modifiedBefore)) {
+                long size = file.length();
+                if (file.delete())
+                    freedSize += size;
+            }
+        }
+        return freedSize;
+    }
+
+    /**
+     * Copy supplied recording into store.
+     * @param recording Recording to store.
+     * @return Reference to stored recording.
+     * @throws IOException Thrown if recording could not be stored.
+     */
+    public StoredRecording store(byte[] recording) throws IOException {
+        return this.store(new ByteArrayInputStream(recording));
+    }
+
+    /**
+     * Get duration of recording held in supplied file.
+     * @param file File holding recording.
+     * @return Duration of recording in milliseconds, or 0 if it could not be determined.
+     */
+    public static long getDuration(File file) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(file.getPath());
+            String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return duration == null ? 0 : Long.parseLong(duration);
+        } catch (RuntimeException e) {
+            Log.e(RecordingStore.class.getSimpleName(), "getDuration: unable to read duration of \"" + file.getPath() + "\".", e);
+            return 0;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    /**
+     * Delete recording with specified hash from store, if no birdcall, or segment of birdcall,
+     * still refers to it.
+     * <p>Must be called on separate thread.</p>
+     * @param database Birdcall database, to check for remaining references.
+     * @param hash Hash of recording.
+     */
+    public void release(BirdcallDatabase database, String hash) {
+        if (hash == null)
+            return;
+
+        if (database.DAO().countRecordingReferences(hash) == 0) {
+            if (!this.getFile(hash).delete())
+                Log.e(RecordingStore.class.getSimpleName(), "release: unable to delete recording \"" + hash + "\".");
+        }
+    }
+
+    /**
+     * Create SHA-256 message digest.
+     * @return SHA-256 message digest.
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device is required to support SHA-256.
+            throw new RuntimeException("SHA-256 not supported.", e);
+        }
+    }
+
+    /**
+     * Convert supplied bytes to lowercase hexadecimal.
+     * @param bytes Bytes to convert.
+     * @return Hexadecimal.
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            builder.append(String.format("%02x", b));
+        return builder.toString();
+    }
+
+    /**
+     * Recording copied into a temporary file within store, but not yet committed to it.
+     */
+    public class StagedRecording {
+        private final File mTemporaryFile;
+        private final String mHash;
+        private final long mSize;
+
+        /**
+         * Constructor.
+         * @param temporaryFile Temporary file holding recording.
+         * @param hash Hash of recording.
+         * @param size Size of recording in bytes.
+         */
+        StagedRecording(File temporaryFile, String hash, long size) {
+            mTemporaryFile = temporaryFile;
+            mHash = hash;
+            mSize = size;
+        }
+
+        /**
+         * Get hash of recording.
+         * @return Hash of recording.
+         */
+        public String getHash() {
+            return mHash;
+        }
+
+        /**
+         * Get temporary file holding recording, which may be read until recording is
+         * committed or discarded.
+         * @return Temporary file.
+         */
+        public File getFile() {
+            return mTemporaryFile;
+        }
+
+        /**
+         * Commit recording to store, by naming temporary file after hash of its contents,
+         * unless same recording is already stored.
+         * @return Reference to stored recording.
+         * @throws IOException Thrown if recording could not be committed.
+         */
+        public StoredRecording commit() throws IOException {
+            File file = getFile(mHash);
+            if (!file.exists() && !mTemporaryFile.renameTo(file))
+                throw new IOException("Unable to move recording into store as \"" + file.getPath() + "\".");
+
+            return new StoredRecording(mHash, mSize);
+        }
+
+        /**
+         * Delete temporary file, if recording has not been committed.
+         */
+        public void discard() {
+            // If committed, this does nothing.
+            mTemporaryFile.delete();
+        }
+    }
+
+    /**
+     * Reference to recording held in store.
+     */
+    public static class StoredRecording {
+        private final String mHash;
+        private final long mSize;
+
+        /**
+         * Constructor.
+         * @param hash Hash of recording.
+         * @param size Size of recording in bytes.
+         */
+        StoredRecording(String hash, long size) {
+            mHash = hash;
+            mSize = size;
+        }
+
+        /**
+         * Get hash of recording.
+         * @return Hash of recording.
+         */
+        public String getHash() {
+            return mHash;
+        }
+
+        /**
+         * Get size of recording.
+         * @return Size of recording in bytes.
+         */
+        public long getSize() {
+            return mSize;
+        }
+    }
+}
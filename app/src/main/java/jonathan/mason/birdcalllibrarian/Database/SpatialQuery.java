@@ -0,0 +1,177 @@
+package jonathan.mason.birdcalllibrarian.Database;
+
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queries for summaries of birdcalls within a bounding box or radius, nearest first, to be run
+ * with BirdcallDatabaseDAO.findSummaries().
+ * <p>Birdcalls are first narrowed down to the few cells of the Geohash index covering the
+ * area, each a single range of the index, and only then filtered by their latitude and
+ * longitude. Distances are found by treating the area as flat, scaling longitude by the cosine
+ * of the latitude of its centre, since SQLite lacks trigonometric functions; near enough for
+ * areas of tens of kilometres.</p>
+ */
+public class SpatialQuery {
+    /**
+     * Mean length of a degree of latitude, in metres.
+     */
+    private static final double METRES_PER_DEGREE = 111195;
+
+    /**
+     * Columns of BirdcallSummary.
+     */
+    private static final String SUMMARY_COLUMNS = "Id, Title, Species, DateAndTime, Duration, Peaks";
+
+    /**
+     * Private constructor, since only static methods.
+     */
+    private SpatialQuery() {
+    }
+
+    /**
+     * Create query for birdcalls within bounding box, nearest its centre first.
+     * <p>If western longitude is greater than eastern, box is taken to cross the 180th
+     * meridian.</p>
+     * @param south Southern latitude of box in degrees.
+     * @param west Western longitude of box in degrees.
+     * @param north Northern latitude of box in degrees.
+     * @param east Eastern longitude of box in degrees.
+     * @param limit Maximum number of birdcalls to get.
+     * @return Query.
+     */
+    public static SupportSQLiteQuery inBox(double south, double west, double north, double east, int limit) {
+        double width = (west <= east) ? east - west : east + 360 - west;
+        double centreLongitude = normaliseLongitude(west + width / 2);
+        return create(south, west, north, east, (south + north) / 2, centreLongitude, -1, limit);
+    }
+
+    /**
+     * Create query for birdcalls within radius of location, nearest first.
+     * @param latitude Latitude of location in degrees.
+     * @param longitude Longitude of location in degrees.
+     * @param radius Radius in metres.
+     * @param limit Maximum number of birdcalls to get.
+     * @return Query.
+     */
+    public static SupportSQLiteQuery withinRadius(double latitude, double longitude, double radius, int limit) {
+        double radiusDegrees = radius / METRES_PER_DEGREE;
+        double south = Math.max(-90, latitude - radiusDegrees);
+        double north = Math.min(90, latitude + radiusDegrees);
+
+        // Degrees of longitude shrink towards poles, so box must widen, reaching all the way
+        // round near them.
+        double cosine = Math.cos(Math.toRadians(Math.max(Math.abs(south), Math.abs(north))));
+        double west = -180;
+        double east = 180;
+        if ((cosine > 0) && (radiusDegrees / cosine < 180)) {
+            west = normaliseLongitude(longitude - radiusDegrees / cosine);
+            east = normaliseLongitude(longitude + radiusDegrees / cosine);
+        }
+        return create(south, west, north, east, latitude, longitude, radiusDegrees, limit);
+    }
+
+    /**
+     * Create query for birdcalls within bounding box, and within radius of location if
+     * supplied, sorted by distance from location.
+     * @param south Southern latitude of box in degrees.
+     * @param west Western longitude of box in degrees.
+     * @param north Northern latitude of box in degrees.
+     * @param east Eastern longitude of box in degrees.
+     * @param latitude Latitude of location in degrees.
+     * @param longitude Longitude of location in degrees.
+     * @param radius Radius in degrees of latitude, or negative for no radius.
+     * @param limit Maximum number of birdcalls to get.
+     * @return Query.
+     */
+    private static SupportSQLiteQuery create(double south, double west, double north, double east, double latitude, double longitude, double radius, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT " + SUMMARY_COLUMNS + " FROM Birdcalls WHERE DeletedAt IS NULL AND ");
+        List<Object> arguments = new ArrayList<>();
+
+        // Cells of index covering box, either side of 180th meridian if crossing it.
+        List<String> cells = new ArrayList<>();
+        boolean crossesMeridian = west > east;
+        if (crossesMeridian) {
+            List<String> westernCells = Geohash.cover(south, west, north, 180);
+            List<String> easternCells = Geohash.cover(south, -180, north, east);
+            if (!westernCells.isEmpty() && !easternCells.isEmpty()) {
+                cells.addAll(westernCells);
+                cells.addAll(easternCells);
+            }
+        }
+        else
+            cells.addAll(Geohash.cover(south, west, north, east));
+        if (!cells.isEmpty()) {
+            sql.append('(');
+            for (int i = 0; i < cells.size(); i++) {
+                if (i > 0)
+                    sql.append(" OR ");
+                sql.append("(Geohash >= ? AND Geohash < ?)");
+                arguments.add(cells.get(i));
+                arguments.add(Geohash.getRangeEnd(cells.get(i)));
+            }
+            sql.append(") AND ");
+        }
+
+        // Exact box, since cells extend beyond it.
+        sql.append("Latitude BETWEEN ? AND ? AND ");
+        arguments.add(south);
+        arguments.add(north);
+        if (crossesMeridian) {
+            sql.append("(Longitude >= ? OR Longitude <= ?)");
+            arguments.add(west);
+            arguments.add(east);
+        }
+        else {
+            sql.append("Longitude BETWEEN ? AND ?");
+            arguments.add(west);
+            arguments.add(east);
+        }
+
+        // Square of flat distance in degrees of latitude, taking the shorter way round.
+        String longitudeDifference = "(CASE WHEN Longitude - ? > 180 THEN Longitude - ? - 360 WHEN Longitude - ? < -180 THEN Longitude - ? + 360 ELSE Longitude - ? END)";
+        String distance = "((Latitude - ?) * (Latitude - ?) + " + longitudeDifference + " * " + longitudeDifference + " * ?)";
+        double cosineSquared = Math.pow(Math.cos(Math.toRadians(latitude)), 2);
+        if (radius >= 0) {
+            sql.append(" AND ").append(distance).append(" <= ?");
+            addDistanceArguments(arguments, latitude, longitude, cosineSquared);
+            arguments.add(radius * radius);
+        }
+        sql.append(" ORDER BY ").append(distance).append(", Id LIMIT ?");
+        addDistanceArguments(arguments, latitude, longitude, cosineSquared);
+        arguments.add(limit);
+
+        return new SimpleSQLiteQuery(sql.toString(), arguments.toArray());
+    }
+
+    /**
+     * Add arguments of expression for square of distance.
+     * @param arguments Arguments of query.
+     * @param latitude Latitude of location in degrees.
+     * @param longitude Longitude of location in degrees.
+     * @param cosineSquared Square of cosine of latitude.
+     */
+    private static void addDistanceArguments(List<Object> arguments, double latitude, double longitude, double cosineSquared) {
+        arguments.add(latitude);
+        arguments.add(latitude);
+        for (int i = 0; i < 10; i++)
+            arguments.add(longitude);
+        arguments.add(cosineSquared);
+    }
+
+    /**
+     * Bring longitude within -180 to 180 degrees.
+     * @param longitude Longitude in degrees.
+     * @return Equivalent longitude.
+     */
+    private static double normaliseLongitude(double longitude) {
+        if (longitude > 180)
+            return longitude - 360;
+        if (longitude < -180)
+            return longitude + 360;
+        return longitude;
+    }
+}
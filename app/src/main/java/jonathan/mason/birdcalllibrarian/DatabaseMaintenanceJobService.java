@@ -0,0 +1,247 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import jonathan.mason.birdcalllibrarian.Database.BirdcallDatabase;
+
+/**
+ * Job performing maintenance of birdcall database once a day, whilst device is idle and
+ * charging, so that it never holds up the user: giving free pages back to the file system,
+ * checkpointing the write-ahead log into the database, truncating it, and refreshing
+ * statistics used to plan queries.
+ * <p>Maintenance is run as BACKGROUND tasks in the WRITE lane of TaskScheduler, so that it
+ * waits behind any birdcall being saved. Free pages are given back in small steps, each its
+ * own task, sized to take about STEP_MILLIS, so that a save never waits long behind one, until
+ * none are left or the job has run for BUDGET_MILLIS.</p>
+ */
+public class DatabaseMaintenanceJobService extends JobService {
+    /**
+     * ID of job, unique within app.
+     */
+    private static final int JOB_ID = 1;
+
+    /**
+     * Time each step giving back free pages should take.
+     */
+    private static final long STEP_MILLIS = 50;
+
+    /**
+     * Time after which no more steps are started, leaving any remaining free pages until next
+     * time.
+     */
+    private static final long BUDGET_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Number of free pages given back by first step, and least and most by any step.
+     */
+    private static final int INITIAL_STEP_PAGES = 64;
+    private static final int MIN_STEP_PAGES = 8;
+    private static final int MAX_STEP_PAGES = 4096;
+
+    private TaskScheduler.Task<?> mTask;
+    private long mStartTime;
+    private long mPageSize;
+    private long mPageCountBefore;
+    private long mFreePageCountBefore;
+    private long mReclaimedPageCount;
+
+    /**
+     * Schedule job, unless already scheduled.
+     * @param context Context with which to schedule job.
+     */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler = (JobScheduler)context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if ((jobScheduler == null) || (jobScheduler.getPendingJob(JOB_ID) != null))
+            return;
+
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID, new ComponentName(context, DatabaseMaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(TimeUnit.DAYS.toMillis(1))
+                .setPersisted(false)
+                .build();
+        jobScheduler.schedule(jobInfo);
+    }
+
+    /**
+     * Override to start maintenance of database on thread of WRITE lane, first switching it
+     * to incremental auto-vacuum, if not already, and measuring free pages.
+     * @param params Parameters of job.
+     * @return True, as job carries on running on another thread.
+     */
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        mStartTime = SystemClock.elapsedRealtime();
+        mReclaimedPageCount = 0;
+        mTask = TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.BACKGROUND, new MaintenanceTask<Void>(params) {
+            /**
+             * Switch database to incremental auto-vacuum, then measure it.
+             * <p>Run on thread of WRITE lane.</p>
+             * @return Nothing.
+             */
+            @Override
+            protected Void run() {
+                BirdcallDatabase database = BirdcallDatabase.getInstance(getApplication());
+                if (database.enableIncrementalVacuum())
+                    Log.i(DatabaseMaintenanceJobService.class.getSimpleName(), "onStartJob: switched database to incremental auto-vacuum.");
+
+                mPageSize = database.getPageSize();
+                mPageCountBefore = database.getPageCount();
+                mFreePageCountBefore = database.getFreePageCount();
+                return null;
+            }
+
+            /**
+             * Start giving back free pages.
+             * @param result Nothing.
+             */
+            @Override
+            protected void onComplete(Void result) {
+                reclaimFreePages(params, INITIAL_STEP_PAGES);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Override to cancel maintenance when device is no longer idle or charging, unless step
+     * is already running.
+     * @param params Parameters of job.
+     * @return True, so that job is tried again later.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (mTask != null)
+            mTask.cancel();
+        return true;
+    }
+
+    /**
+     * Give back step of free pages on thread of WRITE lane, then start next step, sized by
+     * how long this one took, or finish maintenance.
+     * @param params Parameters of job.
+     * @param stepPages Number of free pages to give back.
+     */
+    private void reclaimFreePages(JobParameters params, int stepPages) {
+        mTask = TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.BACKGROUND, new MaintenanceTask<Long>(params) {
+            private long mStepMillis;
+
+            /**
+             * Give back step of free pages.
+             * <p>Run on thread of WRITE lane.</p>
+             * @return Number of free pages remaining.
+             */
+            @Override
+            protected Long run() {
+                BirdcallDatabase database = BirdcallDatabase.getInstance(getApplication());
+                long start = SystemClock.elapsedRealtime();
+                mReclaimedPageCount += database.reclaimFreePages(stepPages);
+                mStepMillis = SystemClock.elapsedRealtime() - start;
+                return database.getFreePageCount();
+            }
+
+            /**
+             * Start next step, unless no free pages remain or time is up.
+             * @param freePageCount Number of free pages remaining.
+             */
+            @Override
+            protected void onComplete(Long freePageCount) {
+                if ((freePageCount == 0) || (SystemClock.elapsedRealtime() - mStartTime >= BUDGET_MILLIS)) {
+                    finishMaintenance(params, freePageCount);
+                    return;
+                }
+
+                // Halve step if it took too long, or double it if it was quick.
+                int nextStepPages = stepPages;
+                if (mStepMillis > STEP_MILLIS)
+                    nextStepPages = Math.max(MIN_STEP_PAGES, stepPages / 2);
+                else if (mStepMillis < STEP_MILLIS / 2)
+                    nextStepPages = Math.min(MAX_STEP_PAGES, stepPages * 2);
+                reclaimFreePages(params, nextStepPages);
+            }
+        });
+    }
+
+    /**
+     * Checkpoint write-ahead log, and refresh statistics, on thread of WRITE lane, then report
+     * space reclaimed and finish job.
+     * @param params Parameters of job.
+     * @param freePageCount Number of free pages remaining.
+     */
+    private void finishMaintenance(JobParameters params, long freePageCount) {
+        mTask = TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.BACKGROUND, new MaintenanceTask<Long>(params) {
+            /**
+             * Checkpoint write-ahead log, and refresh statistics.
+             * <p>Run on thread of WRITE lane.</p>
+             * @return Number of pages in database.
+             */
+            @Override
+            protected Long run() {
+                BirdcallDatabase database = BirdcallDatabase.getInstance(getApplication());
+                database.performMaintenance();
+                return database.getPageCount();
+            }
+
+            /**
+             * Report space reclaimed, then finish job.
+             * @param pageCount Number of pages in database.
+             */
+            @Override
+            protected void onComplete(Long pageCount) {
+                Log.i(DatabaseMaintenanceJobService.class.getSimpleName(), "finishMaintenance: free pages "
+                        + formatFreePageRatio(mFreePageCountBefore, mPageCountBefore) + " before, "
+                        + formatFreePageRatio(freePageCount, pageCount) + " after; reclaimed "
+                        + mReclaimedPageCount * mPageSize + " bytes in "
+                        + (SystemClock.elapsedRealtime() - mStartTime) + "ms.");
+                jobFinished(params, false);
+            }
+        });
+    }
+
+    /**
+     * Format number of free pages as a ratio of all pages.
+     * @param freePageCount Number of free pages.
+     * @param pageCount Number of pages, including free pages.
+     * @return Formatted ratio, e.g. "12 of 400 (3.0%)".
+     */
+    private static String formatFreePageRatio(long freePageCount, long pageCount) {
+        double percentage = (pageCount == 0) ? 0 : 100.0 * freePageCount / pageCount;
+        return freePageCount + " of " + pageCount + " (" + String.format(Locale.ROOT, "%.1f", percentage) + "%)";
+    }
+
+    /**
+     * Task performing part of maintenance, finishing job if it fails.
+     * @param <Result> Type of result.
+     */
+    private abstract class MaintenanceTask<Result> extends TaskScheduler.Task<Result> {
+        private final JobParameters mParams;
+
+        /**
+         * Constructor.
+         * @param params Parameters of job.
+         */
+        MaintenanceTask(JobParameters params) {
+            mParams = params;
+        }
+
+        /**
+         * Log failure, then finish job, to be tried again next time.
+         * @param e Exception thrown by task.
+         */
+        @Override
+        protected void onFailed(Exception e) {
+            super.onFailed(e);
+            jobFinished(mParams, false);
+        }
+    }
+}
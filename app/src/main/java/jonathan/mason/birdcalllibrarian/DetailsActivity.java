@@ -1,6 +1,5 @@
 package jonathan.mason.birdcalllibrarian;
 
-import android.media.MediaPlayer;
 import android.os.Bundle;
 
 import com.google.android.gms.maps.CameraUpdateFactory;
@@ -33,23 +32,27 @@ import android.widget.Toast;
 
 import java.io.IOException;
 import java.text.DateFormat;
+import java.util.List;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
+import jonathan.mason.birdcalllibrarian.Analysis.SpectrogramTile;
 import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallPatch;
 import jonathan.mason.birdcalllibrarian.Database.DetailsActivityViewModel;
 import jonathan.mason.birdcalllibrarian.Database.DetailsActivityViewModelFactory;
+import jonathan.mason.birdcalllibrarian.Database.RecordingSegment;
+import jonathan.mason.birdcalllibrarian.Database.RecordingStore;
 
 /**
  * Screen of app for playing birdcall and viewing or editing its details.
  */
-public class DetailsActivity extends AppCompatActivity implements View.OnClickListener, MediaPlayer.OnCompletionListener, MediaPlayer.OnErrorListener {
+public class DetailsActivity extends AppCompatActivity implements View.OnClickListener, RecordingPlayer.Listener, SpectrogramLoader.Listener {
     /**
      * Key(s) for storing data in bundle.
      */
     private static final String IS_PLAYING = "IS_PLAYING";
     private static final String CURRENT_POSITION = "CURRENT_POSITION";
-    private static final String CHANGED = "CHANGED";
 
     /**
      * Default zoom level of map.
@@ -65,16 +68,18 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
     @BindView(R.id.notes) EditText mNotes;
     @BindView(R.id.date_and_time) TextView mDateAndTime;
     @BindView(R.id.lat_long) TextView mLatLong;
+    @BindView(R.id.spectrogram) SpectrogramView mSpectrogram;
 
     private Birdcall mBirdcall;
-    private MediaPlayer mMediaPlayer;
+    private List<RecordingSegment> mSegments;
+    private BirdcallEditQueue mEditQueue;
+    private RecordingPlayer mMediaPlayer;
+    private SpectrogramLoader mSpectrogramLoader;
     private GoogleMap mMap;
 
     private Boolean mSavedIsPlaying;
     private int mSavedCurrentPosition;
 
-    private Boolean mChanged;
-
     /**
      * Perform initialisation of activity, including ViewModel to load birdcall.
      * @param savedInstanceState Saved state of activity: playback state and position.
@@ -127,19 +132,15 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
                 mSavedCurrentPosition = savedInstanceState.getInt(CURRENT_POSITION, 0);
         }
 
-        // Restore state of changed flag.
-        mChanged = false;
-        if(savedInstanceState != null) {
-            if (savedInstanceState.containsKey(CHANGED))
-                mChanged = savedInstanceState.getBoolean(CHANGED, false);
-        }
+        // Edits are queued by application, so they survive configuration changes.
+        mEditQueue = BirdcallEditQueue.getInstance(this.getApplication());
 
         this.setupViewModel(birdcallId);
     }
 
     /**
-     * Setup up ViewModel to load and cache birdcall specified by "birdcallId" on separate
-     * thread for lifetime of activity.
+     * Setup up ViewModel to load and cache birdcall specified by "birdcallId", and any further
+     * segments of its recording, on separate thread for lifetime of activity.
      * <p>Based on exercise "T09b.10-Exercise-AddViewModelToAddTaskActivity" of Lesson 4,
      * Android Architecture Components, Developing Android Apps: Part 3 by Jose.</p>
      * @param birdcallId ID of birdcall to load.
@@ -170,6 +171,28 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
                 // with details of birdcall, by adding listeners afterwards.
                 setupEditTextWatchers();
 
+                // Show spectrogram of birdcall.
+                setupSpectrogram();
+
+                // Resume playing birdcall, if it was playing.
+                DetailsActivity.this.resumeMediaPlayer();
+            }
+        });
+        viewModel.getSegments().observe(this, new Observer<List<RecordingSegment>>() {
+            /**
+             * Handle loading of further segments of recording of birdcall from database.
+             * @param segments Loaded segments.
+             */
+            @Override
+            public void onChanged(@Nullable List<RecordingSegment> segments) {
+                mSegments = segments;
+
+                // Stop observing, as for birdcall.
+                viewModel.getSegments().removeObserver(this);
+
+                // Show spectrogram of birdcall.
+                setupSpectrogram();
+
                 // Resume playing birdcall, if it was playing.
                 DetailsActivity.this.resumeMediaPlayer();
             }
@@ -203,7 +226,9 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
                 // If called whilst restoring state after configuration change, ignore.
                 if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
                     mBirdcall.setSpecies(s.toString());
-                    mChanged = true;
+                    BirdcallPatch edit = new BirdcallPatch(mBirdcall.getId());
+                    edit.setSpecies(s.toString());
+                    mEditQueue.enqueue(edit);
                 }
             }
 
@@ -234,7 +259,9 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
                 // If called whilst restoring state after configuration change, ignore.
                 if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
                     mBirdcall.setTitle(s.toString());
-                    mChanged = true;
+                    BirdcallPatch edit = new BirdcallPatch(mBirdcall.getId());
+                    edit.setTitle(s.toString());
+                    mEditQueue.enqueue(edit);
                 }
             }
 
@@ -265,7 +292,9 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
                 // If called whilst restoring state after configuration change, ignore.
                 if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
                     mBirdcall.setNotes(s.toString());
-                    mChanged = true;
+                    BirdcallPatch edit = new BirdcallPatch(mBirdcall.getId());
+                    edit.setNotes(s.toString());
+                    mEditQueue.enqueue(edit);
                 }
             }
 
@@ -306,8 +335,8 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
             return true;
         }
         else if (id == R.id.action_update_birdcall) {
-            // Save birdcall, if changed.
-            this.saveBirdcall();
+            // Save birdcall, if changed, telling user.
+            this.saveBirdcall(true);
             return true;
         }
         else if (id == R.id.action_play_birdcall) {
@@ -345,16 +374,38 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
     }
 
     /**
-     * Override to save state and position of MediaPlayer, and whether birdcall has
-     * been edited.
+     * Start loading spectrogram of birdcall, once birdcall and any further segments of its
+     * recording have been loaded.
+     */
+    private void setupSpectrogram() {
+        if ((mBirdcall != null) && (mSegments != null) && (mSpectrogramLoader == null)) {
+            mSpectrogramLoader = new SpectrogramLoader(this, mBirdcall, mSegments, this, this);
+            mSpectrogram.setTileRequester(mSpectrogramLoader);
+            mSpectrogramLoader.open();
+        }
+    }
+
+    /**
+     * Override to stop loading spectrogram.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (mSpectrogramLoader != null) {
+            mSpectrogramLoader.release();
+            mSpectrogramLoader = null;
+        }
+    }
+
+    /**
+     * Override to save state and position of MediaPlayer.
      * @param outState Saved state of activity.
      */
     @Override
     protected void onSaveInstanceState(@NonNull Bundle outState) {
         super.onSaveInstanceState(outState);
 
-        outState.putBoolean(CHANGED, mChanged);
-
         if(mMediaPlayer != null) {
             mSavedIsPlaying = mMediaPlayer.isPlaying();
             mSavedCurrentPosition = mMediaPlayer.getCurrentPosition();
@@ -383,9 +434,9 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
 
         this.stopMediaPlayer();
 
-        // Save birdcall, if changed.
+        // Save birdcall, if changed, without telling user, as they did not ask to save.
         if(!this.isChangingConfigurations())
-            this.saveBirdcall();
+            this.saveBirdcall(false);
     }
 
     /**
@@ -400,19 +451,15 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
      * @param currentPosition Position at which to start playing birdcall.
      */
     private void startMediaPlayer(int currentPosition) {
-        if (mBirdcall != null) {
+        if ((mBirdcall != null) && (mSegments != null)) {
             if (mMediaPlayer == null) {
                 try {
-                    mMediaPlayer = new MediaPlayer();
-                    mMediaPlayer.setOnCompletionListener(this);
-                    mMediaPlayer.setDataSource(new ByteArrayMediaDataSource(mBirdcall.getRecording()));
-                    mMediaPlayer.prepare();
-                    if(currentPosition > 0)
-                        mMediaPlayer.seekTo(currentPosition);
-                    mMediaPlayer.start();
+                    mMediaPlayer = new RecordingPlayer(RecordingStore.getInstance(this), mBirdcall, mSegments, this);
+                    mMediaPlayer.start(currentPosition);
                     Toast.makeText(this, getString(R.string.playing_birdcall), Toast.LENGTH_SHORT).show();
                 } catch (IOException e) {
                     Log.e(this.getClass().getSimpleName(), "startMediaPlayer: error preparing to play.", e);
+                    mMediaPlayer = null;
                     Toast.makeText(this, this.getString(R.string.error_preparing_to_play), Toast.LENGTH_LONG).show();
                 }
             }
@@ -423,7 +470,7 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
      * Resume playing birdcall from saved position.
      */
     private void resumeMediaPlayer() {
-        if (mBirdcall != null) {
+        if ((mBirdcall != null) && (mSegments != null)) {
             if (mMediaPlayer == null) {
                 if (mSavedIsPlaying) {
                     this.startMediaPlayer(mSavedCurrentPosition);
@@ -437,26 +484,22 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
     }
 
     /**
-     * Stop or pause playing of birdcall, releasing MediaPlayer.
+     * Stop or pause playing of birdcall, releasing RecordingPlayer.
      */
     private void stopMediaPlayer() {
         if(mMediaPlayer != null) {
-            mMediaPlayer.stop();
             mMediaPlayer.release();
             mMediaPlayer = null;
         }
     }
 
     /**
-     * Update birdcall in database using AsyncTask, if it has changed.
-     * <p>AsyncTask is used safely as it keeps reference to application context
-     * and does not refer to DetailsActivity.</p>
+     * Save pending edits of birdcall, along with those of any other birdcalls, straight
+     * away, rather than waiting for editing to pause.
+     * @param notifyUser True to show toast once saved, for explicit saves, otherwise false.
      */
-    private void saveBirdcall() {
-        if(mChanged) {
-            mChanged = false;
-            new UpdateBirdcallAsyncTask(this.getApplication(), mBirdcall).execute();
-        }
+    private void saveBirdcall(boolean notifyUser) {
+        mEditQueue.flush(notifyUser);
     }
 
     /***********************************
@@ -472,34 +515,51 @@ public class DetailsActivity extends AppCompatActivity implements View.OnClickLi
         this.startMediaPlayer();
     }
 
-    /***********************************************
-     * Implement MediaPlayer.OnCompletionListener. *
-     ***********************************************/
+    /***************************************
+     * Implement RecordingPlayer.Listener. *
+     ***************************************/
 
     /**
-     * Handle completion of playing birdcall to release MediaPlayer.
-     * @param mp Instance of MediaPlayer; not used.
+     * Handle completion of playing birdcall to release RecordingPlayer.
      */
     @Override
-    public void onCompletion(MediaPlayer mp) {
+    public void onPlaybackCompleted() {
         this.stopMediaPlayer();
     }
 
-    /******************************************
-     * Implement MediaPlayer.OnErrorListener. *
-     ******************************************/
-
     /**
-     * Handle MediaPlayer error event.
-     * @param mp Instance of MediaPlayer; not used.
+     * Handle RecordingPlayer error event to release it.
      * @param what Type of error.
      * @param extra Extra code about error.
-     * @return False to indicate error unhandled.
      */
     @Override
-    public boolean onError(MediaPlayer mp, int what, int extra) {
-        Log.e(this.getClass().getSimpleName(), "onError: type = " + what + ", extra = " + extra + ".");
+    public void onPlaybackError(int what, int extra) {
+        Log.e(this.getClass().getSimpleName(), "onPlaybackError: type = " + what + ", extra = " + extra + ".");
         Toast.makeText(this, this.getString(R.string.error_during_playback), Toast.LENGTH_LONG).show();
-        return false;
+        this.stopMediaPlayer();
+    }
+
+    /*****************************************
+     * Implement SpectrogramLoader.Listener. *
+     *****************************************/
+
+    /**
+     * Handle opening of recording to size spectrogram.
+     * @param columnCount Number of columns of spectrogram.
+     * @param columnsPerTile Number of columns in each tile.
+     * @param binCount Number of bins in each column.
+     */
+    @Override
+    public void onSpectrogramOpened(long columnCount, int columnsPerTile, int binCount) {
+        mSpectrogram.setSpectrogram(columnCount, columnsPerTile, binCount);
+    }
+
+    /**
+     * Handle loading of tile to show it.
+     * @param tile Loaded tile.
+     */
+    @Override
+    public void onTileLoaded(SpectrogramTile tile) {
+        mSpectrogram.setTile(tile);
     }
 }
@@ -0,0 +1,127 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.Manifest;
+import android.app.Application;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleObserver;
+import androidx.lifecycle.OnLifecycleEvent;
+import androidx.lifecycle.ProcessLifecycleOwner;
+
+import java.io.IOException;
+
+import jonathan.mason.birdcalllibrarian.Capture.PcmCaptureEngine;
+import jonathan.mason.birdcalllibrarian.Capture.RecordingProfile;
+
+/**
+ * Opt-in listening mode, keeping the last few seconds of audio whilst app is in the
+ * foreground, to be prepended to the next recording as pre-roll; a singleton.
+ * <p>Being held by the application, rather than an activity, listening carries on from
+ * MainActivity into RecordActivity, where RecordFragment takes the listening capture engine
+ * and starts encoding, beginning with its pre-roll. Microphone is only available in the
+ * foreground, so listening stops when the app goes into the background.</p>
+ * <p>Must be used on main user interface thread.</p>
+ */
+public class ListeningSession implements LifecycleObserver {
+    private static final Object LOCK = new Object();
+    private static ListeningSession sInstance;
+
+    /**
+     * Implement singleton, creating single instance of listening session, if not created, or
+     * simply retrieving previously created instance.
+     * @param application The application.
+     * @return Listening session.
+     */
+    public static ListeningSession getInstance(Application application) {
+        if (sInstance == null) {
+            synchronized (LOCK) {
+                if (sInstance == null)
+                    sInstance = new ListeningSession(application);
+            }
+        }
+        return sInstance;
+    }
+
+    private final Application mApplication;
+    private PcmCaptureEngine mCaptureEngine;
+    private int mPreRollSeconds;
+    private RecordingProfile mRecordingProfile;
+
+    /**
+     * Constructor.
+     * @param application The application.
+     */
+    private ListeningSession(Application application) {
+        mApplication = application;
+
+        // Stop listening when app goes into the background.
+        ProcessLifecycleOwner.get().getLifecycle().addObserver(this);
+    }
+
+    /**
+     * Start listening, if enabled in settings and permission to record audio has been granted,
+     * or stop listening, if no longer enabled.
+     */
+    public void startIfEnabled() {
+        int preRollSeconds = SettingsActivity.getPreRollSeconds(mApplication);
+        if ((preRollSeconds <= 0) || (mApplication.checkSelfPermission(Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED)) {
+            this.stop();
+            return;
+        }
+
+        // Already listening with same pre-roll and profile.
+        RecordingProfile recordingProfile = SettingsActivity.getRecordingProfile(mApplication).getCaptureProfile();
+        if ((mCaptureEngine != null) && (mPreRollSeconds == preRollSeconds) && (mRecordingProfile == recordingProfile))
+            return;
+
+        this.stop();
+        PcmCaptureEngine captureEngine = recordingProfile.createCaptureEngine(mApplication, preRollSeconds);
+        try {
+            captureEngine.startCapture();
+            mCaptureEngine = captureEngine;
+            mPreRollSeconds = preRollSeconds;
+            mRecordingProfile = recordingProfile;
+        } catch (IOException e) {
+            Log.e(ListeningSession.class.getSimpleName(), "startIfEnabled: unable to start listening.", e);
+        }
+    }
+
+    /**
+     * Get profile with which listening capture engine captures and encodes.
+     * @return Recording profile, or null if never listened.
+     */
+    public RecordingProfile getRecordingProfile() {
+        return mRecordingProfile;
+    }
+
+    /**
+     * Take listening capture engine, to start encoding with it, after which session is no
+     * longer listening.
+     * @return Capture engine, holding pre-roll, or null if not listening.
+     */
+    public PcmCaptureEngine takeCaptureEngine() {
+        PcmCaptureEngine captureEngine = mCaptureEngine;
+        mCaptureEngine = null;
+        return captureEngine;
+    }
+
+    /**
+     * Stop listening, discarding pre-roll.
+     */
+    public void stop() {
+        if (mCaptureEngine != null) {
+            mCaptureEngine.stop();
+            mCaptureEngine = null;
+        }
+    }
+
+    /**
+     * Handle app going into the background, to stop listening.
+     */
+    @OnLifecycleEvent(Lifecycle.Event.ON_STOP)
+    void onAppBackgrounded() {
+        this.stop();
+    }
+}
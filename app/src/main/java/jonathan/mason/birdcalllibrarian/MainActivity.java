@@ -1,31 +1,50 @@
 package jonathan.mason.birdcalllibrarian;
 
 import android.app.ActivityOptions;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.snackbar.Snackbar;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
+import androidx.appcompat.widget.SearchView;
 import androidx.appcompat.widget.Toolbar;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.paging.PagedList;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.RecyclerView;
 
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
-
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.Toast;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import jonathan.mason.birdcalllibrarian.Database.Birdcall;
 import jonathan.mason.birdcalllibrarian.Database.BirdcallDatabase;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallSummary;
 import jonathan.mason.birdcalllibrarian.Database.MainActivityViewModel;
 
 /**
@@ -42,11 +61,38 @@ public class MainActivity extends AppCompatActivity implements BirdcallsAdapter.
     @BindView(R.id.birdcalls_recycler_view) RecyclerView mBirdcallsRecyclerView;
     @BindView(R.id.record_fab) FloatingActionButton mRecordFAB;
     @BindView(R.id.toolbar) Toolbar mToolbar;
+    private MainActivityViewModel mViewModel;
+    private ActionMode mActionMode;
+    private BirdcallExport.Filter mExportFilter;
+
+    /**
+     * Key for storing IDs of checked birdcalls in bundles.
+     */
+    private static final String CHECKED_BIRDCALL_IDS = "CHECKED_BIRDCALL_IDS";
+
+    /**
+     * Keys for storing filter of export awaiting choice of destination in bundles.
+     */
+    private static final String EXPORT_FROM = "EXPORT_FROM";
+    private static final String EXPORT_TO = "EXPORT_TO";
+    private static final String EXPORT_SPECIES = "EXPORT_SPECIES";
+
+    /**
+     * Request codes for picking directory or files to import.
+     */
+    private static final int REQUEST_IMPORT_DIRECTORY = 1;
+    private static final int REQUEST_IMPORT_FILES = 2;
+
+    /**
+     * Request codes for picking document or directory into which to export.
+     */
+    private static final int REQUEST_EXPORT_DOCUMENT = 3;
+    private static final int REQUEST_EXPORT_DIRECTORY = 4;
 
     /**
      * Perform initialisation of activity, including ViewModel to load birdcalls
      * into RecyclerView.
-     * @param savedInstanceState Saved state of activity; not used.
+     * @param savedInstanceState Saved state of activity, holding IDs of checked birdcalls.
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -68,30 +114,80 @@ public class MainActivity extends AppCompatActivity implements BirdcallsAdapter.
             }
         });
 
-        // Set up to use GridLayoutManager (BirdcallsAdapter created after birdcalls
-        // loaded).
+        // Set up to use GridLayoutManager, with BirdcallsAdapter to which pages of
+        // birdcalls are submitted as they load.
         int numberColumns = this.getResources().getInteger(R.integer.number_columns);
         mBirdcallsRecyclerView.setLayoutManager(new GridLayoutManager(this, numberColumns));
+        mBirdcallsRecyclerView.setAdapter(new BirdcallsAdapter(this));
 
         this.addSwipeHelper();
         this.setupViewModel();
+
+        if (savedInstanceState != null) {
+            // Check birdcalls checked before activity was re-created.
+            List<Integer> checkedIds = savedInstanceState.getIntegerArrayList(CHECKED_BIRDCALL_IDS);
+            if (checkedIds != null)
+                ((BirdcallsAdapter)mBirdcallsRecyclerView.getAdapter()).setCheckedIds(checkedIds);
+
+            // Keep filter of export awaiting choice of destination.
+            if (savedInstanceState.containsKey(EXPORT_SPECIES)) {
+                long from = savedInstanceState.getLong(EXPORT_FROM, -1);
+                long to = savedInstanceState.getLong(EXPORT_TO, -1);
+                mExportFilter = new BirdcallExport.Filter((from >= 0) ? new Date(from) : null, (to >= 0) ? new Date(to) : null, savedInstanceState.getString(EXPORT_SPECIES));
+            }
+        }
+        else {
+            // Remove birdcalls deleted when app last closed, whose deletion can no longer be
+            // undone, as their Snackbar went with it.
+            BirdcallPurge.getInstance(this.getApplication()).purge(new Date());
+        }
+
+        // Summarise waveforms of any birdcalls saved before they were summarised at save time.
+        PeaksBackfill.getInstance(this.getApplication()).start();
+
+        // Carry on with any import interrupted when app was last closed.
+        BirdcallImport.getInstance(this.getApplication()).resume();
+
+        // Carry on with any resumable export interrupted when app was last closed.
+        BirdcallExport.getInstance(this.getApplication()).resume();
+
+        // Maintain database whilst device is idle.
+        DatabaseMaintenanceJobService.schedule(this);
+
+        // Compress uncompressed recordings whilst device is idle.
+        TranscodingJobService.schedule(this);
+
+        // Check stored recordings, and delete those no longer referred to, whilst device is idle.
+        RecordingDeduplicationJobService.schedule(this);
     }
 
     /**
-     * Setup up ViewModel to load and cache birdcalls on separate thread for lifetime
+     * Override to start listening, if enabled in settings, so that the next recording includes
+     * the seconds before it was started.
+     * <p>Listening carries on into RecordActivity, and stops when app goes into the background.</p>
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        ListeningSession.getInstance(this.getApplication()).startIfEnabled();
+    }
+
+    /**
+     * Setup up ViewModel to page and cache birdcalls on separate thread for lifetime
      * of activity.
      */
     private void setupViewModel() {
-        MainActivityViewModel viewModel = new ViewModelProvider(this).get(MainActivityViewModel.class);
-        viewModel.getBirdcalls().observe(this, new Observer<List<Birdcall>>() {
+        mViewModel = new ViewModelProvider(this).get(MainActivityViewModel.class);
+        mViewModel.getBirdcalls().observe(this, new Observer<PagedList<BirdcallSummary>>() {
             /**
              * Handle loading of birdcalls from database.
-             * @param birdcalls Loaded birdcalls.
+             * @param birdcalls Summaries of loaded birdcalls.
              */
             @Override
-            public void onChanged(@Nullable List<Birdcall> birdcalls) {
+            public void onChanged(@Nullable PagedList<BirdcallSummary> birdcalls) {
                 // Update RecyclerView.
-                MainActivity.this.setRecyclerViewAdapter(birdcalls);
+                ((BirdcallsAdapter)mBirdcallsRecyclerView.getAdapter()).submitList(birdcalls);
             }
         });
     }
@@ -113,6 +209,20 @@ public class MainActivity extends AppCompatActivity implements BirdcallsAdapter.
             @Override
             public boolean onMove(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder, RecyclerView.ViewHolder target) { return false; }
 
+            /**
+             * Get directions in which item may be swiped; none whilst birdcalls are checked,
+             * as they are deleted together instead.
+             * @param recyclerView RecyclerView.
+             * @param viewHolder View holder of item.
+             * @return Directions in which item may be swiped.
+             */
+            @Override
+            public int getSwipeDirs(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder) {
+                if (((BirdcallsAdapter)recyclerView.getAdapter()).isChecking())
+                    return 0;
+                return super.getSwipeDirs(recyclerView, viewHolder);
+            }
+
             /**
              * Handle horizontal swipe to delete birdcall.
              * @param viewHolder Swiped view holder.
@@ -124,86 +234,107 @@ public class MainActivity extends AppCompatActivity implements BirdcallsAdapter.
 
                 // Get swiped birdcall and its position.
                 int position = viewHolder.getAdapterPosition();
-                Birdcall birdcall = adapter.getBirdcalls().get(position);
-
-                // Remove swiped birdcall from collection of birdcalls and notify adapter, to
-                // allow it to animate remaining items up (birdcall not actually deleted from
-                // database yet).
-                // From answer to "Android RecyclerView ItemTouchHelper revert swipe and restore view holder"
-                // by jimmy0251:
-                // https://stackoverflow.com/questions/31787272/android-recyclerview-itemtouchhelper-revert-swipe-and-restore-view-holder
-                adapter.getBirdcalls().remove(position);
-                adapter.notifyItemRemoved(position);
-
-                // Display Snackbar, offering user chance to undo.
-                Snackbar.make(viewHolder.itemView, getResources().getString(R.string.birdcall_deleted), Snackbar.LENGTH_LONG).setAction(getResources().getString(R.string.birdcall_undo_delete), new View.OnClickListener() {
-                    /**
-                     * Handle click of Snackbar action to undo deletion.
-                     * @param view Clicked Snackbar action button.
-                     */
-                    @Override
-                    public void onClick(View view) {
-                        // Insert removed birdcall back into collection of birdcalls and notify adapter, to
-                        // allow it to animate shifting of other items.
-                        adapter.getBirdcalls().add(position, birdcall);
-                        adapter.notifyItemInserted(position);
-
-                        // Ensure inserted birdcall is visible, in case it appears above or below
-                        // other items.
-                        // From answer to "How to use RecyclerView.scrollToPosition() to move the position to the top of current view?"
-                        // by yugidroid:
-                        // https://stackoverflow.com/questions/33328806/how-to-use-recyclerview-scrolltoposition-to-move-the-position-to-the-top-of-cu/33329765
-                        mBirdcallsRecyclerView.getLayoutManager().scrollToPosition(position);
-                    }
-                }).addCallback(new Snackbar.Callback() {
-                    /**
-                     * Handle showing of Snackbar; not used.
-                     * @param snackbar The Snackbar.
-                     */
-                    @Override
-                    public void onShown(Snackbar snackbar) {
-                        super.onShown(snackbar);
-                    }
+                BirdcallSummary birdcall = adapter.getBirdcall(position);
+
+                deleteBirdcalls(Collections.singletonList(birdcall.getId()), position);
+            }
+        }).attachToRecyclerView(mBirdcallsRecyclerView);
+    }
+
+    /**
+     * Delete birdcalls with specified IDs, offering user chance to undo.
+     * <p>Birdcalls are marked as deleted straight away, in a single transaction, however many
+     * there are, so that undoing simply clears the mark. They are removed, along with their
+     * recordings, by BirdcallPurge once the Snackbar has gone without being undone.</p>
+     * <p>Loaded pages of birdcalls can't be changed, so the deletion reaches the RecyclerView
+     * as a new page, as for any other change.</p>
+     * @param ids IDs of birdcalls to delete.
+     * @param position Position to which to scroll if deletion is undone, or
+     *                 RecyclerView.NO_POSITION to stay put.
+     */
+    private void deleteBirdcalls(List<Integer> ids, int position) {
+        BirdcallDatabase database = BirdcallDatabase.getInstance(this.getApplication());
+        Date deletedAt = new Date();
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.USER, new TaskScheduler.Task<Void>() {
+            /**
+             * Task to be executed on thread of WRITE lane.
+             * @return Nothing.
+             */
+            @Override
+            protected Void run() {
+                database.markDeleted(ids, deletedAt);
+                return null;
+            }
+        });
 
+        // Display Snackbar, offering user chance to undo.
+        String message = this.getResources().getQuantityString(R.plurals.birdcalls_deleted, ids.size(), ids.size());
+        Snackbar.make(mBirdcallsRecyclerView, message, Snackbar.LENGTH_LONG).setAction(getResources().getString(R.string.birdcall_undo_delete), new View.OnClickListener() {
+            /**
+             * Handle click of Snackbar action to undo deletion.
+             * @param view Clicked Snackbar action button.
+             */
+            @Override
+            public void onClick(View view) {
+                // Clear mark of deleted birdcalls (same IDs, so they return to same positions).
+                TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.USER, new TaskScheduler.Task<Void>() {
                     /**
-                     * Handle closing of Snackbar to delete birdcall from database.
-                     * <p>From answer to "How to dismiss a Snackbar using it's own Action button?" by a.black13:
-                     * https://stackoverflow.com/questions/30729312/how-to-dismiss-a-snackbar-using-its-own-action-button.</p>
-                     * @param snackbar The Snackbar.
-                     * @param event Flag indicating how Snackbar was closed.
+                     * Task to be executed on thread of WRITE lane.
+                     * @return Nothing.
                      */
                     @Override
-                    public void onDismissed(Snackbar snackbar, int event) {
-                        super.onDismissed(snackbar, event);
-
-                        // If Snackbar wasn't closed by an action (undo), delete birdcall from database.
-                        if (event != DISMISS_EVENT_ACTION) {
-                            AppExecutors.getInstance().diskIO().execute(new Runnable() {
-                                /**
-                                 * Task to executed on separate thread.
-                                 */
-                                @Override
-                                public void run() {
-                                    BirdcallDatabase.getInstance(MainActivity.this.getApplication()).DAO().delete(birdcall);
-                                }
-                            });
-                        }
+                    protected Void run() {
+                        database.restore(ids);
+                        return null;
                     }
-                }).show();
+                });
+
+                // Ensure restored birdcall is visible, in case it appears above or below
+                // other items.
+                // From answer to "How to use RecyclerView.scrollToPosition() to move the position to the top of current view?"
+                // by yugidroid:
+                // https://stackoverflow.com/questions/33328806/how-to-use-recyclerview-scrolltoposition-to-move-the-position-to-the-top-of-cu/33329765
+                if (position != RecyclerView.NO_POSITION)
+                    mBirdcallsRecyclerView.getLayoutManager().scrollToPosition(position);
             }
-        }).attachToRecyclerView(mBirdcallsRecyclerView);
+        }).addCallback(new Snackbar.Callback() {
+            /**
+             * Handle closing of Snackbar to remove deleted birdcalls and their recordings.
+             * <p>From answer to "How to dismiss a Snackbar using it's own Action button?" by a.black13:
+             * https://stackoverflow.com/questions/30729312/how-to-dismiss-a-snackbar-using-its-own-action-button.</p>
+             * @param snackbar The Snackbar.
+             * @param event Flag indicating how Snackbar was closed.
+             */
+            @Override
+            public void onDismissed(Snackbar snackbar, int event) {
+                super.onDismissed(snackbar, event);
+
+                // If Snackbar wasn't closed by an action (undo), remove birdcalls deleted up
+                // to now, but not any deleted since, whose Snackbar may still be showing.
+                if (event != DISMISS_EVENT_ACTION)
+                    BirdcallPurge.getInstance(MainActivity.this.getApplication()).purge(deletedAt);
+            }
+        }).show();
     }
 
     /**
-     * Add birdcalls to adapter and then to RecyclerView.
-     * @param birdcalls Birdcalls to add.
+     * Override to save IDs of checked birdcalls, so that they are still checked once activity
+     * is re-created, e.g. after rotation, along with filter of any export awaiting choice of
+     * destination.
+     * @param outState Bundle in which to save state.
      */
-    private void setRecyclerViewAdapter(List<Birdcall> birdcalls) {
-        // Create birdcalls adapter (set after birdcalls loaded to begin displaying).
-        BirdcallsAdapter birdcallsAdapter = new BirdcallsAdapter(birdcalls,this);
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
 
-        // Set adapter of RecycleView (this causes it to update itself).
-        mBirdcallsRecyclerView.setAdapter(birdcallsAdapter);
+        List<Integer> checkedIds = ((BirdcallsAdapter)mBirdcallsRecyclerView.getAdapter()).getCheckedIds();
+        outState.putIntegerArrayList(CHECKED_BIRDCALL_IDS, new ArrayList<>(checkedIds));
+
+        if (mExportFilter != null) {
+            outState.putLong(EXPORT_FROM, (mExportFilter.getFrom() != null) ? mExportFilter.getFrom().getTime() : -1);
+            outState.putLong(EXPORT_TO, (mExportFilter.getTo() != null) ? mExportFilter.getTo().getTime() : -1);
+            outState.putString(EXPORT_SPECIES, mExportFilter.getSpecies());
+        }
     }
 
     /**
@@ -214,6 +345,34 @@ public class MainActivity extends AppCompatActivity implements BirdcallsAdapter.
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // Search as user types.
+        SearchView searchView = (SearchView)menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(this.getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            /**
+             * Handle submission of search, which has already been made as user typed.
+             * @param query Text searched for.
+             * @return True to stop SearchView starting a search activity.
+             */
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mViewModel.setSearchText(query);
+                return true;
+            }
+
+            /**
+             * Handle change of text to search for, including clearing it when search is
+             * closed, to list all birdcalls again.
+             * @param newText Text to search for.
+             * @return True as change was handled.
+             */
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mViewModel.setSearchText(newText);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -230,6 +389,32 @@ public class MainActivity extends AppCompatActivity implements BirdcallsAdapter.
             this.showRecordActivity();
             return true;
         }
+        else if (id == R.id.action_settings) {
+            Intent intent = new Intent(this, SettingsActivity.class);
+
+            // From "Activity Enter and Exit" of Lesson 4, Meaningful Motion, Material Design
+            // for Android Developers by Nick Butcher.
+            Bundle bundle = ActivityOptions.makeSceneTransitionAnimation(this).toBundle();
+
+            startActivity(intent, bundle);
+            return true;
+        }
+        else if (id == R.id.action_import_directory) {
+            startActivityForResult(new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE), REQUEST_IMPORT_DIRECTORY);
+            return true;
+        }
+        else if (id == R.id.action_import_files) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("audio/*");
+            intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+            startActivityForResult(intent, REQUEST_IMPORT_FILES);
+            return true;
+        }
+        else if (id == R.id.action_export) {
+            this.showExportDialog();
+            return true;
+        }
         else if (id == R.id.action_acknowledgments) {
             Intent intent = new Intent(this, AcknowledgmentsActivity.class);
 
@@ -244,6 +429,108 @@ public class MainActivity extends AppCompatActivity implements BirdcallsAdapter.
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Override to import directory or files picked by user, or export into document or
+     * directory picked by user.
+     * @param requestCode Request code, identifying what was picked.
+     * @param resultCode Result code, RESULT_OK if something was picked.
+     * @param data Intent holding URI of directory or document, or URIs of files.
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if ((resultCode != RESULT_OK) || (data == null))
+            return;
+
+        if ((requestCode == REQUEST_IMPORT_DIRECTORY) && (data.getData() != null))
+            BirdcallImport.getInstance(this.getApplication()).importDirectory(data.getData());
+        else if (requestCode == REQUEST_IMPORT_FILES) {
+            // Several files are held by clip data, a single file by data.
+            List<Uri> uris = new ArrayList<>();
+            if (data.getClipData() != null) {
+                for (int i = 0; i < data.getClipData().getItemCount(); i++)
+                    uris.add(data.getClipData().getItemAt(i).getUri());
+            }
+            else if (data.getData() != null)
+                uris.add(data.getData());
+            BirdcallImport.getInstance(this.getApplication()).importDocuments(uris);
+        }
+        else if ((requestCode == REQUEST_EXPORT_DOCUMENT) && (data.getData() != null) && (mExportFilter != null))
+            BirdcallExport.getInstance(this.getApplication()).exportToDocument(data.getData(), mExportFilter);
+        else if ((requestCode == REQUEST_EXPORT_DIRECTORY) && (data.getData() != null) && (mExportFilter != null))
+            BirdcallExport.getInstance(this.getApplication()).exportToDirectory(data.getData(), mExportFilter);
+    }
+
+    /**
+     * Show dialog for choosing which birdcalls to export, and whether into a single archive or
+     * resumably into a directory, then let user pick where to export.
+     */
+    private void showExportDialog() {
+        View view = LayoutInflater.from(this).inflate(R.layout.dialog_export, null);
+
+        // Retrieve views.
+        EditText speciesEditText = view.findViewById(R.id.export_species);
+        EditText fromEditText = view.findViewById(R.id.export_from);
+        EditText toEditText = view.findViewById(R.id.export_to);
+        CheckBox resumableCheckBox = view.findViewById(R.id.export_resumable);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.export_title)
+                .setView(view)
+                .setNegativeButton(android.R.string.cancel, null)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    /**
+                     * Handle click of OK button to pick where to export.
+                     * @param dialog Dialog.
+                     * @param which Button clicked.
+                     */
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Date from;
+                        Date to;
+                        try {
+                            from = parseExportDate(fromEditText.getText().toString(), 0);
+                            to = parseExportDate(toEditText.getText().toString(), 1); // Include whole of last day.
+                        } catch (ParseException e) {
+                            Toast.makeText(MainActivity.this, R.string.export_invalid_date, Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        String species = speciesEditText.getText().toString().trim();
+                        mExportFilter = new BirdcallExport.Filter(from, to, species.isEmpty() ? null : species);
+
+                        if (resumableCheckBox.isChecked())
+                            startActivityForResult(new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE), REQUEST_EXPORT_DIRECTORY);
+                        else {
+                            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                            intent.addCategory(Intent.CATEGORY_OPENABLE);
+                            intent.setType("application/zip");
+                            intent.putExtra(Intent.EXTRA_TITLE, "birdcalls.zip");
+                            startActivityForResult(intent, REQUEST_EXPORT_DOCUMENT);
+                        }
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Parse date entered in export dialog.
+     * @param text Date in form YYYY-MM-DD, or blank for none.
+     * @param addDays Number of days to add to date.
+     * @return Start of day, in local time, or null if blank.
+     * @throws ParseException Thrown if date is not in expected form.
+     */
+    private static Date parseExportDate(String text, int addDays) throws ParseException {
+        if (text.trim().isEmpty())
+            return null;
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        dateFormat.setLenient(false);
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(dateFormat.parse(text.trim()));
+        calendar.add(Calendar.DAY_OF_MONTH, addDays);
+        return calendar.getTime();
+    }
+
     /**
      * Show RecordActivity to start recording.
      */
@@ -264,18 +551,36 @@ public class MainActivity extends AppCompatActivity implements BirdcallsAdapter.
 
     /**
      * Handle selection of birdcall to show DetailsActivity screen.
-     * @param selectedBirdcall Selected birdcall.
+     * @param selectedBirdcall Summary of selected birdcall.
      */
-    public void onBirdcallSelected(Birdcall selectedBirdcall)
+    public void onBirdcallSelected(BirdcallSummary selectedBirdcall)
     {
         this.showDetailsActivity(selectedBirdcall);
     }
 
+    /**
+     * Handle checking or unchecking of birdcall to show contextual action bar, for deleting
+     * checked birdcalls, whilst any are checked.
+     * @param checkedCount Number of birdcalls now checked; 0 once none are.
+     */
+    public void onCheckedBirdcallsChanged(int checkedCount)
+    {
+        if (checkedCount == 0) {
+            if (mActionMode != null)
+                mActionMode.finish();
+            return;
+        }
+
+        if (mActionMode == null)
+            mActionMode = this.startSupportActionMode(new CheckedBirdcallsActionModeCallback());
+        mActionMode.setTitle(this.getString(R.string.birdcalls_checked, checkedCount));
+    }
+
     /**
      * Show details of "selectedBirdcall" in DetailsActivity screen.
-     * @param selectedBirdcall Birdcall to be shown.
+     * @param selectedBirdcall Summary of birdcall to be shown.
      */
-    private void showDetailsActivity(Birdcall selectedBirdcall) {
+    private void showDetailsActivity(BirdcallSummary selectedBirdcall) {
         Intent intent = new Intent(MainActivity.this, DetailsActivity.class);
         intent.putExtra(Birdcall.SELECTED_BIRDCALL_ID, selectedBirdcall.getId()); // Pass ID of selected birdcall as extra data in intent.
 
@@ -285,4 +590,62 @@ public class MainActivity extends AppCompatActivity implements BirdcallsAdapter.
 
         startActivity(intent, bundle);
     }
+
+    /**
+     * Callback of contextual action bar shown whilst birdcalls are checked.
+     * <p>From "Use the contextual action mode", Android Developers:
+     * https://developer.android.com/guide/topics/ui/menus#CAB.</p>
+     */
+    private class CheckedBirdcallsActionModeCallback implements ActionMode.Callback {
+        /**
+         * Handle creation of action mode to create its menu.
+         * @param mode Action mode being created.
+         * @param menu Menu being created.
+         * @return True to show action mode.
+         */
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_main_checked, menu);
+            return true;
+        }
+
+        /**
+         * Handle refreshing of action mode; not used.
+         * @param mode Action mode being refreshed.
+         * @param menu Menu of action mode.
+         * @return False, as menu not changed.
+         */
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        /**
+         * Handle menu selection to delete checked birdcalls.
+         * @param mode Action mode.
+         * @param item Selected menu item.
+         * @return True if menu selection was handled, otherwise false.
+         */
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            if (item.getItemId() == R.id.action_delete_birdcalls) {
+                List<Integer> checkedIds = ((BirdcallsAdapter)mBirdcallsRecyclerView.getAdapter()).getCheckedIds();
+                deleteBirdcalls(checkedIds, RecyclerView.NO_POSITION);
+                mode.finish();
+                return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Handle closing of action mode, including by back button, to uncheck birdcalls.
+         * @param mode Action mode being closed.
+         */
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            mActionMode = null;
+            ((BirdcallsAdapter)mBirdcallsRecyclerView.getAdapter()).clearChecked();
+        }
+    }
 }
@@ -0,0 +1,196 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.app.Application;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jonathan.mason.birdcalllibrarian.Analysis.FilePcmSource;
+import jonathan.mason.birdcalllibrarian.Analysis.PcmDecoder;
+import jonathan.mason.birdcalllibrarian.Analysis.PcmSource;
+import jonathan.mason.birdcalllibrarian.Analysis.WaveformPeaks;
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallDatabase;
+import jonathan.mason.birdcalllibrarian.Database.RecordingSegment;
+import jonathan.mason.birdcalllibrarian.Database.RecordingStore;
+
+/**
+ * Background job computing summaries of the waveforms of birdcalls saved before they were
+ * computed at save time; a singleton.
+ * <p>Birdcalls are worked through in batches, in order of ID, as BACKGROUND tasks of
+ * TaskScheduler, so that the job never holds up the user. Peaks of each batch are computed in
+ * the READ lane, then written in the WRITE lane in a single transaction, so the list of
+ * birdcalls is reloaded once per batch, not once per birdcall, before the next batch is
+ * started.</p>
+ */
+public class PeaksBackfill {
+    /**
+     * Number of birdcalls whose peaks are computed before being written to database.
+     */
+    private static final int BATCH_SIZE = 8;
+
+    private final static Object LOCK = new Object();
+    private static PeaksBackfill mInstance = null;
+
+    private final Application mApplication;
+    private boolean mStarted;
+
+    /**
+     * Implement singleton, creating single instance of backfill job, if not created, or simply
+     * retrieving previously created instance.
+     * @param application The application.
+     * @return Backfill job.
+     */
+    public static PeaksBackfill getInstance(Application application) {
+        if (mInstance == null) {
+            synchronized (LOCK) {
+                if (mInstance == null)
+                    mInstance = new PeaksBackfill(application);
+            }
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Compute summary of waveform of recording, decoding compressed recording into temporary
+     * file first.
+     * <p>Must be called on separate thread.</p>
+     * @param context Context with which to find cache directory.
+     * @param files Files of recording, in order of playing.
+     * @param codec Codec of recording, e.g. Birdcall.CODEC_AMR_NB_3GP.
+     * @return Summary from WaveformPeaks.
+     * @throws IOException Thrown if recording could not be read or decoded.
+     */
+    public static byte[] computePeaks(Context context, List<File> files, String codec) throws IOException {
+        if (Birdcall.CODEC_PCM_WAV.equals(codec)) {
+            try (PcmSource source = FilePcmSource.openWav(files)) {
+                return WaveformPeaks.compute(source);
+            }
+        }
+
+        File decodedFile = File.createTempFile("peaks", ".pcm", context.getCacheDir());
+        try {
+            int sampleRate = PcmDecoder.decode(files, decodedFile);
+            try (PcmSource source = FilePcmSource.openRaw(decodedFile, sampleRate)) {
+                return WaveformPeaks.compute(source);
+            }
+        } finally {
+            decodedFile.delete();
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param application The application.
+     */
+    private PeaksBackfill(Application application) {
+        mApplication = application;
+    }
+
+    /**
+     * Start job, unless already started during lifetime of app.
+     * <p>Must be called on main user interface thread.</p>
+     */
+    public void start() {
+        if (mStarted)
+            return;
+        mStarted = true;
+
+        this.computeBatch(-1);
+    }
+
+    /**
+     * Compute peaks of next batch of birdcalls without them, in READ lane, then write them.
+     * @param lastId ID of last birdcall of previous batch, or -1 for first batch.
+     */
+    private void computeBatch(int lastId) {
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.READ, TaskScheduler.Priority.BACKGROUND, new TaskScheduler.Task<Void>() {
+            /**
+             * Compute peaks of batch.
+             * <p>Run on thread of READ lane.</p>
+             * @return Nothing.
+             */
+            @Override
+            protected Void run() {
+                BirdcallDatabase database = BirdcallDatabase.getInstance(mApplication);
+                RecordingStore recordingStore = RecordingStore.getInstance(mApplication);
+
+                // Stop once all birdcalls have peaks.
+                List<Birdcall> birdcalls = database.DAO().findBirdcallsWithoutPeaks(lastId, BATCH_SIZE);
+                if (birdcalls.isEmpty())
+                    return null;
+
+                List<byte[]> peaks = new ArrayList<>();
+                for (Birdcall birdcall : birdcalls)
+                    peaks.add(computeBirdcallPeaks(database, recordingStore, birdcall));
+                writeBatch(birdcalls, peaks);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Write peaks of batch of birdcalls in WRITE lane, in a single transaction, then start
+     * next batch.
+     * <p>Run on thread of READ lane.</p>
+     * @param birdcalls Birdcalls of batch, in order of ID.
+     * @param peaks Peaks of each birdcall.
+     */
+    private void writeBatch(List<Birdcall> birdcalls, List<byte[]> peaks) {
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.BACKGROUND, new TaskScheduler.Task<Void>() {
+            /**
+             * Write peaks of batch.
+             * <p>Run on thread of WRITE lane.</p>
+             * @return Nothing.
+             */
+            @Override
+            protected Void run() {
+                BirdcallDatabase database = BirdcallDatabase.getInstance(mApplication);
+                database.runInTransaction(new Runnable() {
+                    /**
+                     * Task to be executed within transaction.
+                     */
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < birdcalls.size(); i++)
+                            database.DAO().updatePeaks(birdcalls.get(i).getId(), peaks.get(i));
+                    }
+                });
+
+                computeBatch(birdcalls.get(birdcalls.size() - 1).getId());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Compute peaks of birdcall, including any further segments.
+     * <p>Run on thread of READ lane.</p>
+     * @param database Birdcall database.
+     * @param recordingStore Store holding recording.
+     * @param birdcall Birdcall whose peaks to compute.
+     * @return Summary from WaveformPeaks, or empty if recording could not be read, so that it
+     * is not tried again.
+     */
+    private byte[] computeBirdcallPeaks(BirdcallDatabase database, RecordingStore recordingStore, Birdcall birdcall) {
+        if (birdcall.getRecordingHash() == null)
+            return new byte[0];
+
+        List<File> files = new ArrayList<>();
+        files.add(recordingStore.getFile(birdcall.getRecordingHash()));
+        for (RecordingSegment segment : database.DAO().findSegments(birdcall.getId()))
+            files.add(recordingStore.getFile(segment.getRecordingHash()));
+
+        try {
+            return computePeaks(mApplication, files, birdcall.getRecordingCodec());
+        } catch (IOException e) {
+            Log.e(PeaksBackfill.class.getSimpleName(), "computeBirdcallPeaks: unable to read recording of birdcall " + birdcall.getId() + ".", e);
+            return new byte[0];
+        }
+    }
+}
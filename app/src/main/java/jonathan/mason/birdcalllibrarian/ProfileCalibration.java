@@ -0,0 +1,212 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.content.Context;
+import android.media.MediaRecorder;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jonathan.mason.birdcalllibrarian.Capture.CpuTimedEncoder;
+import jonathan.mason.birdcalllibrarian.Capture.PcmCaptureEngine;
+import jonathan.mason.birdcalllibrarian.Capture.RecordingProfile;
+
+/**
+ * Measurement of recording profiles on this device, recording a short clip with each, in
+ * turn, then reporting bytes written per second, and processor time spent encoding.
+ * <p>Clips are recorded by a USER task in the CODEC lane of TaskScheduler, and deleted once
+ * measured. Processor time is that of the encoder thread of PcmCaptureEngine, from
+ * CpuTimedEncoder, so it is only reported for profiles encoded within app: MediaCodec and
+ * MediaRecorder encode in the media codec service, so their cost cannot be measured.</p>
+ */
+public class ProfileCalibration {
+    /**
+     * Duration of clip recorded with each profile.
+     */
+    public static final int CLIP_SECONDS = 5;
+
+    /**
+     * Listener to be told of measurements.
+     */
+    public interface Listener {
+        /**
+         * Handle completion of measurements.
+         * <p>Called on main user interface thread.</p>
+         * @param report Report, one line per profile.
+         */
+        void onCalibrated(String report);
+    }
+
+    /**
+     * Private constructor, since only static methods.
+     */
+    private ProfileCalibration() {
+    }
+
+    /**
+     * Record clip with each profile, in turn, and report measurements.
+     * <p>Microphone must not be in use by anything else.</p>
+     * @param context Context with which to record.
+     * @param listener Listener to be told of measurements.
+     */
+    public static void calibrate(Context context, Listener listener) {
+        Context applicationContext = context.getApplicationContext();
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.CODEC, TaskScheduler.Priority.USER, new TaskScheduler.Task<String>() {
+            /**
+             * Record and measure clip with each profile.
+             * <p>Run on thread of CODEC lane.</p>
+             * @return Report, one line per profile.
+             */
+            @Override
+            protected String run() {
+                String[] names = applicationContext.getResources().getStringArray(R.array.recording_profile_entries);
+                StringBuilder report = new StringBuilder();
+                for (RecordingProfile profile : RecordingProfile.values()) {
+                    if (report.length() > 0)
+                        report.append('\n');
+                    report.append(measure(applicationContext, profile, names[profile.ordinal()]));
+                }
+                return report.toString();
+            }
+
+            /**
+             * Pass report to listener.
+             * @param report Report, one line per profile.
+             */
+            @Override
+            protected void onComplete(String report) {
+                listener.onCalibrated(report);
+            }
+        });
+    }
+
+    /**
+     * Record and measure clip with supplied profile.
+     * <p>Run on thread of CODEC lane.</p>
+     * @param context Context with which to record.
+     * @param profile Profile with which to record.
+     * @param name Name of profile, as shown in settings.
+     * @return Line of report about profile.
+     */
+    private static String measure(Context context, RecordingProfile profile, String name) {
+        List<File> files = new ArrayList<>();
+        try {
+            long bytesPerSecond;
+            String line;
+            if (profile.isRecordedByMediaRecorder()) {
+                long durationMillis = recordWithMediaRecorder(context, profile, files);
+                bytesPerSecond = getSize(files) * 1000 / Math.max(1, durationMillis);
+                line = context.getString(R.string.calibration_report_external_encoder, name, bytesPerSecond);
+            }
+            else {
+                CpuTimedEncoder encoder = recordWithCaptureEngine(context, profile, files);
+                long durationMillis = encoder.getSampleCount() * 1000 / profile.getSampleRate();
+                bytesPerSecond = getSize(files) * 1000 / Math.max(1, durationMillis);
+                if (profile.isEncodedInApp()) {
+                    long cpuMillis = encoder.getCpuTimeNanos() / 1000000;
+                    line = context.getString(R.string.calibration_report, name, bytesPerSecond, cpuMillis, 100.0 * cpuMillis / Math.max(1, durationMillis));
+                }
+                else {
+                    // Encoder thread only queues samples for MediaCodec, so its time would mislead.
+                    line = context.getString(R.string.calibration_report_external_encoder, name, bytesPerSecond);
+                }
+            }
+            Log.i(ProfileCalibration.class.getSimpleName(), "measure: " + line);
+            return line;
+        } catch (IOException | RuntimeException e) {
+            Log.e(ProfileCalibration.class.getSimpleName(), "measure: unable to record with profile " + profile.getKey() + ".", e);
+            return context.getString(R.string.calibration_report_failed, name);
+        } finally {
+            for (File file : files)
+                file.delete();
+        }
+    }
+
+    /**
+     * Record clip with PcmCaptureEngine.
+     * @param context Context with which to record.
+     * @param profile Profile with which to record.
+     * @param files List to which files of clip are added.
+     * @return Encoder, having measured clip.
+     * @throws IOException Thrown if clip could not be recorded.
+     */
+    private static CpuTimedEncoder recordWithCaptureEngine(Context context, RecordingProfile profile, List<File> files) throws IOException {
+        CpuTimedEncoder encoder = new CpuTimedEncoder(profile.createEncoder());
+        PcmCaptureEngine captureEngine = new PcmCaptureEngine(context, profile.getSampleRate(), 0, encoder);
+        captureEngine.startCapture();
+        try {
+            captureEngine.startEncoding(new PcmCaptureEngine.Output() {
+                /**
+                 * Create temporary file to hold clip.
+                 * @param extension Extension of file, including dot.
+                 * @return Temporary file.
+                 * @throws IOException Thrown if file could not be created.
+                 */
+                @Override
+                public File createSegmentFile(String extension) throws IOException {
+                    File file = File.createTempFile("calibration", extension, context.getCacheDir());
+                    files.add(file);
+                    return file;
+                }
+
+                /**
+                 * Handle completion of clip; nothing to do, as it is measured once stopped.
+                 * @param file Temporary file holding clip.
+                 */
+                @Override
+                public void onSegmentCompleted(File file) {
+                }
+            }, Long.MAX_VALUE);
+            SystemClock.sleep(CLIP_SECONDS * 1000);
+        } finally {
+            captureEngine.stop();
+        }
+
+        if (captureEngine.hasFailed())
+            throw new IOException("Capture failed.");
+        return encoder;
+    }
+
+    /**
+     * Record clip with MediaRecorder.
+     * @param context Context with which to record.
+     * @param profile Profile with which to record.
+     * @param files List to which file of clip is added.
+     * @return Duration of clip in milliseconds.
+     * @throws IOException Thrown if clip could not be recorded.
+     */
+    private static long recordWithMediaRecorder(Context context, RecordingProfile profile, List<File> files) throws IOException {
+        File file = File.createTempFile("calibration", ".3gp", context.getCacheDir());
+        files.add(file);
+
+        MediaRecorder mediaRecorder = new MediaRecorder();
+        try {
+            mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+            profile.configure(mediaRecorder);
+            mediaRecorder.setOutputFile(file.getPath());
+            mediaRecorder.prepare();
+            mediaRecorder.start();
+            long start = SystemClock.elapsedRealtime();
+            SystemClock.sleep(CLIP_SECONDS * 1000);
+            mediaRecorder.stop();
+            return SystemClock.elapsedRealtime() - start;
+        } finally {
+            mediaRecorder.release();
+        }
+    }
+
+    /**
+     * Get total size of files.
+     * @param files Files.
+     * @return Total size in bytes.
+     */
+    private static long getSize(List<File> files) {
+        long size = 0;
+        for (File file : files)
+            size += file.length();
+        return size;
+    }
+}
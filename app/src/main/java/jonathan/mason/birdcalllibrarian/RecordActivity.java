@@ -20,6 +20,7 @@ import androidx.fragment.app.FragmentManager;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.WindowManager;
 import android.view.animation.Animation;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -88,6 +89,11 @@ public class RecordActivity extends AppCompatActivity implements View.OnClickLis
             this.createFragment();
         }
 
+        // Automatic recording is left running unattended, but microphone is only available
+        // whilst app is in the foreground, so keep screen on.
+        if (SettingsActivity.getAutoRecordHangSeconds(this) > 0)
+            this.getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+
         // Set default title and date and time.
         mTitle.setText(Birdcall.getDefaultTitle(this));
         mDateAndTime.setText(DateFormat.getInstance().format(new Date()));
@@ -239,6 +245,14 @@ public class RecordActivity extends AppCompatActivity implements View.OnClickLis
         mOnOffAir.setBackgroundColor(this.getResources().getColor(R.color.off_air_background, null)); // Off-air red is duller.
     }
 
+    /**
+     * Override to show that bird activity is being listened for, to record it automatically.
+     */
+    @Override
+    public void onListening() {
+        this.setTitle(getString(R.string.title_activity_listening));
+    }
+
     /**
      * Resume recording animation.
      * <p>Not part of BirdcallRecordingListener, but closely related to its handlers.</p>
@@ -249,6 +263,9 @@ public class RecordActivity extends AppCompatActivity implements View.OnClickLis
             mOnOffAir.setText(getString(R.string.record_on_air));
             mRecordingAnimator.start();
         }
+        else if (mRecordFragment.getRecordingState() == RecordFragment.RecordingStates.Listening) {
+            this.setTitle(getString(R.string.title_activity_listening));
+        }
         else if (mRecordFragment.getRecordingState() == RecordFragment.RecordingStates.Ended)
         {
             this.setTitle(getString(R.string.title_activity_ended));
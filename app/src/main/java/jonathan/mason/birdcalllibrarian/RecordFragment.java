@@ -1,11 +1,13 @@
 package jonathan.mason.birdcalllibrarian;
 
 import android.app.Application;
-import android.appwidget.AppWidgetManager;
 import android.content.Context;
 import android.location.Location;
 import android.media.MediaRecorder;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -34,12 +36,19 @@ import java.io.IOException;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
+import jonathan.mason.birdcalllibrarian.Analysis.ActivityDetector;
+import jonathan.mason.birdcalllibrarian.Capture.PcmCaptureEngine;
+import jonathan.mason.birdcalllibrarian.Capture.RecordingProfile;
 import jonathan.mason.birdcalllibrarian.Database.Birdcall;
 
 /**
- * No-UI fragment, whose instance is to be retained, as a home for a MediaRecorder
- * instance, to allow recording across configuration changes.
+ * No-UI fragment, whose instance is to be retained, as a home for a MediaRecorder or
+ * PcmCaptureEngine instance, to allow recording across configuration changes.
  * <p>See https://knowledge.udacity.com/questions/199426.</p>
+ * <p>If automatic recording is on in settings, the fragment listens instead, with an
+ * ActivityDetector tapping its PcmCaptureEngine, and records each burst of bird activity as a
+ * birdcall of its own, starting with the pre-roll before it was detected, and stopping once
+ * the hang time has passed without activity, so that it can be left running unattended.</p>
  */
 public class RecordFragment extends Fragment implements MediaRecorder.OnInfoListener, MediaRecorder.OnErrorListener {
     /**
@@ -51,6 +60,11 @@ public class RecordFragment extends Fragment implements MediaRecorder.OnInfoList
          */
         NotStarted,
 
+        /**
+         * Listening for bird activity, to start recording automatically.
+         */
+        Listening,
+
         /**
          * Recording in progress.
          */
@@ -75,6 +89,11 @@ public class RecordFragment extends Fragment implements MediaRecorder.OnInfoList
          * Handle stop of recording.
          */
         void onRecordingStopped();
+
+        /**
+         * Handle start of listening for bird activity, to record automatically.
+         */
+        void onListening();
     }
 
     /**
@@ -83,13 +102,39 @@ public class RecordFragment extends Fragment implements MediaRecorder.OnInfoList
     public static final String TAG = "RECORD";
 
     /**
-     * Maximum size of recording in bytes.
-     * <p>For audio quality used, this allowed a recording of approximately 10 minutes.</p>
+     * Size of each segment of recording in bytes, after which recording rolls over to a new
+     * segment.
+     * <p>For audio quality used, this allows a segment of approximately 10 minutes.</p>
+     */
+    public static final int SEGMENT_SIZE_BYTES = 1000000;
+
+    /**
+     * Duration of each segment of recording made by PcmCaptureEngine, after which recording
+     * rolls over to a new segment.
      */
-    public static final int MAX_FILESIZE_BYTES = 1000000;
+    public static final int PCM_SEGMENT_SECONDS = 600;
+
+    /**
+     * Minimum pre-roll of automatic recording, so that the start of a call, before it was
+     * detected, is not lost.
+     */
+    public static final int AUTO_RECORD_PRE_ROLL_SECONDS = 2;
 
     private MediaRecorder mMediaRecorder;
+    private PcmCaptureEngine mCaptureEngine;
+    private SegmentedRecording mRecording;
+    private RecordingProfile mRecordingProfile;
     private String mTemporaryFilename;
+    private String mNextTemporaryFilename;
+    private ActivityDetector mActivityDetector;
+    private Handler mHandler;
+    private Runnable mActivityStartedTask;
+    private Runnable mActivityEndedTask;
+    private Runnable mEncodingStoppedTask;
+    private Date mRecordingDate;
+    private SegmentedRecording mStoppedRecording;
+    private Date mStoppedRecordingDate;
+    private boolean mActivityStartPending;
     private double mLatitude;
     private double mLongitude;
     private Boolean mLocationRetrieved;
@@ -302,24 +347,58 @@ public class RecordFragment extends Fragment implements MediaRecorder.OnInfoList
     }
 
     /**
-     * Create and initialise MediaRecorder and start recording.
-     * <p>For details of audio formats etc., see: https://developer.android.com/guide/topics/media/media-formats.html</p>
+     * Get engine capturing PCM frames, to tap them whilst recording.
+     * @return Capture engine, or null if recording with MediaRecorder, or not recording.
+     */
+    public PcmCaptureEngine getCaptureEngine() {
+        return mCaptureEngine;
+    }
+
+    /**
+     * Start recording, in segments, with PcmCaptureEngine of ListeningSession, including its
+     * pre-roll, if listening, otherwise with recording profile selected in settings: with a new
+     * PcmCaptureEngine, falling back to MediaRecorder if it is unavailable, or with
+     * MediaRecorder.
+     * <p>If automatic recording is on in settings, start listening for bird activity instead.</p>
      */
     private void startRecording() {
         if(mRecordingState == RecordingStates.NotStarted) {
-            if (mMediaRecorder == null) {
-                mMediaRecorder = new MediaRecorder();
-                mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-                mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.THREE_GPP);
-                mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AMR_NB);
-                mMediaRecorder.setOnInfoListener(this);
-                mMediaRecorder.setMaxFileSize(MAX_FILESIZE_BYTES);
+            if ((mMediaRecorder == null) && (mCaptureEngine == null)) {
+                if (SettingsActivity.getAutoRecordHangSeconds(this.getContext()) > 0) {
+                    this.startListening();
+                    return;
+                }
+
+                ListeningSession listeningSession = ListeningSession.getInstance(this.getActivity().getApplication());
+                PcmCaptureEngine listeningCaptureEngine = listeningSession.takeCaptureEngine();
+                if (listeningCaptureEngine != null) {
+                    mRecordingProfile = listeningSession.getRecordingProfile();
+                    this.startEncoding(listeningCaptureEngine);
+                    mRecordingState = RecordingStates.Started;
+                    mBirdcallRecordingListener.onRecordingStarted();
+                    return;
+                }
+
+                RecordingProfile recordingProfile = SettingsActivity.getRecordingProfile(this.getContext());
+                if (!recordingProfile.isRecordedByMediaRecorder()) {
+                    try {
+                        PcmCaptureEngine captureEngine = recordingProfile.createCaptureEngine(this.getContext(), 0);
+                        captureEngine.startCapture();
+                        mRecordingProfile = recordingProfile;
+                        this.startEncoding(captureEngine);
+                        mRecordingState = RecordingStates.Started;
+                        mBirdcallRecordingListener.onRecordingStarted();
+                        return;
+                    } catch (IOException e) {
+                        Log.e(RecordFragment.class.getSimpleName(), "startRecording: PCM capture unavailable.", e);
+                        Toast.makeText(this.getContext(), this.getString(R.string.error_pcm_capture_unavailable), Toast.LENGTH_LONG).show();
+                    }
+                }
 
                 try {
-                    mTemporaryFilename = File.createTempFile(Birdcall.TEMP_FILE_PREFIX, ".3gp", this.getContext().getCacheDir()).getPath();
-                    mMediaRecorder.setOutputFile(mTemporaryFilename);
-                    mMediaRecorder.prepare();
-                    mMediaRecorder.start(); // Recording is now about to start.
+                    mRecordingProfile = recordingProfile.getMediaRecorderProfile();
+                    mRecording = new SegmentedRecording(this.getContext(), mRecordingProfile.getCodec());
+                    this.startMediaRecorder();
                     mRecordingState = RecordingStates.Started;
                     mBirdcallRecordingListener.onRecordingStarted();
                 } catch (IOException e) {
@@ -331,48 +410,361 @@ public class RecordFragment extends Fragment implements MediaRecorder.OnInfoList
     }
 
     /**
-     * Stop recording, release MediaRecorder, save birdcall to database and
-     * close RecordActivity screen.
+     * Start listening for bird activity with PcmCaptureEngine of ListeningSession, if listening,
+     * otherwise with a new PcmCaptureEngine, keeping enough pre-roll for the start of each call.
      */
-    public void stopRecording() {
-        if(mMediaRecorder != null) {
-            mMediaRecorder.stop();
-            mMediaRecorder.reset();
+    private void startListening() {
+        Context context = this.getContext();
+        ListeningSession listeningSession = ListeningSession.getInstance(this.getActivity().getApplication());
+        PcmCaptureEngine captureEngine = listeningSession.takeCaptureEngine();
+        RecordingProfile recordingProfile = listeningSession.getRecordingProfile();
+        if (captureEngine == null) {
+            int preRollSeconds = Math.max(SettingsActivity.getPreRollSeconds(context), AUTO_RECORD_PRE_ROLL_SECONDS);
+            recordingProfile = SettingsActivity.getRecordingProfile(context).getCaptureProfile();
+            captureEngine = recordingProfile.createCaptureEngine(context, preRollSeconds);
+            try {
+                captureEngine.startCapture();
+            } catch (IOException e) {
+                Log.e(RecordFragment.class.getSimpleName(), "startListening: PCM capture unavailable.", e);
+                Toast.makeText(context, this.getString(R.string.error_pcm_capture_unavailable), Toast.LENGTH_LONG).show();
+                return;
+            }
+        }
+        mCaptureEngine = captureEngine;
+        mRecordingProfile = recordingProfile;
+
+        // Detector runs on capture thread, so hands over to main thread, with tasks created
+        // here, rather than for every detection.
+        mHandler = new Handler(Looper.getMainLooper());
+        mActivityStartedTask = new Runnable() {
+            /**
+             * Start recording automatically.
+             */
+            @Override
+            public void run() {
+                onActivityStarted();
+            }
+        };
+        mActivityEndedTask = new Runnable() {
+            /**
+             * Stop recording automatically.
+             */
+            @Override
+            public void run() {
+                onActivityEnded();
+            }
+        };
+        mEncodingStoppedTask = new Runnable() {
+            /**
+             * Save automatic recording, once its last segment has been encoded.
+             */
+            @Override
+            public void run() {
+                onEncodingStopped();
+            }
+        };
+
+        long hangMillis = SettingsActivity.getAutoRecordHangSeconds(context) * 1000L;
+        mActivityDetector = new ActivityDetector(mCaptureEngine.getSampleRate(), ActivityDetector.DEFAULT_FRAME_SIZE,
+                ActivityDetector.DEFAULT_LOW_HZ, ActivityDetector.DEFAULT_HIGH_HZ, hangMillis, new ActivityDetector.Listener() {
+            /**
+             * Handle start of bird activity, on capture thread.
+             */
+            @Override
+            public void onActivityStarted() {
+                mHandler.post(mActivityStartedTask);
+            }
+
+            /**
+             * Handle end of bird activity, on capture thread.
+             */
+            @Override
+            public void onActivityEnded() {
+                mHandler.post(mActivityEndedTask);
+            }
+        });
+        mCaptureEngine.addFrameListener(mActivityDetector);
+
+        mRecordingState = RecordingStates.Listening;
+        mBirdcallRecordingListener.onListening();
+    }
+
+    /**
+     * Handle start of bird activity to start recording automatically, beginning with pre-roll.
+     */
+    private void onActivityStarted() {
+        if (mRecordingState == RecordingStates.Listening) {
+            // Start once last segment of previous recording has been encoded, if it is still
+            // being encoded.
+            if (mStoppedRecording != null) {
+                mActivityStartPending = true;
+                return;
+            }
+
+            this.startAutomaticRecording();
+        }
+    }
+
+    /**
+     * Start encoding automatic recording, dated from start of its pre-roll.
+     */
+    private void startAutomaticRecording() {
+        mRecordingDate = new Date(System.currentTimeMillis() - mCaptureEngine.getPreRollMillis());
+        this.startEncoding(mCaptureEngine);
+        mRecordingState = RecordingStates.Started;
+        mBirdcallRecordingListener.onRecordingStarted();
+    }
+
+    /**
+     * Handle end of bird activity, once hang time has passed, to stop automatic recording,
+     * and go back to listening, whilst its last segment is encoded on encoder thread, rather
+     * than holding up main thread.
+     */
+    private void onActivityEnded() {
+        if ((mRecordingState == RecordingStates.Started) && (mActivityDetector != null)) {
+            mStoppedRecording = mRecording;
+            mStoppedRecordingDate = mRecordingDate;
+            mCaptureEngine.stopEncoding(new Runnable() {
+                /**
+                 * Hand over to main thread, once last segment has been encoded, on encoder
+                 * thread.
+                 */
+                @Override
+                public void run() {
+                    mHandler.post(mEncodingStoppedTask);
+                }
+            });
+
+            mRecordingState = RecordingStates.Listening;
+            mBirdcallRecordingListener.onRecordingStopped();
+            mBirdcallRecordingListener.onListening();
+        }
+    }
+
+    /**
+     * Handle last segment of automatic recording having been encoded, to save recording, then
+     * start next recording, if bird activity started again meanwhile.
+     */
+    private void onEncodingStopped() {
+        // Already saved, if recording stopped meanwhile.
+        if (mStoppedRecording == null)
+            return;
+
+        this.saveRecording(mStoppedRecording, mStoppedRecordingDate);
+        mStoppedRecording = null;
+        mStoppedRecordingDate = null;
+
+        // Capture stops if encoding failed, so stop listening too.
+        if (mCaptureEngine.hasFailed()) {
+            mActivityStartPending = false;
+            this.stopRecording();
+            return;
+        }
+
+        if (mActivityStartPending) {
+            mActivityStartPending = false;
+            this.startAutomaticRecording();
+        }
+    }
+
+    /**
+     * Start encoding with supplied capture engine, which is already capturing, with completed
+     * segments stored whilst recording continues.
+     * @param captureEngine Capture engine.
+     */
+    private void startEncoding(PcmCaptureEngine captureEngine) {
+        Context context = this.getContext().getApplicationContext();
+        mRecording = new SegmentedRecording(context, captureEngine.getEncoder().getCodec());
+        mCaptureEngine = captureEngine;
+
+        SegmentedRecording recording = mRecording;
+        mCaptureEngine.startEncoding(new PcmCaptureEngine.Output() {
+            /**
+             * Create temporary file to hold next segment.
+             * @param extension Extension of file, including dot.
+             * @return Temporary file.
+             * @throws IOException Thrown if file could not be created.
+             */
+            @Override
+            public File createSegmentFile(String extension) throws IOException {
+                return File.createTempFile(Birdcall.TEMP_FILE_PREFIX, extension, context.getCacheDir());
+            }
+
+            /**
+             * Handle completion of segment to store it whilst recording continues.
+             * @param file Temporary file holding segment.
+             */
+            @Override
+            public void onSegmentCompleted(File file) {
+                recording.addSegment(file.getPath());
+            }
+        }, (long)PCM_SEGMENT_SECONDS * mCaptureEngine.getSampleRate());
+    }
+
+    /**
+     * Create and initialise MediaRecorder, with recording profile, and start recording first
+     * segment, or next segment if MediaRecorder could not roll over to it.
+     * <p>For details of audio formats etc., see: https://developer.android.com/guide/topics/media/media-formats.html</p>
+     * @throws IOException Thrown if MediaRecorder could not be prepared.
+     */
+    private void startMediaRecorder() throws IOException {
+        mMediaRecorder = new MediaRecorder();
+        mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+        mRecordingProfile.configure(mMediaRecorder);
+        mMediaRecorder.setOnInfoListener(this);
+        mMediaRecorder.setMaxFileSize(SEGMENT_SIZE_BYTES);
+
+        try {
+            mTemporaryFilename = this.createTemporaryFile();
+            mMediaRecorder.setOutputFile(mTemporaryFilename);
+            mMediaRecorder.prepare();
+            mMediaRecorder.start(); // Recording is now about to start.
+        } catch (IOException e) {
             mMediaRecorder.release();
             mMediaRecorder = null;
-            mRecordingState = RecordingStates.Ended;
-            mBirdcallRecordingListener.onRecordingStopped();
+            throw e;
+        }
+    }
+
+    /**
+     * Stop and release MediaRecorder.
+     */
+    private void releaseMediaRecorder() {
+        mMediaRecorder.stop();
+        mMediaRecorder.reset();
+        mMediaRecorder.release();
+        mMediaRecorder = null;
+    }
+
+    /**
+     * Create temporary file to hold segment of recording.
+     * @return Name of temporary file.
+     * @throws IOException Thrown if file could not be created.
+     */
+    private String createTemporaryFile() throws IOException {
+        return File.createTempFile(Birdcall.TEMP_FILE_PREFIX, ".3gp", this.getContext().getCacheDir()).getPath();
+    }
+
+    /**
+     * Stop recording, or listening, release MediaRecorder, save birdcall to database and
+     * close RecordActivity screen.
+     */
+    public void stopRecording() {
+        if((mRecordingState == RecordingStates.Started) || (mRecordingState == RecordingStates.Listening)) {
+            boolean recording = (mRecordingState == RecordingStates.Started);
+
+            // Stop listening for bird activity, forgetting any detection not yet handled.
+            if (mActivityDetector != null) {
+                mCaptureEngine.removeFrameListener(mActivityDetector);
+                mHandler.removeCallbacks(mActivityStartedTask);
+                mHandler.removeCallbacks(mActivityEndedTask);
+                mHandler.removeCallbacks(mEncodingStoppedTask);
+                mActivityStartPending = false;
+                mActivityDetector = null;
+            }
 
-            // Load recording and save to database using AsyncTask (AsyncTask is used
-            // safely as it keeps reference to application context and does not refer
-            // to RecordActivity or RecordFragment).
-            Birdcall birdcall = new Birdcall(null, Birdcall.getDefaultTitle(this.getContext()), new Date(), mLongitude, mLatitude, null, null);
-            new SaveBirdcallAsyncTask(this.getActivity().getApplication(), mTemporaryFilename, birdcall).execute();
+            // Last segment is complete, once capture engine has stopped.
+            if (mCaptureEngine != null) {
+                mCaptureEngine.stop();
+                if (mCaptureEngine.hasFailed())
+                    Toast.makeText(this.getContext(), this.getString(R.string.error_during_recording), Toast.LENGTH_LONG).show();
+                if (mCaptureEngine.getOverrunCount() > 0)
+                    Log.e(RecordFragment.class.getSimpleName(), "stopRecording: " + mCaptureEngine.getOverrunCount() + " block(s) of samples lost.");
+                mCaptureEngine = null;
+            }
 
-            // Tell user location not available.
-            if(mLocationRetrieved == false) {
-                Log.e(RecordFragment.class.getSimpleName(), "stopRecording: location not available.");
-                Toast.makeText(this.getContext(), getString(R.string.error_location_not_available), Toast.LENGTH_LONG).show();
+            // Last segment of automatic recording still being encoded when recording stopped
+            // is complete, once capture engine has stopped.
+            if (mStoppedRecording != null) {
+                this.saveRecording(mStoppedRecording, mStoppedRecordingDate);
+                mStoppedRecording = null;
+                mStoppedRecordingDate = null;
             }
 
-            // Update any widgets to show last recorded birdcall.
-            Widget.updateAllAppWidgets(this.getContext(), AppWidgetManager.getInstance(this.getContext()), birdcall);
+            // Last segment is complete (MediaRecorder may already have been released, if it
+            // could not be restarted for a new segment).
+            if (mMediaRecorder != null) {
+                this.releaseMediaRecorder();
+                mRecording.addSegment(mTemporaryFilename);
+            }
+            if (mNextTemporaryFilename != null) {
+                new File(mNextTemporaryFilename).delete();
+                mNextTemporaryFilename = null;
+            }
+            mRecordingState = RecordingStates.Ended;
+            mBirdcallRecordingListener.onRecordingStopped();
+
+            // Automatic recordings are dated from when bird activity started.
+            if (recording)
+                this.saveRecording(mRecording, (mRecordingDate != null) ? mRecordingDate : new Date());
         }
     }
 
     /**
-     * Handle MediaRecorder warning event to stop recording if it gets too big.
+     * Save birdcall of recording just stopped to database.
+     * @param recording Segments of recording.
+     * @param dateAndTime Date and time of birdcall.
+     */
+    private void saveRecording(SegmentedRecording recording, Date dateAndTime) {
+        // Save birdcall to database, once segments have been stored and waveform summarised,
+        // which also updates any widgets (task keeps reference to application context and does
+        // not refer to RecordActivity or RecordFragment, so is not tied to their lifecycle).
+        Birdcall birdcall = new Birdcall(null, Birdcall.getDefaultTitle(this.getContext()), dateAndTime, mLongitude, mLatitude, null);
+        birdcall.setRecordingProfile(mRecordingProfile.getKey());
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.CODEC, TaskScheduler.Priority.USER, new SaveBirdcallTask(this.getActivity().getApplication(), recording, birdcall));
+
+        // Tell user location not available.
+        if(mLocationRetrieved == false) {
+            Log.e(RecordFragment.class.getSimpleName(), "saveRecording: location not available.");
+            Toast.makeText(this.getContext(), getString(R.string.error_location_not_available), Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Handle MediaRecorder warning events to roll recording over to a new segment, as each
+     * segment fills up, whilst completed segments are stored in the background.
+     * <p>From Android 8 (API 26), MediaRecorder switches to the next file without a gap.
+     * Before that, it stops when segment is full, and is restarted with a new file, leaving
+     * a short gap.</p>
      * @param mr Instance of MediaRecorder; not used.
      * @param what Type of warning.
      * @param extra Extra code; not used.
      */
     @Override
     public void onInfo(MediaRecorder mr, int what, int extra) {
-        if(what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED) {
-            Log.e(RecordFragment.class.getSimpleName(), "onInfo: maximum file size reached.");
-            Toast.makeText(this.getContext(), this.getString(R.string.warning_max_file_size_reached), Toast.LENGTH_LONG).show();
-
-            this.stopRecording();
+        if((what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING) && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)) {
+            // Give MediaRecorder file for next segment, to switch to once segment is full.
+            try {
+                mNextTemporaryFilename = this.createTemporaryFile();
+                mMediaRecorder.setNextOutputFile(new File(mNextTemporaryFilename));
+            } catch (IOException e) {
+                // MediaRecorder will stop once segment is full, and be restarted instead.
+                Log.e(RecordFragment.class.getSimpleName(), "onInfo: unable to set next output file.", e);
+                if (mNextTemporaryFilename != null)
+                    new File(mNextTemporaryFilename).delete();
+                mNextTemporaryFilename = null;
+            }
+        }
+        else if((what == MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED) && (mNextTemporaryFilename != null)) {
+            // Previous segment is complete, so store it whilst recording continues.
+            Log.d(RecordFragment.class.getSimpleName(), "onInfo: rolled over to next segment.");
+            mRecording.addSegment(mTemporaryFilename);
+            mTemporaryFilename = mNextTemporaryFilename;
+            mNextTemporaryFilename = null;
+        }
+        else if(what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED) {
+            // MediaRecorder has stopped without rolling over, so store full segment and
+            // restart it with a new file.
+            Log.d(RecordFragment.class.getSimpleName(), "onInfo: restarting for next segment.");
+            this.releaseMediaRecorder();
+            mRecording.addSegment(mTemporaryFilename);
+            try {
+                this.startMediaRecorder();
+            } catch (IOException e) {
+                Log.e(RecordFragment.class.getSimpleName(), "onInfo: error preparing to record next segment.", e);
+                Toast.makeText(this.getContext(), this.getString(R.string.error_preparing_to_record), Toast.LENGTH_LONG).show();
+                this.stopRecording();
+            }
         }
     }
 
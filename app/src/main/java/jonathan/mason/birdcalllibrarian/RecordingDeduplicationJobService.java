@@ -0,0 +1,284 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jonathan.mason.birdcalllibrarian.Database.BirdcallDatabase;
+import jonathan.mason.birdcalllibrarian.Database.RecordingStore;
+
+/**
+ * One-off job, run whilst device is idle and charging, checking recordings held in
+ * RecordingStore, and deleting those no longer referred to.
+ * <p>Recordings are named after the SHA-256 hash of their contents, so identical recordings
+ * already share one stored file as they are committed. This job checks that each recording
+ * referred to still matches its name, by hashing it again, a batch at a time, as a BACKGROUND
+ * task in the CODEC lane of TaskScheduler. Any that do not have been changed since being
+ * stored, so are logged and flagged as corrupt, but never adopted under a new name. Finally,
+ * recordings no longer referred to at all, and temporary files left by interrupted saves, are
+ * deleted.</p>
+ * <p>Progress is saved after each batch, so a job stopped part way carries on where it left off
+ * next time; once complete, it is not scheduled again.</p>
+ */
+public class RecordingDeduplicationJobService extends JobService {
+    /**
+     * ID of job, unique within app.
+     */
+    private static final int JOB_ID = 3;
+
+    /**
+     * Key of preference holding hash of last recording of last batch.
+     */
+    private static final String LAST_DEDUPLICATED_HASH = "LAST_DEDUPLICATED_HASH";
+
+    /**
+     * Key of preference set once job has completed.
+     */
+    private static final String DEDUPLICATION_COMPLETED = "DEDUPLICATION_COMPLETED";
+
+    /**
+     * Key of preference holding hashes of recordings whose contents no longer match them.
+     */
+    private static final String CORRUPT_RECORDING_HASHES = "CORRUPT_RECORDING_HASHES";
+
+    /**
+     * Number of recordings hashed in each batch.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Time since temporary files were last written after which they are deleted; recordings
+     * are staged one segment at a time as they are made, so are never held this long.
+     */
+    private static final long STALE_TEMPORARY_FILE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    private TaskScheduler.Task<?> mTask;
+    private boolean mStopped;
+
+    /**
+     * Schedule job, unless already scheduled, or already completed.
+     * @param context Context with which to schedule job.
+     */
+    public static void schedule(Context context) {
+        if (PreferenceManager.getDefaultSharedPreferences(context).getBoolean(DEDUPLICATION_COMPLETED, false))
+            return;
+
+        JobScheduler jobScheduler = (JobScheduler)context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if ((jobScheduler == null) || (jobScheduler.getPendingJob(JOB_ID) != null))
+            return;
+
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID, new ComponentName(context, RecordingDeduplicationJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPersisted(false)
+                .build();
+        jobScheduler.schedule(jobInfo);
+    }
+
+    /**
+     * Override to start hashing first batch.
+     * @param params Parameters of job.
+     * @return True, as job carries on running on other threads.
+     */
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        mStopped = false;
+        this.findNextBatch(params);
+        return true;
+    }
+
+    /**
+     * Override to cancel deduplication when device is no longer idle or charging; recordings
+     * of current batch are hashed again next time.
+     * @param params Parameters of job.
+     * @return True, so that job is tried again later.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mStopped = true;
+        if (mTask != null)
+            mTask.cancel();
+        return true;
+    }
+
+    /**
+     * Find hashes of next batch of recordings on thread of READ lane, then hash them, or
+     * delete recordings no longer referred to, if there are none left.
+     * @param params Parameters of job.
+     */
+    private void findNextBatch(JobParameters params) {
+        String lastHash = PreferenceManager.getDefaultSharedPreferences(this).getString(LAST_DEDUPLICATED_HASH, "");
+        mTask = TaskScheduler.getInstance().submit(TaskScheduler.Lane.READ, TaskScheduler.Priority.BACKGROUND, new JobTask<List<String>>(params) {
+            /**
+             * Find hashes of next batch of recordings.
+             * <p>Run on thread of READ lane.</p>
+             * @return Hashes of batch, in order.
+             */
+            @Override
+            protected List<String> run() {
+                return BirdcallDatabase.getInstance(getApplication()).DAO().findRecordingHashes(lastHash, BATCH_SIZE);
+            }
+
+            /**
+             * Hash recordings of batch, or delete recordings no longer referred to, if there
+             * are none left.
+             * @param hashes Hashes of batch.
+             */
+            @Override
+            protected void onComplete(List<String> hashes) {
+                if (hashes.isEmpty())
+                    deleteUnreferencedRecordings(params);
+                else
+                    hashBatch(params, hashes);
+            }
+        });
+    }
+
+    /**
+     * Hash recordings of batch on thread of CODEC lane, flagging any whose contents do not
+     * match their name, then save progress and start next batch.
+     * @param params Parameters of job.
+     * @param hashes Hashes of batch, in order.
+     */
+    private void hashBatch(JobParameters params, List<String> hashes) {
+        mTask = TaskScheduler.getInstance().submit(TaskScheduler.Lane.CODEC, TaskScheduler.Priority.BACKGROUND, new JobTask<List<String>>(params) {
+            /**
+             * Hash recordings of batch.
+             * <p>Run on thread of CODEC lane.</p>
+             * @return Hashes of recordings whose contents do not match them.
+             */
+            @Override
+            protected List<String> run() {
+                RecordingStore recordingStore = RecordingStore.getInstance(getApplication());
+                List<String> corruptHashes = new ArrayList<>();
+                for (String hash : hashes) {
+                    if (this.isCancelled())
+                        break;
+
+                    try {
+                        if (!RecordingStore.computeHash(recordingStore.getFile(hash)).equals(hash)) {
+                            // Left as it is, still referred to by its name, rather than adopting
+                            // contents which are not what was recorded.
+                            Log.e(RecordingDeduplicationJobService.class.getSimpleName(), "run: contents of recording \"" + hash + "\" do not match its name.");
+                            corruptHashes.add(hash);
+                        }
+                    } catch (IOException e) {
+                        // Missing or unreadable, so nothing to check.
+                        Log.e(RecordingDeduplicationJobService.class.getSimpleName(), "run: unable to hash recording \"" + hash + "\".", e);
+                    }
+                }
+                return corruptHashes;
+            }
+
+            /**
+             * Flag recordings whose contents do not match them, save progress, then start next
+             * batch, unless job was stopped.
+             * @param corruptHashes Hashes of recordings whose contents do not match them.
+             */
+            @Override
+            protected void onComplete(List<String> corruptHashes) {
+                SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(getApplication());
+                Set<String> flaggedHashes = new HashSet<>(preferences.getStringSet(CORRUPT_RECORDING_HASHES, Collections.<String>emptySet()));
+                flaggedHashes.addAll(corruptHashes);
+                preferences.edit()
+                        .putStringSet(CORRUPT_RECORDING_HASHES, flaggedHashes)
+                        .putString(LAST_DEDUPLICATED_HASH, hashes.get(hashes.size() - 1))
+                        .apply();
+
+                if (!mStopped)
+                    findNextBatch(params);
+            }
+        });
+    }
+
+    /**
+     * Delete recordings no longer referred to by any birdcall, and stale temporary files, on
+     * thread of WRITE lane, so that no recording is saved meanwhile, then finish job for good.
+     * @param params Parameters of job.
+     */
+    private void deleteUnreferencedRecordings(JobParameters params) {
+        mTask = TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.BACKGROUND, new JobTask<Void>(params) {
+            /**
+             * Delete recordings no longer referred to, and stale temporary files.
+             * <p>Run on thread of WRITE lane.</p>
+             * @return Nothing.
+             */
+            @Override
+            protected Void run() {
+                BirdcallDatabase database = BirdcallDatabase.getInstance(getApplication());
+                RecordingStore recordingStore = RecordingStore.getInstance(getApplication());
+                int deletedCount = 0;
+                long freedSize = 0;
+                for (String hash : recordingStore.listHashes()) {
+                    if (this.isCancelled())
+                        return null;
+
+                    if (database.DAO().countRecordingReferences(hash) == 0) {
+                        File file = recordingStore.getFile(hash);
+                        long size = file.length();
+                        if (file.delete()) {
+                            deletedCount++;
+                            freedSize += size;
+                        }
+                    }
+                }
+                freedSize += recordingStore.deleteStaleTemporaryFiles(System.currentTimeMillis() - STALE_TEMPORARY_FILE_MILLIS);
+
+                PreferenceManager.getDefaultSharedPreferences(getApplication()).edit().putBoolean(DEDUPLICATION_COMPLETED, true).apply();
+                Log.i(RecordingDeduplicationJobService.class.getSimpleName(), "run: deleted " + deletedCount + " recording(s) no longer referred to; freed " + freedSize + " bytes.");
+                return null;
+            }
+
+            /**
+             * Finish job, which is not run again.
+             * @param result Nothing.
+             */
+            @Override
+            protected void onComplete(Void result) {
+                jobFinished(params, false);
+            }
+        });
+    }
+
+    /**
+     * Task of job, finishing job if it fails.
+     * @param <Result> Type of result.
+     */
+    private abstract class JobTask<Result> extends TaskScheduler.Task<Result> {
+        private final JobParameters mParams;
+
+        /**
+         * Constructor.
+         * @param params Parameters of job.
+         */
+        JobTask(JobParameters params) {
+            mParams = params;
+        }
+
+        /**
+         * Log failure, then finish job, to be tried again next time.
+         * @param e Exception thrown by task.
+         */
+        @Override
+        protected void onFailed(Exception e) {
+            super.onFailed(e);
+            jobFinished(mParams, false);
+        }
+    }
+}
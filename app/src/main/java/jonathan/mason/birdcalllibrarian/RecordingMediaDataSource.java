@@ -0,0 +1,223 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.media.MediaDataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Data source for MediaPlayer, reading recording from storage as it is needed, rather
+ * than from memory.
+ * <p>Each read is made at the position asked for, so MediaPlayer can start playing as soon
+ * as it has read the header of the recording, however long it is. How bytes are read is
+ * delegated to a Reader: either positioned reads through a small read-ahead buffer, or a
+ * memory-mapping of the file.</p>
+ * <p>Based on "Implementing your own Android MediaDataSource" by Mark Ian Jackson:
+ * https://medium.com/@jacks205/implementing-your-own-android-mediadatasource-e67adb070731.</p>
+ */
+public class RecordingMediaDataSource extends MediaDataSource {
+    /**
+     * Size of read-ahead buffer.
+     */
+    private static final int READ_AHEAD_BYTES = 32 * 1024;
+
+    /**
+     * Means of reading bytes of recording.
+     */
+    interface Reader {
+        /**
+         * Read up to "size" bytes of data from point specified by "position" into supplied
+         * "buffer" at point specified by "offset".
+         * @param position Point at which to read data; less than size of recording.
+         * @param buffer Buffer into which to write data.
+         * @param offset Point in buffer at which to write data.
+         * @param size Maximum number of bytes to read.
+         * @return Number of bytes read.
+         * @throws IOException Thrown if recording could not be read.
+         */
+        int read(long position, byte[] buffer, int offset, int size) throws IOException;
+    }
+
+    /**
+     * Open recording held in supplied file.
+     * @param file File holding recording.
+     * @param memoryMapped Whether to memory-map file, rather than reading it through
+     * read-ahead buffer.
+     * @return Data source of recording.
+     * @throws IOException Thrown if file could not be opened.
+     */
+    public static RecordingMediaDataSource open(File file, boolean memoryMapped) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            Reader reader = memoryMapped ? new MappedReader(channel) : new ReadAheadReader(channel);
+            return new RecordingMediaDataSource(channel, reader);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private final FileChannel mChannel;
+    private final Reader mReader;
+    private final long mSize;
+
+    /**
+     * Constructor.
+     * @param channel Channel of file holding recording.
+     * @param reader Means of reading bytes of recording.
+     * @throws IOException Thrown if size of file could not be determined.
+     */
+    private RecordingMediaDataSource(FileChannel channel, Reader reader) throws IOException {
+        mChannel = channel;
+        mReader = reader;
+        mSize = channel.size();
+    }
+
+    /**
+     * Read "size" bytes of data from point specified by "position" into supplied "buffer"
+     * at point specified by "offset".
+     * @param position Point at which to read data.
+     * @param buffer Buffer into which to write data.
+     * @param offset Point in buffer at which to write data.
+     * @param size Number of bytes to read.
+     * @return Number of bytes read or -1 on end of data.
+     * @throws IOException Thrown if recording could not be read.
+     */
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        // If position is beyond end of recording, indicate end of data.
+        if (position >= mSize)
+            return -1;
+
+        // If size of data at specified position would go beyond end of data,
+        // adjust size to be read.
+        if ((position + size) > mSize)
+            size = (int)(mSize - position);
+
+        return mReader.read(position, buffer, offset, size);
+    }
+
+    /**
+     * Get total number of bytes of data.
+     * @return Total number of bytes of data.
+     */
+    @Override
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     * Close file holding recording; called by MediaPlayer when released.
+     * @throws IOException Thrown if file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * Reader making positioned reads of file, keeping a small buffer of the bytes following
+     * each read, as MediaPlayer mostly reads sequentially in small amounts.
+     */
+    static class ReadAheadReader implements Reader {
+        private final FileChannel mChannel;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(READ_AHEAD_BYTES);
+        private long mBufferPosition = -1;
+
+        /**
+         * Constructor.
+         * @param channel Channel of file holding recording.
+         */
+        ReadAheadReader(FileChannel channel) {
+            mChannel = channel;
+            mBuffer.limit(0);
+        }
+
+        /**
+         * Read up to "size" bytes of data from point specified by "position" into supplied
+         * "buffer" at point specified by "offset", via read-ahead buffer.
+         * @param position Point at which to read data.
+         * @param buffer Buffer into which to write data.
+         * @param offset Point in buffer at which to write data.
+         * @param size Maximum number of bytes to read.
+         * @return Number of bytes read.
+         * @throws IOException Thrown if recording could not be read.
+         */
+        @Override
+        public synchronized int read(long position, byte[] buffer, int offset, int size) throws IOException {
+            // Bypass buffer for reads too big for it.
+            if (size > mBuffer.capacity())
+                return readFully(mChannel, ByteBuffer.wrap(buffer, offset, size), position);
+
+            // Refill buffer from requested position, if it doesn't hold all of requested bytes.
+            if ((mBufferPosition < 0) || (position < mBufferPosition) || ((position + size) > (mBufferPosition + mBuffer.limit()))) {
+                mBuffer.clear();
+                readFully(mChannel, mBuffer, position);
+                mBuffer.flip();
+                mBufferPosition = position;
+            }
+
+            int start = (int)(position - mBufferPosition);
+            int available = Math.min(size, mBuffer.limit() - start);
+            System.arraycopy(mBuffer.array(), start, buffer, offset, available);
+            return available;
+        }
+
+        /**
+         * Read from channel at specified position until supplied buffer is full, or end of
+         * file is reached.
+         * @param channel Channel of file.
+         * @param buffer Buffer into which to read.
+         * @param position Point in file at which to start reading.
+         * @return Number of bytes read.
+         * @throws IOException Thrown if file could not be read.
+         */
+        private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            int total = 0;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + total);
+                if (read < 0)
+                    break;
+                total += read;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Reader copying bytes from a memory-mapping of file, leaving caching of file to
+     * operating system.
+     */
+    static class MappedReader implements Reader {
+        private final MappedByteBuffer mMapping;
+
+        /**
+         * Constructor.
+         * @param channel Channel of file holding recording.
+         * @throws IOException Thrown if file could not be mapped.
+         */
+        MappedReader(FileChannel channel) throws IOException {
+            mMapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        /**
+         * Read up to "size" bytes of data from point specified by "position" into supplied
+         * "buffer" at point specified by "offset", from mapping.
+         * @param position Point at which to read data.
+         * @param buffer Buffer into which to write data.
+         * @param offset Point in buffer at which to write data.
+         * @param size Maximum number of bytes to read.
+         * @return Number of bytes read.
+         */
+        @Override
+        public synchronized int read(long position, byte[] buffer, int offset, int size) {
+            mMapping.position((int)position);
+            mMapping.get(buffer, offset, size);
+            return size;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.media.MediaPlayer;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+import jonathan.mason.birdcalllibrarian.Database.RecordingSegment;
+import jonathan.mason.birdcalllibrarian.Database.RecordingStore;
+
+/**
+ * Player of recording of birdcall, presenting its segments, if recorded in segments, as one
+ * recording.
+ * <p>Each segment is played by its own MediaPlayer, with the next one prepared in advance
+ * and handed to MediaPlayer.setNextMediaPlayer(), so that segments follow each other without
+ * a gap. Positions are over the whole recording.</p>
+ */
+public class RecordingPlayer implements MediaPlayer.OnCompletionListener, MediaPlayer.OnErrorListener {
+    /**
+     * Listener for notification of end of playing.
+     */
+    public interface Listener {
+        /**
+         * Handle completion of playing last segment.
+         */
+        void onPlaybackCompleted();
+
+        /**
+         * Handle error playing a segment, after which playing stops.
+         * @param what Type of error.
+         * @param extra Extra code about error.
+         */
+        void onPlaybackError(int what, int extra);
+    }
+
+    private final List<File> mFiles;
+    private final long[] mStarts;
+    private final Listener mListener;
+    private MediaPlayer mCurrent;
+    private MediaPlayer mNext;
+    private int mIndex;
+
+    /**
+     * Constructor.
+     * @param recordingStore Store holding recording.
+     * @param birdcall Birdcall to play.
+     * @param segments Further segments of recording of birdcall, in order recorded.
+     * @param listener Listener for notification of end of playing.
+     */
+    public RecordingPlayer(RecordingStore recordingStore, Birdcall birdcall, List<RecordingSegment> segments, Listener listener) {
+        mListener = listener;
+        mFiles = new ArrayList<>();
+        mStarts = new long[segments.size() + 1];
+
+        // Birdcall holds duration of whole recording, so first segment lasts for what the
+        // others don't.
+        long firstDuration = birdcall.getDuration();
+        for (RecordingSegment segment : segments)
+            firstDuration -= segment.getDuration();
+
+        mFiles.add(recordingStore.getFile(birdcall.getRecordingHash()));
+        long start = Math.max(firstDuration, 0);
+        for (int i = 0; i < segments.size(); i++) {
+            mFiles.add(recordingStore.getFile(segments.get(i).getRecordingHash()));
+            mStarts[i + 1] = start;
+            start += segments.get(i).getDuration();
+        }
+    }
+
+    /**
+     * Start playing from specified position.
+     * @param position Position within whole recording, in milliseconds.
+     * @throws IOException Thrown if recording could not be opened.
+     */
+    public void start(int position) throws IOException {
+        // Find segment holding position.
+        mIndex = 0;
+        while ((mIndex + 1 < mStarts.length) && (position >= mStarts[mIndex + 1]))
+            mIndex++;
+
+        mCurrent = this.prepare(mIndex);
+        int positionInSegment = (int)(position - mStarts[mIndex]);
+        if (positionInSegment > 0)
+            mCurrent.seekTo(positionInSegment);
+        mCurrent.start();
+
+        this.prepareNext();
+    }
+
+    /**
+     * Determine whether recording is playing.
+     * @return True if playing, otherwise false.
+     */
+    public boolean isPlaying() {
+        return (mCurrent != null) && mCurrent.isPlaying();
+    }
+
+    /**
+     * Get position of playing.
+     * @return Position within whole recording, in milliseconds.
+     */
+    public int getCurrentPosition() {
+        return (mCurrent == null) ? 0 : (int)(mStarts[mIndex] + mCurrent.getCurrentPosition());
+    }
+
+    /**
+     * Stop playing, releasing MediaPlayers.
+     */
+    public void release() {
+        if (mNext != null) {
+            mNext.release();
+            mNext = null;
+        }
+        if (mCurrent != null) {
+            mCurrent.release();
+            mCurrent = null;
+        }
+    }
+
+    /**
+     * Create MediaPlayer, prepared to play segment at specified index.
+     * @param index Index of segment.
+     * @return Prepared MediaPlayer.
+     * @throws IOException Thrown if segment could not be opened.
+     */
+    private MediaPlayer prepare(int index) throws IOException {
+        MediaPlayer mediaPlayer = new MediaPlayer();
+        try {
+            mediaPlayer.setOnCompletionListener(this);
+            mediaPlayer.setOnErrorListener(this);
+            mediaPlayer.setDataSource(RecordingMediaDataSource.open(mFiles.get(index), false));
+            mediaPlayer.prepare();
+            return mediaPlayer;
+        } catch (IOException e) {
+            mediaPlayer.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Prepare segment following the one playing, if any, to start as soon as it ends.
+     */
+    private void prepareNext() {
+        if (mIndex + 1 < mFiles.size()) {
+            try {
+                mNext = this.prepare(mIndex + 1);
+                mCurrent.setNextMediaPlayer(mNext);
+            } catch (IOException e) {
+                // Playing simply ends with segment playing.
+                Log.e(RecordingPlayer.class.getSimpleName(), "prepareNext: error preparing segment " + (mIndex + 1) + ".", e);
+                mNext = null;
+            }
+        }
+    }
+
+    /***********************************************
+     * Implement MediaPlayer.OnCompletionListener. *
+     ***********************************************/
+
+    /**
+     * Handle completion of playing segment, to move on to next one, which has already
+     * started, or let listener know playing is complete.
+     * @param mp Instance of MediaPlayer.
+     */
+    @Override
+    public void onCompletion(MediaPlayer mp) {
+        if (mp != mCurrent)
+            return;
+
+        mCurrent.release();
+        mCurrent = mNext;
+        mNext = null;
+        if (mCurrent != null) {
+            mIndex++;
+            this.prepareNext();
+        }
+        else {
+            mListener.onPlaybackCompleted();
+        }
+    }
+
+    /******************************************
+     * Implement MediaPlayer.OnErrorListener. *
+     ******************************************/
+
+    /**
+     * Handle MediaPlayer error event, to let listener know.
+     * @param mp Instance of MediaPlayer; not used.
+     * @param what Type of error.
+     * @param extra Extra code about error.
+     * @return True to indicate error handled, so completion is not also reported.
+     */
+    @Override
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        mListener.onPlaybackError(what, extra);
+        return true;
+    }
+}
@@ -0,0 +1,186 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.app.Application;
+import android.appwidget.AppWidgetManager;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallDatabase;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallSummary;
+import jonathan.mason.birdcalllibrarian.Database.RecordingSegment;
+import jonathan.mason.birdcalllibrarian.Database.RecordingStore;
+
+/**
+ * Task to wait for segments of recording to be copied into RecordingStore, and summarise its
+ * waveform, then save birdcall, along with its segments, to database, before updating any
+ * widgets.
+ * <p>To be run in CODEC lane of TaskScheduler, after segments were submitted to WRITE lane,
+ * since summarising waveform decodes recording. Birdcall is then saved by CommitTask, in WRITE
+ * lane, which only commits segments and inserts birdcall, so that the decode never holds up
+ * other writes. Tasks keep reference to application context and do not refer to
+ * RecordActivity or RecordFragment, so they are safely left to finish if they are
+ * destroyed.</p>
+ */
+public class SaveBirdcallTask extends TaskScheduler.Task<String> {
+    Application mApplication;
+    SegmentedRecording mRecording;
+    Birdcall mBirdcall;
+
+    /**
+     * Constructor.
+     * @param application The application.
+     * @param recording Segments of recording, all of which have been added.
+     * @param birdcall Birdcall to be saved to database.
+     */
+    public SaveBirdcallTask(Application application, SegmentedRecording recording, Birdcall birdcall) {
+        mApplication = application;
+        mRecording = recording;
+        mBirdcall = birdcall;
+    }
+
+    /**
+     * Perform task.
+     * <p>Run on thread of CODEC lane.</p>
+     * @return Error message to display to user, or null if birdcall was passed on to be saved.
+     */
+    @Override
+    protected String run() {
+        // Wait for segments to be streamed from their temporary files into recording store,
+        // checking none of them is lost.
+        List<SegmentedRecording.StagedSegment> segments;
+        try {
+            segments = mRecording.awaitSegments();
+        } catch (FileNotFoundException e) {
+            Log.e(RecordFragment.class.getSimpleName(), "run: temporary file not found.", e);
+            return mApplication.getString(R.string.error_temp_file_not_found); // Error message, to display to user.
+        } catch (IOException e) {
+            Log.e(RecordFragment.class.getSimpleName(), "run: problem loading temporary file.", e);
+            return mApplication.getString(R.string.error_loading_temp_file); // Error message, to display to user.
+        }
+
+        // Summarise waveform whilst recording is still to hand, so that listing birdcall never
+        // needs to read it.
+        List<File> files = new ArrayList<>();
+        for (SegmentedRecording.StagedSegment segment : segments)
+            files.add(segment.getRecording().getFile());
+        try {
+            mBirdcall.setPeaks(PeaksBackfill.computePeaks(mApplication, files, mRecording.getCodec()));
+        } catch (IOException e) {
+            // Leave peaks to be computed by PeaksBackfill.
+            Log.e(RecordFragment.class.getSimpleName(), "run: problem summarising waveform.", e);
+        }
+
+        // Submitted from this thread, so waits for room in WRITE lane rather than being rejected.
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.USER, new CommitTask(segments));
+        return null;
+    }
+
+    /**
+     * Let user know if birdcall could not be saved, since its segments were lost.
+     * <p>Run on main user interface thread.</p>
+     * @param message Error message to display to user, or null if birdcall was passed on to be
+     * saved.
+     */
+    @Override
+    protected void onComplete(String message)
+    {
+        if (message != null)
+            Toast.makeText(mApplication, message, Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Task to commit segments of recording to RecordingStore and save birdcall, along with its
+     * segments, to database, before updating any widgets.
+     * <p>To be run in WRITE lane of TaskScheduler.</p>
+     */
+    private class CommitTask extends TaskScheduler.Task<String> {
+        private final List<SegmentedRecording.StagedSegment> mSegments;
+        private BirdcallSummary mLatestBirdcall;
+
+        /**
+         * Constructor.
+         * @param segments Staged segments of recording, in order recorded.
+         */
+        CommitTask(List<SegmentedRecording.StagedSegment> segments) {
+            mSegments = segments;
+        }
+
+        /**
+         * Perform task.
+         * <p>Run on thread of WRITE lane.</p>
+         * @return Concluding message to display to user, either success or error.
+         */
+        @Override
+        protected String run() {
+            List<SegmentedRecording.StagedSegment> segments = mSegments;
+            RecordingStore recordingStore = RecordingStore.getInstance(mApplication);
+            BirdcallDatabase database = BirdcallDatabase.getInstance(mApplication);
+            try {
+                // Commit segments to store and save birdcall, including references to segments,
+                // into database, in the same transaction.
+                database.runInTransaction(new Callable<Void>() {
+                    /**
+                     * Task to be executed within transaction.
+                     * @return Nothing.
+                     * @throws IOException Thrown if a segment could not be committed to store.
+                     */
+                    @Override
+                    public Void call() throws IOException {
+                        List<RecordingStore.StoredRecording> storedSegments = new ArrayList<>();
+                        long size = 0;
+                        long duration = 0;
+                        for (SegmentedRecording.StagedSegment segment : segments) {
+                            RecordingStore.StoredRecording storedSegment = segment.getRecording().commit();
+                            storedSegments.add(storedSegment);
+                            size += storedSegment.getSize();
+                            duration += segment.getDuration();
+                        }
+
+                        // Birdcall refers to first segment, and holds size and duration of whole recording.
+                        mBirdcall.setRecording(storedSegments.get(0).getHash(), size, mRecording.getCodec(), duration);
+                        int id = (int)database.DAO().insert(mBirdcall);
+                        for (int i = 1; i < storedSegments.size(); i++)
+                            database.DAO().insert(new RecordingSegment(id, i, storedSegments.get(i).getHash(), storedSegments.get(i).getSize(), segments.get(i).getDuration()));
+                        return null;
+                    }
+                });
+            } catch (Exception e) {
+                // Birdcall not saved, so don't keep segments committed for it (runInTransaction
+                // rethrows IOException as is).
+                Log.e(RecordFragment.class.getSimpleName(), "run: problem saving birdcall.", e);
+                for (SegmentedRecording.StagedSegment segment : segments)
+                    recordingStore.release(database, segment.getRecording().getHash());
+                return mApplication.getString(R.string.error_saving_birdcall); // Error message, to display to user.
+            } finally {
+                for (SegmentedRecording.StagedSegment segment : segments)
+                    segment.getRecording().discard();
+            }
+
+            mLatestBirdcall = database.DAO().loadLatestSummary();
+            return mApplication.getString(R.string.birdcall_saved); // Success message, to display to user.
+        }
+
+        /**
+         * Let user know birdcall has been successfully saved to database, or if there
+         * was an error, and update any widgets to show last recorded birdcall.
+         * <p>Run on main user interface thread.</p>
+         * @param message Concluding message to display to user, either success or error.
+         */
+        @Override
+        protected void onComplete(String message)
+        {
+            Toast.makeText(mApplication, message, Toast.LENGTH_LONG).show();
+
+            if (mLatestBirdcall != null)
+                Widget.updateAllAppWidgets(mApplication, AppWidgetManager.getInstance(mApplication), mLatestBirdcall);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import jonathan.mason.birdcalllibrarian.Database.RecordingStore;
+
+/**
+ * Segments of a recording, each copied from its temporary file into RecordingStore in
+ * the background as soon as it is complete, whilst recording continues.
+ * <p>Segments are staged, not committed, so that they can be committed along with the
+ * birdcall to which they belong.</p>
+ */
+public class SegmentedRecording {
+    private final RecordingStore mRecordingStore;
+    private final String mCodec;
+    private final List<FutureTask<StagedSegment>> mSegments = new ArrayList<>();
+
+    /**
+     * Constructor.
+     * @param context Context with which to locate RecordingStore.
+     * @param codec Codec of segments, e.g. Birdcall.CODEC_AMR_NB_3GP.
+     */
+    public SegmentedRecording(Context context, String codec) {
+        mRecordingStore = RecordingStore.getInstance(context);
+        mCodec = codec;
+    }
+
+    /**
+     * Get codec of segments.
+     * @return Codec of segments.
+     */
+    public String getCodec() {
+        return mCodec;
+    }
+
+    /**
+     * Add completed segment, to be staged in the background, after which its temporary file
+     * is deleted.
+     * @param temporaryFilename Name of temporary file holding segment.
+     */
+    public synchronized void addSegment(String temporaryFilename) {
+        FutureTask<StagedSegment> task = new FutureTask<>(new Callable<StagedSegment>() {
+            /**
+             * Task to be executed on separate thread.
+             * @return Staged segment.
+             * @throws IOException Thrown if segment could not be staged.
+             */
+            @Override
+            public StagedSegment call() throws IOException {
+                return stageSegment(new File(temporaryFilename));
+            }
+        });
+        mSegments.add(task);
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.USER, new TaskScheduler.Task<Void>() {
+            /**
+             * Stage segment.
+             * <p>Run on thread of WRITE lane.</p>
+             * @return Nothing.
+             */
+            @Override
+            protected Void run() {
+                task.run();
+                return null;
+            }
+
+            /**
+             * Log failure, cancelling staging of segment, and deleting its temporary file, if
+             * task was rejected whilst WRITE lane was full, so that awaitSegments() does not
+             * wait for it forever.
+             * @param e Exception thrown by task.
+             */
+            @Override
+            protected void onFailed(Exception e) {
+                super.onFailed(e);
+                if (task.cancel(false))
+                    new File(temporaryFilename).delete();
+            }
+        });
+    }
+
+    /**
+     * Wait for all segments to be staged.
+     * <p>Must be called on separate thread. If called in WRITE lane of TaskScheduler, segments
+     * must have been added before task was submitted, so that they are staged first.</p>
+     * @return Staged segments, in order recorded, which must be discarded once committed.
+     * @throws IOException Thrown if any segment could not be staged, in which case those that
+     * were have been discarded.
+     */
+    public List<StagedSegment> awaitSegments() throws IOException {
+        List<FutureTask<StagedSegment>> tasks;
+        synchronized (this) {
+            tasks = new ArrayList<>(mSegments);
+        }
+
+        List<StagedSegment> segments = new ArrayList<>();
+        IOException error = null;
+        for (FutureTask<StagedSegment> task : tasks) {
+            try {
+                segments.add(task.get());
+            } catch (ExecutionException e) {
+                if (error == null)
+                    error = (e.getCause() instanceof IOException) ? (IOException)e.getCause() : new IOException(e.getCause());
+            } catch (CancellationException e) {
+                if (error == null)
+                    error = new IOException("Segment was never staged.", e);
+            } catch (InterruptedException e) {
+                if (error == null)
+                    error = new InterruptedIOException("Interrupted waiting for segment to be staged.");
+            }
+        }
+
+        if (error != null) {
+            for (StagedSegment segment : segments)
+                segment.getRecording().discard();
+            throw error;
+        }
+        return segments;
+    }
+
+    /**
+     * Copy segment from supplied temporary file into store, deleting temporary file afterwards.
+     * @param file Temporary file holding segment.
+     * @return Staged segment.
+     * @throws IOException Thrown if segment could not be read or stored.
+     */
+    private StagedSegment stageSegment(File file) throws IOException {
+        if (!file.exists())
+            throw new FileNotFoundException("Temporary file \"" + file.getPath() + "\" not found.");
+
+        try (FileInputStream stream = new FileInputStream(file)) {
+            RecordingStore.StagedRecording stagedRecording = mRecordingStore.stage(stream, file.length());
+            return new StagedSegment(stagedRecording, RecordingStore.getDuration(file));
+        } finally {
+            // Delete temporary file as it is no longer needed.
+            file.delete();
+        }
+    }
+
+    /**
+     * Segment of recording, staged within RecordingStore.
+     */
+    public static class StagedSegment {
+        private final RecordingStore.StagedRecording mRecording;
+        private final long mDuration;
+
+        /**
+         * Constructor.
+         * @param recording Staged recording of segment.
+         * @param duration Duration of segment in milliseconds.
+         */
+        StagedSegment(RecordingStore.StagedRecording recording, long duration) {
+            mRecording = recording;
+            mDuration = duration;
+        }
+
+        /**
+         * Get staged recording of segment.
+         * @return Staged recording.
+         */
+        public RecordingStore.StagedRecording getRecording() {
+            return mRecording;
+        }
+
+        /**
+         * Get duration of segment.
+         * @return Duration of segment in milliseconds.
+         */
+        public long getDuration() {
+            return mDuration;
+        }
+    }
+}
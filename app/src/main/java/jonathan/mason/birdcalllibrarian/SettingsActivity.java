@@ -0,0 +1,189 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+import android.view.MenuItem;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.preference.ListPreference;
+import androidx.preference.Preference;
+import androidx.preference.PreferenceFragmentCompat;
+import androidx.preference.PreferenceManager;
+
+import jonathan.mason.birdcalllibrarian.Capture.RecordingProfile;
+
+/**
+ * Screen of app for changing settings, along with access to them for the rest of the app.
+ * <p>From "Settings", Android Developers: https://developer.android.com/guide/topics/ui/settings.</p>
+ */
+public class SettingsActivity extends AppCompatActivity {
+    /**
+     * Key(s) of settings.
+     */
+    private static final String RECORDING_PROFILE = "recording_profile";
+    private static final String CAPTURE_ENGINE = "capture_engine";
+    private static final String PRE_ROLL_SECONDS = "pre_roll_seconds";
+    private static final String AUTO_RECORD_HANG_SECONDS = "auto_record_hang_seconds";
+
+    /**
+     * Key of preference measuring recording profiles, which is not a setting.
+     */
+    private static final String CALIBRATE_RECORDING_PROFILES = "calibrate_recording_profiles";
+
+    /**
+     * Value of CAPTURE_ENGINE setting, replaced by RECORDING_PROFILE, selecting
+     * PcmCaptureEngine.
+     */
+    private static final String CAPTURE_ENGINE_PCM = "pcm";
+
+    /**
+     * Get profile with which birdcalls are to be recorded.
+     * <p>If not yet chosen, follows the earlier CAPTURE_ENGINE setting: ARCHIVAL for
+     * PcmCaptureEngine, which recorded in WAV, otherwise FIELD_COMPACT.</p>
+     * @param context Context with which to read settings.
+     * @return Recording profile.
+     */
+    public static RecordingProfile getRecordingProfile(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        RecordingProfile profile = RecordingProfile.fromKey(preferences.getString(RECORDING_PROFILE, null));
+        if (profile != null)
+            return profile;
+        return CAPTURE_ENGINE_PCM.equals(preferences.getString(CAPTURE_ENGINE, null)) ? RecordingProfile.ARCHIVAL : RecordingProfile.FIELD_COMPACT;
+    }
+
+    /**
+     * Get duration of pre-roll kept by ListeningSession.
+     * @param context Context with which to read settings.
+     * @return Duration of pre-roll in seconds, or 0 if listening mode is off.
+     */
+    public static int getPreRollSeconds(Context context) {
+        return Integer.parseInt(PreferenceManager.getDefaultSharedPreferences(context).getString(PRE_ROLL_SECONDS, "0"));
+    }
+
+    /**
+     * Get hang time of automatic recording, i.e. how long after bird activity ends that an
+     * automatic recording is stopped.
+     * @param context Context with which to read settings.
+     * @return Hang time in seconds, or 0 if automatic recording is off.
+     */
+    public static int getAutoRecordHangSeconds(Context context) {
+        return Integer.parseInt(PreferenceManager.getDefaultSharedPreferences(context).getString(AUTO_RECORD_HANG_SECONDS, "0"));
+    }
+
+    /**
+     * Perform initialisation of activity, showing settings.
+     * @param savedInstanceState Saved state of activity: not used.
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_settings);
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+
+        // Fragment is restored by itself after configuration change.
+        if (savedInstanceState == null) {
+            getSupportFragmentManager().beginTransaction()
+                    .replace(R.id.settings_container, new SettingsFragment())
+                    .commit();
+        }
+    }
+
+    /**
+     * Override to handle menu selection.
+     * @param item Selected menu item.
+     * @return True if menu selection was handled, otherwise false.
+     */
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            // Run animations when exiting using up button.
+            // From answer to "Shared element transition when using ActionBar Back button" by Pei:
+            // https://stackoverflow.com/questions/37713793/shared-element-transition-when-using-actionbar-back-button.
+            finishAfterTransition();
+            return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Fragment showing settings, which are saved by itself as they are changed.
+     */
+    public static class SettingsFragment extends PreferenceFragmentCompat {
+        /**
+         * Create settings from their XML definition.
+         * @param savedInstanceState Saved state of fragment; not used.
+         * @param rootKey Key of settings screen to show; not used.
+         */
+        @Override
+        public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
+            setPreferencesFromResource(R.xml.preferences, rootKey);
+
+            // Show profile followed from earlier setting, if not yet chosen.
+            ListPreference recordingProfile = findPreference(RECORDING_PROFILE);
+            if (recordingProfile.getValue() == null)
+                recordingProfile.setValue(getRecordingProfile(this.requireContext()).getKey());
+
+            findPreference(CALIBRATE_RECORDING_PROFILES).setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                /**
+                 * Start measuring recording profiles.
+                 * @param preference Preference clicked; not used.
+                 * @return True, as click is handled.
+                 */
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    calibrateRecordingProfiles(preference);
+                    return true;
+                }
+            });
+        }
+
+        /**
+         * Measure recording profiles, disabling preference whilst clips are recorded, then show
+         * report.
+         * @param preference Preference starting measurement.
+         */
+        private void calibrateRecordingProfiles(Preference preference) {
+            Context context = this.requireContext();
+            if (context.checkSelfPermission(Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+                Toast.makeText(context, this.getString(R.string.error_calibration_permission), Toast.LENGTH_LONG).show();
+                return;
+            }
+
+            // Clips can only be recorded whilst nothing else is using microphone.
+            ListeningSession listeningSession = ListeningSession.getInstance(this.requireActivity().getApplication());
+            listeningSession.stop();
+            preference.setEnabled(false);
+            preference.setSummary(this.getString(R.string.settings_calibrate_recording_profiles_running, ProfileCalibration.CLIP_SECONDS * RecordingProfile.values().length));
+            ProfileCalibration.calibrate(context, new ProfileCalibration.Listener() {
+                /**
+                 * Show report of measurements.
+                 * @param report Report, one line per profile.
+                 */
+                @Override
+                public void onCalibrated(String report) {
+                    listeningSession.startIfEnabled();
+                    if (!isAdded())
+                        return;
+
+                    preference.setEnabled(true);
+                    preference.setSummary(R.string.settings_calibrate_recording_profiles_summary);
+                    new AlertDialog.Builder(requireContext())
+                            .setTitle(R.string.settings_calibrate_recording_profiles)
+                            .setMessage(report)
+                            .setPositiveButton(android.R.string.ok, null)
+                            .show();
+                }
+            });
+        }
+    }
+}
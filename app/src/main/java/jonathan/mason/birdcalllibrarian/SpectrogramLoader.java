@@ -0,0 +1,373 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.lifecycle.LifecycleOwner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jonathan.mason.birdcalllibrarian.Analysis.FilePcmSource;
+import jonathan.mason.birdcalllibrarian.Analysis.PcmDecoder;
+import jonathan.mason.birdcalllibrarian.Analysis.PcmSource;
+import jonathan.mason.birdcalllibrarian.Analysis.SpectrogramCache;
+import jonathan.mason.birdcalllibrarian.Analysis.SpectrogramEngine;
+import jonathan.mason.birdcalllibrarian.Analysis.SpectrogramTile;
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+import jonathan.mason.birdcalllibrarian.Database.RecordingSegment;
+import jonathan.mason.birdcalllibrarian.Database.RecordingStore;
+
+/**
+ * Loader of spectrogram tiles of a birdcall for SpectrogramView, taking them from
+ * SpectrogramCache where possible, and otherwise computing them with SpectrogramEngine, as
+ * USER tasks in READ lane of TaskScheduler, cancelled if lifecycle owner is destroyed.
+ * <p>Only tiles still in view when their turn comes are loaded, so scrolling quickly along a
+ * long recording does not queue up tiles which are no longer wanted. Compressed recordings are
+ * only decoded once a tile is found not to be cached, just once, in CODEC lane, whilst tiles
+ * needing it wait to be requested again.</p>
+ * <p>Tiles are computed one at a time, holding loader's lock, as they share its source of
+ * samples, but the lock is never held whilst decoding.</p>
+ * <p>Must be used on main user interface thread.</p>
+ */
+public class SpectrogramLoader implements SpectrogramView.TileRequester {
+    /**
+     * Listener for notification of loading.
+     */
+    public interface Listener {
+        /**
+         * Handle opening of recording, once length of spectrogram is known.
+         * @param columnCount Number of columns of spectrogram.
+         * @param columnsPerTile Number of columns in each tile.
+         * @param binCount Number of bins in each column.
+         */
+        void onSpectrogramOpened(long columnCount, int columnsPerTile, int binCount);
+
+        /**
+         * Handle loading of tile.
+         * @param tile Loaded tile.
+         */
+        void onTileLoaded(SpectrogramTile tile);
+    }
+
+    private final Context mContext;
+    private final int mBirdcallId;
+    private final String mCodec;
+    private final long mDuration;
+    private final List<File> mFiles;
+    private final Listener mListener;
+    private final LifecycleOwner mOwner;
+    private final SpectrogramEngine mEngine = new SpectrogramEngine();
+    private final SpectrogramCache mCache;
+    private final Set<Integer> mRequested = new HashSet<>();
+    private final Set<Integer> mAwaitingSource = new HashSet<>();
+    private boolean mDecoding;
+    private volatile int mFirstVisibleTile;
+    private volatile int mLastVisibleTile = -1;
+    private volatile boolean mReleased;
+
+    private volatile long mSampleCount;
+
+    // Used whilst holding loader's lock only.
+    private PcmSource mSource;
+    private File mDecodedFile;
+
+    /**
+     * Constructor.
+     * @param context Context with which to find recording store and cache.
+     * @param birdcall Birdcall whose spectrogram to load.
+     * @param segments Further segments of recording of birdcall, in order recorded.
+     * @param listener Listener for notification of loading.
+     * @param owner Lifecycle owner, on whose destruction loading is cancelled.
+     */
+    public SpectrogramLoader(Context context, Birdcall birdcall, List<RecordingSegment> segments, Listener listener, LifecycleOwner owner) {
+        mContext = context.getApplicationContext();
+        mOwner = owner;
+        mBirdcallId = birdcall.getId();
+        mCodec = birdcall.getRecordingCodec();
+        mDuration = birdcall.getDuration();
+        mListener = listener;
+        mCache = SpectrogramCache.getInstance(mContext);
+
+        RecordingStore recordingStore = RecordingStore.getInstance(mContext);
+        mFiles = new ArrayList<>();
+        mFiles.add(recordingStore.getFile(birdcall.getRecordingHash()));
+        for (RecordingSegment segment : segments)
+            mFiles.add(recordingStore.getFile(segment.getRecordingHash()));
+    }
+
+    /**
+     * Open recording, to find length of spectrogram.
+     */
+    public void open() {
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.READ, TaskScheduler.Priority.USER, new TaskScheduler.Task<Long>() {
+            /**
+             * Find number of columns of spectrogram.
+             * <p>Run on thread of READ lane.</p>
+             * @return Number of columns.
+             * @throws IOException Thrown if recording could not be opened.
+             */
+            @Override
+            protected Long run() throws IOException {
+                mSampleCount = getSampleCount();
+                return mEngine.getColumnCount(mSampleCount);
+            }
+
+            /**
+             * Handle opening of recording.
+             * @param columnCount Number of columns of spectrogram.
+             */
+            @Override
+            protected void onComplete(Long columnCount) {
+                if (!mReleased)
+                    mListener.onSpectrogramOpened(columnCount, mEngine.getColumnsPerTile(), mEngine.getBinCount());
+            }
+
+            /**
+             * Handle failure to open recording.
+             * @param e Exception thrown opening recording.
+             */
+            @Override
+            protected void onFailed(Exception e) {
+                Log.e(SpectrogramLoader.class.getSimpleName(), "open: unable to open recording.", e);
+            }
+        }, mOwner);
+    }
+
+    /**
+     * Stop loading and release recording.
+     */
+    public void release() {
+        mReleased = true;
+
+        // Not on behalf of owner, which may already be destroyed, so that source is always closed.
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.READ, TaskScheduler.Priority.USER, new TaskScheduler.Task<Void>() {
+            /**
+             * Close source of samples.
+             * <p>Run on thread of READ lane.</p>
+             * @return Nothing.
+             */
+            @Override
+            protected Void run() {
+                synchronized (SpectrogramLoader.this) {
+                    closeSource();
+                }
+                return null;
+            }
+        });
+    }
+
+    /********************************************
+     * Implement SpectrogramView.TileRequester. *
+     ********************************************/
+
+    /**
+     * Handle change of tiles in view, so that tiles out of view are no longer loaded.
+     * @param firstTile Index of first tile in view.
+     * @param lastTile Index of last tile in view.
+     */
+    @Override
+    public void onVisibleTilesChanged(int firstTile, int lastTile) {
+        mFirstVisibleTile = firstTile;
+        mLastVisibleTile = lastTile;
+    }
+
+    /**
+     * Handle request for tile in view, loading it, unless already being loaded.
+     * @param tileIndex Index of tile.
+     */
+    @Override
+    public void onTileNeeded(int tileIndex) {
+        if (mReleased || !mRequested.add(tileIndex))
+            return;
+
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.READ, TaskScheduler.Priority.USER, new TaskScheduler.Task<SpectrogramTile>() {
+            private boolean mNeedsSource;
+
+            /**
+             * Load tile, if still in view.
+             * <p>Run on thread of READ lane.</p>
+             * @return Tile, or null if not loaded.
+             */
+            @Override
+            protected SpectrogramTile run() {
+                if (mReleased || (tileIndex < mFirstVisibleTile) || (tileIndex > mLastVisibleTile))
+                    return null;
+
+                SpectrogramTile tile = mCache.get(mBirdcallId, tileIndex);
+                if (tile != null)
+                    return tile;
+
+                synchronized (SpectrogramLoader.this) {
+                    if (mSource == null) {
+                        mNeedsSource = true;
+                        return null;
+                    }
+                    return computeTile(tileIndex);
+                }
+            }
+
+            /**
+             * Handle loading of tile, decoding recording if tile needs it.
+             * @param tile Tile, or null if not loaded.
+             */
+            @Override
+            protected void onComplete(SpectrogramTile tile) {
+                if (mNeedsSource && !mReleased) {
+                    // Remains requested until recording is decoded.
+                    mAwaitingSource.add(tileIndex);
+                    decodeSource();
+                    return;
+                }
+
+                // Tile not loaded may be requested again, once back in view.
+                mRequested.remove(tileIndex);
+                if (!mReleased && (tile != null))
+                    mListener.onTileLoaded(tile);
+            }
+
+            /**
+             * Log failure, including rejection whilst READ lane is full, so that tile may be
+             * requested again.
+             * @param e Exception thrown by task.
+             */
+            @Override
+            protected void onFailed(Exception e) {
+                super.onFailed(e);
+                mRequested.remove(tileIndex);
+            }
+        }, mOwner);
+    }
+
+    /**
+     * Decode compressed recording into temporary file, as source of samples, in CODEC lane,
+     * unless already decoding, then request tiles awaiting it again.
+     * <p>If recording cannot be decoded, it is not tried again, and tiles needing it are left
+     * blank.</p>
+     */
+    private void decodeSource() {
+        if (mDecoding)
+            return;
+        mDecoding = true;
+
+        TaskScheduler.getInstance().submit(TaskScheduler.Lane.CODEC, TaskScheduler.Priority.USER, new TaskScheduler.Task<Void>() {
+            /**
+             * Decode recording, then share it with tasks computing tiles, unless loader has
+             * since been released.
+             * <p>Run on thread of CODEC lane.</p>
+             * @return Nothing.
+             * @throws IOException Thrown if recording could not be decoded.
+             */
+            @Override
+            protected Void run() throws IOException {
+                File decodedFile = File.createTempFile("spectrogram", ".pcm", mContext.getCacheDir());
+                PcmSource source;
+                try {
+                    int sampleRate = PcmDecoder.decode(mFiles, decodedFile);
+                    source = FilePcmSource.openRaw(decodedFile, sampleRate);
+                } catch (IOException e) {
+                    decodedFile.delete();
+                    throw e;
+                }
+
+                synchronized (SpectrogramLoader.this) {
+                    if (!mReleased) {
+                        mSource = source;
+                        mDecodedFile = decodedFile;
+                        return null;
+                    }
+                }
+                source.close();
+                decodedFile.delete();
+                return null;
+            }
+
+            /**
+             * Request tiles awaiting recording again, now it is decoded.
+             * @param result Nothing.
+             */
+            @Override
+            protected void onComplete(Void result) {
+                List<Integer> tiles = new ArrayList<>(mAwaitingSource);
+                mAwaitingSource.clear();
+                mRequested.removeAll(tiles);
+                for (int tileIndex : tiles)
+                    onTileNeeded(tileIndex);
+            }
+
+            /**
+             * Log failure, leaving tiles awaiting recording blank.
+             * @param e Exception thrown decoding recording.
+             */
+            @Override
+            protected void onFailed(Exception e) {
+                Log.e(SpectrogramLoader.class.getSimpleName(), "decodeSource: unable to decode recording.", e);
+                mRequested.removeAll(mAwaitingSource);
+                mAwaitingSource.clear();
+            }
+        }, mOwner);
+    }
+
+    /**
+     * Compute tile from source of samples, adding it to cache.
+     * <p>Run whilst holding loader's lock, once source of samples is open.</p>
+     * @param tileIndex Index of tile.
+     * @return Tile, or null if it could not be computed.
+     */
+    private SpectrogramTile computeTile(int tileIndex) {
+        try {
+            SpectrogramTile tile = mEngine.computeTile(mSource, tileIndex, mSampleCount);
+            mCache.put(mBirdcallId, tile);
+            return tile;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(SpectrogramLoader.class.getSimpleName(), "loadTile: unable to compute tile " + tileIndex + ".", e);
+            return null;
+        }
+    }
+
+    /**
+     * Get number of samples of recording, from headers of WAV files, opening them as source of
+     * samples, since they need no decoding, or from duration and sample rate of compressed
+     * recording, without decoding it.
+     * <p>Run on thread of READ lane.</p>
+     * @return Number of samples.
+     * @throws IOException Thrown if recording could not be read.
+     */
+    private long getSampleCount() throws IOException {
+        if (!Birdcall.CODEC_PCM_WAV.equals(mCodec))
+            return mDuration * PcmDecoder.getSampleRate(mFiles.get(0)) / 1000;
+
+        PcmSource source = FilePcmSource.openWav(mFiles);
+        synchronized (this) {
+            if (!mReleased) {
+                mSource = source;
+                return source.getSampleCount();
+            }
+        }
+        source.close();
+        throw new IOException("Loader released whilst opening recording.");
+    }
+
+    /**
+     * Close source of samples, deleting any decoded temporary file.
+     * <p>Run whilst holding loader's lock.</p>
+     */
+    private void closeSource() {
+        if (mSource != null) {
+            try {
+                mSource.close();
+            } catch (IOException e) {
+                Log.e(SpectrogramLoader.class.getSimpleName(), "closeSource: unable to close recording.", e);
+            }
+            mSource = null;
+        }
+        if (mDecodedFile != null) {
+            mDecodedFile.delete();
+            mDecodedFile = null;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.OverScroller;
+
+import jonathan.mason.birdcalllibrarian.Analysis.SpectrogramTile;
+
+/**
+ * View showing spectrogram of birdcall, one pixel across for each column, which can be
+ * scrolled sideways along the recording.
+ * <p>The view scrolls itself, rather than sitting within a HorizontalScrollView, so that it
+ * always knows which tiles are in view, and asks its TileRequester for only those. Bitmaps of
+ * the last few tiles drawn are kept, beyond which tiles are asked for again, to be taken from
+ * SpectrogramCache, rather than recomputed.</p>
+ * <p>Based on "Animate a scroll gesture", Android Developers:
+ * https://developer.android.com/training/gestures/scroll.</p>
+ */
+public class SpectrogramView extends View {
+    /**
+     * Number of bitmaps of tiles kept, enough for several screens of tiles.
+     */
+    private static final int MAX_BITMAPS = 16;
+
+    /**
+     * Colours of levels 0, 64, 128, 192 and 255, between which the palette is interpolated.
+     */
+    private static final int[] PALETTE_STOPS = { 0xFF000000, 0xFF1B1464, 0xFFB4245C, 0xFFF79A2E, 0xFFFFFFC8 };
+
+    /**
+     * Requester of tiles, to be given to view.
+     */
+    public interface TileRequester {
+        /**
+         * Handle change of tiles in view.
+         * @param firstTile Index of first tile in view.
+         * @param lastTile Index of last tile in view.
+         */
+        void onVisibleTilesChanged(int firstTile, int lastTile);
+
+        /**
+         * Handle need for tile in view, which should be passed to setTile once loaded.
+         * @param tileIndex Index of tile.
+         */
+        void onTileNeeded(int tileIndex);
+    }
+
+    private final int[] mPalette = createPalette();
+    private final LruCache<Integer, Bitmap> mBitmaps = new LruCache<>(MAX_BITMAPS);
+    private final Rect mDestination = new Rect();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private GestureDetector mGestureDetector;
+    private OverScroller mScroller;
+    private TileRequester mTileRequester;
+    private long mColumnCount;
+    private int mColumnsPerTile;
+    private int[] mPixels;
+
+    /**
+     * Constructor.
+     * @param context Context of view.
+     */
+    public SpectrogramView(Context context) {
+        super(context);
+        this.init(context);
+    }
+
+    /**
+     * Constructor used when inflating from layout.
+     * @param context Context of view.
+     * @param attrs Attributes from layout.
+     */
+    public SpectrogramView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        this.init(context);
+    }
+
+    /**
+     * Initialise scrolling.
+     * @param context Context of view.
+     */
+    private void init(Context context) {
+        mScroller = new OverScroller(context);
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            /**
+             * Handle touch, stopping any fling.
+             * @param e Touch event.
+             * @return True to receive rest of gesture.
+             */
+            @Override
+            public boolean onDown(MotionEvent e) {
+                mScroller.forceFinished(true);
+                return true;
+            }
+
+            /**
+             * Handle drag to scroll spectrogram sideways.
+             * @param e1 Touch event starting drag.
+             * @param e2 Current touch event.
+             * @param distanceX Distance moved sideways since last call.
+             * @param distanceY Distance moved vertically since last call.
+             * @return True if drag was handled, otherwise false.
+             */
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                // Leave mostly vertical drags to parent ScrollView.
+                if (Math.abs(distanceX) < Math.abs(distanceY))
+                    return false;
+                getParent().requestDisallowInterceptTouchEvent(true);
+                scrollTo(clampScrollX(getScrollX() + (int)distanceX), 0);
+                return true;
+            }
+
+            /**
+             * Handle fling to scroll spectrogram sideways.
+             * @param e1 Touch event starting fling.
+             * @param e2 Touch event ending fling.
+             * @param velocityX Sideways velocity.
+             * @param velocityY Vertical velocity.
+             * @return True if fling was handled, otherwise false.
+             */
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                if (Math.abs(velocityX) < Math.abs(velocityY))
+                    return false;
+                mScroller.fling(getScrollX(), 0, (int)-velocityX, 0, 0, getMaxScrollX(), 0, 0);
+                postInvalidateOnAnimation();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Set requester of tiles in view.
+     * @param tileRequester Requester of tiles.
+     */
+    public void setTileRequester(TileRequester tileRequester) {
+        mTileRequester = tileRequester;
+        this.invalidate();
+    }
+
+    /**
+     * Set size of spectrogram, clearing any tiles shown.
+     * @param columnCount Number of columns of spectrogram.
+     * @param columnsPerTile Number of columns in each tile.
+     * @param binCount Number of bins in each column.
+     */
+    public void setSpectrogram(long columnCount, int columnsPerTile, int binCount) {
+        mColumnCount = columnCount;
+        mColumnsPerTile = columnsPerTile;
+        mPixels = new int[columnsPerTile * binCount];
+        mBitmaps.evictAll();
+        mScroller.forceFinished(true);
+        this.scrollTo(0, 0);
+        this.invalidate();
+    }
+
+    /**
+     * Set tile loaded by requester, to be shown if still in view.
+     * @param tile Loaded tile.
+     */
+    public void setTile(SpectrogramTile tile) {
+        if (mPixels == null)
+            return;
+
+        // Lowest frequencies at bottom.
+        int width = tile.getColumnCount();
+        int height = tile.getBinCount();
+        for (int column = 0; column < width; column++) {
+            for (int bin = 0; bin < height; bin++)
+                mPixels[(height - 1 - bin) * width + column] = mPalette[tile.getLevel(column, bin)];
+        }
+        mBitmaps.put(tile.getTileIndex(), Bitmap.createBitmap(mPixels, 0, width, width, height, Bitmap.Config.ARGB_8888));
+        this.invalidate();
+    }
+
+    /**
+     * Draw tiles in view, asking for any not yet loaded.
+     * @param canvas Canvas on which to draw.
+     */
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if ((mColumnCount <= 0) || (mTileRequester == null))
+            return;
+
+        int tileCount = (int)((mColumnCount + mColumnsPerTile - 1) / mColumnsPerTile);
+        int firstTile = this.getScrollX() / mColumnsPerTile;
+        int lastTile = Math.min((this.getScrollX() + this.getWidth() - 1) / mColumnsPerTile, tileCount - 1);
+        mTileRequester.onVisibleTilesChanged(firstTile, lastTile);
+
+        for (int i = firstTile; i <= lastTile; i++) {
+            Bitmap bitmap = mBitmaps.get(i);
+            if (bitmap == null) {
+                mTileRequester.onTileNeeded(i);
+                continue;
+            }
+            mDestination.set(i * mColumnsPerTile, 0, i * mColumnsPerTile + bitmap.getWidth(), this.getHeight());
+            canvas.drawBitmap(bitmap, null, mDestination, mPaint);
+        }
+    }
+
+    /**
+     * Handle touch events, to scroll.
+     * @param event Touch event.
+     * @return True if event was handled, otherwise false.
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return mGestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
+    }
+
+    /**
+     * Continue any fling.
+     */
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            this.scrollTo(mScroller.getCurrX(), 0);
+            this.postInvalidateOnAnimation();
+        }
+    }
+
+    /**
+     * Get width of whole spectrogram, for scroll bar.
+     * @return Width in pixels.
+     */
+    @Override
+    protected int computeHorizontalScrollRange() {
+        return (int)Math.max(mColumnCount, this.getWidth());
+    }
+
+    /**
+     * Get furthest that spectrogram can be scrolled.
+     * @return Scroll position in pixels.
+     */
+    private int getMaxScrollX() {
+        return (int)Math.max(0, mColumnCount - this.getWidth());
+    }
+
+    /**
+     * Limit scroll position to spectrogram.
+     * @param scrollX Scroll position in pixels.
+     * @return Limited scroll position.
+     */
+    private int clampScrollX(int scrollX) {
+        return Math.max(0, Math.min(scrollX, this.getMaxScrollX()));
+    }
+
+    /**
+     * Create palette of colours of levels, interpolating between PALETTE_STOPS.
+     * @return Colour of each level, from 0 to 255.
+     */
+    private static int[] createPalette() {
+        int[] palette = new int[256];
+        int segments = PALETTE_STOPS.length - 1;
+        for (int level = 0; level < 256; level++) {
+            float position = level * segments / 255f;
+            int stop = Math.min((int)position, segments - 1);
+            float fraction = position - stop;
+            int from = PALETTE_STOPS[stop];
+            int to = PALETTE_STOPS[stop + 1];
+            int red = Math.round(((from >> 16) & 0xFF) + fraction * (((to >> 16) & 0xFF) - ((from >> 16) & 0xFF)));
+            int green = Math.round(((from >> 8) & 0xFF) + fraction * (((to >> 8) & 0xFF) - ((from >> 8) & 0xFF)));
+            int blue = Math.round((from & 0xFF) + fraction * ((to & 0xFF) - (from & 0xFF)));
+            palette[level] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+        }
+        return palette;
+    }
+}
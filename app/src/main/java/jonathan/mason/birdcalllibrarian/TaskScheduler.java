@@ -0,0 +1,529 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Scheduler of all background work of app, replacing both AsyncTask and single-thread
+ * executors; a singleton.
+ * <p>Work is divided between lanes: a READ lane of several threads, for loading, a WRITE lane
+ * of a single thread, so that changes to database and RecordingStore are made one at a time,
+ * in the order submitted, and a CODEC lane of a thread per core, for encoding and decoding
+ * recordings. Within each lane, USER tasks, whose results the user is waiting to see, always
+ * run before BACKGROUND tasks, such as analysis or backfill, and BACKGROUND tasks are never
+ * given the last thread of a lane, so they cannot hold up USER tasks of a lane of several
+ * threads.</p>
+ * <p>Queues are bounded: once a queue is full, submitting from a background thread waits for
+ * room, slowing down producers such as backfill jobs, whilst submitting from main user
+ * interface thread, which must never wait, is rejected, the task failing with a
+ * RejectedExecutionException delivered to its onFailed() on main user interface thread, as
+ * any other failure would be. Producers of many tasks should therefore submit them from a
+ * background thread, or split their work into no more tasks than
+ * getBackgroundParallelism(), rather than submitting a burst of tasks from main user
+ * interface thread.</p>
+ * <p>Tasks submitted on behalf of a LifecycleOwner are cancelled when it is destroyed.</p>
+ */
+public class TaskScheduler {
+    /**
+     * Lanes of work.
+     */
+    public enum Lane {
+        READ(2),
+        WRITE(1),
+        CODEC(Runtime.getRuntime().availableProcessors());
+
+        private final int mThreadCount;
+
+        /**
+         * Constructor.
+         * @param threadCount Number of threads of lane.
+         */
+        Lane(int threadCount) {
+            mThreadCount = threadCount;
+        }
+
+        /**
+         * Get number of BACKGROUND tasks of lane which may run at the same time, keeping last
+         * thread for USER tasks, unless lane has only one.
+         * @return Number of BACKGROUND tasks.
+         */
+        int getMaxBackgroundRunning() {
+            return Math.max(1, mThreadCount - 1);
+        }
+    }
+
+    /**
+     * Priority classes of work, highest first.
+     */
+    public enum Priority {
+        USER(64),
+        BACKGROUND(16);
+
+        private final int mCapacity;
+
+        /**
+         * Constructor.
+         * @param capacity Maximum number of tasks of priority queued in each lane.
+         */
+        Priority(int capacity) {
+            mCapacity = capacity;
+        }
+    }
+
+    /**
+     * Number of tasks of a lane between each logging of its metrics.
+     */
+    private static final int METRICS_LOG_INTERVAL = 50;
+
+    private final static Object LOCK = new Object();
+    private static TaskScheduler mInstance = null;
+
+    private final LaneExecutor[] mLanes;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Implement singleton, creating single instance of scheduler, if not created, or simply
+     * retrieving previously created instance.
+     * @return Scheduler.
+     */
+    public static TaskScheduler getInstance() {
+        if (mInstance == null) {
+            synchronized (LOCK) {
+                if (mInstance == null)
+                    mInstance = new TaskScheduler();
+            }
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Constructor, starting threads of each lane.
+     */
+    private TaskScheduler() {
+        mLanes = new LaneExecutor[Lane.values().length];
+        for (Lane lane : Lane.values())
+            mLanes[lane.ordinal()] = new LaneExecutor(lane);
+    }
+
+    /**
+     * Submit task.
+     * @param lane Lane in which to run task.
+     * @param priority Priority of task.
+     * @param task Task to run.
+     * @return Task, by which it may be cancelled.
+     */
+    public <Result> Task<Result> submit(Lane lane, Priority priority, Task<Result> task) {
+        return this.submit(lane, priority, task, null);
+    }
+
+    /**
+     * Submit task on behalf of lifecycle owner, cancelling it if owner is destroyed.
+     * <p>Must be called on main user interface thread, if owner is supplied.</p>
+     * <p>If the task cannot be queued, because it was submitted on main user interface thread
+     * whilst queue is full, or interrupted whilst waiting for room, its onFailed() is passed a
+     * RejectedExecutionException on main user interface thread, rather than it being thrown
+     * to the caller.</p>
+     * @param lane Lane in which to run task.
+     * @param priority Priority of task.
+     * @param task Task to run.
+     * @param owner Lifecycle owner, or null for task to outlive any activity.
+     * @return Task, by which it may be cancelled.
+     */
+    public <Result> Task<Result> submit(Lane lane, Priority priority, Task<Result> task, LifecycleOwner owner) {
+        if ((owner != null) && (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED)) {
+            task.cancel();
+            return task;
+        }
+
+        task.mLane = mLanes[lane.ordinal()];
+        task.mPriority = priority;
+        task.mMainHandler = mMainHandler;
+        try {
+            task.mLane.enqueue(task);
+        } catch (RejectedExecutionException e) {
+            task.deliver(null, e);
+            return task;
+        }
+
+        if (owner != null) {
+            LifecycleEventObserver observer = new LifecycleEventObserver() {
+                /**
+                 * Handle change of state of owner, to cancel task once it is destroyed.
+                 * @param source Lifecycle owner.
+                 * @param event Change of state.
+                 */
+                @Override
+                public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+                    if (event == Lifecycle.Event.ON_DESTROY) {
+                        source.getLifecycle().removeObserver(this);
+                        task.cancel();
+                    }
+                }
+            };
+            owner.getLifecycle().addObserver(observer);
+            task.mOwner = owner;
+            task.mObserver = observer;
+        }
+        return task;
+    }
+
+    /**
+     * Get number of BACKGROUND tasks into which work should be split to run in parallel in
+     * lane: as many as may run at the same time, but no more than may be queued.
+     * @param lane Lane.
+     * @return Number of tasks.
+     */
+    public static int getBackgroundParallelism(Lane lane) {
+        return Math.min(lane.getMaxBackgroundRunning(), Priority.BACKGROUND.mCapacity);
+    }
+
+    /**
+     * Get metrics of lane.
+     * @param lane Lane.
+     * @return Snapshot of metrics.
+     */
+    public Metrics getMetrics(Lane lane) {
+        return mLanes[lane.ordinal()].getMetrics();
+    }
+
+    /**
+     * Task run by scheduler, with an optional result delivered to main user interface thread,
+     * taking the place of AsyncTask.
+     * @param <Result> Type of result.
+     */
+    public static abstract class Task<Result> {
+        private volatile boolean mCancelled;
+        private LaneExecutor mLane;
+        private Priority mPriority;
+        private Handler mMainHandler;
+        private LifecycleOwner mOwner;
+        private LifecycleEventObserver mObserver;
+        private long mQueuedTime;
+
+        /**
+         * Perform task.
+         * <p>Run on thread of lane.</p>
+         * @return Result, to be passed to onComplete().
+         * @throws Exception Thrown if task failed, to be passed to onFailed().
+         */
+        protected abstract Result run() throws Exception;
+
+        /**
+         * Handle completion of task, unless cancelled.
+         * <p>Run on main user interface thread.</p>
+         * @param result Result of task.
+         */
+        protected void onComplete(Result result) {
+        }
+
+        /**
+         * Handle failure of task, unless cancelled, logging it by default.
+         * <p>Run on main user interface thread.</p>
+         * @param e Exception thrown by task.
+         */
+        protected void onFailed(Exception e) {
+            Log.e(TaskScheduler.class.getSimpleName(), "onFailed: " + this.getClass().getName() + " failed.", e);
+        }
+
+        /**
+         * Cancel task, so that it is not run if still queued, and its result is not delivered
+         * if already running.
+         * <p>Tasks which are running are not interrupted, but may check isCancelled().</p>
+         */
+        public void cancel() {
+            mCancelled = true;
+            if (mLane != null)
+                mLane.remove(this);
+        }
+
+        /**
+         * Determine whether task has been cancelled.
+         * @return True if cancelled, otherwise false.
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Run task on thread of lane, delivering its result or failure to main user
+         * interface thread.
+         */
+        private void execute() {
+            Result result = null;
+            Exception failure = null;
+            try {
+                result = this.run();
+            } catch (Exception e) {
+                failure = e;
+            }
+
+            this.deliver(result, failure);
+        }
+
+        /**
+         * Deliver result or failure of task to main user interface thread, unless cancelled.
+         * @param result Result of task.
+         * @param failure Exception thrown by task, or null if it succeeded.
+         */
+        private void deliver(Result result, Exception failure) {
+            mMainHandler.post(new Runnable() {
+                /**
+                 * Task to be executed on main user interface thread.
+                 */
+                @Override
+                public void run() {
+                    if (mOwner != null)
+                        mOwner.getLifecycle().removeObserver(mObserver);
+                    if (mCancelled)
+                        return;
+                    if (failure != null)
+                        onFailed(failure);
+                    else
+                        onComplete(result);
+                }
+            });
+        }
+    }
+
+    /**
+     * Snapshot of metrics of a lane.
+     */
+    public static class Metrics {
+        private final long mTaskCount;
+        private final long mTotalWaitMillis;
+        private final long mMaxWaitMillis;
+        private final long mTotalRunMillis;
+        private final long mMaxRunMillis;
+
+        /**
+         * Constructor.
+         * @param taskCount Number of tasks run.
+         * @param totalWaitMillis Total time tasks spent queued, in milliseconds.
+         * @param maxWaitMillis Longest time a task spent queued, in milliseconds.
+         * @param totalRunMillis Total time spent running tasks, in milliseconds.
+         * @param maxRunMillis Longest time spent running a task, in milliseconds.
+         */
+        Metrics(long taskCount, long totalWaitMillis, long maxWaitMillis, long totalRunMillis, long maxRunMillis) {
+            mTaskCount = taskCount;
+            mTotalWaitMillis = totalWaitMillis;
+            mMaxWaitMillis = maxWaitMillis;
+            mTotalRunMillis = totalRunMillis;
+            mMaxRunMillis = maxRunMillis;
+        }
+
+        /**
+         * Get number of tasks run.
+         * @return Number of tasks.
+         */
+        public long getTaskCount() {
+            return mTaskCount;
+        }
+
+        /**
+         * Get mean time tasks spent queued.
+         * @return Time in milliseconds.
+         */
+        public long getMeanWaitMillis() {
+            return (mTaskCount > 0) ? mTotalWaitMillis / mTaskCount : 0;
+        }
+
+        /**
+         * Get longest time a task spent queued.
+         * @return Time in milliseconds.
+         */
+        public long getMaxWaitMillis() {
+            return mMaxWaitMillis;
+        }
+
+        /**
+         * Get mean time spent running a task.
+         * @return Time in milliseconds.
+         */
+        public long getMeanRunMillis() {
+            return (mTaskCount > 0) ? mTotalRunMillis / mTaskCount : 0;
+        }
+
+        /**
+         * Get longest time spent running a task.
+         * @return Time in milliseconds.
+         */
+        public long getMaxRunMillis() {
+            return mMaxRunMillis;
+        }
+
+        /**
+         * Describe metrics, for logging.
+         * @return Description of metrics.
+         */
+        @NonNull
+        @Override
+        public String toString() {
+            return mTaskCount + " task(s), wait " + this.getMeanWaitMillis() + "ms mean, " + mMaxWaitMillis + "ms max, run " + this.getMeanRunMillis() + "ms mean, " + mMaxRunMillis + "ms max";
+        }
+    }
+
+    /**
+     * Threads and queues of a lane.
+     */
+    private static class LaneExecutor {
+        private final Lane mLane;
+        private final ArrayDeque<Task<?>>[] mQueues;
+        private final int mMaxBackgroundRunning;
+        private int mBackgroundRunning;
+
+        // Metrics, guarded by this.
+        private long mTaskCount;
+        private long mTotalWaitMillis;
+        private long mMaxWaitMillis;
+        private long mTotalRunMillis;
+        private long mMaxRunMillis;
+
+        /**
+         * Constructor, starting threads of lane.
+         * @param lane Lane.
+         */
+        @SuppressWarnings("unchecked")
+        LaneExecutor(Lane lane) {
+            mLane = lane;
+            mQueues = new ArrayDeque[Priority.values().length];
+            for (int i = 0; i < mQueues.length; i++)
+                mQueues[i] = new ArrayDeque<>();
+
+            // Keep last thread of lane for USER tasks, unless lane has only one.
+            mMaxBackgroundRunning = lane.getMaxBackgroundRunning();
+
+            for (int i = 0; i < lane.mThreadCount; i++) {
+                Thread thread = new Thread(new Runnable() {
+                    /**
+                     * Run tasks of lane, one after another.
+                     */
+                    @Override
+                    public void run() {
+                        runTasks();
+                    }
+                }, "TaskScheduler-" + lane.name() + "-" + i);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                thread.start();
+            }
+        }
+
+        /**
+         * Add task to queue of its priority, waiting for room if queue is full, unless on main
+         * user interface thread.
+         * @param task Task to add.
+         * @exception RejectedExecutionException Thrown if on main user interface thread whilst
+         * queue is full, or if interrupted whilst waiting for room.
+         */
+        synchronized void enqueue(Task<?> task) {
+            ArrayDeque<Task<?>> queue = mQueues[task.mPriority.ordinal()];
+            while (queue.size() >= task.mPriority.mCapacity) {
+                if (Looper.myLooper() == Looper.getMainLooper())
+                    throw new RejectedExecutionException(mLane.name() + " lane is full of " + task.mPriority.name() + " tasks.");
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted waiting for room in " + mLane.name() + " lane.", e);
+                }
+            }
+
+            task.mQueuedTime = SystemClock.elapsedRealtime();
+            queue.addLast(task);
+            this.notifyAll();
+        }
+
+        /**
+         * Remove task from queue, if not yet started.
+         * @param task Task to remove.
+         */
+        synchronized void remove(Task<?> task) {
+            if (mQueues[task.mPriority.ordinal()].remove(task))
+                this.notifyAll();
+        }
+
+        /**
+         * Get snapshot of metrics.
+         * @return Metrics.
+         */
+        synchronized Metrics getMetrics() {
+            return new Metrics(mTaskCount, mTotalWaitMillis, mMaxWaitMillis, mTotalRunMillis, mMaxRunMillis);
+        }
+
+        /**
+         * Take next task, highest priority first, waiting until there is one that may be run.
+         * @return Task.
+         * @throws InterruptedException Thrown if interrupted whilst waiting.
+         */
+        private synchronized Task<?> take() throws InterruptedException {
+            while (true) {
+                Task<?> task = mQueues[Priority.USER.ordinal()].pollFirst();
+                if ((task == null) && (mBackgroundRunning < mMaxBackgroundRunning)) {
+                    task = mQueues[Priority.BACKGROUND.ordinal()].pollFirst();
+                    if (task != null)
+                        mBackgroundRunning++;
+                }
+                if (task != null) {
+                    // Room for another task to be queued.
+                    this.notifyAll();
+                    return task;
+                }
+                this.wait();
+            }
+        }
+
+        /**
+         * Record metrics of task just run.
+         * @param task Task.
+         * @param startTime Time task started, as given by SystemClock.elapsedRealtime().
+         */
+        private synchronized void onTaskFinished(Task<?> task, long startTime) {
+            if (task.mPriority == Priority.BACKGROUND) {
+                mBackgroundRunning--;
+                this.notifyAll();
+            }
+
+            long waitMillis = startTime - task.mQueuedTime;
+            long runMillis = SystemClock.elapsedRealtime() - startTime;
+            mTaskCount++;
+            mTotalWaitMillis += waitMillis;
+            mMaxWaitMillis = Math.max(mMaxWaitMillis, waitMillis);
+            mTotalRunMillis += runMillis;
+            mMaxRunMillis = Math.max(mMaxRunMillis, runMillis);
+            if (mTaskCount % METRICS_LOG_INTERVAL == 0)
+                Log.d(TaskScheduler.class.getSimpleName(), "onTaskFinished: " + mLane.name() + " lane, " + this.getMetrics());
+        }
+
+        /**
+         * Run tasks of lane, one after another, for lifetime of app.
+         */
+        private void runTasks() {
+            while (true) {
+                Task<?> task;
+                try {
+                    task = this.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                long startTime = SystemClock.elapsedRealtime();
+                try {
+                    if (!task.isCancelled())
+                        task.execute();
+                } finally {
+                    this.onTaskFinished(task, startTime);
+                }
+            }
+        }
+    }
+}
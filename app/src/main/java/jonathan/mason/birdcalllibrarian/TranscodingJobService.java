@@ -0,0 +1,425 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import jonathan.mason.birdcalllibrarian.Capture.AacEncoder;
+import jonathan.mason.birdcalllibrarian.Capture.RecordingProfile;
+import jonathan.mason.birdcalllibrarian.Capture.RecordingTranscoder;
+import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallDatabase;
+import jonathan.mason.birdcalllibrarian.Database.RecordingSegment;
+import jonathan.mason.birdcalllibrarian.Database.RecordingStore;
+
+/**
+ * Job transcoding uncompressed recordings of birdcalls into AAC, whilst device is idle and
+ * charging, a batch at a time, until none are left.
+ * <p>Recordings of each batch are transcoded in parallel into RecordingStore, split between as
+ * many BACKGROUND tasks in the CODEC lane of TaskScheduler as may run at the same time, so
+ * that a batch neither holds up USER tasks nor fills the queue of the lane. Once verified,
+ * they are swapped for the originals in a single transaction in the WRITE lane, which also
+ * replaces any further segments, as the transcoded recording is a single file. Originals are
+ * only deleted once no longer referred to.</p>
+ * <p>Progress is kept by the codec of each birdcall, so a job stopped part way carries on
+ * where it left off next time. ID of last birdcall of each batch is also saved, so that
+ * recordings which fail to transcode are not tried again every time.</p>
+ */
+public class TranscodingJobService extends JobService {
+    /**
+     * ID of job, unique within app.
+     */
+    private static final int JOB_ID = 2;
+
+    /**
+     * Key of preference holding ID of last birdcall of last batch.
+     */
+    private static final String LAST_TRANSCODED_ID = "LAST_TRANSCODED_ID";
+
+    /**
+     * Codec of recordings to be transcoded.
+     * <p>Recordings made with RecordingProfile.ARCHIVAL are kept uncompressed, as chosen.</p>
+     * <p>AMR narrowband recordings are left as they are: at 12.2kbps they are already smaller
+     * than they would be in AAC, and transcoding them cannot win back quality.</p>
+     */
+    private static final String SOURCE_CODEC = Birdcall.CODEC_PCM_WAV;
+
+    /**
+     * Bit rate of transcoded recordings, in bits per second; about a tenth of 16-bit mono at
+     * 44.1kHz.
+     */
+    private static final int BIT_RATE = 64000;
+
+    /**
+     * Number of birdcalls transcoded before being swapped in database.
+     */
+    private static final int BATCH_SIZE = 16;
+
+    private final List<TaskScheduler.Task<?>> mTasks = new ArrayList<>();
+    private boolean mStopped;
+
+    // State of batch being transcoded.
+    private List<List<TranscodedRecording>> mBatchRecordings;
+    private int mBatchRemainingCount;
+    private boolean mBatchFailed;
+
+    /**
+     * Schedule job, unless already scheduled.
+     * @param context Context with which to schedule job.
+     */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler = (JobScheduler)context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if ((jobScheduler == null) || (jobScheduler.getPendingJob(JOB_ID) != null))
+            return;
+
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID, new ComponentName(context, TranscodingJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(TimeUnit.DAYS.toMillis(1))
+                .setPersisted(false)
+                .build();
+        jobScheduler.schedule(jobInfo);
+    }
+
+    /**
+     * Override to start transcoding first batch.
+     * @param params Parameters of job.
+     * @return True, as job carries on running on other threads.
+     */
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        mStopped = false;
+        this.transcodeNextBatch(params);
+        return true;
+    }
+
+    /**
+     * Override to cancel transcoding when device is no longer idle or charging; birdcalls of
+     * current batch are transcoded again next time.
+     * @param params Parameters of job.
+     * @return True, so that job is tried again later.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mStopped = true;
+        for (TaskScheduler.Task<?> task : mTasks)
+            task.cancel();
+        mTasks.clear();
+
+        // Recordings of tasks of batch already done would otherwise never be discarded.
+        if (mBatchRecordings != null) {
+            for (List<TranscodedRecording> taskRecordings : mBatchRecordings) {
+                if (taskRecordings != null) {
+                    for (TranscodedRecording transcodedRecording : taskRecordings)
+                        transcodedRecording.mRecording.discard();
+                }
+            }
+            mBatchRecordings = null;
+        }
+        return true;
+    }
+
+    /**
+     * Find next batch of birdcalls to transcode on thread of READ lane, then transcode them,
+     * or finish job if there are none.
+     * @param params Parameters of job.
+     */
+    private void transcodeNextBatch(JobParameters params) {
+        int lastId = PreferenceManager.getDefaultSharedPreferences(this).getInt(LAST_TRANSCODED_ID, -1);
+        mTasks.clear();
+        mTasks.add(TaskScheduler.getInstance().submit(TaskScheduler.Lane.READ, TaskScheduler.Priority.BACKGROUND, new JobTask<List<Birdcall>>(params) {
+            /**
+             * Find next batch of birdcalls.
+             * <p>Run on thread of READ lane.</p>
+             * @return Birdcalls of batch, in order of ID.
+             */
+            @Override
+            protected List<Birdcall> run() {
+                return BirdcallDatabase.getInstance(getApplication()).DAO().findBirdcallsWithCodec(SOURCE_CODEC, RecordingProfile.ARCHIVAL.getKey(), lastId, BATCH_SIZE);
+            }
+
+            /**
+             * Transcode birdcalls of batch, or finish job if there are none.
+             * @param birdcalls Birdcalls of batch.
+             */
+            @Override
+            protected void onComplete(List<Birdcall> birdcalls) {
+                if (birdcalls.isEmpty()) {
+                    Log.i(TranscodingJobService.class.getSimpleName(), "onComplete: all recordings transcoded.");
+                    jobFinished(params, false);
+                    return;
+                }
+
+                transcodeBatch(params, birdcalls);
+            }
+        }));
+    }
+
+    /**
+     * Transcode recordings of batch of birdcalls, split between tasks of CODEC lane, then swap
+     * them once all are done.
+     * @param params Parameters of job.
+     * @param birdcalls Birdcalls of batch, in order of ID.
+     */
+    private void transcodeBatch(JobParameters params, List<Birdcall> birdcalls) {
+        // No more tasks than may run at the same time, so that they fit in queue, even though
+        // submitted from main user interface thread.
+        int taskCount = Math.min(TaskScheduler.getBackgroundParallelism(TaskScheduler.Lane.CODEC), birdcalls.size());
+        mBatchRecordings = new ArrayList<>(Collections.nCopies(taskCount, (List<TranscodedRecording>)null));
+        mBatchRemainingCount = taskCount;
+        mBatchFailed = false;
+        mTasks.clear();
+        for (int i = 0; i < taskCount; i++) {
+            int taskIndex = i;
+            List<Birdcall> taskBirdcalls = birdcalls.subList(i * birdcalls.size() / taskCount, (i + 1) * birdcalls.size() / taskCount);
+            mTasks.add(TaskScheduler.getInstance().submit(TaskScheduler.Lane.CODEC, TaskScheduler.Priority.BACKGROUND, new TaskScheduler.Task<List<TranscodedRecording>>() {
+                /**
+                 * Transcode recordings of birdcalls into store, without committing them,
+                 * leaving any that fail as they are.
+                 * <p>Run on thread of CODEC lane.</p>
+                 * @return Transcoded recordings.
+                 */
+                @Override
+                protected List<TranscodedRecording> run() {
+                    List<TranscodedRecording> transcodedRecordings = new ArrayList<>();
+                    for (Birdcall birdcall : taskBirdcalls) {
+                        if (this.isCancelled())
+                            break;
+
+                        try {
+                            transcodedRecordings.add(transcode(birdcall));
+                        } catch (IOException | RuntimeException e) {
+                            Log.e(TranscodingJobService.class.getSimpleName(), "run: unable to transcode recording of birdcall " + birdcall.getId() + ".", e);
+                        }
+                    }
+
+                    // Result of cancelled task is never delivered, so wouldn't be discarded.
+                    if (this.isCancelled()) {
+                        for (TranscodedRecording transcodedRecording : transcodedRecordings)
+                            transcodedRecording.mRecording.discard();
+                    }
+                    return transcodedRecordings;
+                }
+
+                /**
+                 * Keep transcoded recordings until all tasks of batch are done.
+                 * @param transcodedRecordings Transcoded recordings.
+                 */
+                @Override
+                protected void onComplete(List<TranscodedRecording> transcodedRecordings) {
+                    mBatchRecordings.set(taskIndex, transcodedRecordings);
+                    onBatchTaskDone(params, birdcalls.get(birdcalls.size() - 1).getId());
+                }
+
+                /**
+                 * Log failure, including rejection whilst CODEC lane is full, so that batch is
+                 * abandoned once all its tasks are done.
+                 * @param e Exception thrown by task.
+                 */
+                @Override
+                protected void onFailed(Exception e) {
+                    super.onFailed(e);
+                    mBatchFailed = true;
+                    onBatchTaskDone(params, birdcalls.get(birdcalls.size() - 1).getId());
+                }
+            }));
+        }
+    }
+
+    /**
+     * Handle task of batch being done, and once all are, swap transcoded recordings for
+     * originals, or, if any task failed, discard them and finish job, to be tried again next
+     * time.
+     * @param params Parameters of job.
+     * @param lastId ID of last birdcall of batch.
+     */
+    private void onBatchTaskDone(JobParameters params, int lastId) {
+        if (--mBatchRemainingCount > 0)
+            return;
+
+        List<TranscodedRecording> transcodedRecordings = new ArrayList<>();
+        for (List<TranscodedRecording> taskRecordings : mBatchRecordings) {
+            if (taskRecordings != null)
+                transcodedRecordings.addAll(taskRecordings);
+        }
+        mBatchRecordings = null;
+
+        if (mBatchFailed) {
+            for (TranscodedRecording transcodedRecording : transcodedRecordings)
+                transcodedRecording.mRecording.discard();
+            this.jobFinished(params, false);
+            return;
+        }
+
+        this.swapBatch(params, transcodedRecordings, lastId);
+    }
+
+    /**
+     * Swap transcoded recordings of batch for originals in a single transaction, on thread of
+     * WRITE lane, then delete originals and start next batch.
+     * @param params Parameters of job.
+     * @param transcodedRecordings Transcoded recordings of batch.
+     * @param lastId ID of last birdcall of batch.
+     */
+    private void swapBatch(JobParameters params, List<TranscodedRecording> transcodedRecordings, int lastId) {
+        mTasks.clear();
+        mTasks.add(TaskScheduler.getInstance().submit(TaskScheduler.Lane.WRITE, TaskScheduler.Priority.BACKGROUND, new JobTask<Void>(params) {
+            /**
+             * Swap transcoded recordings for originals.
+             * <p>Run on thread of WRITE lane.</p>
+             * @return Nothing.
+             * @throws Exception Thrown if recordings could not be swapped.
+             */
+            @Override
+            protected Void run() throws Exception {
+                BirdcallDatabase database = BirdcallDatabase.getInstance(getApplication());
+                RecordingStore recordingStore = RecordingStore.getInstance(getApplication());
+                List<String> releasedHashes = new ArrayList<>();
+                try {
+                    database.runInTransaction(new Callable<Void>() {
+                        /**
+                         * Task to be executed within transaction.
+                         * @return Nothing.
+                         * @throws IOException Thrown if a transcoded recording could not be
+                         * committed to store.
+                         */
+                        @Override
+                        public Void call() throws IOException {
+                            for (TranscodedRecording transcodedRecording : transcodedRecordings) {
+                                // Leave birdcall alone if its recording changed, or it was purged,
+                                // whilst being transcoded.
+                                Birdcall birdcall = transcodedRecording.mBirdcall;
+                                if (!birdcall.getRecordingHash().equals(database.DAO().loadRecordingHash(birdcall.getId())))
+                                    continue;
+
+                                releasedHashes.add(birdcall.getRecordingHash());
+                                for (RecordingSegment segment : database.DAO().findSegments(birdcall.getId()))
+                                    releasedHashes.add(segment.getRecordingHash());
+
+                                RecordingStore.StoredRecording storedRecording = transcodedRecording.mRecording.commit();
+                                database.DAO().deleteSegments(birdcall.getId());
+                                database.DAO().updateRecording(birdcall.getId(), storedRecording.getHash(), storedRecording.getSize(), Birdcall.CODEC_AAC_M4A, transcodedRecording.mDuration);
+                            }
+                            return null;
+                        }
+                    });
+                } catch (Exception e) {
+                    // Nothing swapped, so don't keep transcoded recordings committed.
+                    for (TranscodedRecording transcodedRecording : transcodedRecordings)
+                        recordingStore.release(database, transcodedRecording.mRecording.getHash());
+                    throw e;
+                } finally {
+                    for (TranscodedRecording transcodedRecording : transcodedRecordings)
+                        transcodedRecording.mRecording.discard();
+                }
+
+                for (String hash : releasedHashes)
+                    recordingStore.release(database, hash);
+                PreferenceManager.getDefaultSharedPreferences(getApplication()).edit().putInt(LAST_TRANSCODED_ID, lastId).apply();
+                Log.i(TranscodingJobService.class.getSimpleName(), "run: transcoded " + transcodedRecordings.size() + " recording(s), up to birdcall " + lastId + ".");
+                return null;
+            }
+
+            /**
+             * Start next batch, unless job was stopped.
+             * @param result Nothing.
+             */
+            @Override
+            protected void onComplete(Void result) {
+                if (!mStopped)
+                    transcodeNextBatch(params);
+            }
+        }));
+    }
+
+    /**
+     * Transcode recording of birdcall, including any further segments, into a temporary file,
+     * then stage it into store.
+     * <p>Run on thread of CODEC lane.</p>
+     * @param birdcall Birdcall whose recording to transcode.
+     * @return Transcoded recording, staged into store.
+     * @throws IOException Thrown if recording could not be transcoded or stored.
+     */
+    private TranscodedRecording transcode(Birdcall birdcall) throws IOException {
+        BirdcallDatabase database = BirdcallDatabase.getInstance(this.getApplication());
+        RecordingStore recordingStore = RecordingStore.getInstance(this.getApplication());
+        List<File> files = new ArrayList<>();
+        files.add(recordingStore.getFile(birdcall.getRecordingHash()));
+        for (RecordingSegment segment : database.DAO().findSegments(birdcall.getId()))
+            files.add(recordingStore.getFile(segment.getRecordingHash()));
+
+        AacEncoder encoder = new AacEncoder(BIT_RATE);
+        File output = File.createTempFile("transcode", encoder.getFileExtension(), this.getCacheDir());
+        try {
+            long duration = RecordingTranscoder.transcode(files, birdcall.getRecordingCodec(), encoder, output, this.getCacheDir());
+            try (InputStream stream = new FileInputStream(output)) {
+                return new TranscodedRecording(birdcall, recordingStore.stage(stream, output.length()), duration);
+            }
+        } finally {
+            output.delete();
+        }
+    }
+
+    /**
+     * Task of job, finishing job if it fails.
+     * @param <Result> Type of result.
+     */
+    private abstract class JobTask<Result> extends TaskScheduler.Task<Result> {
+        private final JobParameters mParams;
+
+        /**
+         * Constructor.
+         * @param params Parameters of job.
+         */
+        JobTask(JobParameters params) {
+            mParams = params;
+        }
+
+        /**
+         * Log failure, then finish job, to be tried again next time.
+         * @param e Exception thrown by task.
+         */
+        @Override
+        protected void onFailed(Exception e) {
+            super.onFailed(e);
+            jobFinished(mParams, false);
+        }
+    }
+
+    /**
+     * Recording of birdcall transcoded and staged into store, but not yet committed.
+     */
+    private static class TranscodedRecording {
+        private final Birdcall mBirdcall;
+        private final RecordingStore.StagedRecording mRecording;
+        private final long mDuration;
+
+        /**
+         * Constructor.
+         * @param birdcall Birdcall, as it was when transcoded.
+         * @param recording Transcoded recording.
+         * @param duration Duration of transcoded recording in milliseconds.
+         */
+        TranscodedRecording(Birdcall birdcall, RecordingStore.StagedRecording recording, long duration) {
+            mBirdcall = birdcall;
+            mRecording = recording;
+            mDuration = duration;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.app.Application;
+import android.os.SystemClock;
+import android.widget.Toast;
+
+import java.util.List;
+
+import jonathan.mason.birdcalllibrarian.Database.BirdcallDatabase;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallPatch;
+
+/**
+ * Task to update edited details, and only them, of birdcalls in database, in a single
+ * transaction.
+ * <p>To be run in WRITE lane of TaskScheduler. Task keeps reference to application context
+ * and does not refer to DetailsActivity, so it is safely left to finish if it is
+ * destroyed.</p>
+ */
+public class UpdateBirdcallTask extends TaskScheduler.Task<Void> {
+    Application mApplication;
+    List<BirdcallPatch> mPatches;
+    long mOldestEditTime;
+    boolean mNotifyUser;
+    long mDuration;
+
+    /**
+     * Constructor.
+     * @param application The application.
+     * @param patches Edited details of birdcalls to be updated in database.
+     * @param oldestEditTime Time of oldest edit, as given by SystemClock.elapsedRealtime().
+     * @param notifyUser Whether to let user know birdcalls have been updated.
+     */
+    public UpdateBirdcallTask(Application application, List<BirdcallPatch> patches, long oldestEditTime, boolean notifyUser) {
+        mApplication = application;
+        mPatches = patches;
+        mOldestEditTime = oldestEditTime;
+        mNotifyUser = notifyUser;
+    }
+
+    /**
+     * Perform task.
+     * <p>Run on thread of WRITE lane.</p>
+     * @return Nothing.
+     */
+    @Override
+    protected Void run() {
+        // Update edited details of birdcalls in database.
+        long start = SystemClock.elapsedRealtime();
+        BirdcallDatabase database = BirdcallDatabase.getInstance(mApplication);
+        database.runInTransaction(new Runnable() {
+            /**
+             * Task to be executed within transaction.
+             */
+            @Override
+            public void run() {
+                for (BirdcallPatch patch : mPatches)
+                    patch.applyTo(database);
+            }
+        });
+        mDuration = SystemClock.elapsedRealtime() - start;
+        return null;
+    }
+
+    /**
+     * Let user know birdcalls have been successfully updated in database, if required.
+     * <p>Run on main user interface thread.</p>
+     * @param noResult Not used.
+     */
+    @Override
+    protected void onComplete(Void noResult)
+    {
+        BirdcallEditQueue.getInstance(mApplication).onFlushed(mPatches.size(), mOldestEditTime, mDuration);
+
+        // Display success message to user.
+        if (mNotifyUser)
+            Toast.makeText(mApplication, mApplication.getString(R.string.birdcall_saved), Toast.LENGTH_LONG).show();
+    }
+}
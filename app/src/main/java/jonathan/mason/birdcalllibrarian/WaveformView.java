@@ -0,0 +1,118 @@
+package jonathan.mason.birdcalllibrarian;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import jonathan.mason.birdcalllibrarian.Analysis.WaveformPeaks;
+
+/**
+ * View showing thumbnail of waveform of birdcall, drawn from its summary by WaveformPeaks,
+ * so that the recording itself is never read.
+ * <p>Each span of the summary is drawn as a vertical line from its lowest to highest sample,
+ * with the lines computed only when the summary or size of the view changes, so drawing does
+ * not allocate.</p>
+ */
+public class WaveformView extends View {
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private byte[] mPeaks;
+    private float[] mLines = new float[0];
+    private int mLineCount;
+
+    /**
+     * Constructor.
+     * @param context Context of view.
+     */
+    public WaveformView(Context context) {
+        super(context);
+        this.init(context);
+    }
+
+    /**
+     * Constructor used when inflating from layout.
+     * @param context Context of view.
+     * @param attrs Attributes from layout.
+     */
+    public WaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        this.init(context);
+    }
+
+    /**
+     * Initialise paint.
+     * @param context Context of view.
+     */
+    private void init(Context context) {
+        mPaint.setColor(context.getResources().getColor(R.color.colorAccent, null));
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+    }
+
+    /**
+     * Set summary of waveform to show.
+     * @param peaks Summary from WaveformPeaks, or null or empty to show nothing.
+     */
+    public void setPeaks(byte[] peaks) {
+        mPeaks = peaks;
+        this.computeLines();
+        this.invalidate();
+    }
+
+    /**
+     * Recompute lines once size is known.
+     * @param w New width.
+     * @param h New height.
+     * @param oldw Old width.
+     * @param oldh Old height.
+     */
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        this.computeLines();
+    }
+
+    /**
+     * Draw lines of waveform.
+     * @param canvas Canvas on which to draw.
+     */
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (mLineCount > 0)
+            canvas.drawLines(mLines, 0, mLineCount * 4, mPaint);
+    }
+
+    /**
+     * Compute vertical line of each span of summary, scaled to fit within padding of view.
+     */
+    private void computeLines() {
+        mLineCount = 0;
+        int width = this.getWidth() - this.getPaddingLeft() - this.getPaddingRight();
+        int height = this.getHeight() - this.getPaddingTop() - this.getPaddingBottom();
+        if ((mPeaks == null) || (mPeaks.length == 0) || (width <= 0) || (height <= 0))
+            return;
+
+        int count = WaveformPeaks.getCount(mPeaks);
+        if (mLines.length < count * 4)
+            mLines = new float[count * 4];
+
+        float spacing = (float)width / count;
+        mPaint.setStrokeWidth(Math.max(1, spacing * 0.6f));
+        float middle = this.getPaddingTop() + height / 2f;
+        float scale = height / 256f;
+        for (int span = 0; span < count; span++) {
+            float x = this.getPaddingLeft() + (span + 0.5f) * spacing;
+
+            // At least a dot for silence; higher samples towards top.
+            float top = middle - Math.max(WaveformPeaks.getMax(mPeaks, span) * scale, 0.5f);
+            float bottom = middle - Math.min(WaveformPeaks.getMin(mPeaks, span) * scale, -0.5f);
+            mLines[span * 4] = x;
+            mLines[span * 4 + 1] = top;
+            mLines[span * 4 + 2] = x;
+            mLines[span * 4 + 3] = bottom;
+        }
+        mLineCount = count;
+    }
+}
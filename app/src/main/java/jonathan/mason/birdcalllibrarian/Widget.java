@@ -10,7 +10,7 @@ import android.widget.RemoteViews;
 
 import java.text.DateFormat;
 
-import jonathan.mason.birdcalllibrarian.Database.Birdcall;
+import jonathan.mason.birdcalllibrarian.Database.BirdcallSummary;
 
 /**
  * Implementation of App Widget functionality.
@@ -22,9 +22,9 @@ public class Widget extends AppWidgetProvider {
      * https://stackoverflow.com/questions/4073907/update-android-widget-from-activity/4074665.</p>
      * @param context Context.
      * @appWidgetManager App widget manager.
-     * @param birdcall Recently recorded birdcall.
+     * @param birdcall Summary of recently recorded birdcall.
      */
-    static void updateAllAppWidgets(Context context, AppWidgetManager appWidgetManager, Birdcall birdcall) {
+    static void updateAllAppWidgets(Context context, AppWidgetManager appWidgetManager, BirdcallSummary birdcall) {
 
         // Construct the RemoteViews object
         RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget);
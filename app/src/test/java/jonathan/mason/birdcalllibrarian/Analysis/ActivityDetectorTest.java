@@ -0,0 +1,146 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of ActivityDetector, executed on the development machine (host).
+ */
+public class ActivityDetectorTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final long HANG_MILLIS = 500;
+    private static final int NOISE_AMPLITUDE = 300;
+    private static final int BACKGROUND_TONE_AMPLITUDE = 1000;
+    private static final int CALL_AMPLITUDE = 8000;
+
+    /**
+     * Listener counting starts and ends of activity.
+     */
+    private static class CountingListener implements ActivityDetector.Listener {
+        private int mStartedCount;
+        private int mEndedCount;
+
+        @Override
+        public void onActivityStarted() {
+            mStartedCount++;
+        }
+
+        @Override
+        public void onActivityEnded() {
+            mEndedCount++;
+        }
+    }
+
+    private final Random mRandom = new Random(42);
+    private final CountingListener mListener = new CountingListener();
+    private final ActivityDetector mDetector = new ActivityDetector(SAMPLE_RATE, ActivityDetector.DEFAULT_FRAME_SIZE,
+            ActivityDetector.DEFAULT_LOW_HZ, ActivityDetector.DEFAULT_HIGH_HZ, HANG_MILLIS, mListener);
+
+    /**
+     * Feed detector with samples in blocks, as PcmCaptureEngine does.
+     * @param samples Samples.
+     */
+    private void feed(short[] samples) {
+        for (int offset = 0; offset < samples.length; offset += 1000)
+            mDetector.onFrames(samples, offset, Math.min(1000, samples.length - offset));
+    }
+
+    /**
+     * Create digital silence.
+     * @param seconds Duration in seconds.
+     * @return Samples.
+     */
+    private static short[] silence(double seconds) {
+        return new short[(int)(seconds * SAMPLE_RATE)];
+    }
+
+    /**
+     * Create white noise, optionally with a tone in band of birdsong, sweeping between 3 and
+     * 5kHz.
+     * @param seconds Duration in seconds.
+     * @param toneAmplitude Amplitude of tone, or 0 for noise alone.
+     * @return Samples.
+     */
+    private short[] noise(double seconds, int toneAmplitude) {
+        short[] samples = new short[(int)(seconds * SAMPLE_RATE)];
+        double phase = 0;
+        for (int i = 0; i < samples.length; i++) {
+            double frequency = 4000 + 1000 * Math.sin(2 * Math.PI * 2 * i / SAMPLE_RATE);
+            phase += 2 * Math.PI * frequency / SAMPLE_RATE;
+            double sample = NOISE_AMPLITUDE * mRandom.nextGaussian() + toneAmplitude * Math.sin(phase);
+            samples[i] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sample)));
+        }
+        return samples;
+    }
+
+    @Test
+    public void noiseAlone_neverStarts() {
+        this.feed(this.noise(5, 0));
+
+        assertEquals(0, mListener.mStartedCount);
+        assertFalse(mDetector.isActive());
+    }
+
+    @Test
+    public void call_startsThenEnds() {
+        this.feed(this.noise(1, 0));
+        this.feed(this.noise(1, CALL_AMPLITUDE));
+        assertEquals(1, mListener.mStartedCount);
+        assertTrue(mDetector.isActive());
+
+        this.feed(this.noise(2, 0));
+        assertEquals(1, mListener.mEndedCount);
+        assertFalse(mDetector.isActive());
+    }
+
+    @Test
+    public void silentStart_isIgnoredWhenSettingFloors() {
+        // AudioRecord commonly starts with zeros, which must not leave every later frame,
+        // such as steady background sound within band, loud.
+        this.feed(silence(0.5));
+        this.feed(this.noise(5, BACKGROUND_TONE_AMPLITUDE));
+        assertEquals(0, mListener.mStartedCount);
+
+        this.feed(this.noise(1, CALL_AMPLITUDE));
+        this.feed(this.noise(2, BACKGROUND_TONE_AMPLITUDE));
+        assertEquals(1, mListener.mStartedCount);
+        assertEquals(1, mListener.mEndedCount);
+        assertFalse(mDetector.isActive());
+    }
+
+    @Test
+    public void silenceDuringActivity_endsIt() {
+        this.feed(this.noise(1, 0));
+        this.feed(this.noise(1, CALL_AMPLITUDE));
+        this.feed(silence(1));
+
+        assertEquals(1, mListener.mEndedCount);
+        assertFalse(mDetector.isActive());
+    }
+
+    @Test
+    public void sustainedSteadySound_doesNotHoldActivityForever() {
+        this.feed(this.noise(1, 0));
+        this.feed(this.noise(30, CALL_AMPLITUDE));
+
+        assertEquals(1, mListener.mStartedCount);
+        assertEquals(1, mListener.mEndedCount);
+        assertFalse(mDetector.isActive());
+    }
+
+    @Test
+    public void reset_forgetsActivity() {
+        this.feed(this.noise(1, 0));
+        this.feed(this.noise(1, CALL_AMPLITUDE));
+        assertTrue(mDetector.isActive());
+
+        mDetector.reset();
+        assertFalse(mDetector.isActive());
+        this.feed(this.noise(1, 0));
+        assertEquals(1, mListener.mStartedCount);
+        assertEquals(0, mListener.mEndedCount);
+    }
+}
@@ -0,0 +1,197 @@
+package jonathan.mason.birdcalllibrarian.Analysis;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of SpectrogramEngine, along with Fft and SpectrogramCache, which it relies
+ * upon, executed on the development machine (host).
+ */
+public class SpectrogramEngineTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Source of samples held in memory, counting samples read.
+     */
+    private static class ArrayPcmSource implements PcmSource {
+        private final short[] mSamples;
+        private final int mSampleRate;
+        private long mSamplesRead;
+
+        ArrayPcmSource(short[] samples, int sampleRate) {
+            mSamples = samples;
+            mSampleRate = sampleRate;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return mSampleRate;
+        }
+
+        @Override
+        public long getSampleCount() {
+            return mSamples.length;
+        }
+
+        @Override
+        public int read(long position, short[] buffer, int offset, int count) {
+            int read = (int)Math.max(0, Math.min(count, mSamples.length - position));
+            if (read == 0)
+                return 0;
+            System.arraycopy(mSamples, (int)position, buffer, offset, read);
+            mSamplesRead += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Create full-scale sine wave.
+     * @param frequency Frequency in hertz.
+     * @param sampleRate Sample rate in hertz.
+     * @param count Number of samples.
+     * @return Samples.
+     */
+    private static short[] sine(double frequency, int sampleRate, int count) {
+        short[] samples = new short[count];
+        for (int i = 0; i < count; i++)
+            samples[i] = (short)Math.round(32767 * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+        return samples;
+    }
+
+    @Test
+    public void powerSpectrum_matchesDiscreteFourierTransform() {
+        int size = 64;
+        float[] input = new float[size];
+        for (int i = 0; i < size; i++)
+            input[i] = (float)(Math.sin(i * 0.7) + 0.5 * Math.cos(i * 2.3) + (i % 5) * 0.1);
+
+        float[] power = new float[size / 2 + 1];
+        new Fft(size).powerSpectrum(input, power);
+
+        for (int k = 0; k <= size / 2; k++) {
+            double re = 0;
+            double im = 0;
+            for (int t = 0; t < size; t++) {
+                re += input[t] * Math.cos(2 * Math.PI * k * t / size);
+                im -= input[t] * Math.sin(2 * Math.PI * k * t / size);
+            }
+            double expected = re * re + im * im;
+            assertEquals("bin " + k, expected, power[k], 1e-3 * Math.max(1, expected));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fft_rejectsSizeNotPowerOfTwo() {
+        new Fft(48);
+    }
+
+    @Test
+    public void computeTile_peaksAtBinOfTone() throws Exception {
+        // 1kHz at 8kHz is exactly bin 64 of a 512-point transform.
+        SpectrogramEngine engine = new SpectrogramEngine(512, 256, 16);
+        ArrayPcmSource source = new ArrayPcmSource(sine(1000, 8000, 16000), 8000);
+
+        SpectrogramTile tile = engine.computeTile(source, 2);
+
+        assertEquals(2, tile.getTileIndex());
+        assertEquals(16, tile.getColumnCount());
+        assertEquals(256, tile.getBinCount());
+        for (int column = 0; column < tile.getColumnCount(); column++) {
+            int loudestBin = 0;
+            for (int bin = 1; bin < tile.getBinCount(); bin++) {
+                if (tile.getLevel(column, bin) > tile.getLevel(column, loudestBin))
+                    loudestBin = bin;
+            }
+            assertEquals(64, loudestBin);
+            assertTrue(tile.getLevel(column, 64) > 240);
+            assertTrue(tile.getLevel(column, 200) < 128);
+        }
+    }
+
+    @Test
+    public void computeTile_lastTileIsShorterAndPaddedWithSilence() throws Exception {
+        SpectrogramEngine engine = new SpectrogramEngine(512, 256, 16);
+        ArrayPcmSource source = new ArrayPcmSource(sine(1000, 8000, 256 * 20), 8000);
+
+        assertEquals(20, engine.getColumnCount(source.getSampleCount()));
+        assertEquals(2, engine.getTileCount(source.getSampleCount()));
+        SpectrogramTile tile = engine.computeTile(source, 1);
+        assertEquals(4, tile.getColumnCount());
+
+        // Recording known to be longer than its samples, e.g. from its duration.
+        tile = engine.computeTile(source, 2, 256 * 40);
+        assertEquals(8, tile.getColumnCount());
+        assertEquals(0, tile.getLevel(7, 64));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void computeTile_rejectsTileBeyondEnd() throws Exception {
+        SpectrogramEngine engine = new SpectrogramEngine(512, 256, 16);
+        engine.computeTile(new ArrayPcmSource(new short[256 * 16], 8000), 1);
+    }
+
+    @Test
+    public void cache_keepsTilesOnDiskBeyondMemoryLimit() throws Exception {
+        File directory = mFolder.newFolder();
+        SpectrogramEngine engine = new SpectrogramEngine(512, 256, 16);
+        ArrayPcmSource source = new ArrayPcmSource(sine(2000, 8000, 256 * 64), 8000);
+
+        // Memory holds just one tile.
+        SpectrogramCache cache = new SpectrogramCache(directory, 16 * 256, 1024 * 1024);
+        for (int i = 0; i < 4; i++)
+            cache.put(7, engine.computeTile(source, i));
+        long samplesRead = source.mSamplesRead;
+
+        // Scrolling back finds every tile without recomputing any.
+        for (int i = 3; i >= 0; i--) {
+            SpectrogramTile tile = cache.get(7, i);
+            assertNotNull(tile);
+            assertEquals(i, tile.getTileIndex());
+        }
+        assertNull(cache.get(7, 4));
+        assertNull(cache.get(8, 0));
+        assertEquals(samplesRead, source.mSamplesRead);
+
+        // Tiles on disk outlive cache, e.g. when app is closed.
+        SpectrogramTile expected = engine.computeTile(source, 1);
+        SpectrogramTile actual = new SpectrogramCache(directory, 16 * 256, 1024 * 1024).get(7, 1);
+        assertNotNull(actual);
+        for (int column = 0; column < expected.getColumnCount(); column++) {
+            for (int bin = 0; bin < expected.getBinCount(); bin++)
+                assertEquals(expected.getLevel(column, bin), actual.getLevel(column, bin));
+        }
+
+        // Tiles of deleted birdcall are removed.
+        cache.remove(7);
+        assertNull(cache.get(7, 1));
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void cache_staysWithinDiskLimit() throws Exception {
+        File directory = mFolder.newFolder();
+        SpectrogramEngine engine = new SpectrogramEngine(512, 256, 16);
+        ArrayPcmSource source = new ArrayPcmSource(sine(2000, 8000, 256 * 64), 8000);
+
+        long diskLimit = 3 * (16 * 256 + 64);
+        SpectrogramCache cache = new SpectrogramCache(directory, 0, diskLimit);
+        for (int i = 0; i < 4; i++)
+            cache.put(1, engine.computeTile(source, i));
+
+        long diskBytes = 0;
+        for (File file : directory.listFiles())
+            diskBytes += file.length();
+        assertTrue(diskBytes <= diskLimit);
+        assertNotNull(cache.get(1, 3));
+    }
+}